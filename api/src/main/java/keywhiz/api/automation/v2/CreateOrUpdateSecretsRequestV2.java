@@ -0,0 +1,47 @@
+package keywhiz.api.automation.v2;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Secrets to create, or update if they exist, in bulk. Each secret is also granted to its groups;
+ * existing grants are kept.
+ */
+@AutoValue public abstract class CreateOrUpdateSecretsRequestV2 {
+  CreateOrUpdateSecretsRequestV2() {} // prevent sub-classing
+
+  public static Builder builder() {
+    return new AutoValue_CreateOrUpdateSecretsRequestV2.Builder()
+        .secrets();
+  }
+
+  @AutoValue.Builder public abstract static class Builder {
+    // intended to be package-private
+    abstract Builder secrets(ImmutableList<CreateSecretRequestV2> secrets);
+
+    public Builder secrets(CreateSecretRequestV2... secrets) {
+      return secrets(ImmutableList.copyOf(secrets));
+    }
+
+    public Builder secrets(List<CreateSecretRequestV2> secrets) {
+      return secrets(ImmutableList.copyOf(secrets));
+    }
+
+    public abstract CreateOrUpdateSecretsRequestV2 build();
+  }
+
+  /**
+   * Static factory method used by Jackson for deserialization
+   */
+  @SuppressWarnings("unused")
+  @JsonCreator public static CreateOrUpdateSecretsRequestV2 fromParts(
+      @JsonProperty("secrets") @Nullable List<CreateSecretRequestV2> secrets) {
+    return builder().secrets(secrets == null ? ImmutableList.of() : secrets).build();
+  }
+
+  @JsonProperty("secrets") public abstract ImmutableList<CreateSecretRequestV2> secrets();
+}
@@ -0,0 +1,64 @@
+package keywhiz.api.automation.v2;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of each secret of a {@link CreateOrUpdateSecretsRequestV2}, in request order.
+ */
+@AutoValue public abstract class CreateOrUpdateSecretsResponseV2 {
+  CreateOrUpdateSecretsResponseV2() {} // prevent sub-classing
+
+  public enum Status { CREATED, UPDATED, FAILED }
+
+  public static CreateOrUpdateSecretsResponseV2 of(List<Result> results) {
+    return new AutoValue_CreateOrUpdateSecretsResponseV2(ImmutableList.copyOf(results));
+  }
+
+  /**
+   * Static factory method used by Jackson for deserialization
+   */
+  @SuppressWarnings("unused")
+  @JsonCreator public static CreateOrUpdateSecretsResponseV2 fromParts(
+      @JsonProperty("results") List<Result> results) {
+    return of(results);
+  }
+
+  @JsonProperty("results") public abstract ImmutableList<Result> results();
+
+  @AutoValue public abstract static class Result {
+    Result() {} // prevent sub-classing
+
+    public static Result created(String name) {
+      return new AutoValue_CreateOrUpdateSecretsResponseV2_Result(name, Status.CREATED, null);
+    }
+
+    public static Result updated(String name) {
+      return new AutoValue_CreateOrUpdateSecretsResponseV2_Result(name, Status.UPDATED, null);
+    }
+
+    public static Result failed(String name, String error) {
+      return new AutoValue_CreateOrUpdateSecretsResponseV2_Result(name, Status.FAILED, error);
+    }
+
+    /**
+     * Static factory method used by Jackson for deserialization
+     */
+    @SuppressWarnings("unused")
+    @JsonCreator public static Result fromParts(
+        @JsonProperty("name") String name,
+        @JsonProperty("status") Status status,
+        @JsonProperty("error") @Nullable String error) {
+      return new AutoValue_CreateOrUpdateSecretsResponseV2_Result(name, status, error);
+    }
+
+    @JsonProperty("name") public abstract String name();
+    @JsonProperty("status") public abstract Status status();
+    /** Why the secret was not created or updated; null unless it failed */
+    @JsonProperty("error") @Nullable public abstract String error();
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.api.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.auto.value.AutoValue;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A batch of {@link SanitizedSecret}s, and a cursor that can be used to retrieve the next batch in
+ * a list ordered by creation time. The cursor is null after the last batch.
+ */
+@AutoValue
+public abstract class SanitizedSecretListAndCursor {
+  @JsonCreator public static SanitizedSecretListAndCursor of(
+      @JsonProperty("secrets") List<SanitizedSecret> secrets,
+      @JsonProperty("cursor") @Nullable String cursor) {
+    return new AutoValue_SanitizedSecretListAndCursor(secrets, cursor);
+  }
+
+  @JsonProperty public abstract List<SanitizedSecret> secrets();
+  @JsonProperty @Nullable public abstract String cursor();
+
+  @Nullable public SecretBatchCursor decodedCursor() {
+    return SecretBatchCursor.decode(cursor());
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.api.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auto.value.AutoValue;
+import io.dropwizard.jackson.Jackson;
+import javax.annotation.Nullable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Base64.getUrlDecoder;
+import static java.util.Base64.getUrlEncoder;
+
+/**
+ * A cursor for use when retrieving secrets in batches ordered by creation time, identifying the
+ * last secret of the previous batch. Clients should treat its string form as opaque.
+ */
+@AutoValue
+public abstract class SecretBatchCursor {
+  private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+  @JsonCreator public static SecretBatchCursor of(
+      @JsonProperty("createdAt") long createdAt,
+      @JsonProperty("id") long id) {
+    return new AutoValue_SecretBatchCursor(createdAt, id);
+  }
+
+  /**
+   * @param encoded cursor previously returned by {@link #encode}
+   * @return the decoded cursor, or null if none was given or it is malformed
+   */
+  @Nullable public static SecretBatchCursor decode(@Nullable String encoded) {
+    if (encoded == null) {
+      return null;
+    }
+    try {
+      return MAPPER.readValue(getUrlDecoder().decode(encoded), SecretBatchCursor.class);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /** @return the cursor as a URL-safe string */
+  @Nullable public static String encode(@Nullable SecretBatchCursor cursor)
+      throws JsonProcessingException {
+    if (cursor == null) {
+      return null;
+    }
+    return getUrlEncoder().withoutPadding()
+        .encodeToString(MAPPER.writeValueAsString(cursor).getBytes(UTF_8));
+  }
+
+  @JsonProperty public abstract long createdAt();
+
+  @JsonProperty public abstract long id();
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.api.automation.v2;
+
+import com.google.common.collect.ImmutableList;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Result;
+import org.junit.Test;
+
+import static keywhiz.testing.JsonHelpers.fromJson;
+import static keywhiz.testing.JsonHelpers.jsonFixture;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CreateOrUpdateSecretsResponseV2Test {
+  @Test public void deserializesCorrectly() throws Exception {
+    CreateOrUpdateSecretsResponseV2 response = CreateOrUpdateSecretsResponseV2.of(ImmutableList.of(
+        Result.created("secret-name"),
+        Result.updated("other-secret-name"),
+        Result.failed(".hidden", "names cannot begin with a period")));
+
+    assertThat(fromJson(
+        jsonFixture("fixtures/v2/createOrUpdateSecretsResponse.json"),
+        CreateOrUpdateSecretsResponseV2.class))
+        .isEqualTo(response);
+  }
+}
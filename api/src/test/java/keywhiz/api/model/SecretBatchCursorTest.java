@@ -0,0 +1,30 @@
+package keywhiz.api.model;
+
+import org.junit.Test;
+
+import static keywhiz.testing.JsonHelpers.asJson;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SecretBatchCursorTest {
+  @Test
+  public void serializesCorrectly() throws Exception {
+    SecretBatchCursor cursor = SecretBatchCursor.of(1234567, 89);
+    assertThat(asJson(cursor))
+        .isEqualTo("{\"createdAt\":1234567,\"id\":89}");
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    SecretBatchCursor cursor = SecretBatchCursor.of(1234567, -89);
+    String encoded = SecretBatchCursor.encode(cursor);
+
+    assertThat(encoded).matches("[A-Za-z0-9_-]+");
+    assertThat(SecretBatchCursor.decode(encoded)).isEqualTo(cursor);
+  }
+
+  @Test
+  public void decodesMalformedCursorAsNull() {
+    assertThat(SecretBatchCursor.decode("not a cursor")).isNull();
+    assertThat(SecretBatchCursor.decode(null)).isNull();
+  }
+}
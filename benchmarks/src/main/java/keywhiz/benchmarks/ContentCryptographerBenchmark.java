@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.benchmarks;
+
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import keywhiz.service.crypto.ContentCryptographer;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encryption and decryption of secret content of various sizes, with the BouncyCastle provider
+ * used in production and a warm derived-key cache, as on the secret delivery path. encrypt()
+ * includes the decryption which Encrypter performs to check its own output.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentCryptographerBenchmark {
+  @Param({"100", "1024", "10240", "102400", "1048576"})
+  public int bytes;
+
+  private ContentCryptographer cryptographer;
+  private ContentCryptographer.Encrypter encrypter;
+  private String plaintext;
+  private String ciphertext;
+
+  @Setup(Level.Trial) public void setUp() {
+    Provider provider = new BouncyCastleProvider();
+    if (Security.getProvider(provider.getName()) == null) {
+      Security.addProvider(provider);
+    }
+    cryptographer = new ContentCryptographer(new SecretKeySpec(new byte[16], "AES"), provider,
+        provider, new SecureRandom());
+    encrypter = cryptographer.encryptionKeyDerivedFrom("benchmark-secret");
+
+    byte[] content = new byte[bytes];
+    new SecureRandom().nextBytes(content);
+    plaintext = Base64.getEncoder().encodeToString(content);
+    ciphertext = encrypter.encrypt(plaintext);
+  }
+
+  @Benchmark public String encrypt() {
+    return encrypter.encrypt(plaintext);
+  }
+
+  @Benchmark public String decrypt() {
+    return cryptographer.decrypt(ciphertext);
+  }
+}
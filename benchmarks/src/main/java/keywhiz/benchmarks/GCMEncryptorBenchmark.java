@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.benchmarks;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.AEADBadTagException;
+import keywhiz.auth.cookie.GCMEncryptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Session cookie encryption, which runs on every admin response, and decryption, which runs on
+ * every admin request. encryptConcurrently() shares one encryptor between threads, as the server
+ * does, so any contention shows up as a higher time per operation than encrypt().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GCMEncryptorBenchmark {
+  private static final byte[] COOKIE = ("{\"username\":\"keywhizAdmin\","
+      + "\"expiration\":\"2020-01-01T00:00:00.000Z\"}").getBytes(UTF_8);
+
+  private GCMEncryptor encryptor;
+  private byte[] ciphertext;
+
+  @Setup(Level.Trial) public void setUp() throws AEADBadTagException {
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    encryptor = new GCMEncryptor(key, new SecureRandom());
+    ciphertext = encryptor.encrypt(COOKIE);
+  }
+
+  @Benchmark public byte[] encrypt() throws AEADBadTagException {
+    return encryptor.encrypt(COOKIE);
+  }
+
+  @Benchmark @Threads(4) public byte[] encryptConcurrently() throws AEADBadTagException {
+    return encryptor.encrypt(COOKIE);
+  }
+
+  @Benchmark public byte[] decrypt() throws AEADBadTagException {
+    return encryptor.decrypt(ciphertext);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.benchmarks;
+
+import com.google.inject.Guice;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import javax.crypto.spec.SecretKeySpec;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.crypto.VerifiedRowHmacCache;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serial versus parallel row HMAC verification of an ACL result set, to locate the row count
+ * above which {@link ParallelRowVerifier} pays off. Each row is verified as in
+ * AclDAO.getSanitizedSecretsFor(Client): secrets, clients, memberships and accessgrants row HMACs
+ * through {@link RowHmacGenerator#verifyRowHmac}.
+ *
+ * The crossover is the smallest rows value at which parallel() beats serial(). Run it with
+ * cacheMaxBytes=0, where every row HMAC is computed, and with the default cache, where repeated
+ * requests only look up rows already verified; the latter is the steady state of a server, and
+ * its crossover is what {@link ParallelRowVerifier#DEFAULT_THRESHOLD} should be set from.
+ *
+ * <pre>
+ *   java -jar benchmarks/target/keywhiz-benchmarks-*-shaded.jar ParallelRowVerifierBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelRowVerifierBenchmark {
+  @Param({"16", "64", "128", "256", "1024", "4096"})
+  public int rows;
+
+  @Param({"0", "16777216"})
+  public long cacheMaxBytes;
+
+  private RowHmacGenerator rowHmacGenerator;
+  private List<AclRow> aclRows;
+  private ParallelRowVerifier serial;
+  private ParallelRowVerifier parallel;
+
+  @Setup(Level.Trial) public void setUp() {
+    Provider provider = new BouncyCastleProvider();
+    ContentCryptographer cryptographer = new ContentCryptographer(
+        new SecretKeySpec(new byte[16], "AES"), provider, provider, new SecureRandom());
+    rowHmacGenerator = Guice.createInjector(binder -> {
+      binder.bind(ContentCryptographer.class).toInstance(cryptographer);
+      binder.bind(VerifiedRowHmacCache.class)
+          .toInstance(new VerifiedRowHmacCache(cacheMaxBytes, null));
+    }).getInstance(RowHmacGenerator.class);
+
+    aclRows = LongStream.range(0, rows)
+        .mapToObj(secretId -> new AclRow(rowHmacGenerator, "secret-" + secretId, secretId))
+        .collect(Collectors.toList());
+    serial = ParallelRowVerifier.serial();
+    // Always use a pool, so that even on a single core the cost of dispatching to it shows up.
+    int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+    parallel = new ParallelRowVerifier(parallelism, 0);
+  }
+
+  @TearDown(Level.Trial) public void tearDown() {
+    parallel.stop();
+  }
+
+  @Benchmark public List<Boolean> serial() {
+    return serial.verifyAll(aclRows, row -> row.verify(rowHmacGenerator));
+  }
+
+  @Benchmark public List<Boolean> parallel() {
+    return parallel.verifyAll(aclRows, row -> row.verify(rowHmacGenerator));
+  }
+
+  /** Fields and stored row HMACs of one row of a client's ACL result. */
+  private static class AclRow {
+    private static final String CLIENT_NAME = "client";
+    private static final long CLIENT_ID = 768;
+    private static final long GROUP_ID = 917;
+
+    private final String secretName;
+    private final long secretId;
+    private final String secretHmac;
+    private final String clientHmac;
+    private final String membershipHmac;
+    private final String accessgrantHmac;
+
+    AclRow(RowHmacGenerator rowHmacGenerator, String secretName, long secretId) {
+      this.secretName = secretName;
+      this.secretId = secretId;
+      this.secretHmac = rowHmacGenerator.computeRowHmac("secrets", List.of(secretName, secretId));
+      this.clientHmac =
+          rowHmacGenerator.computeRowHmac("clients", List.of(CLIENT_NAME, CLIENT_ID));
+      this.membershipHmac =
+          rowHmacGenerator.computeRowHmac("memberships", List.of(CLIENT_ID, GROUP_ID));
+      this.accessgrantHmac =
+          rowHmacGenerator.computeRowHmac("accessgrants", List.of(GROUP_ID, secretId));
+    }
+
+    boolean verify(RowHmacGenerator rowHmacGenerator) {
+      return rowHmacGenerator.verifyRowHmac("secrets", secretHmac, List.of(secretName, secretId))
+          & rowHmacGenerator.verifyRowHmac("clients", clientHmac, List.of(CLIENT_NAME, CLIENT_ID))
+          & rowHmacGenerator.verifyRowHmac("memberships", membershipHmac,
+              List.of(CLIENT_ID, GROUP_ID))
+          & rowHmacGenerator.verifyRowHmac("accessgrants", accessgrantHmac,
+              List.of(GROUP_ID, secretId));
+    }
+  }
+}
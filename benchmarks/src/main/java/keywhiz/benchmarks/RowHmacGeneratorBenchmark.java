@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.benchmarks;
+
+import com.google.inject.Guice;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.crypto.VerifiedRowHmacCache;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Row HMACs of typical rows: a secrets row, as verified for every secret in an ACL result, and a
+ * secrets_content row, whose encrypted content dominates the input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowHmacGeneratorBenchmark {
+  private RowHmacGenerator rowHmacGenerator;
+  private List<Object> secretsRow;
+  private List<Object> secretsContentRow;
+
+  @Setup(Level.Trial) public void setUp() {
+    Provider provider = new BouncyCastleProvider();
+    ContentCryptographer cryptographer = new ContentCryptographer(
+        new SecretKeySpec(new byte[16], "AES"), provider, provider, new SecureRandom());
+    rowHmacGenerator = Guice.createInjector(binder -> {
+      binder.bind(ContentCryptographer.class).toInstance(cryptographer);
+      binder.bind(VerifiedRowHmacCache.class).toInstance(VerifiedRowHmacCache.withDefaults());
+    }).getInstance(RowHmacGenerator.class);
+
+    secretsRow = List.of("Database_Password", 7391205628917465L);
+    byte[] content = new byte[1024];
+    new SecureRandom().nextBytes(content);
+    String encryptedContent = cryptographer.encryptionKeyDerivedFrom("Database_Password")
+        .encrypt(Base64.getEncoder().encodeToString(content));
+    secretsContentRow = List.of(encryptedContent, "{\"mode\":\"0400\",\"owner\":\"app\"}",
+        2837465019283746L);
+  }
+
+  @Benchmark public String secretsRow() {
+    return rowHmacGenerator.computeRowHmac("secrets", secretsRow);
+  }
+
+  @Benchmark public String secretsContentRow() {
+    return rowHmacGenerator.computeRowHmac("secrets_content", secretsContentRow);
+  }
+}
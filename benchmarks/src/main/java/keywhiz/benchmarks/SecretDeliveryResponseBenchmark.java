@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.jackson.Jackson;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import keywhiz.api.ApiDate;
+import keywhiz.api.SecretDeliveryResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON serialization of the response to a secret delivery request, for secrets of various sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecretDeliveryResponseBenchmark {
+  @Param({"100", "10240", "1048576"})
+  public int bytes;
+
+  private ObjectMapper mapper;
+  private SecretDeliveryResponse response;
+
+  @Setup(Level.Trial) public void setUp() {
+    mapper = Jackson.newObjectMapper();
+
+    byte[] content = new byte[bytes];
+    new SecureRandom().nextBytes(content);
+    ApiDate now = ApiDate.now();
+    response = new SecretDeliveryResponse("Database_Password",
+        Base64.getEncoder().encodeToString(content), bytes,
+        "5bb9a8d5c02c59d3e27a0d1a1bb3e0f3aed0f4f1a2c3d4e5f60718293a4b5c6d", now, now,
+        ImmutableMap.of("mode", "0400", "owner", "app"));
+  }
+
+  @Benchmark public byte[] serialize() throws JsonProcessingException {
+    return mapper.writeValueAsBytes(response);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.benchmarks;
+
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+import keywhiz.service.providers.XfccHeader;
+import keywhiz.service.providers.XfccHeader.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parsing of X-Forwarded-Client-Cert headers as sent by Envoy, with the client certificate
+ * URL-encoded in the Cert field, for one proxy hop or several.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XfccHeaderBenchmark {
+  @Param({"1", "3"})
+  public int elements;
+
+  private String header;
+
+  @Setup(Level.Trial) public void setUp() throws IOException {
+    String pem = Resources.toString(Resources.getResource("client-spiffe.pem"), UTF_8);
+    String element = "By=spiffe://example.org/keywhiz;"
+        + "Hash=8ce4c0a6c3b4e1d4f2c8a7b6e5d4c3b2a1f0e9d8c7b6a5f4e3d2c1b0a9f8e7d6;"
+        + "Cert=\"" + URLEncoder.encode(pem, UTF_8) + "\";"
+        + "Subject=\"OU=organizational-unit,CN=principal\";"
+        + "URI=spiffe://example.org/principal";
+
+    StringBuilder builder = new StringBuilder(element);
+    for (int i = 1; i < elements; i++) {
+      builder.append(',').append(element);
+    }
+    header = builder.toString();
+  }
+
+  @Benchmark public XfccHeader parse() throws ParseException {
+    return XfccHeader.parse(header);
+  }
+}
@@ -22,6 +22,7 @@ import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.util.Base64;
 import java.util.List;
+import javax.annotation.Nullable;
 import javax.ws.rs.core.HttpHeaders;
 import keywhiz.api.ClientDetailResponse;
 import keywhiz.api.GroupDetailResponse;
@@ -34,6 +35,7 @@ import keywhiz.api.automation.v2.PartialUpdateSecretRequestV2;
 import keywhiz.api.model.Client;
 import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecret;
+import keywhiz.api.model.SanitizedSecretListAndCursor;
 import okhttp3.Call;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
@@ -168,6 +170,27 @@ public class KeywhizClient {
     });
   }
 
+  /**
+   * Retrieves a batch of secrets ordered by creation time. Unlike retrieval by index, each batch
+   * is as fast to retrieve as the first.
+   *
+   * @param cursor the cursor returned with the previous batch, or null for the first batch
+   * @param num the number of secrets to retrieve
+   * @param newestFirst whether to order the secrets with newest first
+   * @return a batch of secrets, and the cursor for the next batch, which is null after the last
+   */
+  public SanitizedSecretListAndCursor allSecretsBatched(@Nullable String cursor, int num,
+      boolean newestFirst) throws IOException {
+    HttpUrl.Builder url = baseUrl.resolve("/admin/secrets").newBuilder()
+        .addQueryParameter("num", Integer.toString(num))
+        .addQueryParameter("newestFirst", Boolean.toString(newestFirst));
+    if (cursor != null) {
+      url.addQueryParameter("cursor", cursor);
+    }
+    String response = httpGet(url.build());
+    return mapper.readValue(response, SanitizedSecretListAndCursor.class);
+  }
+
   public SecretDetailResponse createSecret(String name, String description, byte[] content,
       ImmutableMap<String, String> metadata, long expiry) throws IOException {
     checkArgument(!name.isEmpty());
@@ -46,12 +46,16 @@ import static java.util.Objects.requireNonNull;
  * HKDF is a generic means for generating derived keys. In some cases, you may want to use it in a
  * different manner. Consult the RFC for security considerations, when to omit a salt, skipping the
  * extraction step, etc.
+ *
+ * Instances are thread-safe and are intended to be reused.
  */
 public class Hkdf {
   private static Hash DEFAULT_HASH = Hash.SHA256;
 
   private final Hash hash;
   private final Provider provider;
+  // Mac.getInstance performs a synchronized provider lookup, so instances are reused per thread.
+  private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
 
   private Hkdf(Hash hash, Provider provider) {
     this.hash = hash;
@@ -172,19 +176,23 @@ public class Hkdf {
   }
 
   private Mac initMac(SecretKey key) {
-    Mac mac;
+    Mac mac = macs.get();
     try {
-      if (provider != null) {
-        mac = Mac.getInstance(hash.getAlgorithm(), provider);
-      } else {
-        mac = Mac.getInstance(hash.getAlgorithm());
-      }
       mac.init(key);
       return mac;
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
     } catch (InvalidKeyException e) {
       throw new IllegalArgumentException(e);
     }
   }
+
+  private Mac newMac() {
+    try {
+      if (provider != null) {
+        return Mac.getInstance(hash.getAlgorithm(), provider);
+      }
+      return Mac.getInstance(hash.getAlgorithm());
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -17,6 +17,7 @@ package keywhiz;
 
 import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
 import io.dropwizard.Configuration;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.db.ManagedDataSource;
@@ -32,6 +33,13 @@ import keywhiz.auth.cookie.CookieConfig;
 import keywhiz.service.config.ClientAuthConfig;
 import keywhiz.service.config.KeyStoreConfig;
 import keywhiz.service.config.Templates;
+import keywhiz.service.crypto.DerivedKeyCache;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.PlaintextCache;
+import keywhiz.service.crypto.VerifiedRowHmacCache;
+import keywhiz.service.daos.ClientCache;
+import keywhiz.service.daos.SecretController;
+import keywhiz.service.providers.XfccCertificateCache;
 import org.hibernate.validator.constraints.Length;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -77,6 +85,16 @@ public class KeywhizConfig extends Configuration {
   @JsonProperty
   private KeyStoreConfig contentKeyStore;
 
+  @Valid
+  @JsonProperty
+  private Map<String, KeyStoreConfig> rotatedContentKeyStores;
+
+  @JsonProperty
+  private String activeContentKeyId;
+
+  @JsonProperty
+  private boolean writeContentEnvelopes;
+
   @NotNull
   @JsonProperty
   private String derivationProviderClass = "com.sun.crypto.provider.SunJCE";
@@ -90,6 +108,78 @@ public class KeywhizConfig extends Configuration {
   @JsonProperty
   private String rowHmacCheck;
 
+  @JsonProperty
+  private Long derivedKeyCacheMaxEntries;
+
+  @JsonProperty
+  private String derivedKeyCacheExpiry;
+
+  @JsonProperty
+  private Long verifiedRowHmacCacheMaxBytes;
+
+  @JsonProperty
+  private Long plaintextCacheMaxBytes;
+
+  @JsonProperty
+  private String plaintextCacheExpiry;
+
+  @JsonProperty
+  private Long clientCacheMaxEntries;
+
+  @JsonProperty
+  private String clientCacheExpiry;
+
+  @JsonProperty
+  private Long xfccCertificateCacheMaxEntries;
+
+  @JsonProperty
+  private Integer rowHmacVerificationParallelism;
+
+  @JsonProperty
+  private Integer maxSecretBatchSize;
+
+  @JsonProperty
+  private Integer rowHmacVerificationParallelThreshold;
+
+  @JsonProperty
+  private String aclSnapshotRefreshInterval;
+
+  @JsonProperty
+  private String aclSnapshotMaxAge;
+
+  @JsonProperty
+  private String changeLogPollInterval;
+
+  @JsonProperty
+  private String changeLogRetention;
+
+  @JsonProperty
+  private String lastSeenFlushInterval;
+
+  @JsonProperty
+  private Integer secretImportParallelism;
+
+  @JsonProperty
+  private Integer maxSecretImportSize;
+
+  @JsonProperty
+  private Integer pruneCutoffItems;
+
+  @JsonProperty
+  private Integer pruneCutoffDays;
+
+  @JsonProperty
+  private String pruneInterval;
+
+  @JsonProperty
+  private Integer pruneBatchSize;
+
+  @JsonProperty
+  private Double pruneMaxRowsPerSecond;
+
+  @JsonProperty
+  private Integer pruneMaxQueuedSecrets;
+
   @JsonProperty
   private String flywaySchemaTable;
 
@@ -185,6 +275,27 @@ public class KeywhizConfig extends Configuration {
     return contentKeyStore;
   }
 
+  /** @return keystores of content keys other than the base key, by key id */
+  public Map<String, KeyStoreConfig> getRotatedContentKeyStores() {
+    if (rotatedContentKeyStores == null) {
+      return ImmutableMap.of();
+    }
+    return rotatedContentKeyStores;
+  }
+
+  /** @return id of the content key new content is encrypted under, or null for the base key */
+  @Nullable public String getActiveContentKeyId() {
+    if ((activeContentKeyId == null) || (activeContentKeyId.isEmpty())) {
+      return null;
+    }
+    return activeContentKeyId;
+  }
+
+  /** @return whether new content is written as an envelope rather than legacy JSON */
+  public boolean getWriteContentEnvelopes() {
+    return writeContentEnvelopes;
+  }
+
   public String getDerivationProviderClass() {
     return derivationProviderClass;
   }
@@ -211,6 +322,186 @@ public class KeywhizConfig extends Configuration {
     }
   }
 
+  /**
+   * @return maximum number of derived content keys to cache. Zero disables caching.
+   */
+  public long getDerivedKeyCacheMaxEntries() {
+    if (derivedKeyCacheMaxEntries == null) {
+      return DerivedKeyCache.DEFAULT_MAX_ENTRIES;
+    }
+    return derivedKeyCacheMaxEntries;
+  }
+
+  public Duration getDerivedKeyCacheExpiry() {
+    if ((derivedKeyCacheExpiry == null) || (derivedKeyCacheExpiry.isEmpty())) {
+      return DerivedKeyCache.DEFAULT_EXPIRY;
+    }
+    return Duration.parse(derivedKeyCacheExpiry);
+  }
+
+  public long getVerifiedRowHmacCacheMaxBytes() {
+    if (verifiedRowHmacCacheMaxBytes == null) {
+      return VerifiedRowHmacCache.DEFAULT_MAX_BYTES;
+    }
+    return verifiedRowHmacCacheMaxBytes;
+  }
+
+  public long getPlaintextCacheMaxBytes() {
+    if (plaintextCacheMaxBytes == null) {
+      return 0;
+    }
+    return plaintextCacheMaxBytes;
+  }
+
+  public Duration getPlaintextCacheExpiry() {
+    if ((plaintextCacheExpiry == null) || (plaintextCacheExpiry.isEmpty())) {
+      return PlaintextCache.DEFAULT_EXPIRY;
+    }
+    return Duration.parse(plaintextCacheExpiry);
+  }
+
+  public long getClientCacheMaxEntries() {
+    if (clientCacheMaxEntries == null) {
+      return ClientCache.DEFAULT_MAX_ENTRIES;
+    }
+    return clientCacheMaxEntries;
+  }
+
+  public Duration getClientCacheExpiry() {
+    if ((clientCacheExpiry == null) || (clientCacheExpiry.isEmpty())) {
+      return Duration.ZERO;
+    }
+    return Duration.parse(clientCacheExpiry);
+  }
+
+  public long getXfccCertificateCacheMaxEntries() {
+    if (xfccCertificateCacheMaxEntries == null) {
+      return XfccCertificateCache.DEFAULT_MAX_ENTRIES;
+    }
+    return xfccCertificateCacheMaxEntries;
+  }
+
+  public int getMaxSecretBatchSize() {
+    if (maxSecretBatchSize == null) {
+      return SecretController.DEFAULT_MAX_BATCH_SIZE;
+    }
+    return maxSecretBatchSize;
+  }
+
+  public Duration getAclSnapshotRefreshInterval() {
+    if ((aclSnapshotRefreshInterval == null) || (aclSnapshotRefreshInterval.isEmpty())) {
+      return Duration.ZERO;
+    }
+    return Duration.parse(aclSnapshotRefreshInterval);
+  }
+
+  public Duration getAclSnapshotMaxAge() {
+    if ((aclSnapshotMaxAge == null) || (aclSnapshotMaxAge.isEmpty())) {
+      return getAclSnapshotRefreshInterval().multipliedBy(3);
+    }
+    return Duration.parse(aclSnapshotMaxAge);
+  }
+
+  /**
+   * @return time between polls of the change log; by default, one second if any cache it
+   * invalidates is enabled, and zero, which disables polling, otherwise
+   */
+  public Duration getChangeLogPollInterval() {
+    if ((changeLogPollInterval == null) || (changeLogPollInterval.isEmpty())) {
+      boolean cachesEnabled = getPlaintextCacheMaxBytes() > 0
+          || !getClientCacheExpiry().isZero()
+          || !getAclSnapshotRefreshInterval().isZero();
+      return cachesEnabled ? Duration.ofSeconds(1) : Duration.ZERO;
+    }
+    return Duration.parse(changeLogPollInterval);
+  }
+
+  public Duration getChangeLogRetention() {
+    if ((changeLogRetention == null) || (changeLogRetention.isEmpty())) {
+      return Duration.ofDays(1);
+    }
+    return Duration.parse(changeLogRetention);
+  }
+
+  public Duration getLastSeenFlushInterval() {
+    if ((lastSeenFlushInterval == null) || (lastSeenFlushInterval.isEmpty())) {
+      return Duration.ofSeconds(10);
+    }
+    return Duration.parse(lastSeenFlushInterval);
+  }
+
+  public int getRowHmacVerificationParallelism() {
+    if (rowHmacVerificationParallelism == null) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    return rowHmacVerificationParallelism;
+  }
+
+  public int getRowHmacVerificationParallelThreshold() {
+    if (rowHmacVerificationParallelThreshold == null) {
+      return ParallelRowVerifier.DEFAULT_THRESHOLD;
+    }
+    return rowHmacVerificationParallelThreshold;
+  }
+
+  public int getSecretImportParallelism() {
+    if (secretImportParallelism == null) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    return secretImportParallelism;
+  }
+
+  public int getMaxSecretImportSize() {
+    if (maxSecretImportSize == null) {
+      return 10000;
+    }
+    return maxSecretImportSize;
+  }
+
+  /** Number of old contents of a secret kept around before pruning. */
+  public int getPruneCutoffItems() {
+    if (pruneCutoffItems == null) {
+      return 10;
+    }
+    return pruneCutoffItems;
+  }
+
+  /** Age in days after which old, unreferenced contents of a secret are pruned. */
+  public int getPruneCutoffDays() {
+    if (pruneCutoffDays == null) {
+      return 15;
+    }
+    return pruneCutoffDays;
+  }
+
+  public Duration getPruneInterval() {
+    if ((pruneInterval == null) || (pruneInterval.isEmpty())) {
+      return Duration.ofSeconds(10);
+    }
+    return Duration.parse(pruneInterval);
+  }
+
+  public int getPruneBatchSize() {
+    if (pruneBatchSize == null) {
+      return 500;
+    }
+    return pruneBatchSize;
+  }
+
+  public double getPruneMaxRowsPerSecond() {
+    if (pruneMaxRowsPerSecond == null) {
+      return 1000;
+    }
+    return pruneMaxRowsPerSecond;
+  }
+
+  public int getPruneMaxQueuedSecrets() {
+    if (pruneMaxQueuedSecrets == null) {
+      return 100000;
+    }
+    return pruneMaxQueuedSecrets;
+  }
+
   public String getFlywaySchemaTable() {
     if (flywaySchemaTable == null) {
       return "schema_version";
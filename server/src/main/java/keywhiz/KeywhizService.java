@@ -35,6 +35,8 @@ import keywhiz.commands.DropDeletedSecretsCommand;
 import keywhiz.commands.GenerateAesKeyCommand;
 import keywhiz.commands.MigrateCommand;
 import keywhiz.commands.PreviewMigrateCommand;
+import keywhiz.commands.RotateContentKeyCommand;
+import keywhiz.service.daos.ChangeLogPoller;
 import keywhiz.service.filters.CookieRenewingFilter;
 import keywhiz.service.filters.SecurityHeadersFilter;
 import keywhiz.service.providers.AuthResolver;
@@ -57,6 +59,7 @@ import keywhiz.service.resources.automation.AutomationEnrollClientGroupResource;
 import keywhiz.service.resources.automation.AutomationGroupResource;
 import keywhiz.service.resources.automation.AutomationSecretAccessResource;
 import keywhiz.service.resources.automation.AutomationSecretResource;
+import keywhiz.service.resources.automation.v2.BackfillContentEnvelopeResource;
 import keywhiz.service.resources.automation.v2.BackfillRowHmacResource;
 import keywhiz.service.resources.automation.v2.BackupResource;
 import keywhiz.service.resources.automation.v2.ClientResource;
@@ -106,6 +109,7 @@ public class KeywhizService extends Application<KeywhizConfig> {
     bootstrap.addCommand(new GenerateAesKeyCommand());
     bootstrap.addCommand(new AddUserCommand());
     bootstrap.addCommand(new DropDeletedSecretsCommand());
+    bootstrap.addCommand(new RotateContentKeyCommand());
   }
 
   @SuppressWarnings("unchecked")
@@ -132,6 +136,7 @@ public class KeywhizService extends Application<KeywhizConfig> {
         injector.getInstance(UserAuthFactory.class)));
 
     logger.debug("Registering resources");
+    jersey.register(injector.getInstance(BackfillContentEnvelopeResource.class));
     jersey.register(injector.getInstance(BackfillRowHmacResource.class));
     jersey.register(injector.getInstance(ClientResource.class));
     jersey.register(injector.getInstance(ClientsResource.class));
@@ -154,6 +159,10 @@ public class KeywhizService extends Application<KeywhizConfig> {
     jersey.register(injector.getInstance(BackupResource.class));
     jersey.register(injector.getInstance(BatchSecretDeliveryResource.class));
 
+    logger.debug("Starting change log poller");
+    // Nothing depends on the poller, so it is only created, and managed, when requested here
+    injector.getInstance(ChangeLogPoller.class);
+
     ManualStatusHealthCheck mshc = new ManualStatusHealthCheck();
     environment.healthChecks().register("manualStatus", mshc);
     environment.admin().addServlet("manualStatus", new ManualStatusServlet(mshc)).addMapping("/status/*");
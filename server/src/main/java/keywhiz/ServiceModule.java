@@ -37,10 +37,24 @@ import keywhiz.log.SimpleLogger;
 import keywhiz.service.config.Readonly;
 import keywhiz.service.crypto.ContentCryptographer;
 import keywhiz.service.crypto.CryptoModule;
+import keywhiz.service.crypto.DerivedKeyCache;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.PlaintextCache;
+import keywhiz.service.crypto.RowHmacGenerator;
 import keywhiz.service.crypto.SecretTransformer;
+import keywhiz.service.crypto.VerifiedRowHmacCache;
 import keywhiz.service.daos.AclDAO.AclDAOFactory;
+import keywhiz.service.daos.AclSnapshot;
+import keywhiz.service.daos.ChangeLogPoller;
+import keywhiz.service.daos.ClientCache;
+import keywhiz.service.daos.ContentPruner;
+import keywhiz.service.daos.LastSeenAggregator;
+import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
 import keywhiz.service.daos.SecretController;
 import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
+import keywhiz.service.daos.SecretImporter;
+import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
+import keywhiz.service.providers.XfccCertificateCache;
 import keywhiz.utility.DSLContexts;
 import org.jooq.DSLContext;
 import org.jooq.impl.DefaultTransactionProvider;
@@ -65,7 +79,9 @@ public class ServiceModule extends AbstractModule {
     bind(Clock.class).toInstance(Clock.systemUTC());
 
     install(new CookieModule(config.getCookieKey()));
-    install(new CryptoModule(config.getDerivationProviderClass(), config.getContentKeyStore()));
+    install(new CryptoModule(config.getDerivationProviderClass(), config.getContentKeyStore(),
+        config.getRotatedContentKeyStores(), config.getActiveContentKeyId(),
+        config.getWriteContentEnvelopes()));
 
     bind(CookieConfig.class).annotatedWith(SessionCookie.class)
         .toInstance(config.getSessionCookieConfig());
@@ -108,6 +124,96 @@ public class ServiceModule extends AbstractModule {
     return dataSource;
   }
 
+  @Provides @Singleton DerivedKeyCache derivedKeyCache(Environment environment,
+      KeywhizConfig config) {
+    return new DerivedKeyCache(config.getDerivedKeyCacheMaxEntries(),
+        config.getDerivedKeyCacheExpiry(), environment.metrics());
+  }
+
+  @Provides @Singleton VerifiedRowHmacCache verifiedRowHmacCache(Environment environment,
+      KeywhizConfig config) {
+    return new VerifiedRowHmacCache(config.getVerifiedRowHmacCacheMaxBytes(),
+        environment.metrics());
+  }
+
+  @Provides @Singleton PlaintextCache plaintextCache(Environment environment,
+      KeywhizConfig config) {
+    return new PlaintextCache(config.getPlaintextCacheMaxBytes(), config.getPlaintextCacheExpiry(),
+        environment.metrics());
+  }
+
+  @Provides @Singleton ClientCache clientCache(Environment environment, KeywhizConfig config) {
+    return new ClientCache(config.getClientCacheMaxEntries(), config.getClientCacheExpiry(),
+        environment.metrics());
+  }
+
+  @Provides @Singleton XfccCertificateCache xfccCertificateCache(Environment environment,
+      KeywhizConfig config) {
+    return new XfccCertificateCache(config.getXfccCertificateCacheMaxEntries(),
+        environment.metrics());
+  }
+
+  @Provides @Singleton ParallelRowVerifier parallelRowVerifier(Environment environment,
+      KeywhizConfig config) {
+    ParallelRowVerifier verifier = new ParallelRowVerifier(
+        config.getRowHmacVerificationParallelism(),
+        config.getRowHmacVerificationParallelThreshold());
+    environment.lifecycle().manage(verifier);
+    return verifier;
+  }
+
+  @Provides @Singleton AclSnapshot aclSnapshot(Environment environment, KeywhizConfig config,
+      DSLContext jooq, @Readonly DSLContext readonlyJooq, RowHmacGenerator rowHmacGenerator,
+      ParallelRowVerifier rowVerifier) {
+    AclSnapshot snapshot = new AclSnapshot(jooq, readonlyJooq, rowHmacGenerator, rowVerifier,
+        config.getRowHmacCheck() != KeywhizConfig.RowHmacCheck.DISABLED,
+        config.getAclSnapshotRefreshInterval(), config.getAclSnapshotMaxAge(),
+        environment.metrics());
+    environment.lifecycle().manage(snapshot);
+    return snapshot;
+  }
+
+  @Provides @Singleton ChangeLogPoller changeLogPoller(Environment environment,
+      KeywhizConfig config, DSLContext jooq, @Readonly DSLContext readonlyJooq,
+      PlaintextCache plaintextCache, AclSnapshot aclSnapshot, ClientCache clientCache) {
+    ChangeLogPoller poller = new ChangeLogPoller(jooq, readonlyJooq, plaintextCache, aclSnapshot,
+        clientCache, config.getChangeLogPollInterval(), config.getChangeLogRetention(),
+        environment.metrics());
+    environment.lifecycle().manage(poller);
+    return poller;
+  }
+
+  @Provides @Singleton LastSeenAggregator lastSeenAggregator(Environment environment,
+      KeywhizConfig config, DSLContext jooq) {
+    LastSeenAggregator aggregator = new LastSeenAggregator(jooq,
+        config.getLastSeenFlushInterval(), environment.metrics());
+    environment.lifecycle().manage(aggregator);
+    return aggregator;
+  }
+
+  @Provides @Singleton ContentPruner contentPruner(Environment environment,
+      KeywhizConfig config, DSLContext jooq) {
+    ContentPruner pruner = new ContentPruner(jooq, config.getPruneCutoffItems(),
+        config.getPruneCutoffDays(), config.getPruneInterval(), config.getPruneBatchSize(),
+        config.getPruneMaxRowsPerSecond(), config.getPruneMaxQueuedSecrets(),
+        environment.metrics());
+    environment.lifecycle().manage(pruner);
+    return pruner;
+  }
+
+  @Provides @Singleton SecretImporter secretImporter(Environment environment,
+      KeywhizConfig config, DSLContext jooq, SecretSeriesDAOFactory secretSeriesDAOFactory,
+      SecretContentDAOFactory secretContentDAOFactory, AclDAOFactory aclDAOFactory,
+      ContentCryptographer cryptographer, PlaintextCache plaintextCache,
+      ContentPruner contentPruner) {
+    SecretImporter importer = new SecretImporter(jooq, secretSeriesDAOFactory,
+        secretContentDAOFactory, aclDAOFactory, cryptographer, plaintextCache, contentPruner,
+        config.getSecretImportParallelism(), config.getMaxSecretImportSize(),
+        environment.metrics());
+    environment.lifecycle().manage(importer);
+    return importer;
+  }
+
   @Provides ObjectMapper configuredObjectMapper(Environment environment) {
     return environment.getObjectMapper();
   }
@@ -129,24 +235,26 @@ public class ServiceModule extends AbstractModule {
     return dslContext;
   }
 
-  @Provides @Singleton SecretController secretController(SecretTransformer transformer,
-      ContentCryptographer cryptographer, SecretDAOFactory secretDAOFactory,
-      AclDAOFactory aclDAOFactory) {
+  @Provides @Singleton SecretController secretController(Environment environment,
+      KeywhizConfig config, SecretTransformer transformer, ContentCryptographer cryptographer,
+      SecretDAOFactory secretDAOFactory, AclDAOFactory aclDAOFactory) {
     return new SecretController(transformer, cryptographer, secretDAOFactory.readwrite(),
-        aclDAOFactory.readwrite());
+        aclDAOFactory.readwrite(), config.getMaxSecretBatchSize(), environment.metrics());
   }
 
   @Provides @Singleton
-  @Readonly SecretController readonlySecretController(SecretTransformer transformer,
-      ContentCryptographer cryptographer, SecretDAOFactory secretDAOFactory,
-      AclDAOFactory aclDAOFactory) {
-    return new SecretController(transformer, cryptographer, secretDAOFactory.readonly(),
-        aclDAOFactory.readonly());
+  @Readonly SecretController readonlySecretController(Environment environment,
+      KeywhizConfig config, ContentCryptographer cryptographer, PlaintextCache plaintextCache,
+      SecretDAOFactory secretDAOFactory, AclDAOFactory aclDAOFactory) {
+    // Only the readonly controller, which serves secret delivery, caches plaintext.
+    return new SecretController(new SecretTransformer(cryptographer, plaintextCache),
+        cryptographer, secretDAOFactory.readonly(), aclDAOFactory.readonly(),
+        config.getMaxSecretBatchSize(), environment.metrics());
   }
 
   @Provides @Singleton
-  @Readonly Authenticator<BasicCredentials, User> authenticator(KeywhizConfig config,
-      @Readonly DSLContext jooqContext) {
-    return config.getUserAuthenticatorFactory().build(jooqContext);
+  @Readonly Authenticator<BasicCredentials, User> authenticator(Environment environment,
+      KeywhizConfig config, @Readonly DSLContext jooqContext) {
+    return config.getUserAuthenticatorFactory().build(jooqContext, environment);
   }
 }
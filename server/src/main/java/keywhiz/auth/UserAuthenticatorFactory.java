@@ -16,11 +16,13 @@
 
 package keywhiz.auth;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.google.auto.service.AutoService;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
 import io.dropwizard.jackson.Discoverable;
+import io.dropwizard.setup.Environment;
 import org.jooq.DSLContext;
 
 @AutoService(Discoverable.class)
@@ -32,4 +34,27 @@ public interface UserAuthenticatorFactory extends Discoverable {
    * @return an authenticator from credentials to a user
    */
   Authenticator<BasicCredentials, User> build(DSLContext dslContext);
+
+  /**
+   * Builds an authenticator which may report metrics.
+   * @param dslContext context for the credential storage
+   * @param metrics registry for authenticator metrics
+   * @return an authenticator from credentials to a user
+   */
+  default Authenticator<BasicCredentials, User> build(DSLContext dslContext,
+      MetricRegistry metrics) {
+    return build(dslContext);
+  }
+
+  /**
+   * Builds an authenticator which may report metrics and hold resources, such as connections,
+   * that are released when the service stops.
+   * @param dslContext context for the credential storage
+   * @param environment environment to register metrics and managed resources with
+   * @return an authenticator from credentials to a user
+   */
+  default Authenticator<BasicCredentials, User> build(DSLContext dslContext,
+      Environment environment) {
+    return build(dslContext, environment.metrics());
+  }
 }
@@ -16,25 +16,77 @@
 
 package keywhiz.auth.bcrypt;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.ServiceUnavailableException;
 import keywhiz.auth.User;
 import keywhiz.service.daos.UserDAO;
 import org.mindrot.jbcrypt.BCrypt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Authenticates users against bcrypt password hashes stored in the database.
+ *
+ * Passwords are verified on a small dedicated pool of threads rather than on request threads, so
+ * that a burst of logins cannot tie up the threads serving secrets. Once the pool is busy and its
+ * queue is full, further logins are turned away with a 503.
+ */
 public class BcryptAuthenticator implements Authenticator<BasicCredentials, User> {
   private static final Logger logger = LoggerFactory.getLogger(BcryptAuthenticator.class);
 
+  public static final int DEFAULT_THREADS = 2;
+  public static final int DEFAULT_QUEUE_SIZE = 32;
+
+  // Cost factor of hashes created by hashPassword
+  private static final int LOG_ROUNDS = 10;
+
+  // Checked against when a user has no hash, so that unknown users cost the same bcrypt work as
+  // known ones. Computed once, at the same cost factor as real hashes.
+  private static final String FAKE_HASH = hashPassword("");
+
   private final UserDAO userDAO;
+  private final ExecutorService executor;
+  private final Timer queueWaits;
+  private final Timer verifications;
 
   public BcryptAuthenticator(UserDAO userDAO) {
+    this(userDAO, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, new MetricRegistry());
+  }
+
+  /**
+   * @param threads number of threads verifying passwords
+   * @param queueSize maximum number of logins waiting for a thread, beyond which they are rejected
+   * @param metrics registry for queue wait and verification timings
+   */
+  public BcryptAuthenticator(UserDAO userDAO, int threads, int queueSize,
+      MetricRegistry metrics) {
+    this(userDAO, newExecutor(threads, queueSize), metrics);
+  }
+
+  @VisibleForTesting BcryptAuthenticator(UserDAO userDAO, ExecutorService executor,
+      MetricRegistry metrics) {
     this.userDAO = checkNotNull(userDAO);
+    this.executor = checkNotNull(executor);
+    this.queueWaits = metrics.timer(name(BcryptAuthenticator.class, "queue-wait"));
+    this.verifications = metrics.timer(name(BcryptAuthenticator.class, "verify"));
   }
 
   @Override public Optional<User> authenticate(BasicCredentials credentials)
@@ -49,7 +101,7 @@ public class BcryptAuthenticator implements Authenticator<BasicCredentials, User
     // Get hashed password column from BCrypt table by username & verify hash against plaintext
     String password = credentials.getPassword();
     Optional<String> optionalHashedPwForUser = userDAO.getHashedPassword(username);
-    if (checkPassword(password, optionalHashedPwForUser)) {
+    if (verify(password, optionalHashedPwForUser)) {
       user = User.named(username);
     }
 
@@ -62,7 +114,35 @@ public class BcryptAuthenticator implements Authenticator<BasicCredentials, User
    * @return the hash of this password
    */
   public static String hashPassword(String password) {
-    return BCrypt.hashpw(password, BCrypt.gensalt());
+    return BCrypt.hashpw(password, BCrypt.gensalt(LOG_ROUNDS));
+  }
+
+  /** Checks the password on the bcrypt executor, waiting for the result. */
+  private boolean verify(String password, Optional<String> hash)
+      throws AuthenticationException {
+    Timer.Context queueWait = queueWaits.time();
+    Future<Boolean> result;
+    try {
+      result = executor.submit(() -> {
+        queueWait.stop();
+        try (Timer.Context ignored = verifications.time()) {
+          return checkPassword(password, hash);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      logger.warn("Too many logins waiting for password verification, rejecting login");
+      throw new ServiceUnavailableException();
+    }
+
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new AuthenticationException(e);
+    } catch (ExecutionException e) {
+      throw new AuthenticationException(e.getCause());
+    }
   }
 
   /**
@@ -76,8 +156,17 @@ public class BcryptAuthenticator implements Authenticator<BasicCredentials, User
     // a user is present in the database. In order to do this we pass a fake bcrypt hash into the
     // checkpw function so we do the work of checking a hash even if there was no user present
     // in the database. We return true iff there was a user/hash present *and* hash was valid.
-    String fakeHash = hashPassword("");
-    boolean valid = BCrypt.checkpw(password, hash.orElse(fakeHash));
+    boolean valid = BCrypt.checkpw(password, hash.orElse(FAKE_HASH));
     return hash.isPresent() && valid;
   }
+
+  private static ExecutorService newExecutor(int threads, int queueSize) {
+    checkArgument(threads > 0, "threads must be positive");
+    checkArgument(queueSize > 0, "queueSize must be positive");
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueSize), new ThreadFactoryBuilder()
+            .setNameFormat("bcrypt-%d")
+            .setDaemon(true)
+            .build());
+  }
 }
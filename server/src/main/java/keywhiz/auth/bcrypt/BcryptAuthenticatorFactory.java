@@ -16,10 +16,12 @@
 
 package keywhiz.auth.bcrypt;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.google.auto.service.AutoService;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
+import javax.validation.constraints.Min;
 import keywhiz.auth.User;
 import keywhiz.auth.UserAuthenticatorFactory;
 import keywhiz.service.daos.UserDAO;
@@ -34,9 +36,29 @@ import org.slf4j.LoggerFactory;
 public class BcryptAuthenticatorFactory implements UserAuthenticatorFactory {
   private static final Logger logger = LoggerFactory.getLogger(BcryptAuthenticatorFactory.class);
 
+  /** Threads verifying passwords, and the most logins which may wait for one. */
+  @Min(value = 1)
+  private int threads = BcryptAuthenticator.DEFAULT_THREADS;
+
+  @Min(value = 1)
+  private int queueSize = BcryptAuthenticator.DEFAULT_QUEUE_SIZE;
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
   @Override public Authenticator<BasicCredentials, User> build(DSLContext dslContext) {
+    return build(dslContext, new MetricRegistry());
+  }
+
+  @Override public Authenticator<BasicCredentials, User> build(DSLContext dslContext,
+      MetricRegistry metrics) {
     logger.debug("Creating BCrypt authenticator");
     UserDAO userDAO = new UserDAO(dslContext);
-    return new BcryptAuthenticator(userDAO);
+    return new BcryptAuthenticator(userDAO, getThreads(), getQueueSize(), metrics);
   }
 }
@@ -17,8 +17,10 @@ package keywhiz.auth.cookie;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import io.dropwizard.setup.Environment;
 import java.security.SecureRandom;
 import java.util.Base64;
+import javax.inject.Singleton;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -29,8 +31,9 @@ public class CookieModule extends AbstractModule {
     this.cookieKey = checkNotNull(cookieKey);
   }
 
-  @Provides GCMEncryptor gcmEncryptor(SecureRandom secureRandom) {
+  @Provides @Singleton GCMEncryptor gcmEncryptor(SecureRandom secureRandom,
+      Environment environment) {
     byte[] cookieBytes = Base64.getDecoder().decode(cookieKey);
-    return new GCMEncryptor(cookieBytes, secureRandom);
+    return new GCMEncryptor(cookieBytes, secureRandom, environment.metrics());
   }
 }
@@ -15,9 +15,12 @@
  */
 package keywhiz.auth.cookie;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.primitives.Bytes;
+import java.security.DrbgParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -27,18 +30,24 @@ import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import keywhiz.service.crypto.CryptoPrimitives;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
 import static javax.crypto.Cipher.DECRYPT_MODE;
 import static javax.crypto.Cipher.ENCRYPT_MODE;
 
 /**
  * Encrypt data using an AES key, GCM mode
+ *
+ * Safe for concurrent use without locking: each thread encrypts with its own cipher and draws
+ * nonces from its own DRBG, personalized once from the provided {@link SecureRandom}. Nonces are
+ * 96 bits drawn independently at random, so they stay unique with overwhelming probability for
+ * far more messages than a cookie key encrypts.
  */
 public class GCMEncryptor {
   private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding";
@@ -47,9 +56,16 @@ public class GCMEncryptor {
   private static final boolean ENCRYPT = true;
   private static final boolean DECRYPT = false;
   private static final int NONCE_LENGTH = 12;
+  private static final int SEED_LENGTH = 32;
+
+  private final SecretKeySpec key;
+  private final ThreadLocal<Cipher> ciphers;
+  private final ThreadLocal<SecureRandom> nonceRandoms;
 
-  private final byte[] key;
-  private final SecureRandom secureRandom;
+  private final Timer encryptions;
+  private final Timer decryptions;
+  private final Timer nonceGenerations;
+  private final Timer cipherInits;
 
   /**
    * Creates new encryptor.
@@ -58,20 +74,61 @@ public class GCMEncryptor {
    * @param secureRandom source of strong randomness.
    */
   public GCMEncryptor(byte[] key, SecureRandom secureRandom) {
-    checkArgument(key.length >= 16, "GCM key expected to be 128-bits or greater.");
-    this.key = Arrays.copyOf(key, key.length);
-    this.secureRandom = checkNotNull(secureRandom);
+    this(key, secureRandom, new MetricRegistry());
   }
 
-  public synchronized byte[] encrypt(byte[] plaintext) throws AEADBadTagException {
-    byte[] nonce = new byte[NONCE_LENGTH];
-    secureRandom.nextBytes(nonce);
+  /**
+   * Creates new encryptor.
+   *
+   * @param key key of at least 128-bits.
+   * @param secureRandom source of strong randomness, used to seed per-thread nonce generators.
+   * @param metrics registry for encryption and decryption timings, including the time spent
+   * generating nonces and initializing ciphers, where contention between threads would show.
+   */
+  public GCMEncryptor(byte[] key, SecureRandom secureRandom, MetricRegistry metrics) {
+    checkArgument(key.length >= 16, "GCM key expected to be 128-bits or greater.");
+    checkNotNull(secureRandom);
+    this.key = new SecretKeySpec(Arrays.copyOf(key, key.length), KEY_ALGORITHM);
+
+    this.encryptions = metrics.timer(name(GCMEncryptor.class, "encrypt"));
+    this.decryptions = metrics.timer(name(GCMEncryptor.class, "decrypt"));
+    this.nonceGenerations = metrics.timer(name(GCMEncryptor.class, "nonce"));
+    this.cipherInits = metrics.timer(name(GCMEncryptor.class, "cipher-init"));
 
-    return Bytes.concat(nonce, gcm(ENCRYPT, plaintext, nonce));
+    this.ciphers = CryptoPrimitives.threadLocalCipher(ENCRYPTION_ALGORITHM, null);
+    this.nonceRandoms = ThreadLocal.withInitial(() -> {
+      // SecureRandom is thread-safe but may serialize callers, so it only personalizes each
+      // thread's DRBG. Unlike NativePRNG, DRBG instances share no state across threads.
+      byte[] personalization = new byte[SEED_LENGTH];
+      secureRandom.nextBytes(personalization);
+      try {
+        return SecureRandom.getInstance("DRBG",
+            DrbgParameters.instantiation(256, RESEED_ONLY, personalization));
+      } catch (NoSuchAlgorithmException e) {
+        throw Throwables.propagate(e);
+      }
+    });
+  }
+
+  public byte[] encrypt(byte[] plaintext) throws AEADBadTagException {
+    try (Timer.Context ignored = encryptions.time()) {
+      byte[] nonce = nextNonce();
+      return Bytes.concat(nonce, gcm(ENCRYPT, plaintext, nonce));
+    }
   }
 
   public byte[] decrypt(byte[] ciphertext) throws AEADBadTagException {
-    return gcm(DECRYPT, ciphertextWithoutNonce(ciphertext), getNonce(ciphertext));
+    try (Timer.Context ignored = decryptions.time()) {
+      return gcm(DECRYPT, ciphertextWithoutNonce(ciphertext), getNonce(ciphertext));
+    }
+  }
+
+  private byte[] nextNonce() {
+    try (Timer.Context ignored = nonceGenerations.time()) {
+      byte[] nonce = new byte[NONCE_LENGTH];
+      nonceRandoms.get().nextBytes(nonce);
+      return nonce;
+    }
   }
 
   @VisibleForTesting
@@ -85,13 +142,13 @@ public class GCMEncryptor {
 
   private byte[] gcm(boolean encrypt, byte[] input, byte[] nonce) throws AEADBadTagException {
     try {
-      Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-      SecretKey secretKey = new SecretKeySpec(key, KEY_ALGORITHM);
-
+      Cipher cipher = ciphers.get();
       GCMParameterSpec gcmParameters = new GCMParameterSpec(TAG_BITS, nonce);
-      cipher.init(encrypt ? ENCRYPT_MODE : DECRYPT_MODE, secretKey, gcmParameters);
+      try (Timer.Context ignored = cipherInits.time()) {
+        cipher.init(encrypt ? ENCRYPT_MODE : DECRYPT_MODE, key, gcmParameters);
+      }
       return cipher.doFinal(input);
-    } catch (NoSuchAlgorithmException | NoSuchPaddingException | BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException e) {
+    } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException e) {
       Throwables.propagateIfInstanceOf(e, AEADBadTagException.class);
       throw Throwables.propagate(e);
     }
@@ -17,9 +17,12 @@ package keywhiz.auth.ldap;
 
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.unboundid.ldap.sdk.Filter;
-import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
 import com.unboundid.ldap.sdk.LDAPException;
 import com.unboundid.ldap.sdk.ResultCode;
 import com.unboundid.ldap.sdk.SearchRequest;
@@ -29,8 +32,10 @@ import com.unboundid.ldap.sdk.SearchScope;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.ws.rs.ForbiddenException;
 import keywhiz.auth.User;
 import org.bouncycastle.asn1.x500.RDN;
@@ -40,15 +45,43 @@ import org.bouncycastle.asn1.x500.style.IETFUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Authenticates users against LDAP. Users are looked up, and their passwords checked, on pooled
+ * connections bound as the service account (see {@link LdapConnectionFactory}). DN and role
+ * lookups may be cached, in which case role changes, including revocations, take up to the cache
+ * expiry to apply; passwords are always checked.
+ */
 public class LdapAuthenticator implements Authenticator<BasicCredentials, User> {
   private static final Logger logger = LoggerFactory.getLogger(LdapAuthenticator.class);
 
   private final LdapConnectionFactory connectionFactory;
   private final LdapLookupConfig config;
+  private final boolean cacheLookups;
+  private final Cache<String, String> dnsByUsername;
+  private final Cache<String, ImmutableSet<String>> rolesByDN;
 
   public LdapAuthenticator(LdapConnectionFactory connectionFactory, LdapLookupConfig config) {
+    this(connectionFactory, config, Duration.ZERO, 0);
+  }
+
+  /**
+   * @param lookupCacheExpiry time after which cached DN and role lookups expire; zero disables
+   * caching
+   * @param lookupCacheMaxEntries maximum number of users whose DN, and roles, are cached
+   */
+  public LdapAuthenticator(LdapConnectionFactory connectionFactory, LdapLookupConfig config,
+      Duration lookupCacheExpiry, long lookupCacheMaxEntries) {
     this.connectionFactory = connectionFactory;
     this.config = config;
+    this.cacheLookups = !lookupCacheExpiry.isZero() && lookupCacheMaxEntries > 0;
+    this.dnsByUsername = CacheBuilder.newBuilder()
+        .maximumSize(lookupCacheMaxEntries)
+        .expireAfterWrite(lookupCacheExpiry.toMillis(), TimeUnit.MILLISECONDS)
+        .build();
+    this.rolesByDN = CacheBuilder.newBuilder()
+        .maximumSize(lookupCacheMaxEntries)
+        .expireAfterWrite(lookupCacheExpiry.toMillis(), TimeUnit.MILLISECONDS)
+        .build();
   }
 
   @Override
@@ -62,7 +95,6 @@ public class LdapAuthenticator implements Authenticator<BasicCredentials, User>
         return Optional.empty();
       }
 
-      String userDN = dnFromUsername(username);
       String password = credentials.getPassword();
 
       // Must have password for current config
@@ -71,12 +103,16 @@ public class LdapAuthenticator implements Authenticator<BasicCredentials, User>
         return Optional.empty();
       }
 
-      LDAPConnection authenticatedConnection = connectionFactory.getLDAPConnection(userDN, password);
-      authenticatedConnection.close();
+      LDAPConnectionPool connectionPool = connectionFactory.getServiceAccountPool();
+      String userDN = dnFromUsername(connectionPool, username);
+
+      // Checks the password on a pooled connection, which is bound as the service account again
+      // before it is returned to the pool
+      connectionPool.bindAndRevertAuthentication(userDN, password);
 
       Set<String> requiredRoles = config.getRequiredRoles();
       if (!requiredRoles.isEmpty()) {
-        Set<String> roles = rolesFromDN(userDN);
+        Set<String> roles = rolesFromDN(connectionPool, userDN);
 
         boolean accessAllowed = false;
         for (String requiredRole : requiredRoles) {
@@ -106,48 +142,59 @@ public class LdapAuthenticator implements Authenticator<BasicCredentials, User>
     return Optional.ofNullable(user);
   }
 
-  private String dnFromUsername(String username) throws LDAPException, GeneralSecurityException {
+  private String dnFromUsername(LDAPConnectionPool connectionPool, String username)
+      throws LDAPException {
+    String cached = cacheLookups ? dnsByUsername.getIfPresent(username) : null;
+    if (cached != null) {
+      return cached;
+    }
+
     String baseDN = config.getUserBaseDN();
     String lookup = String.format("(%s=%s)", config.getUserAttribute(), username);
     SearchRequest searchRequest = new SearchRequest(baseDN, SearchScope.SUB, lookup);
 
-    LDAPConnection connection = connectionFactory.getLDAPConnection();
-    try {
-      SearchResult sr = connection.search(searchRequest);
+    SearchResult sr = connectionPool.search(searchRequest);
 
-      if (sr.getEntryCount() == 0) {
-        throw new LDAPException(ResultCode.INVALID_CREDENTIALS);
-      }
+    // Unknown users are not cached, so that new users can log in right away
+    if (sr.getEntryCount() == 0) {
+      throw new LDAPException(ResultCode.INVALID_CREDENTIALS);
+    }
 
-      return sr.getSearchEntries().get(0).getDN();
-    } finally {
-      connection.close();
+    String userDN = sr.getSearchEntries().get(0).getDN();
+    if (cacheLookups) {
+      dnsByUsername.put(username, userDN);
     }
+    return userDN;
   }
 
-  private Set<String> rolesFromDN(String userDN) throws LDAPException, GeneralSecurityException {
+  private Set<String> rolesFromDN(LDAPConnectionPool connectionPool, String userDN)
+      throws LDAPException {
+    ImmutableSet<String> cached = cacheLookups ? rolesByDN.getIfPresent(userDN) : null;
+    if (cached != null) {
+      return cached;
+    }
+
     SearchRequest searchRequest = new SearchRequest(config.getRoleBaseDN(),
         SearchScope.SUB, Filter.createEqualityFilter("uniqueMember", userDN));
     Set<String> roles = Sets.newLinkedHashSet();
 
-    LDAPConnection connection = connectionFactory.getLDAPConnection();
-    try {
-      SearchResult sr = connection.search(searchRequest);
-
-      for (SearchResultEntry sre : sr.getSearchEntries()) {
-        X500Name x500Name = new X500Name(sre.getDN());
-        RDN[] rdns = x500Name.getRDNs(BCStyle.CN);
-        if (rdns.length == 0) {
-          logger.error("Could not create X500 Name for role:" + sre.getDN());
-        } else {
-          String commonName = IETFUtils.valueToString(rdns[0].getFirst().getValue());
-          roles.add(commonName);
-        }
+    SearchResult sr = connectionPool.search(searchRequest);
+
+    for (SearchResultEntry sre : sr.getSearchEntries()) {
+      X500Name x500Name = new X500Name(sre.getDN());
+      RDN[] rdns = x500Name.getRDNs(BCStyle.CN);
+      if (rdns.length == 0) {
+        logger.error("Could not create X500 Name for role:" + sre.getDN());
+      } else {
+        String commonName = IETFUtils.valueToString(rdns[0].getFirst().getValue());
+        roles.add(commonName);
       }
-    } finally {
-      connection.close();
     }
 
-    return roles;
+    ImmutableSet<String> result = ImmutableSet.copyOf(roles);
+    if (cacheLookups) {
+      rolesByDN.put(userDN, result);
+    }
+    return result;
   }
 }
@@ -20,7 +20,9 @@ import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.google.auto.service.AutoService;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.setup.Environment;
 import java.io.IOException;
+import java.time.Duration;
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
@@ -72,6 +74,26 @@ public class LdapAuthenticatorFactory implements UserAuthenticatorFactory {
   @NotEmpty
   private String trustStoreType;
 
+  /** Service account connections opened with the pool, and the most it may hold. */
+  @Min(value = 1)
+  private int initialConnections = 1;
+
+  @Min(value = 1)
+  private int maxConnections = 10;
+
+  /** ISO-8601 duration between health checks of idle pooled connections. */
+  private String healthCheckInterval = "PT1M";
+
+  /**
+   * ISO-8601 duration for which user DN and role lookups are cached. Caching saves two searches
+   * per login, but a user removed from a required role keeps access until their cached roles
+   * expire, so it is disabled (PT0S) by default; keep any expiry short, such as PT30S.
+   */
+  private String lookupCacheExpiry = "PT0S";
+
+  @Min(value = 0)
+  private long lookupCacheMaxEntries = 1000;
+
   public String getServer() {
     return server;
   }
@@ -109,14 +131,50 @@ public class LdapAuthenticatorFactory implements UserAuthenticatorFactory {
     return lookup;
   }
 
+  public int getInitialConnections() {
+    return initialConnections;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public Duration getHealthCheckInterval() {
+    return Duration.parse(healthCheckInterval);
+  }
+
+  public Duration getLookupCacheExpiry() {
+    return Duration.parse(lookupCacheExpiry);
+  }
+
+  public long getLookupCacheMaxEntries() {
+    return lookupCacheMaxEntries;
+  }
+
   // TODO: Ldap takes a DSLContext but doesn't use it. We could remove this dependency. Not sure
   // it really matters since we need a DSLContext for all the other data.
   // https://github.com/square/keywhiz/issues/39
   @Override public Authenticator<BasicCredentials, User> build(DSLContext dslContext) {
+    return build(connectionFactory());
+  }
+
+  /** Closes the service account connection pool when the service stops. */
+  @Override public Authenticator<BasicCredentials, User> build(DSLContext dslContext,
+      Environment environment) {
+    LdapConnectionFactory connectionFactory = connectionFactory();
+    environment.lifecycle().manage(connectionFactory);
+    return build(connectionFactory);
+  }
+
+  private LdapConnectionFactory connectionFactory() {
+    return new LdapConnectionFactory(getServer(), getPort(), getUserDN(), getPassword(),
+        getTrustStorePath(), getTrustStorePassword(), getTrustStoreType(),
+        getInitialConnections(), getMaxConnections(), getHealthCheckInterval());
+  }
+
+  private Authenticator<BasicCredentials, User> build(LdapConnectionFactory connectionFactory) {
     logger.debug("Creating LDAP authenticator");
-    LdapConnectionFactory connectionFactory =
-        new LdapConnectionFactory(getServer(), getPort(), getUserDN(), getPassword(),
-            getTrustStorePath(), getTrustStorePassword(), getTrustStoreType());
-    return new LdapAuthenticator(connectionFactory, getLookup());
+    return new LdapAuthenticator(connectionFactory, getLookup(), getLookupCacheExpiry(),
+        getLookupCacheMaxEntries());
   }
 }
@@ -15,16 +15,32 @@
  */
 package keywhiz.auth.ldap;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.unboundid.ldap.sdk.GetEntryLDAPConnectionPoolHealthCheck;
 import com.unboundid.ldap.sdk.LDAPConnection;
 import com.unboundid.ldap.sdk.LDAPConnectionOptions;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
 import com.unboundid.ldap.sdk.LDAPException;
 import com.unboundid.util.ssl.HostNameSSLSocketVerifier;
 import com.unboundid.util.ssl.SSLUtil;
 import com.unboundid.util.ssl.TrustStoreTrustManager;
+import io.dropwizard.lifecycle.Managed;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
+import javax.annotation.Nullable;
 import javax.net.SocketFactory;
 
-public class LdapConnectionFactory {
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Connects to LDAP over TLS. The socket factory is built once, and connections bound as the
+ * service account are pooled (see {@link #getServiceAccountPool}), so that looking users up does
+ * not open a new TLS connection each time. Stopping closes the pool.
+ */
+public class LdapConnectionFactory implements Managed {
+  // Time after which a pooled connection failing its health check is considered unusable
+  private static final long HEALTH_CHECK_MAX_RESPONSE_MILLIS = 5_000;
+
   private final String server;
   private final int port;
   private final String userDN;
@@ -32,8 +48,29 @@ public class LdapConnectionFactory {
   private final String trustStorePath;
   private final String trustStorePassword;
   private final String trustStoreType;
+  private final int initialConnections;
+  private final int maxConnections;
+  private final Duration healthCheckInterval;
+
+  @Nullable private SocketFactory socketFactory;
+  @Nullable private LDAPConnectionPool serviceAccountPool;
 
   public LdapConnectionFactory(String server, int port, String userDN, String password, String trustStorePath, String trustStorePassword, String trustStoreType) {
+    this(server, port, userDN, password, trustStorePath, trustStorePassword, trustStoreType, 1, 10,
+        Duration.ofMinutes(1));
+  }
+
+  /**
+   * @param initialConnections number of service account connections opened with the pool
+   * @param maxConnections maximum number of pooled service account connections
+   * @param healthCheckInterval time between health checks of idle pooled connections
+   */
+  public LdapConnectionFactory(String server, int port, String userDN, String password,
+      String trustStorePath, String trustStorePassword, String trustStoreType,
+      int initialConnections, int maxConnections, Duration healthCheckInterval) {
+    checkArgument(initialConnections > 0, "initialConnections must be positive");
+    checkArgument(maxConnections >= initialConnections,
+        "maxConnections must be at least initialConnections");
     this.server = server;
     this.port = port;
     this.userDN = userDN;
@@ -41,6 +78,17 @@ public class LdapConnectionFactory {
     this.trustStorePath = trustStorePath;
     this.trustStorePassword = trustStorePassword;
     this.trustStoreType = trustStoreType;
+    this.initialConnections = initialConnections;
+    this.maxConnections = maxConnections;
+    this.healthCheckInterval = healthCheckInterval;
+  }
+
+  /** Connects through the given socket factory instead of one built from the trust store. */
+  @VisibleForTesting LdapConnectionFactory(String server, int port, String userDN, String password,
+      SocketFactory socketFactory, int initialConnections, int maxConnections) {
+    this(server, port, userDN, password, null, null, null, initialConnections, maxConnections,
+        Duration.ofMinutes(1));
+    this.socketFactory = socketFactory;
   }
 
   public LDAPConnection getLDAPConnection() throws LDAPException, GeneralSecurityException {
@@ -49,12 +97,9 @@ public class LdapConnectionFactory {
 
   public LDAPConnection getLDAPConnection(String userDN, String password)
       throws LDAPException, GeneralSecurityException {
-    TrustStoreTrustManager trust = new TrustStoreTrustManager(trustStorePath, trustStorePassword.toCharArray(), trustStoreType, false);
     LDAPConnectionOptions options = new LDAPConnectionOptions();
     options.setSSLSocketVerifier(new HostNameSSLSocketVerifier(false));
-    SSLUtil sslUtil = new SSLUtil(trust);
-    SocketFactory factory = new EndpointIdentificationSocketFactory(sslUtil.createSSLSocketFactory("TLSv1.2"));
-    LDAPConnection ldapConnection = new LDAPConnection(factory, options);
+    LDAPConnection ldapConnection = new LDAPConnection(socketFactory(), options);
 
     // Connect, retrieve the DN of the user (if any)
     ldapConnection.connect(server, port);
@@ -62,4 +107,41 @@ public class LdapConnectionFactory {
 
     return ldapConnection;
   }
+
+  /**
+   * Returns the pool of connections bound as the service account, creating it on first use. Idle
+   * connections are health checked in the background, and operations failing on a broken
+   * connection are retried once on a new one.
+   */
+  public synchronized LDAPConnectionPool getServiceAccountPool()
+      throws LDAPException, GeneralSecurityException {
+    if (serviceAccountPool == null || serviceAccountPool.isClosed()) {
+      LDAPConnectionPool pool = new LDAPConnectionPool(getLDAPConnection(), initialConnections,
+          maxConnections);
+      pool.setConnectionPoolName("keywhiz-ldap");
+      pool.setHealthCheck(new GetEntryLDAPConnectionPoolHealthCheck(null,
+          HEALTH_CHECK_MAX_RESPONSE_MILLIS, false, false, false, false, true, true));
+      pool.setHealthCheckIntervalMillis(healthCheckInterval.toMillis());
+      pool.setRetryFailedOperationsDueToInvalidConnections(true);
+      serviceAccountPool = pool;
+    }
+    return serviceAccountPool;
+  }
+
+  @Override public void start() {}
+
+  @Override public synchronized void stop() {
+    if (serviceAccountPool != null) {
+      serviceAccountPool.close();
+    }
+  }
+
+  private synchronized SocketFactory socketFactory() throws GeneralSecurityException {
+    if (socketFactory == null) {
+      TrustStoreTrustManager trust = new TrustStoreTrustManager(trustStorePath, trustStorePassword.toCharArray(), trustStoreType, false);
+      SSLUtil sslUtil = new SSLUtil(trust);
+      socketFactory = new EndpointIdentificationSocketFactory(sslUtil.createSSLSocketFactory("TLSv1.2"));
+    }
+    return socketFactory;
+  }
 }
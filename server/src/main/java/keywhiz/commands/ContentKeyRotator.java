@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.commands;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import keywhiz.jooq.tables.records.ContentKeyRotationsRecord;
+import keywhiz.jooq.tables.records.SecretsContentRecord;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.RowHmacGenerator;
+import org.jooq.BatchBindStep;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.stream.Collectors.toList;
+import static keywhiz.jooq.tables.ContentKeyRotations.CONTENT_KEY_ROTATIONS;
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
+
+/**
+ * Re-encrypts all secrets content under the active content key.
+ *
+ * Rows are read in pages by id, re-encrypted on a pool of worker threads, and written back with
+ * a single batched statement per page, in the same transaction as the checkpoint recording the
+ * last id examined. An interrupted rotation therefore resumes after the last committed page.
+ * Rows already under the active key are left alone, as are rows whose row_hmac does not verify.
+ * Updates are conditional on the row_hmac read, so a row changed concurrently is never
+ * overwritten.
+ */
+public class ContentKeyRotator {
+  private static final Logger logger = LoggerFactory.getLogger(ContentKeyRotator.class);
+
+  private final DSLContext jooq;
+  private final ContentCryptographer cryptographer;
+  private final RowHmacGenerator rowHmacGenerator;
+  private final int batchSize;
+  private final int threads;
+  @Nullable private final RateLimiter rateLimiter;
+
+  private final Meter rotated;
+  private final Meter alreadyRotated;
+  private final Meter skipped;
+  private final Timer pages;
+
+  /**
+   * @param batchSize number of rows to read, re-encrypt and write back at a time
+   * @param threads number of threads re-encrypting rows
+   * @param maxRowsPerSecond maximum rate at which rows are examined, or 0 for no limit
+   */
+  public ContentKeyRotator(DSLContext jooq, ContentCryptographer cryptographer,
+      RowHmacGenerator rowHmacGenerator, MetricRegistry metrics, int batchSize, int threads,
+      double maxRowsPerSecond) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    checkArgument(threads > 0, "threads must be positive");
+    checkArgument(maxRowsPerSecond >= 0, "maxRowsPerSecond must be nonnegative");
+    this.jooq = jooq;
+    this.cryptographer = cryptographer;
+    this.rowHmacGenerator = rowHmacGenerator;
+    this.batchSize = batchSize;
+    this.threads = threads;
+    this.rateLimiter = (maxRowsPerSecond == 0) ? null : RateLimiter.create(maxRowsPerSecond);
+
+    this.rotated = metrics.meter(name(ContentKeyRotator.class, "rotated"));
+    this.alreadyRotated = metrics.meter(name(ContentKeyRotator.class, "already-rotated"));
+    this.skipped = metrics.meter(name(ContentKeyRotator.class, "skipped"));
+    this.pages = metrics.timer(name(ContentKeyRotator.class, "pages"));
+  }
+
+  /**
+   * @param restart whether to ignore any checkpoint and start from the first row
+   * @return the checkpoint once every row has been examined
+   * @throws InterruptedException if interrupted; progress up to the last page is kept
+   */
+  public ContentKeyRotationsRecord rotate(boolean restart) throws InterruptedException {
+    String keyId = cryptographer.activeKeyId();
+    ContentKeyRotationsRecord checkpoint = restart ? null : fetchCheckpoint(keyId);
+    if (checkpoint == null) {
+      checkpoint = startCheckpoint(keyId);
+    }
+    long cursor = checkpoint.getCursorid();
+    logger.info("rotate-content-key: rotating to key '{}' from id {}", keyId, cursor);
+
+    ExecutorService workers = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("content-key-rotation-%d").setDaemon(true).build());
+    try {
+      while (true) {
+        Result<SecretsContentRecord> page = jooq.selectFrom(SECRETS_CONTENT)
+            .where(SECRETS_CONTENT.ID.greaterThan(cursor))
+            .orderBy(SECRETS_CONTENT.ID)
+            .limit(batchSize)
+            .fetch();
+        if (page.isEmpty()) {
+          break;
+        }
+        if (rateLimiter != null) {
+          rateLimiter.acquire(page.size());
+        }
+
+        try (Timer.Context ignored = pages.time()) {
+          cursor = page.get(page.size() - 1).getId();
+          checkpoint = rotatePage(workers, page, checkpoint, cursor);
+        }
+        logger.info("rotate-content-key: rotated {} and skipped {} rows up to id {}",
+            checkpoint.getRotated(), checkpoint.getSkipped(), cursor);
+      }
+    } finally {
+      workers.shutdownNow();
+      workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    checkpoint.setCompletedat(OffsetDateTime.now().toEpochSecond());
+    checkpoint.attach(jooq.configuration());
+    checkpoint.update();
+    return checkpoint;
+  }
+
+  private ContentKeyRotationsRecord rotatePage(ExecutorService workers,
+      List<SecretsContentRecord> page, ContentKeyRotationsRecord checkpoint, long cursor)
+      throws InterruptedException {
+    List<Future<List<Rewrite>>> futures = new ArrayList<>(threads);
+    for (List<SecretsContentRecord> rows : Lists.partition(page,
+        (page.size() + threads - 1) / threads)) {
+      futures.add(workers.submit(() -> reencrypt(rows)));
+    }
+
+    List<Rewrite> rewrites = new ArrayList<>(page.size());
+    for (Future<List<Rewrite>> future : futures) {
+      try {
+        rewrites.addAll(future.get());
+      } catch (ExecutionException e) {
+        // Stop without advancing the checkpoint, e.g. when content is under an unknown key.
+        throw new IllegalStateException("Error re-encrypting secrets content", e.getCause());
+      }
+    }
+
+    int[] counts = jooq.transactionResult(configuration -> {
+      DSLContext transaction = DSL.using(configuration);
+      int rotatedRows = 0;
+      int skippedRows = 0;
+      List<Rewrite> updates = rewrites.stream().filter(r -> r.encryptedContent != null)
+          .collect(toList());
+      if (!updates.isEmpty()) {
+        BatchBindStep batch = transaction.batch(transaction.update(SECRETS_CONTENT)
+            .set(SECRETS_CONTENT.ENCRYPTED_CONTENT, (String) null)
+            .set(SECRETS_CONTENT.ROW_HMAC, (String) null)
+            .where(SECRETS_CONTENT.ID.eq((Long) null))
+            .and(SECRETS_CONTENT.ROW_HMAC.eq((String) null)));
+        for (Rewrite update : updates) {
+          batch.bind(update.encryptedContent, update.rowHmac, update.id, update.oldRowHmac);
+        }
+        for (int count : batch.execute()) {
+          // Zero rows updated means the row changed since it was read.
+          if (count == 0) {
+            skippedRows++;
+          } else {
+            rotatedRows++;
+          }
+        }
+      }
+      skippedRows += rewrites.size() - updates.size();
+
+      transaction.update(CONTENT_KEY_ROTATIONS)
+          .set(CONTENT_KEY_ROTATIONS.CURSORID, cursor)
+          .set(CONTENT_KEY_ROTATIONS.ROTATED, CONTENT_KEY_ROTATIONS.ROTATED.plus(rotatedRows))
+          .set(CONTENT_KEY_ROTATIONS.SKIPPED, CONTENT_KEY_ROTATIONS.SKIPPED.plus(skippedRows))
+          .set(CONTENT_KEY_ROTATIONS.UPDATEDAT, OffsetDateTime.now().toEpochSecond())
+          .where(CONTENT_KEY_ROTATIONS.KEYID.eq(checkpoint.getKeyid()))
+          .execute();
+      return new int[] {rotatedRows, skippedRows};
+    });
+
+    rotated.mark(counts[0]);
+    skipped.mark(counts[1]);
+    return fetchCheckpoint(checkpoint.getKeyid());
+  }
+
+  /** @return rewrites of rows not yet under the active key, with no content for skipped rows */
+  private List<Rewrite> reencrypt(List<SecretsContentRecord> rows) {
+    List<Rewrite> rewrites = new ArrayList<>(rows.size());
+    for (SecretsContentRecord row : rows) {
+      if (cryptographer.isUnderActiveKey(row.getEncryptedContent())) {
+        alreadyRotated.mark();
+        continue;
+      }
+
+      boolean rowHmacValid = rowHmacGenerator.rowHmac(SECRETS_CONTENT.getName())
+          .field(row.getEncryptedContent())
+          .field(row.getMetadata())
+          .field(row.getId())
+          .verify(row.getRowHmac());
+      if (!rowHmacValid) {
+        logger.warn("rotate-content-key: skipping secretContent {} with invalid row_hmac",
+            row.getId());
+        rewrites.add(new Rewrite(row.getId(), null, null, row.getRowHmac()));
+        continue;
+      }
+
+      String encryptedContent = cryptographer.reencrypt(row.getEncryptedContent());
+      String rowHmac = rowHmacGenerator.computeRowHmac(SECRETS_CONTENT.getName(),
+          List.of(encryptedContent, row.getMetadata(), row.getId()));
+      rewrites.add(new Rewrite(row.getId(), encryptedContent, rowHmac, row.getRowHmac()));
+    }
+    return rewrites;
+  }
+
+  @Nullable private ContentKeyRotationsRecord fetchCheckpoint(String keyId) {
+    return jooq.fetchOne(CONTENT_KEY_ROTATIONS, CONTENT_KEY_ROTATIONS.KEYID.eq(keyId));
+  }
+
+  private ContentKeyRotationsRecord startCheckpoint(String keyId) {
+    long now = OffsetDateTime.now().toEpochSecond();
+    jooq.deleteFrom(CONTENT_KEY_ROTATIONS).where(CONTENT_KEY_ROTATIONS.KEYID.eq(keyId)).execute();
+    jooq.insertInto(CONTENT_KEY_ROTATIONS)
+        .set(CONTENT_KEY_ROTATIONS.KEYID, keyId)
+        .set(CONTENT_KEY_ROTATIONS.CURSORID, 0L)
+        .set(CONTENT_KEY_ROTATIONS.CREATEDAT, now)
+        .set(CONTENT_KEY_ROTATIONS.UPDATEDAT, now)
+        .execute();
+    return fetchCheckpoint(keyId);
+  }
+
+  private static final class Rewrite {
+    final long id;
+    @Nullable final String encryptedContent;
+    @Nullable final String rowHmac;
+    final String oldRowHmac;
+
+    Rewrite(long id, @Nullable String encryptedContent, @Nullable String rowHmac,
+        String oldRowHmac) {
+      this.id = id;
+      this.encryptedContent = encryptedContent;
+      this.rowHmac = rowHmac;
+      this.oldRowHmac = oldRowHmac;
+    }
+  }
+}
@@ -9,6 +9,9 @@ import java.sql.SQLException;
 import java.util.Scanner;
 import javax.sql.DataSource;
 import keywhiz.KeywhizConfig;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.PlaintextCache;
+import keywhiz.service.daos.ContentPruner;
 import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
 import keywhiz.service.daos.SecretContentMapper;
 import keywhiz.service.daos.SecretDAO;
@@ -154,6 +157,8 @@ public class DropDeletedSecretsCommand extends ConfiguredCommand<KeywhizConfig>
         bootstrap.getObjectMapper(),
         new SecretContentMapper(bootstrap.getObjectMapper()),
         null,
+        ParallelRowVerifier.serial(),
+        ContentPruner.disabled(),
         null
     );
 
@@ -162,7 +167,8 @@ public class DropDeletedSecretsCommand extends ConfiguredCommand<KeywhizConfig>
         dslContext,
         bootstrap.getObjectMapper(),
         new SecretSeriesMapper(bootstrap.getObjectMapper()),
-        null
+        null,
+        PlaintextCache.disabled()
     );
 
     return new SecretDAO(
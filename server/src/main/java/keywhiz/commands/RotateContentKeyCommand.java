@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.commands;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Slf4jReporter;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import keywhiz.KeywhizConfig;
+import keywhiz.jooq.tables.records.ContentKeyRotationsRecord;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.CryptoModule;
+import keywhiz.service.crypto.DerivedKeyCache;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.crypto.VerifiedRowHmacCache;
+import keywhiz.utility.DSLContexts;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.jooq.DSLContext;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-encrypts all secrets content under the key named by activeContentKeyId, after a new key has
+ * been added to rotatedContentKeyStores. Every server must already be configured with the new key,
+ * since content becomes unreadable to servers without it as soon as it is re-encrypted.
+ *
+ * Progress is checkpointed in the database, so the command may be interrupted and re-run.
+ */
+public class RotateContentKeyCommand extends ConfiguredCommand<KeywhizConfig> {
+  protected static final String INPUT_BATCH_SIZE = "batch-size";
+  protected static final String INPUT_THREADS = "threads";
+  protected static final String INPUT_MAX_ROWS_PER_SECOND = "max-rows-per-second";
+  protected static final String INPUT_RESTART = "restart";
+
+  public RotateContentKeyCommand() {
+    super("rotate-content-key", "Re-encrypts secrets content under the active content key");
+  }
+
+  @Override public void configure(Subparser subparser) {
+    // Necessary to retain the positional config-file argument
+    super.configure(subparser);
+
+    subparser.addArgument("--batch-size")
+        .dest(INPUT_BATCH_SIZE)
+        .type(Integer.class)
+        .setDefault(500)
+        .help("how many rows to re-encrypt and write back per transaction");
+
+    subparser.addArgument("--threads")
+        .dest(INPUT_THREADS)
+        .type(Integer.class)
+        .setDefault(Runtime.getRuntime().availableProcessors())
+        .help("how many threads to re-encrypt rows on");
+
+    subparser.addArgument("--max-rows-per-second")
+        .dest(INPUT_MAX_ROWS_PER_SECOND)
+        .type(Double.class)
+        .setDefault(0.0)
+        .help("maximum rate to examine rows at, to limit load on the database; 0 for no limit");
+
+    subparser.addArgument("--restart")
+        .dest(INPUT_RESTART)
+        .action(Arguments.storeTrue())
+        .help("ignore any checkpoint and examine every row again");
+  }
+
+  @Override public void run(Bootstrap<KeywhizConfig> bootstrap, Namespace namespace,
+      KeywhizConfig config) throws Exception {
+    int batchSize = namespace.getInt(INPUT_BATCH_SIZE);
+    int threads = namespace.getInt(INPUT_THREADS);
+    double maxRowsPerSecond = namespace.getDouble(INPUT_MAX_ROWS_PER_SECOND);
+    if (batchSize <= 0 || threads <= 0 || maxRowsPerSecond < 0) {
+      System.out.println("Batch size and threads must be positive, and the rate nonnegative");
+      return;
+    }
+
+    MetricRegistry metrics = new MetricRegistry();
+    DataSource dataSource = config.getDataSourceFactory()
+        .build(metrics, "rotate-content-key-datasource");
+    DSLContext dslContext = DSLContexts.databaseAgnostic(dataSource);
+
+    Injector injector = Guice.createInjector(
+        new CryptoModule(config.getDerivationProviderClass(), config.getContentKeyStore(),
+            config.getRotatedContentKeyStores(), config.getActiveContentKeyId(),
+            config.getWriteContentEnvelopes()),
+        binder -> {
+          binder.bind(DerivedKeyCache.class).toInstance(DerivedKeyCache.withDefaults());
+          binder.bind(VerifiedRowHmacCache.class).toInstance(VerifiedRowHmacCache.withDefaults());
+        });
+
+    ContentKeyRotator rotator = new ContentKeyRotator(dslContext,
+        injector.getInstance(ContentCryptographer.class),
+        injector.getInstance(RowHmacGenerator.class),
+        metrics, batchSize, threads, maxRowsPerSecond);
+
+    Slf4jReporter reporter = Slf4jReporter.forRegistry(metrics)
+        .filter((name, metric) -> name.startsWith(ContentKeyRotator.class.getName()))
+        .outputTo(LoggerFactory.getLogger(RotateContentKeyCommand.class))
+        .build();
+    reporter.start(1, TimeUnit.MINUTES);
+    try {
+      ContentKeyRotationsRecord checkpoint = rotator.rotate(namespace.getBoolean(INPUT_RESTART));
+      System.out.format("Rotated %d and skipped %d secrets contents to key '%s'\n",
+          checkpoint.getRotated(), checkpoint.getSkipped(), checkpoint.getKeyid());
+    } finally {
+      reporter.stop();
+      reporter.report();
+    }
+  }
+}
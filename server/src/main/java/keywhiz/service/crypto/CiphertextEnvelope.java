@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.google.common.base.MoreObjects;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Base64.getDecoder;
+import static java.util.Base64.getEncoder;
+
+/**
+ * Compact binary serialization of encrypted content, stored base64-encoded.
+ *
+ * <pre>
+ *   version 1: magic (1) | 1 | info length (2) | info (UTF-8) | nonce length (1) | nonce
+ *              | ciphertext
+ *   version 2: magic (1) | 2 | key id length (1) | key id (UTF-8) | info length (2) | ...
+ *              as version 1
+ * </pre>
+ *
+ * Version 2 records which content key the derived key was expanded from, and is only written for
+ * content encrypted under a rotated key. Content encrypted under the base key, including version 1
+ * envelopes, has an empty key id, so it stays readable by servers unaware of key rotation.
+ *
+ * Content encrypted before this format existed, or under the base key while envelopes are not
+ * enabled, is serialized as JSON, which always starts with '{', a character outside the base64
+ * alphabet, so the two formats can be told apart cheaply.
+ */
+final class CiphertextEnvelope {
+  private static final byte MAGIC = (byte) 0xC5;
+  private static final byte VERSION_1 = 1;
+  private static final byte VERSION_2 = 2;
+  private static final int HEADER_BYTES = 2;
+
+  private final String keyId;
+  private final String derivationInfo;
+  private final byte[] nonce;
+  private final byte[] ciphertext;
+
+  CiphertextEnvelope(String derivationInfo, byte[] nonce, byte[] ciphertext) {
+    this(ContentKeys.BASE_KEY_ID, derivationInfo, nonce, ciphertext);
+  }
+
+  CiphertextEnvelope(String keyId, String derivationInfo, byte[] nonce, byte[] ciphertext) {
+    this.keyId = keyId;
+    this.derivationInfo = derivationInfo;
+    this.nonce = nonce;
+    this.ciphertext = ciphertext;
+  }
+
+  /** @return true if the serialized content is a legacy JSON document rather than an envelope. */
+  static boolean isLegacyJson(String serialized) {
+    return !serialized.isEmpty() && serialized.charAt(0) == '{';
+  }
+
+  static CiphertextEnvelope parse(String serialized) {
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.wrap(getDecoder().decode(serialized));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Encrypted content is not valid base64", e);
+    }
+
+    try {
+      if (buffer.get() != MAGIC) {
+        throw new IllegalArgumentException("Encrypted content has unknown format");
+      }
+      byte version = buffer.get();
+      String keyId;
+      if (version == VERSION_1) {
+        keyId = ContentKeys.BASE_KEY_ID;
+      } else if (version == VERSION_2) {
+        byte[] keyIdBytes = new byte[Byte.toUnsignedInt(buffer.get())];
+        buffer.get(keyIdBytes);
+        keyId = new String(keyIdBytes, UTF_8);
+      } else {
+        throw new IllegalArgumentException(
+            String.format("Encrypted content has unsupported version %d", version));
+      }
+
+      byte[] info = new byte[Short.toUnsignedInt(buffer.getShort())];
+      buffer.get(info);
+      byte[] nonce = new byte[Byte.toUnsignedInt(buffer.get())];
+      buffer.get(nonce);
+      byte[] ciphertext = new byte[buffer.remaining()];
+      buffer.get(ciphertext);
+      return new CiphertextEnvelope(keyId, new String(info, UTF_8), nonce, ciphertext);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Encrypted content is truncated", e);
+    }
+  }
+
+  String serialize() {
+    byte[] keyIdBytes = keyId.getBytes(UTF_8);
+    byte[] info = derivationInfo.getBytes(UTF_8);
+    if (keyIdBytes.length > 0xFF || info.length > 0xFFFF || nonce.length > 0xFF) {
+      throw new IllegalArgumentException("Key id, derivation info or nonce too long for envelope");
+    }
+
+    boolean baseKey = keyId.equals(ContentKeys.BASE_KEY_ID);
+    int keyIdField = baseKey ? 0 : 1 + keyIdBytes.length;
+    ByteBuffer buffer = ByteBuffer.allocate(
+        HEADER_BYTES + keyIdField + 2 + info.length + 1 + nonce.length + ciphertext.length);
+    buffer.put(MAGIC);
+    if (baseKey) {
+      buffer.put(VERSION_1);
+    } else {
+      buffer.put(VERSION_2)
+          .put((byte) keyIdBytes.length)
+          .put(keyIdBytes);
+    }
+    buffer.putShort((short) info.length)
+        .put(info)
+        .put((byte) nonce.length)
+        .put(nonce)
+        .put(ciphertext);
+    return getEncoder().encodeToString(buffer.array());
+  }
+
+  String keyId() {
+    return keyId;
+  }
+
+  String derivationInfo() {
+    return derivationInfo;
+  }
+
+  byte[] nonce() {
+    return nonce;
+  }
+
+  byte[] ciphertext() {
+    return ciphertext;
+  }
+
+  @Override public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("keyId", keyId)
+        .add("derivationInfo", derivationInfo)
+        .add("nonce", "REDACTED")
+        .add("ciphertext", "REDACTED")
+        .toString();
+  }
+}
@@ -28,7 +28,6 @@ import io.dropwizard.jackson.Jackson;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.util.Base64;
@@ -37,10 +36,8 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
 import keywhiz.auth.Subtles;
 import keywhiz.hkdf.Hkdf;
@@ -59,29 +56,45 @@ import static javax.crypto.Cipher.ENCRYPT_MODE;
 /**
  * Cryptographer which encrypts/decrypts secret content.
  *
- * Encryption keys are derived using a provided info tag. Encrypted content is serialized as JSON
- * with the necessary parameters for decryption.
+ * Encryption keys are derived using a provided info tag from the active key of {@link ContentKeys}.
+ * Encrypted content is serialized with the necessary parameters for decryption. Once envelopes are
+ * enabled, it is serialized as a {@link CiphertextEnvelope}, which also records which key to derive
+ * from, so content encrypted under any configured key remains readable while it is re-encrypted
+ * after a rotation. Until then it is serialized as JSON, which earlier versions can read. Either
+ * format is always readable. HMAC keys are always derived from the base key.
  */
 public class ContentCryptographer {
   private static final Logger logger = LoggerFactory.getLogger(ContentCryptographer.class);
   private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding";
   private static final String KEY_ALGORITHM = "AES";
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
   private static final int TAG_BITS = 128;
   private static final int NONCE_BYTES = 12;
   private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
 
-  private final SecretKey key;
-  private final Provider derivationProvider;
-  private final Provider encryptionProvider;
+  private final ContentKeys keys;
+  private final Hkdf hkdf;
+  private final ThreadLocal<Cipher> ciphers;
+  private final ThreadLocal<Mac> macs;
   private final SecureRandom random;
+  private final DerivedKeyCache derivedKeys;
 
-  @Inject public ContentCryptographer(@Derivation SecretKey key,
+  public ContentCryptographer(SecretKey key, Provider derivationProvider,
+      Provider encryptionProvider, SecureRandom random) {
+    this(ContentKeys.of(key), derivationProvider, encryptionProvider, random,
+        DerivedKeyCache.withDefaults());
+  }
+
+  @Inject public ContentCryptographer(ContentKeys keys,
       @Derivation Provider derivationProvider,
-      @Encryption Provider encryptionProvider, SecureRandom random) {
-    this.key = key;
-    this.derivationProvider = derivationProvider;
-    this.encryptionProvider = encryptionProvider;
+      @Encryption Provider encryptionProvider, SecureRandom random,
+      DerivedKeyCache derivedKeys) {
+    this.keys = keys;
+    this.hkdf = Hkdf.usingProvider(derivationProvider);
+    this.ciphers = CryptoPrimitives.threadLocalCipher(ENCRYPTION_ALGORITHM, encryptionProvider);
+    this.macs = CryptoPrimitives.threadLocalMac(HMAC_ALGORITHM, null);
     this.random = random;
+    this.derivedKeys = derivedKeys;
   }
 
   public class Encrypter {
@@ -95,7 +108,8 @@ public class ContentCryptographer {
      * Encrypts content under a derived key.
      *
      * @param plaintextBase64 plaintext content to encrypt, which is expected to be base64-encoded
-     * @return serialized JSON containing ciphertext and parameters necessary for decryption
+     * @return serialized envelope or legacy JSON containing ciphertext and parameters necessary
+     * for decryption
      */
     public String encrypt(String plaintextBase64) {
       Base64.Decoder decoder = getDecoder();
@@ -104,21 +118,18 @@ public class ContentCryptographer {
       byte[] nonce = new byte[NONCE_BYTES];
       random.nextBytes(nonce);
 
-      byte[] ciphertext = gcm(Mode.ENCRYPT, derivationInfo, nonce, plaintext);
-      Crypted crypted = Crypted.of(derivationInfo, ciphertext, nonce);
-      String encryptedJson;
-      try {
-        encryptedJson = MAPPER.writeValueAsString(crypted);
-      } catch (JsonProcessingException e) {
-        throw Throwables.propagate(e);
-      }
+      String keyId = keys.activeKeyId();
+      byte[] ciphertext = gcm(Mode.ENCRYPT, keyId, derivationInfo, nonce, plaintext);
+      String encrypted = keys.writesEnvelopes()
+          ? new CiphertextEnvelope(keyId, derivationInfo, nonce, ciphertext).serialize()
+          : toLegacyJson(Crypted.of(derivationInfo, ciphertext, nonce));
 
-      if (!Subtles.secureCompare(decoder.decode(decrypt(encryptedJson)), plaintext)) {
+      if (!Subtles.secureCompare(decoder.decode(decrypt(encrypted)), plaintext)) {
         logger.warn("Decryption of (just encrypted) data does not match original! [name={}]",
             derivationInfo);
       }
 
-      return encryptedJson;
+      return encrypted;
     }
   }
 
@@ -136,19 +147,88 @@ public class ContentCryptographer {
   /**
    * Decrypts content previously encrypted by {@link ContentCryptographer}.
    *
-   * @param ciphertextJson JSON from prior {@link Encrypter#encrypt} call
+   * @param ciphertext envelope or legacy JSON from prior {@link Encrypter#encrypt} call
    * @return original base64 plaintext without padding
    */
-  public String decrypt(String ciphertextJson) {
+  public String decrypt(String ciphertext) {
+    CiphertextEnvelope envelope = parse(ciphertext);
+    byte[] plaintext = gcm(Mode.DECRYPT, envelope.keyId(), envelope.derivationInfo(),
+        envelope.nonce(), envelope.ciphertext());
+    return getEncoder().encodeToString(plaintext);
+  }
+
+  /** @return id of the key new content is encrypted under */
+  public String activeKeyId() {
+    return keys.activeKeyId();
+  }
+
+  /** @return true if new content is written as an envelope rather than legacy JSON */
+  public boolean writesEnvelopes() {
+    return keys.writesEnvelopes();
+  }
+
+  /**
+   * @param ciphertext envelope or legacy JSON from prior {@link Encrypter#encrypt} call
+   * @return true if the content is encrypted under the active key
+   */
+  public boolean isUnderActiveKey(String ciphertext) {
+    return parse(ciphertext).keyId().equals(keys.activeKeyId());
+  }
+
+  /**
+   * Re-encrypts content under the active key, with the same derivation info.
+   *
+   * @param ciphertext envelope or legacy JSON from prior {@link Encrypter#encrypt} call
+   * @return the same plaintext encrypted under the active key
+   */
+  public String reencrypt(String ciphertext) {
+    CiphertextEnvelope envelope = parse(ciphertext);
+    return new Encrypter(envelope.derivationInfo()).encrypt(decrypt(ciphertext));
+  }
+
+  /**
+   * @param ciphertext envelope or legacy JSON from prior {@link Encrypter#encrypt} call
+   * @return true if the content is serialized as legacy JSON rather than an envelope
+   */
+  public static boolean isLegacyJson(String ciphertext) {
+    return CiphertextEnvelope.isLegacyJson(ciphertext);
+  }
+
+  /**
+   * Re-serializes encrypted content in the current envelope format. The content is not
+   * re-encrypted, so no key material is involved.
+   *
+   * @param ciphertext envelope or legacy JSON from prior {@link Encrypter#encrypt} call
+   * @return the same ciphertext and parameters serialized as an envelope
+   */
+  public String toEnvelope(String ciphertext) {
+    if (!CiphertextEnvelope.isLegacyJson(ciphertext)) {
+      return ciphertext;
+    }
+    return parse(ciphertext).serialize();
+  }
+
+  private static CiphertextEnvelope parse(String ciphertext) {
+    if (!CiphertextEnvelope.isLegacyJson(ciphertext)) {
+      return CiphertextEnvelope.parse(ciphertext);
+    }
+
     Crypted crypted;
     try {
-      crypted = MAPPER.readValue(ciphertextJson, Crypted.class);
+      crypted = MAPPER.readValue(ciphertext, Crypted.class);
     } catch (IOException e) {
       throw new IllegalArgumentException("Cannot deserialize Crypted json", e);
     }
+    return new CiphertextEnvelope(crypted.derivationInfo(), crypted.ivBytes(),
+        crypted.contentBytes());
+  }
 
-    byte[] plaintext = gcm(Mode.DECRYPT, crypted.derivationInfo(), crypted.ivBytes(), crypted.contentBytes());
-    return getEncoder().encodeToString(plaintext);
+  private static String toLegacyJson(Crypted crypted) {
+    try {
+      return MAPPER.writeValueAsString(crypted);
+    } catch (JsonProcessingException e) {
+      throw Throwables.propagate(e);
+    }
   }
 
   public String computeHmac(byte[] data, String derivationKey) {
@@ -158,36 +238,47 @@ public class ContentCryptographer {
 
   String computeHmacWithSecretKey(byte[] data, SecretKey hmacKey) {
     try {
-      Mac mac = Mac.getInstance("HmacSHA256");
+      Mac mac = macs.get();
       mac.init(hmacKey);
       return BaseEncoding.base16().encode(mac.doFinal(data));
-    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+    } catch (InvalidKeyException e) {
       logger.warn("Error computing HMAC: ", e);
       return null;
     }
   }
 
+  /**
+   * Derives a key from the base derivation key. Derived keys are cached, since derivation may be
+   * an expensive call to the provider (e.g. an HSM).
+   *
+   * @param blockSize length of the derived key in bytes
+   * @param info derivation info, e.g. a secret name
+   * @return derived key
+   */
   public SecretKey deriveKey(int blockSize, String info) {
-    Hkdf hkdf = Hkdf.usingProvider(derivationProvider);
-    byte[] infoBytes = info.getBytes(UTF_8);
-    byte[] derivedKeyBytes = hkdf.expand(key, infoBytes, blockSize);
-    return new SecretKeySpec(derivedKeyBytes, KEY_ALGORITHM);
+    return deriveKey(ContentKeys.BASE_KEY_ID, blockSize, info);
+  }
+
+  private SecretKey deriveKey(String keyId, int blockSize, String info) {
+    return derivedKeys.get(keyId, info, blockSize, KEY_ALGORITHM,
+        () -> hkdf.expand(keys.key(keyId), info.getBytes(UTF_8), blockSize));
   }
 
-  private byte[] gcm(Mode mode, String info, byte[] nonce, byte[] data) {
+  private byte[] gcm(Mode mode, String keyId, String info, byte[] nonce, byte[] data) {
     try {
-      Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM, encryptionProvider);
-      SecretKey derivedKey = deriveKey(cipher.getBlockSize(), info);
+      Cipher cipher = ciphers.get();
+      SecretKey derivedKey = deriveKey(keyId, cipher.getBlockSize(), info);
       GCMParameterSpec gcmParameters = new GCMParameterSpec(TAG_BITS, nonce);
       cipher.init(mode.cipherMode, derivedKey, gcmParameters);
       return cipher.doFinal(data);
-    } catch (IllegalBlockSizeException | InvalidAlgorithmParameterException | NoSuchPaddingException | NoSuchAlgorithmException | InvalidKeyException | BadPaddingException e) {
+    } catch (IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException e) {
       throw Throwables.propagate(e);
     }
   }
 
   /**
-   * Non-public value type representing JSON serialized fields for encrypted data.
+   * Non-public value type representing JSON serialized fields for encrypted data, as written
+   * before {@link CiphertextEnvelope} was introduced.
    */
   @AutoValue static abstract class Crypted {
     static Crypted of(String info, byte[] content, byte[] iv) {
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.crypto.SecretKey;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keys from which content encryption keys are derived.
+ *
+ * The base key, from contentKeyStore, is identified by an empty key id. It always keys HMACs and
+ * decrypts content written before any rotation. Rotated keys are identified by the key id recorded
+ * in each envelope, and the active key is the one new content is encrypted under.
+ *
+ * New content under the base key is written as legacy JSON unless envelopes are enabled, so that
+ * nodes which predate envelopes can still read it during a rolling upgrade. Legacy JSON cannot name
+ * a key, so content under a rotated key is always written as an envelope.
+ */
+public class ContentKeys {
+  public static final String BASE_KEY_ID = "";
+
+  private final SecretKey baseKey;
+  private final ImmutableMap<String, SecretKey> rotatedKeys;
+  private final String activeKeyId;
+  private final boolean writeEnvelopes;
+
+  public ContentKeys(SecretKey baseKey, Map<String, SecretKey> rotatedKeys,
+      @Nullable String activeKeyId) {
+    this(baseKey, rotatedKeys, activeKeyId, false);
+  }
+
+  /**
+   * @param baseKey base derivation key
+   * @param rotatedKeys additional keys by non-empty key id
+   * @param activeKeyId id of the key to encrypt new content under, or null for the base key
+   * @param writeEnvelopes whether to write new content under the base key as an envelope
+   */
+  public ContentKeys(SecretKey baseKey, Map<String, SecretKey> rotatedKeys,
+      @Nullable String activeKeyId, boolean writeEnvelopes) {
+    this.baseKey = checkNotNull(baseKey);
+    this.rotatedKeys = ImmutableMap.copyOf(rotatedKeys);
+    this.activeKeyId = (activeKeyId == null) ? BASE_KEY_ID : activeKeyId;
+    this.writeEnvelopes = writeEnvelopes;
+
+    for (String keyId : this.rotatedKeys.keySet()) {
+      checkArgument(!keyId.isEmpty() && keyId.getBytes(UTF_8).length <= 0xFF,
+          "Content key ids must be between 1 and 255 bytes: '%s'", keyId);
+    }
+    checkArgument(this.activeKeyId.equals(BASE_KEY_ID)
+            || this.rotatedKeys.containsKey(this.activeKeyId),
+        "Active content key id '%s' is not configured", this.activeKeyId);
+  }
+
+  /** @return keys consisting of only the base key, which is also active. */
+  public static ContentKeys of(SecretKey baseKey) {
+    return new ContentKeys(baseKey, ImmutableMap.of(), null);
+  }
+
+  public SecretKey baseKey() {
+    return baseKey;
+  }
+
+  /** @return id of the key new content is encrypted under */
+  public String activeKeyId() {
+    return activeKeyId;
+  }
+
+  /** @return true if new content is written as an envelope rather than legacy JSON */
+  public boolean writesEnvelopes() {
+    return writeEnvelopes || !activeKeyId.equals(BASE_KEY_ID);
+  }
+
+  /**
+   * @param keyId key id recorded in an envelope
+   * @return the matching key
+   * @throws IllegalStateException if no key with that id is configured
+   */
+  public SecretKey key(String keyId) {
+    if (keyId.equals(BASE_KEY_ID)) {
+      return baseKey;
+    }
+    SecretKey key = rotatedKeys.get(keyId);
+    if (key == null) {
+      throw new IllegalStateException(
+          String.format("Content key '%s' is not configured", keyId));
+    }
+    return key;
+  }
+}
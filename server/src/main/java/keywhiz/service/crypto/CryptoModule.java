@@ -17,6 +17,7 @@
 package keywhiz.service.crypto;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import java.io.IOException;
@@ -29,6 +30,8 @@ import java.security.Provider;
 import java.security.Security;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.Map;
+import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
 import javax.inject.Qualifier;
 import javax.inject.Singleton;
@@ -47,16 +50,47 @@ public class CryptoModule extends AbstractModule {
 
   private final String derivationProviderClass;
   private final KeyStoreConfig keyStoreConfig;
+  private final Map<String, KeyStoreConfig> rotatedKeyStoreConfigs;
+  @Nullable private final String activeKeyId;
+  private final boolean writeEnvelopes;
 
   // TODO: These values can be read from KeywhizConfig directly once the CLI uses a proper API.
   public CryptoModule(String derivationProviderClass, KeyStoreConfig keyStoreConfig) {
+    this(derivationProviderClass, keyStoreConfig, ImmutableMap.of(), null, false);
+  }
+
+  /**
+   * @param derivationProviderClass class name of the provider to use for key derivation
+   * @param keyStoreConfig keystore holding the base derivation key
+   * @param rotatedKeyStoreConfigs keystores holding rotated content keys, by key id
+   * @param activeKeyId id of the key to encrypt new content under, or null for the base key
+   * @param writeEnvelopes whether to write new content under the base key as an envelope
+   */
+  public CryptoModule(String derivationProviderClass, KeyStoreConfig keyStoreConfig,
+      Map<String, KeyStoreConfig> rotatedKeyStoreConfigs, @Nullable String activeKeyId,
+      boolean writeEnvelopes) {
     this.derivationProviderClass = derivationProviderClass;
     this.keyStoreConfig = keyStoreConfig;
+    this.rotatedKeyStoreConfigs = ImmutableMap.copyOf(rotatedKeyStoreConfigs);
+    this.activeKeyId = activeKeyId;
+    this.writeEnvelopes = writeEnvelopes;
   }
 
   @Override protected void configure() {}
 
   @Provides @Derivation @Singleton SecretKey baseDerivationKey(@Derivation Provider provider) {
+    return loadKey(keyStoreConfig, provider);
+  }
+
+  @Provides @Singleton ContentKeys contentKeys(@Derivation SecretKey baseKey,
+      @Derivation Provider provider) {
+    ImmutableMap.Builder<String, SecretKey> rotatedKeys = ImmutableMap.builder();
+    rotatedKeyStoreConfigs.forEach(
+        (keyId, config) -> rotatedKeys.put(keyId, loadKey(config, provider)));
+    return new ContentKeys(baseKey, rotatedKeys.build(), activeKeyId, writeEnvelopes);
+  }
+
+  private static SecretKey loadKey(KeyStoreConfig keyStoreConfig, Provider provider) {
     String alias = keyStoreConfig.alias();
     char[] password = keyStoreConfig.resolvedPassword().toCharArray();
 
@@ -66,7 +100,7 @@ public class CryptoModule extends AbstractModule {
       keyStore.load(inputStream, password);
       return (SecretKey) keyStore.getKey(alias, password);
     } catch (CertificateException | IOException | KeyStoreException | NoSuchAlgorithmException | UnrecoverableKeyException e) {
-      logger.error("Error loading base derivation key: {}", e.getMessage(), e);
+      logger.error("Error loading derivation key {}: {}", alias, e.getMessage(), e);
       throw Throwables.propagate(e);
     }
   }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.google.common.base.Throwables;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Per-thread pools of JCE primitives.
+ *
+ * {@link Cipher#getInstance} and {@link Mac#getInstance} perform synchronized provider lookups
+ * and allocate on every call. Callers hold one of these per algorithm and provider instead, and
+ * must always initialize the instance with a key before each use, since it retains state from
+ * whichever operation last ran on the thread.
+ */
+public final class CryptoPrimitives {
+  private CryptoPrimitives() {}
+
+  /**
+   * @param transformation cipher transformation, e.g. "AES/GCM/NoPadding"
+   * @param provider provider to request the cipher from, or null for the default provider
+   * @return per-thread cipher instances
+   */
+  public static ThreadLocal<Cipher> threadLocalCipher(String transformation,
+      @Nullable Provider provider) {
+    return ThreadLocal.withInitial(() -> {
+      try {
+        return (provider == null) ?
+            Cipher.getInstance(transformation) :
+            Cipher.getInstance(transformation, provider);
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        throw Throwables.propagate(e);
+      }
+    });
+  }
+
+  /**
+   * @param algorithm MAC algorithm, e.g. "HmacSHA256"
+   * @param provider provider to request the MAC from, or null for the default provider
+   * @return per-thread MAC instances
+   */
+  public static ThreadLocal<Mac> threadLocalMac(String algorithm, @Nullable Provider provider) {
+    return ThreadLocal.withInitial(() -> newMac(algorithm, provider));
+  }
+
+  /**
+   * @param algorithm MAC algorithm, e.g. "HmacSHA256"
+   * @param provider provider to request the MAC from, or null for the default provider
+   * @return a new MAC instance, for callers which manage reuse themselves
+   */
+  public static Mac newMac(String algorithm, @Nullable Provider provider) {
+    try {
+      return (provider == null) ?
+          Mac.getInstance(algorithm) :
+          Mac.getInstance(algorithm, provider);
+    } catch (NoSuchAlgorithmException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Bounded cache of HKDF-derived key material, keyed by the id of the key it was derived from,
+ * derivation info and output length.
+ *
+ * Key material is held in a private buffer and handed out as a fresh {@link SecretKeySpec} on
+ * every lookup, so an entry can be zeroed on eviction without affecting keys already in use.
+ */
+public class DerivedKeyCache {
+  public static final long DEFAULT_MAX_ENTRIES = 1000;
+  public static final Duration DEFAULT_EXPIRY = Duration.ofMinutes(10);
+
+  private final long maxEntries;
+  private final Cache<DerivationId, KeyMaterial> cache;
+
+  public DerivedKeyCache(long maxEntries, Duration expiry, @Nullable MetricRegistry metrics) {
+    this.maxEntries = maxEntries;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(expiry.toMillis(), TimeUnit.MILLISECONDS)
+        .removalListener((RemovalNotification<DerivationId, KeyMaterial> n) -> n.getValue().destroy())
+        .recordStats()
+        .build();
+
+    if (metrics != null) {
+      metrics.register(name(DerivedKeyCache.class, "hits"),
+          (Gauge<Long>) () -> cache.stats().hitCount());
+      metrics.register(name(DerivedKeyCache.class, "misses"),
+          (Gauge<Long>) () -> cache.stats().missCount());
+      metrics.register(name(DerivedKeyCache.class, "evictions"),
+          (Gauge<Long>) () -> cache.stats().evictionCount());
+      metrics.register(name(DerivedKeyCache.class, "size"), (Gauge<Long>) cache::size);
+    }
+  }
+
+  /** @return a cache with default bounds which does not report metrics. */
+  public static DerivedKeyCache withDefaults() {
+    return new DerivedKeyCache(DEFAULT_MAX_ENTRIES, DEFAULT_EXPIRY, null);
+  }
+
+  /**
+   * Returns a derived key, computing and caching it if not present.
+   *
+   * @param keyId id of the key the derivation expands, see {@link ContentKeys}
+   * @param info derivation info, e.g. a secret name
+   * @param length length of the derived key in bytes
+   * @param algorithm algorithm name of the returned key
+   * @param derivation computes the key bytes on a cache miss
+   * @return a key which remains valid even after the cached entry is evicted
+   */
+  public SecretKey get(String keyId, String info, int length, String algorithm,
+      Supplier<byte[]> derivation) {
+    if (maxEntries == 0) {
+      return new SecretKeySpec(derivation.get(), algorithm);
+    }
+
+    DerivationId id = new DerivationId(keyId, info, length);
+    try {
+      SecretKey key = cache.get(id, () -> new KeyMaterial(derivation.get())).toSecretKey(algorithm);
+      if (key != null) {
+        return key;
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Error deriving key", e.getCause());
+    } catch (UncheckedExecutionException e) {
+      // Surface e.g. an unknown key id the same way as when caching is disabled.
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+    // Lost a race with eviction; the material was zeroed between lookup and copy.
+    return new SecretKeySpec(derivation.get(), algorithm);
+  }
+
+  /** Evicts and destroys all cached key material. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @VisibleForTesting long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  private static final class DerivationId {
+    private final String keyId;
+    private final String info;
+    private final int length;
+
+    DerivationId(String keyId, String info, int length) {
+      this.keyId = keyId;
+      this.info = info;
+      this.length = length;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof DerivationId)) return false;
+      DerivationId that = (DerivationId) o;
+      return length == that.length && info.equals(that.info) && keyId.equals(that.keyId);
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(keyId, info, length);
+    }
+  }
+
+  private static final class KeyMaterial {
+    private final byte[] bytes;
+    private boolean destroyed;
+
+    KeyMaterial(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Nullable synchronized SecretKey toSecretKey(String algorithm) {
+      return destroyed ? null : new SecretKeySpec(bytes, algorithm);
+    }
+
+    synchronized void destroy() {
+      Arrays.fill(bytes, (byte) 0);
+      destroyed = true;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import io.dropwizard.lifecycle.Managed;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Verifies rows of a result set on a bounded fork-join pool once the result set is large enough
+ * for the parallelism to outweigh the cost of splitting it up. Smaller result sets are verified
+ * on the calling thread.
+ *
+ * Verification functions should report failures in their result rather than throwing, so the
+ * caller can handle them in row order regardless of which thread verified each row.
+ */
+public class ParallelRowVerifier implements Managed {
+  /**
+   * Conservative default, not a measured crossover: ParallelRowVerifierBenchmark locates the
+   * crossover on given hardware, and rowHmacVerificationParallelThreshold should be set from it.
+   */
+  public static final int DEFAULT_THRESHOLD = 256;
+
+  private final int threshold;
+  @Nullable private final ForkJoinPool pool;
+
+  /**
+   * @param parallelism maximum number of threads verifying rows; 1 verifies on the calling thread
+   * @param threshold minimum number of rows to verify in parallel
+   */
+  public ParallelRowVerifier(int parallelism, int threshold) {
+    checkArgument(parallelism > 0, "parallelism must be positive");
+    this.threshold = threshold;
+    this.pool = (parallelism == 1) ? null : new ForkJoinPool(parallelism, p -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      thread.setName("row-hmac-verifier-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+  }
+
+  /** @return a verifier which always verifies on the calling thread. */
+  public static ParallelRowVerifier serial() {
+    return new ParallelRowVerifier(1, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param rows rows to verify
+   * @param verification verifies a single row; must be safe to call from multiple threads
+   * @return the result of verifying each row, in the same order as the rows
+   */
+  public <T, R> List<R> verifyAll(List<T> rows, Function<? super T, R> verification) {
+    if (pool == null || rows.size() < threshold) {
+      return rows.stream().map(verification).collect(toList());
+    }
+    // A parallel stream started from within a pool's task is split across that pool's workers.
+    return pool.submit(() -> rows.parallelStream().map(verification).collect(toList())).join();
+  }
+
+  @Override public void start() {}
+
+  @Override public void stop() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Bounded cache of decrypted secret content, keyed by secrets_content id, so that secrets
+ * delivered to many clients are not decrypted on every request.
+ *
+ * Cached plaintext is held base64 encoded, as it is delivered, in direct buffers rather than on
+ * the heap, so the long-lived copy is neither copied around by the garbage collector nor included
+ * in heap dumps, and each buffer is zeroed as soon as its entry is evicted, expires or is
+ * invalidated. Responses are built from strings, so every delivery, hit or miss, still leaves one
+ * short-lived string of the plaintext on the heap, as delivery without the cache does; scratch
+ * arrays used to copy plaintext in and out of buffers are zeroed once used.
+ *
+ * Content rows are immutable, so entries never go stale; they are invalidated when their secret's
+ * current version changes only to keep plaintext of superseded versions out of memory. Content
+ * decrypted while an invalidation happens is not cached. Disabled unless a maximum size is
+ * configured.
+ */
+public class PlaintextCache {
+  public static final Duration DEFAULT_EXPIRY = Duration.ofMinutes(1);
+
+  private final long maxBytes;
+  private final Cache<Long, Plaintext> cache;
+  // Incremented by every invalidation
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param maxBytes maximum total size of cached base64 plaintext; zero disables caching
+   * @param expiry time after which an entry is evicted, regardless of use
+   */
+  public PlaintextCache(long maxBytes, Duration expiry, @Nullable MetricRegistry metrics) {
+    this.maxBytes = maxBytes;
+    this.cache = CacheBuilder.newBuilder()
+        // A single segment, since the maximum weight is divided between segments and entries
+        // larger than a segment's share would be evicted right away
+        .concurrencyLevel(1)
+        .maximumWeight(maxBytes)
+        .weigher((Long contentId, Plaintext plaintext) -> plaintext.size())
+        .expireAfterWrite(expiry.toMillis(), TimeUnit.MILLISECONDS)
+        .removalListener((RemovalNotification<Long, Plaintext> n) -> n.getValue().destroy())
+        .recordStats()
+        .build();
+
+    if (metrics != null) {
+      metrics.register(name(PlaintextCache.class, "hits"),
+          (Gauge<Long>) () -> cache.stats().hitCount());
+      metrics.register(name(PlaintextCache.class, "misses"),
+          (Gauge<Long>) () -> cache.stats().missCount());
+      metrics.register(name(PlaintextCache.class, "evictions"),
+          (Gauge<Long>) () -> cache.stats().evictionCount());
+      metrics.register(name(PlaintextCache.class, "size"), (Gauge<Long>) cache::size);
+    }
+  }
+
+  /** @return a cache which never caches anything. */
+  public static PlaintextCache disabled() {
+    return new PlaintextCache(0, DEFAULT_EXPIRY, null);
+  }
+
+  /**
+   * Returns decrypted content, decrypting and caching it if not present.
+   *
+   * @param secretId id of the secret series the content belongs to
+   * @param contentId id of the secrets_content row
+   * @param decryption decrypts the content to base64 plaintext on a cache miss
+   * @return base64 plaintext
+   */
+  public String get(long secretId, long contentId, Supplier<String> decryption) {
+    if (maxBytes == 0) {
+      return decryption.get();
+    }
+
+    Plaintext cached = cache.getIfPresent(contentId);
+    if (cached != null) {
+      String plaintext = cached.toBase64();
+      if (plaintext != null) {
+        return plaintext;
+      }
+      // Lost a race with eviction; the buffer was zeroed between lookup and copy.
+    }
+
+    long before = generation.get();
+    String plaintext = decryption.get();
+    if (generation.get() != before) {
+      // The content may belong to a version superseded while decrypting
+      return plaintext;
+    }
+
+    byte[] bytes = plaintext.getBytes(ISO_8859_1);
+    if (bytes.length <= maxBytes) {
+      cache.put(contentId, new Plaintext(secretId, bytes));
+      // Invalidated while caching
+      if (generation.get() != before) {
+        cache.invalidate(contentId);
+      }
+    }
+    Arrays.fill(bytes, (byte) 0);
+    return plaintext;
+  }
+
+  /** Evicts all cached content of a secret, e.g. when its current version changes. */
+  public void invalidateSecret(long secretId) {
+    if (maxBytes == 0) {
+      return;
+    }
+    generation.incrementAndGet();
+    cache.asMap().values().removeIf(plaintext -> plaintext.secretId == secretId);
+  }
+
+  /** Evicts all cached content of several secrets in a single pass over the cache. */
+  public void invalidateSecrets(Set<Long> secretIds) {
+    if (maxBytes == 0 || secretIds.isEmpty()) {
+      return;
+    }
+    generation.incrementAndGet();
+    cache.asMap().values().removeIf(plaintext -> secretIds.contains(plaintext.secretId));
+  }
+
+  /** Evicts cached content by its secrets_content id, e.g. when it is pruned. */
+  public void invalidateContent(long contentId) {
+    generation.incrementAndGet();
+    cache.invalidate(contentId);
+  }
+
+  /** Evicts and zeroes all cached content. */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  @VisibleForTesting long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  private static final class Plaintext {
+    private final long secretId;
+    private final ByteBuffer buffer;
+    private boolean destroyed;
+
+    /** @param bytes base64 plaintext, as ASCII */
+    Plaintext(long secretId, byte[] bytes) {
+      this.secretId = secretId;
+      this.buffer = ByteBuffer.allocateDirect(bytes.length);
+      buffer.put(bytes);
+    }
+
+    int size() {
+      return buffer.capacity();
+    }
+
+    @Nullable synchronized String toBase64() {
+      if (destroyed) {
+        return null;
+      }
+      byte[] base64 = new byte[buffer.capacity()];
+      buffer.duplicate().clear().get(base64);
+      String result = new String(base64, ISO_8859_1);
+      Arrays.fill(base64, (byte) 0);
+      return result;
+    }
+
+    synchronized void destroy() {
+      for (int i = 0; i < buffer.capacity(); i++) {
+        buffer.put(i, (byte) 0);
+      }
+      destroyed = true;
+    }
+  }
+}
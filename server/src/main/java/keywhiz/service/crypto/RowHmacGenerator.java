@@ -1,15 +1,18 @@
 package keywhiz.service.crypto;
 
 import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Each call to ContentCryptographer.deriveKey would be a call to Provider, which is inefficient
@@ -18,22 +21,71 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Singleton
 public class RowHmacGenerator {
-  private final ContentCryptographer cryptographer;
-  private final SecretKey hmacKey;
+  private final ThreadLocal<RowHmac> rowHmacs;
+  private final VerifiedRowHmacCache verifiedRows;
   private final SecureRandom random;
 
-  @Inject private RowHmacGenerator(ContentCryptographer cryptographer, SecureRandom random) {
-    this.cryptographer = cryptographer;
+  @Inject private RowHmacGenerator(ContentCryptographer cryptographer,
+      VerifiedRowHmacCache verifiedRows, SecureRandom random) {
+    this.verifiedRows = verifiedRows;
     this.random = random;
-    this.hmacKey = cryptographer.deriveKey(32, "row_hmac");
+    SecretKey hmacKey = cryptographer.deriveKey(32, "row_hmac");
+    this.rowHmacs = ThreadLocal.withInitial(
+        () -> new RowHmac(CryptoPrimitives.newMac("HmacSHA256", null), hmacKey));
   }
 
   public String computeRowHmac(String table, List<Object> fields) {
-    String joinedFields = fields.stream()
-        .map(object -> Objects.toString(object, null))
-        .collect(Collectors.joining("|"));
-    String hmacContent = table + "|" + joinedFields;
-    return cryptographer.computeHmacWithSecretKey(hmacContent.getBytes(UTF_8), hmacKey);
+    return rowHmac(table, fields).toHex();
+  }
+
+  /**
+   * Verifies a stored row_hmac, skipping the HMAC computation if the same stored value was
+   * already verified for the same field values.
+   *
+   * @param table name of the table the row belongs to
+   * @param storedRowHmac row_hmac value stored with the row
+   * @param fields field values covered by the row_hmac, as passed to {@link #computeRowHmac}
+   * @return true if the stored row_hmac is valid for the fields
+   */
+  public boolean verifyRowHmac(String table, @Nullable String storedRowHmac, List<Object> fields) {
+    if (storedRowHmac == null) {
+      return false;
+    }
+    if (verifiedRows.isVerified(table, storedRowHmac, fields)) {
+      return true;
+    }
+
+    if (!rowHmac(table, fields).verify(storedRowHmac)) {
+      return false;
+    }
+    verifiedRows.markVerified(table, storedRowHmac, fields);
+    return true;
+  }
+
+  /**
+   * Starts computing a row HMAC, producing the same output as {@link #computeRowHmac} for the same
+   * table and fields without building intermediate strings.
+   *
+   * The returned instance is reused by the calling thread: add all fields and finish with
+   * {@link RowHmac#verify} or {@link RowHmac#toHex} before starting another row HMAC.
+   *
+   * @param table name of the table the row belongs to
+   * @return row HMAC to add fields to, in order
+   */
+  public RowHmac rowHmac(String table) {
+    return rowHmacs.get().start(table);
+  }
+
+  private RowHmac rowHmac(String table, List<Object> fields) {
+    RowHmac rowHmac = rowHmac(table);
+    for (Object field : fields) {
+      if (field instanceof Long) {
+        rowHmac.field((long) field);
+      } else {
+        rowHmac.field(Objects.toString(field, null));
+      }
+    }
+    return rowHmac;
   }
 
   /**
@@ -49,4 +101,165 @@ public class RowHmacGenerator {
     ByteBuffer generateIdByteBuffer = ByteBuffer.wrap(generateIdBytes);
     return generateIdByteBuffer.getLong();
   }
+
+  /**
+   * Streams "table|field1|field2|..." as UTF-8 into a MAC, buffering through a fixed scratch
+   * array. Instances are confined to a single thread and reused.
+   */
+  public static final class RowHmac {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final byte SEPARATOR = '|';
+
+    private final Mac mac;
+    private final byte[] buffer = new byte[1024];
+    private final byte[] digest;
+    private final byte[] digits = new byte[20];
+    private int position;
+    private boolean started;
+    private boolean firstField;
+
+    private RowHmac(Mac mac, SecretKey key) {
+      this.mac = mac;
+      try {
+        // The key never changes, so the MAC is initialized once; doFinal resets it for reuse.
+        mac.init(key);
+      } catch (InvalidKeyException e) {
+        throw new IllegalStateException("Invalid row HMAC key", e);
+      }
+      this.digest = new byte[mac.getMacLength()];
+    }
+
+    private RowHmac start(String table) {
+      mac.reset();
+      position = 0;
+      started = true;
+      firstField = true;
+      putString(table);
+      put(SEPARATOR);
+      return this;
+    }
+
+    /** Adds a field, with null written as "null" as {@link String#valueOf(Object)} would. */
+    public RowHmac field(@Nullable String value) {
+      separate();
+      putString(value == null ? "null" : value);
+      return this;
+    }
+
+    /** Adds a field written in decimal, as {@link Long#toString(long)} would. */
+    public RowHmac field(long value) {
+      separate();
+      if (value == Long.MIN_VALUE) {
+        putString(Long.toString(value));
+        return this;
+      }
+      if (value < 0) {
+        put((byte) '-');
+        value = -value;
+      }
+      int i = digits.length;
+      do {
+        digits[--i] = (byte) ('0' + (value % 10));
+        value /= 10;
+      } while (value != 0);
+      ensureCapacity(digits.length - i);
+      System.arraycopy(digits, i, buffer, position, digits.length - i);
+      position += digits.length - i;
+      return this;
+    }
+
+    /** @return the row HMAC as upper-case hex, as stored in row_hmac columns */
+    public String toHex() {
+      finish();
+      char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+        hex[2 * i + 1] = HEX[digest[i] & 0xF];
+      }
+      return new String(hex);
+    }
+
+    /**
+     * Compares the row HMAC against a stored value in time independent of where they differ.
+     *
+     * @param expectedHex stored row_hmac value
+     * @return true if the stored value matches
+     */
+    public boolean verify(@Nullable String expectedHex) {
+      finish();
+      if (expectedHex == null || expectedHex.length() != digest.length * 2) {
+        return false;
+      }
+      int diff = 0;
+      for (int i = 0; i < digest.length; i++) {
+        diff |= expectedHex.charAt(2 * i) ^ HEX[(digest[i] >> 4) & 0xF];
+        diff |= expectedHex.charAt(2 * i + 1) ^ HEX[digest[i] & 0xF];
+      }
+      return diff == 0;
+    }
+
+    private void separate() {
+      checkState(started, "Row HMAC already finished");
+      // The table name is always followed by a separator, so only separate subsequent fields.
+      if (!firstField) {
+        put(SEPARATOR);
+      }
+      firstField = false;
+    }
+
+    private void finish() {
+      checkState(started, "Row HMAC already finished");
+      started = false;
+      flush();
+      try {
+        mac.doFinal(digest, 0);
+      } catch (ShortBufferException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    // Encodes as String.getBytes(UTF_8) does, including replacing unpaired surrogates with '?'.
+    private void putString(String s) {
+      int length = s.length();
+      for (int i = 0; i < length; i++) {
+        char c = s.charAt(i);
+        ensureCapacity(4);
+        if (c < 0x80) {
+          buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+          buffer[position++] = (byte) (0xC0 | (c >> 6));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < length
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, s.charAt(++i));
+          buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          buffer[position++] = (byte) '?';
+        } else {
+          buffer[position++] = (byte) (0xE0 | (c >> 12));
+          buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+    }
+
+    private void put(byte b) {
+      ensureCapacity(1);
+      buffer[position++] = b;
+    }
+
+    private void ensureCapacity(int bytes) {
+      if (position + bytes > buffer.length) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      mac.update(buffer, 0, position);
+      position = 0;
+    }
+  }
 }
@@ -29,9 +29,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class SecretTransformer {
   private final ContentCryptographer cryptographer;
+  private final PlaintextCache plaintextCache;
 
   @Inject public SecretTransformer(ContentCryptographer cryptographer) {
+    this(cryptographer, PlaintextCache.disabled());
+  }
+
+  /**
+   * @param plaintextCache cache of decrypted content, for transformers on the delivery path
+   */
+  public SecretTransformer(ContentCryptographer cryptographer, PlaintextCache plaintextCache) {
     this.cryptographer = cryptographer;
+    this.plaintextCache = plaintextCache;
   }
 
   /**
@@ -48,7 +57,8 @@ public class SecretTransformer {
         series.id(),
         series.name(),
         series.description(),
-        () -> cryptographer.decrypt(content.encryptedContent()),
+        () -> plaintextCache.get(series.id(), content.id(),
+            () -> cryptographer.decrypt(content.encryptedContent())),
         content.hmac(),
         series.createdAt(),
         series.createdBy(),
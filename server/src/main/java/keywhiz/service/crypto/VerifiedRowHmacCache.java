@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Bounded set of rows whose stored row_hmac has already been verified.
+ *
+ * Entries are keyed by the table, the stored row_hmac and the exact field values it covers, so
+ * a row modified in any way, with or without its row_hmac, misses the cache and is verified
+ * again. Only successful verifications are cached.
+ *
+ * Keys hold the field values themselves, which for secret content rows include the encrypted
+ * content, since comparing them is much cheaper than hashing them again. The cache is therefore
+ * bounded by the approximate heap size of its keys rather than by a number of entries.
+ */
+public class VerifiedRowHmacCache {
+  public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+  // Approximate heap size of an entry besides its strings, and of a string besides its characters
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+  private static final int STRING_OVERHEAD_BYTES = 40;
+  private static final int LONG_BYTES = 16;
+
+  private final long maxBytes;
+  private final Cache<VerifiedRow, Boolean> cache;
+
+  /**
+   * @param maxBytes approximate maximum heap size of cached rows; zero disables caching
+   */
+  public VerifiedRowHmacCache(long maxBytes, @Nullable MetricRegistry metrics) {
+    this.maxBytes = maxBytes;
+    this.cache = CacheBuilder.newBuilder()
+        // A single segment, since the maximum weight is divided between segments
+        .concurrencyLevel(1)
+        .maximumWeight(maxBytes)
+        .weigher((VerifiedRow row, Boolean verified) -> row.weight())
+        .recordStats()
+        .build();
+
+    if (metrics != null) {
+      metrics.register(name(VerifiedRowHmacCache.class, "hits"),
+          (Gauge<Long>) () -> cache.stats().hitCount());
+      metrics.register(name(VerifiedRowHmacCache.class, "misses"),
+          (Gauge<Long>) () -> cache.stats().missCount());
+      metrics.register(name(VerifiedRowHmacCache.class, "evictions"),
+          (Gauge<Long>) () -> cache.stats().evictionCount());
+      metrics.register(name(VerifiedRowHmacCache.class, "size"), (Gauge<Long>) cache::size);
+    }
+  }
+
+  /** @return a cache with default bounds which does not report metrics. */
+  public static VerifiedRowHmacCache withDefaults() {
+    return new VerifiedRowHmacCache(DEFAULT_MAX_BYTES, null);
+  }
+
+  /**
+   * @param table name of the table the row belongs to
+   * @param rowHmac stored row_hmac of the row
+   * @param fields field values covered by the row_hmac, in order
+   * @return true if the same row_hmac was previously verified for the same field values
+   */
+  public boolean isVerified(String table, String rowHmac, List<Object> fields) {
+    if (maxBytes == 0) {
+      return false;
+    }
+    return cache.getIfPresent(new VerifiedRow(table, rowHmac, fields)) != null;
+  }
+
+  /** Records that the stored row_hmac verified for the given field values. */
+  public void markVerified(String table, String rowHmac, List<Object> fields) {
+    if (maxBytes != 0) {
+      cache.put(new VerifiedRow(table, rowHmac, fields), Boolean.TRUE);
+    }
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @VisibleForTesting long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  private static final class VerifiedRow {
+    private final String table;
+    private final String rowHmac;
+    private final List<Object> fields;
+    private final int hashCode;
+
+    VerifiedRow(String table, String rowHmac, List<Object> fields) {
+      this.table = table;
+      this.rowHmac = rowHmac;
+      this.fields = fields;
+      // The row_hmac is effectively random, which makes it a sufficient hash on its own and
+      // avoids hashing potentially large field values such as encrypted content.
+      this.hashCode = Objects.hash(table, rowHmac);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof VerifiedRow)) return false;
+      VerifiedRow that = (VerifiedRow) o;
+      return hashCode == that.hashCode
+          && rowHmac.equals(that.rowHmac)
+          && table.equals(that.table)
+          && fields.equals(that.fields);
+    }
+
+    @Override public int hashCode() {
+      return hashCode;
+    }
+
+    int weight() {
+      long weight = ENTRY_OVERHEAD_BYTES + STRING_OVERHEAD_BYTES * 2L + table.length()
+          + rowHmac.length();
+      for (Object field : fields) {
+        if (field instanceof String) {
+          weight += STRING_OVERHEAD_BYTES + ((String) field).length();
+        } else if (field != null) {
+          weight += LONG_BYTES;
+        }
+      }
+      return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+  }
+}
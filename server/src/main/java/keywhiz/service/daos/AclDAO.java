@@ -18,13 +18,20 @@ package keywhiz.service.daos;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import keywhiz.KeywhizConfig;
@@ -34,14 +41,15 @@ import keywhiz.api.model.Client;
 import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecret;
 import keywhiz.api.model.Secret;
-import keywhiz.api.model.SecretContent;
 import keywhiz.api.model.SecretSeries;
-import keywhiz.api.model.SecretSeriesAndContent;
+import keywhiz.jooq.tables.records.AccessgrantsRecord;
+import keywhiz.jooq.tables.records.MembershipsRecord;
 import keywhiz.jooq.tables.records.SecretsRecord;
 import keywhiz.log.AuditLog;
 import keywhiz.log.Event;
 import keywhiz.log.EventTag;
 import keywhiz.service.config.Readonly;
+import keywhiz.service.crypto.ParallelRowVerifier;
 import keywhiz.service.crypto.RowHmacGenerator;
 import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
 import keywhiz.service.daos.GroupDAO.GroupDAOFactory;
@@ -49,6 +57,7 @@ import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
 import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep5;
 import org.jooq.Record;
 import org.jooq.SelectQuery;
 import org.jooq.impl.DSL;
@@ -79,13 +88,15 @@ public class AclDAO {
   private final SecretSeriesMapper secretSeriesMapper;
   private final SecretContentMapper secretContentMapper;
   private final RowHmacGenerator rowHmacGenerator;
+  private final ParallelRowVerifier rowVerifier;
+  private final AclSnapshot aclSnapshot;
   private final KeywhizConfig config;
 
   private AclDAO(DSLContext dslContext, ClientDAOFactory clientDAOFactory, GroupDAOFactory groupDAOFactory,
                  SecretContentDAOFactory secretContentDAOFactory, SecretSeriesDAOFactory secretSeriesDAOFactory,
                  ClientMapper clientMapper, GroupMapper groupMapper, SecretSeriesMapper secretSeriesMapper,
                  SecretContentMapper secretContentMapper, RowHmacGenerator rowHmacGenerator,
-                 KeywhizConfig config) {
+                 ParallelRowVerifier rowVerifier, AclSnapshot aclSnapshot, KeywhizConfig config) {
     this.dslContext = dslContext;
     this.clientDAOFactory = clientDAOFactory;
     this.groupDAOFactory = groupDAOFactory;
@@ -96,6 +107,8 @@ public class AclDAO {
     this.secretSeriesMapper = secretSeriesMapper;
     this.secretContentMapper = secretContentMapper;
     this.rowHmacGenerator = rowHmacGenerator;
+    this.rowVerifier = rowVerifier;
+    this.aclSnapshot = aclSnapshot;
     this.config = config;
   }
 
@@ -151,6 +164,7 @@ public class AclDAO {
       extraInfo.put("secret removed", secret.get().name());
       auditLog.recordEvent(new Event(Instant.now(), EventTag.CHANGEACL_GROUP_SECRET, user, group.get().getName(), extraInfo));
     });
+    aclSnapshot.invalidate();
   }
 
   public void findAndEnrollClient(long clientId, long groupId, AuditLog auditLog, String user, Map<String, String> extraInfo) {
@@ -205,24 +219,113 @@ public class AclDAO {
       extraInfo.put("client removed", client.get().getName());
       auditLog.recordEvent(new Event(Instant.now(), EventTag.CHANGEACL_GROUP_CLIENT, user, group.get().getName(), extraInfo));
     });
+    aclSnapshot.invalidate();
   }
 
-  public ImmutableSet<SanitizedSecret> getSanitizedSecretsFor(Group group) {
-    checkNotNull(group);
-
-    ImmutableSet.Builder<SanitizedSecret> set = ImmutableSet.builder();
+  /**
+   * Grants the named groups access to a secret and revokes access from others, in one transaction
+   * with a single statement each. Groups which do not exist are ignored.
+   */
+  public void findAndModifyAccess(long secretId, Set<String> groupsToAdd,
+      Set<String> groupsToRemove, AuditLog auditLog, String user) {
+    boolean revoked = dslContext.transactionResult(configuration -> {
+      Optional<SecretSeries> secret =
+          secretSeriesDAOFactory.using(configuration).getSecretSeriesById(secretId);
+      if (!secret.isPresent()) {
+        logger.info("Failure to modify access to secretId {}: secretId not found.", secretId);
+        throw new IllegalStateException(format("SecretId %d doesn't exist.", secretId));
+      }
 
-    return dslContext.transactionResult(configuration -> {
-      SecretContentDAO secretContentDAO = secretContentDAOFactory.using(configuration);
+      Map<String, Long> groupIds =
+          getGroupIdsByName(configuration, Sets.union(groupsToAdd, groupsToRemove));
+      Map<String, Long> added = Maps.filterKeys(groupIds, groupsToAdd::contains);
+      Map<String, Long> removed = Maps.filterKeys(groupIds, groupsToRemove::contains);
+
+      allowAccess(configuration, secretId, added.values());
+      revokeAccess(configuration, secretId, removed.values());
+
+      Instant now = Instant.now();
+      added.keySet().forEach(group -> auditLog.recordEvent(
+          new Event(now, EventTag.CHANGEACL_GROUP_SECRET, user, group,
+              ImmutableMap.of("group", group, "secret added", secret.get().name()))));
+      removed.keySet().forEach(group -> auditLog.recordEvent(
+          new Event(now, EventTag.CHANGEACL_GROUP_SECRET, user, group,
+              ImmutableMap.of("group", group, "secret removed", secret.get().name()))));
+      return !removed.isEmpty();
+    });
+    if (revoked) {
+      aclSnapshot.invalidate();
+    }
+  }
 
-      for (SecretSeries series : getSecretSeriesFor(configuration, group)) {
-        SecretContent content = secretContentDAO.getSecretContentById(series.currentVersion().get()).get();
-        SecretSeriesAndContent seriesAndContent = SecretSeriesAndContent.of(series, content);
-        set.add(SanitizedSecret.fromSecretSeriesAndContent(seriesAndContent));
+  /**
+   * Enrolls a client in the named groups and evicts it from others, in one transaction with a
+   * single statement each. Groups which do not exist are ignored.
+   */
+  public void findAndModifyMemberships(long clientId, Set<String> groupsToAdd,
+      Set<String> groupsToRemove, AuditLog auditLog, String user) {
+    boolean evicted = dslContext.transactionResult(configuration -> {
+      Optional<Client> client = clientDAOFactory.using(configuration).getClientById(clientId);
+      if (!client.isPresent()) {
+        logger.info("Failure to modify memberships of clientId {}: clientId not found.", clientId);
+        throw new IllegalStateException(format("ClientId %d doesn't exist.", clientId));
       }
 
-      return set.build();
+      Map<String, Long> groupIds =
+          getGroupIdsByName(configuration, Sets.union(groupsToAdd, groupsToRemove));
+      Map<String, Long> added = Maps.filterKeys(groupIds, groupsToAdd::contains);
+      Map<String, Long> removed = Maps.filterKeys(groupIds, groupsToRemove::contains);
+
+      enrollClient(configuration, clientId, added.values());
+      evictClient(configuration, clientId, removed.values());
+
+      Instant now = Instant.now();
+      added.keySet().forEach(group -> auditLog.recordEvent(
+          new Event(now, EventTag.CHANGEACL_GROUP_CLIENT, user, group,
+              ImmutableMap.of("group", group, "client added", client.get().getName()))));
+      removed.keySet().forEach(group -> auditLog.recordEvent(
+          new Event(now, EventTag.CHANGEACL_GROUP_CLIENT, user, group,
+              ImmutableMap.of("group", group, "client removed", client.get().getName()))));
+      return !removed.isEmpty();
     });
+    if (evicted) {
+      aclSnapshot.invalidate();
+    }
+  }
+
+  /**
+   * @param group group whose secrets to list
+   * @return the sanitized secrets the group has access to
+   * @throws AssertionError if row HMACs are enforced and the HMAC of any secret, access grant or
+   * secret content row listed fails to verify, failing the whole listing rather than leaving the
+   * row out
+   */
+  public ImmutableSet<SanitizedSecret> getSanitizedSecretsFor(Group group) {
+    checkNotNull(group);
+
+    SelectQuery<Record> query = dslContext.select(SECRETS.fields())
+        .from(SECRETS)
+        .join(ACCESSGRANTS).on(SECRETS.ID.eq(ACCESSGRANTS.SECRETID))
+        .join(GROUPS).on(GROUPS.ID.eq(ACCESSGRANTS.GROUPID))
+        .join(SECRETS_CONTENT).on(SECRETS_CONTENT.ID.eq(SECRETS.CURRENT))
+        .where(GROUPS.NAME.eq(group.getName()).and(SECRETS.CURRENT.isNotNull()))
+        .getQuery();
+    query.addSelect(SECRETS_CONTENT.CONTENT_HMAC);
+    query.addSelect(SECRETS_CONTENT.CREATEDAT);
+    query.addSelect(SECRETS_CONTENT.CREATEDBY);
+    query.addSelect(SECRETS_CONTENT.METADATA);
+    query.addSelect(SECRETS_CONTENT.EXPIRY);
+    query.addSelect(ACCESSGRANTS.GROUPID);
+    query.addSelect(ACCESSGRANTS.ROW_HMAC);
+    query.addSelect(SECRETS.ROW_HMAC);
+    // Encrypted content is never part of a sanitized secret, so it is only selected to verify the
+    // content row HMAC.
+    if (config.getRowHmacCheck() != RowHmacCheck.DISABLED) {
+      query.addSelect(SECRETS_CONTENT.ID);
+      query.addSelect(SECRETS_CONTENT.ENCRYPTED_CONTENT);
+      query.addSelect(SECRETS_CONTENT.ROW_HMAC);
+    }
+    return ImmutableSet.copyOf(processSanitizedSecretRows(query.fetch(), this::rowHmacFailures));
   }
 
   public Set<Group> getGroupsFor(Secret secret) {
@@ -264,8 +367,6 @@ public class AclDAO {
   public ImmutableSet<SanitizedSecret> getSanitizedSecretsFor(Client client) {
     checkNotNull(client);
 
-    ImmutableSet.Builder<SanitizedSecret> sanitizedSet = ImmutableSet.builder();
-
     SelectQuery<Record> query = dslContext.select(SECRETS.fields())
         .from(SECRETS)
         .join(ACCESSGRANTS).on(SECRETS.ID.eq(ACCESSGRANTS.SECRETID))
@@ -284,11 +385,7 @@ public class AclDAO {
     query.addSelect(MEMBERSHIPS.GROUPID);
     query.addSelect(CLIENTS.ROW_HMAC);
     query.addSelect(SECRETS.ROW_HMAC);
-    query.fetch()
-        .map(row -> processSanitizedSecretRow(row, client))
-        .forEach(sanitizedSet::add);
-
-    return sanitizedSet.build();
+    return ImmutableSet.copyOf(processSanitizedSecretRows(query.fetch(), row -> rowHmacFailures(row, client)));
   }
 
   public Set<Client> getClientsFor(Secret secret) {
@@ -358,71 +455,111 @@ public class AclDAO {
     query.addSelect(CLIENTS.ROW_HMAC);
     query.addSelect(SECRETS.ROW_HMAC);
 
-    return query.fetch().map(row -> processSanitizedSecretRow(row, client));
+    return processSanitizedSecretRows(query.fetch(), row -> rowHmacFailures(row, client));
+  }
+
+  private List<SanitizedSecret> processSanitizedSecretRows(List<Record> rows,
+      Function<Record, List<String>> rowHmacFailures) {
+    // With checks disabled a mismatch has no effect, so skip computing the row HMACs entirely.
+    if (config.getRowHmacCheck() != RowHmacCheck.DISABLED) {
+      rowVerifier.verifyAll(rows, rowHmacFailures).forEach(this::reportRowHmacFailures);
+    }
+    return rows.stream().map(this::toSanitizedSecret).collect(toList());
   }
 
   private SanitizedSecret processSanitizedSecretRow(Record row, Client client) {
-    boolean rowHmacLog = config.getRowHmacCheck() == RowHmacCheck.DISABLED_BUT_LOG;
-    boolean rowHmacFail = config.getRowHmacCheck() == RowHmacCheck.ENFORCED;
+    if (config.getRowHmacCheck() != RowHmacCheck.DISABLED) {
+      reportRowHmacFailures(rowHmacFailures(row, client));
+    }
+    return toSanitizedSecret(row);
+  }
 
-    SecretSeries series = secretSeriesMapper.map(row.into(SECRETS));
+  /** @return a message for each row HMAC covering the row which failed to verify */
+  private List<String> rowHmacFailures(Record row, Client client) {
+    List<String> failures = new ArrayList<>(0);
 
-    String secretHmac = rowHmacGenerator.computeRowHmac(
-        SECRETS.getName(), List.of(row.getValue(SECRETS.NAME), row.getValue(SECRETS.ID))
-    );
-    if (!secretHmac.equals(row.getValue(SECRETS.ROW_HMAC))) {
-      String errorMessage = String.format(
-          "Secret HMAC verification failed for secret: %s", row.getValue(SECRETS.NAME));
-      if (rowHmacLog) {
-        logger.warn(errorMessage);
-      }
-      if (rowHmacFail) {
-        throw new AssertionError(errorMessage);
-      }
+    boolean secretValid = rowHmacGenerator.verifyRowHmac(SECRETS.getName(),
+        row.getValue(SECRETS.ROW_HMAC),
+        List.of(row.getValue(SECRETS.NAME), row.getValue(SECRETS.ID)));
+    if (!secretValid) {
+      failures.add(String.format(
+          "Secret HMAC verification failed for secret: %s", row.getValue(SECRETS.NAME)));
     }
 
-    String clientHmac = rowHmacGenerator.computeRowHmac(
-        CLIENTS.getName(), List.of(client.getName(), client.getId())
-    );
-    if (!clientHmac.equals(row.getValue(CLIENTS.ROW_HMAC))) {
-      String errorMessage = String.format(
-          "Client HMAC verification failed for client: %s", client.getName());
-      if (rowHmacLog) {
-        logger.warn(errorMessage);
-      }
-      if (rowHmacFail) {
-        throw new AssertionError(errorMessage);
-      }
+    boolean clientValid = rowHmacGenerator.verifyRowHmac(CLIENTS.getName(),
+        row.getValue(CLIENTS.ROW_HMAC), List.of(client.getName(), client.getId()));
+    if (!clientValid) {
+      failures.add(String.format(
+          "Client HMAC verification failed for client: %s", client.getName()));
     }
 
-    String membershipsHmac = rowHmacGenerator.computeRowHmac(
-        MEMBERSHIPS.getName(), List.of(client.getId(), row.getValue(MEMBERSHIPS.GROUPID)));
-    if (!membershipsHmac.equals(row.getValue(MEMBERSHIPS.ROW_HMAC))) {
-      String errorMessage = String.format(
+    boolean membershipsValid = rowHmacGenerator.verifyRowHmac(MEMBERSHIPS.getName(),
+        row.getValue(MEMBERSHIPS.ROW_HMAC),
+        List.of(client.getId(), row.getValue(MEMBERSHIPS.GROUPID)));
+    if (!membershipsValid) {
+      failures.add(String.format(
           "Memberships HMAC verification failed for clientId: %d in groupId: %d",
-          client.getId(), row.getValue(MEMBERSHIPS.GROUPID));
-      if (rowHmacLog) {
-        logger.warn(errorMessage);
-      }
-      if (rowHmacFail) {
-        throw new AssertionError(errorMessage);
-      }
+          client.getId(), row.getValue(MEMBERSHIPS.GROUPID)));
     }
 
-    String accessgrantsHmac = rowHmacGenerator.computeRowHmac(
-        ACCESSGRANTS.getName(),
+    boolean accessgrantsValid = rowHmacGenerator.verifyRowHmac(ACCESSGRANTS.getName(),
+        row.getValue(ACCESSGRANTS.ROW_HMAC),
         List.of(row.getValue(MEMBERSHIPS.GROUPID), row.getValue(SECRETS.ID)));
-    if (!accessgrantsHmac.equals(row.getValue(ACCESSGRANTS.ROW_HMAC))) {
-      String errorMessage = String.format(
+    if (!accessgrantsValid) {
+      failures.add(String.format(
           "Access Grants HMAC verification failed for groupId: %d in secretId: %d",
-          row.getValue(MEMBERSHIPS.GROUPID), row.getValue(SECRETS.ID));
-      if (rowHmacLog) {
+          row.getValue(MEMBERSHIPS.GROUPID), row.getValue(SECRETS.ID)));
+    }
+
+    return failures;
+  }
+
+  /** @return a message for each row HMAC covering a row of a group's secret which failed to verify */
+  private List<String> rowHmacFailures(Record row) {
+    List<String> failures = new ArrayList<>(0);
+
+    boolean secretValid = rowHmacGenerator.verifyRowHmac(SECRETS.getName(),
+        row.getValue(SECRETS.ROW_HMAC),
+        List.of(row.getValue(SECRETS.NAME), row.getValue(SECRETS.ID)));
+    if (!secretValid) {
+      failures.add(String.format(
+          "Secret HMAC verification failed for secret: %s", row.getValue(SECRETS.NAME)));
+    }
+
+    boolean accessgrantsValid = rowHmacGenerator.verifyRowHmac(ACCESSGRANTS.getName(),
+        row.getValue(ACCESSGRANTS.ROW_HMAC),
+        List.of(row.getValue(ACCESSGRANTS.GROUPID), row.getValue(SECRETS.ID)));
+    if (!accessgrantsValid) {
+      failures.add(String.format(
+          "Access Grants HMAC verification failed for groupId: %d in secretId: %d",
+          row.getValue(ACCESSGRANTS.GROUPID), row.getValue(SECRETS.ID)));
+    }
+
+    boolean contentValid = rowHmacGenerator.verifyRowHmac(SECRETS_CONTENT.getName(),
+        row.getValue(SECRETS_CONTENT.ROW_HMAC),
+        List.of(row.getValue(SECRETS_CONTENT.ENCRYPTED_CONTENT),
+            row.getValue(SECRETS_CONTENT.METADATA), row.getValue(SECRETS_CONTENT.ID)));
+    if (!contentValid) {
+      failures.add(String.format("Secret Content HMAC verification failed for secretContent: %d",
+          row.getValue(SECRETS_CONTENT.ID)));
+    }
+
+    return failures;
+  }
+
+  private void reportRowHmacFailures(List<String> failures) {
+    for (String errorMessage : failures) {
+      if (config.getRowHmacCheck() == RowHmacCheck.DISABLED_BUT_LOG) {
         logger.warn(errorMessage);
       }
-      if (rowHmacFail) {
+      if (config.getRowHmacCheck() == RowHmacCheck.ENFORCED) {
         throw new AssertionError(errorMessage);
       }
     }
+  }
+
+  private SanitizedSecret toSanitizedSecret(Record row) {
+    SecretSeries series = secretSeriesMapper.map(row.into(SECRETS));
 
     return SanitizedSecret.of(
         series.id(),
@@ -493,6 +630,7 @@ public class AclDAO {
         .where(ACCESSGRANTS.SECRETID.eq(secretId)
             .and(ACCESSGRANTS.GROUPID.eq(groupId)))
         .execute();
+    ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.GROUP, groupId);
   }
 
   protected void enrollClient(Configuration configuration, long clientId, long groupId) {
@@ -526,18 +664,101 @@ public class AclDAO {
         .where(MEMBERSHIPS.CLIENTID.eq(clientId)
             .and(MEMBERSHIPS.GROUPID.eq(groupId)))
         .execute();
+    ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.CLIENT, clientId);
   }
 
-  protected ImmutableSet<SecretSeries> getSecretSeriesFor(Configuration configuration, Group group) {
-    List<SecretSeries> r = DSL.using(configuration)
-        .select(SECRETS.fields())
-        .from(SECRETS)
-        .join(ACCESSGRANTS).on(SECRETS.ID.eq(ACCESSGRANTS.SECRETID))
-        .join(GROUPS).on(GROUPS.ID.eq(ACCESSGRANTS.GROUPID))
-        .where(GROUPS.NAME.eq(group.getName()).and(SECRETS.CURRENT.isNotNull()))
-        .fetchInto(SECRETS)
-        .map(secretSeriesMapper);
-    return ImmutableSet.copyOf(r);
+  /** Grants access to a secret for several groups at once; existing grants are left as they are. */
+  protected void allowAccess(Configuration configuration, long secretId,
+      Collection<Long> groupIds) {
+    allowAccess(configuration,
+        ImmutableSetMultimap.<Long, Long>builder().putAll(secretId, groupIds).build());
+  }
+
+  /**
+   * Grants access to several secrets for groups with a single statement; existing grants are left
+   * as they are.
+   *
+   * @param groupIdsBySecretId groups to grant access to each secret
+   */
+  protected void allowAccess(Configuration configuration, Multimap<Long, Long> groupIdsBySecretId) {
+    if (groupIdsBySecretId.isEmpty()) {
+      return;
+    }
+    long now = OffsetDateTime.now().toEpochSecond();
+
+    InsertValuesStep5<AccessgrantsRecord, Long, Long, Long, Long, String> insert =
+        DSL.using(configuration).insertInto(ACCESSGRANTS, ACCESSGRANTS.SECRETID,
+            ACCESSGRANTS.GROUPID, ACCESSGRANTS.CREATEDAT, ACCESSGRANTS.UPDATEDAT,
+            ACCESSGRANTS.ROW_HMAC);
+    for (Map.Entry<Long, Long> grant : groupIdsBySecretId.entries()) {
+      long secretId = grant.getKey();
+      long groupId = grant.getValue();
+      String verificationHmac = rowHmacGenerator.rowHmac(ACCESSGRANTS.getName())
+          .field(groupId)
+          .field(secretId)
+          .toHex();
+      insert = insert.values(secretId, groupId, now, now, verificationHmac);
+    }
+    insert.onDuplicateKeyIgnore().execute();
+  }
+
+  protected void revokeAccess(Configuration configuration, long secretId,
+      Collection<Long> groupIds) {
+    if (groupIds.isEmpty()) {
+      return;
+    }
+    DSL.using(configuration)
+        .delete(ACCESSGRANTS)
+        .where(ACCESSGRANTS.SECRETID.eq(secretId)
+            .and(ACCESSGRANTS.GROUPID.in(groupIds)))
+        .execute();
+    ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.GROUP, groupIds);
+  }
+
+  /** Enrolls a client in several groups at once; existing memberships are left as they are. */
+  protected void enrollClient(Configuration configuration, long clientId,
+      Collection<Long> groupIds) {
+    if (groupIds.isEmpty()) {
+      return;
+    }
+    long now = OffsetDateTime.now().toEpochSecond();
+
+    InsertValuesStep5<MembershipsRecord, Long, Long, Long, Long, String> insert =
+        DSL.using(configuration).insertInto(MEMBERSHIPS, MEMBERSHIPS.GROUPID,
+            MEMBERSHIPS.CLIENTID, MEMBERSHIPS.CREATEDAT, MEMBERSHIPS.UPDATEDAT,
+            MEMBERSHIPS.ROW_HMAC);
+    for (long groupId : groupIds) {
+      String verificationHmac = rowHmacGenerator.rowHmac(MEMBERSHIPS.getName())
+          .field(clientId)
+          .field(groupId)
+          .toHex();
+      insert = insert.values(groupId, clientId, now, now, verificationHmac);
+    }
+    insert.onDuplicateKeyIgnore().execute();
+  }
+
+  protected void evictClient(Configuration configuration, long clientId,
+      Collection<Long> groupIds) {
+    if (groupIds.isEmpty()) {
+      return;
+    }
+    DSL.using(configuration)
+        .delete(MEMBERSHIPS)
+        .where(MEMBERSHIPS.CLIENTID.eq(clientId)
+            .and(MEMBERSHIPS.GROUPID.in(groupIds)))
+        .execute();
+    ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.CLIENT, clientId);
+  }
+
+  Map<String, Long> getGroupIdsByName(Configuration configuration, Set<String> names) {
+    if (names.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    return DSL.using(configuration)
+        .select(GROUPS.NAME, GROUPS.ID)
+        .from(GROUPS)
+        .where(GROUPS.NAME.in(names))
+        .fetchMap(GROUPS.NAME, GROUPS.ID);
   }
 
   /**
@@ -574,6 +795,8 @@ public class AclDAO {
     private final SecretSeriesMapper secretSeriesMapper;
     private final SecretContentMapper secretContentMapper;
     private final RowHmacGenerator rowHmacGenerator;
+    private final ParallelRowVerifier rowVerifier;
+    private final AclSnapshot aclSnapshot;
     private final KeywhizConfig config;
 
     @Inject public AclDAOFactory(DSLContext jooq, @Readonly DSLContext readonlyJooq, ClientDAOFactory clientDAOFactory,
@@ -581,6 +804,7 @@ public class AclDAO {
                                  SecretSeriesDAOFactory secretSeriesDAOFactory, ClientMapper clientMapper,
                                  GroupMapper groupMapper, SecretSeriesMapper secretSeriesMapper,
                                  SecretContentMapper secretContentMapper, RowHmacGenerator rowHmacGenerator,
+                                 ParallelRowVerifier rowVerifier, AclSnapshot aclSnapshot,
                                  KeywhizConfig config) {
       this.jooq = jooq;
       this.readonlyJooq = readonlyJooq;
@@ -593,26 +817,28 @@ public class AclDAO {
       this.secretSeriesMapper = secretSeriesMapper;
       this.secretContentMapper = secretContentMapper;
       this.rowHmacGenerator = rowHmacGenerator;
+      this.rowVerifier = rowVerifier;
+      this.aclSnapshot = aclSnapshot;
       this.config = config;
     }
 
     @Override public AclDAO readwrite() {
       return new AclDAO(jooq, clientDAOFactory, groupDAOFactory, secretContentDAOFactory,
           secretSeriesDAOFactory, clientMapper, groupMapper, secretSeriesMapper, secretContentMapper,
-          rowHmacGenerator, config);
+          rowHmacGenerator, rowVerifier, aclSnapshot, config);
     }
 
     @Override public AclDAO readonly() {
       return new AclDAO(readonlyJooq, clientDAOFactory, groupDAOFactory, secretContentDAOFactory,
           secretSeriesDAOFactory, clientMapper, groupMapper, secretSeriesMapper, secretContentMapper,
-          rowHmacGenerator, config);
+          rowHmacGenerator, rowVerifier, aclSnapshot, config);
     }
 
     @Override public AclDAO using(Configuration configuration) {
       DSLContext dslContext = DSL.using(checkNotNull(configuration));
       return new AclDAO(dslContext, clientDAOFactory, groupDAOFactory, secretContentDAOFactory,
           secretSeriesDAOFactory, clientMapper, groupMapper, secretSeriesMapper, secretContentMapper,
-          rowHmacGenerator, config);
+          rowHmacGenerator, rowVerifier, aclSnapshot, config);
     }
   }
 }
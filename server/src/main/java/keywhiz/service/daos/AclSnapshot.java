@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import keywhiz.api.model.Client;
+import keywhiz.api.model.Secret;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.RowHmacGenerator;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static keywhiz.jooq.tables.Accessgrants.ACCESSGRANTS;
+import static keywhiz.jooq.tables.Clients.CLIENTS;
+import static keywhiz.jooq.tables.Memberships.MEMBERSHIPS;
+import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static org.jooq.impl.DSL.count;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.sum;
+
+/**
+ * In-memory snapshot of which clients may access which secrets, so that authorizing delivery of a
+ * secret needs no query. Disabled unless a refresh interval is configured.
+ *
+ * The snapshot is loaded at startup and refreshed periodically from the readonly database, so it
+ * trails the primary by the replication lag plus up to the refresh interval. Each refresh reads all
+ * tables in one transaction for a consistent view, and reloads only the tables which changed since
+ * the last refresh. Clients and secrets are identified by id rather than name, so a name reused by
+ * a new client or secret never inherits the grants of its predecessor.
+ *
+ * When row HMACs are checked, the snapshot covers the same rows as the database check: membership
+ * and access grant rows, and client and secret rows, whose row HMAC fails to verify are left out,
+ * so that access through them is decided by the database. Clients and secrets must also still have
+ * the name their row HMAC was verified with, so that a row renamed since is checked again.
+ *
+ * Only grants are trusted: if the snapshot does not grant access, or is older than its maximum age,
+ * callers must check the database, which also covers grants made since the last refresh. Grants
+ * revoked through this server invalidate the snapshot until it is reloaded from the primary. After
+ * that, refreshes keep reading the primary until the readonly database has caught up with it, so
+ * that a lagging replica never reinstates a revoked grant.
+ */
+public class AclSnapshot implements Managed {
+  private static final Logger logger = LoggerFactory.getLogger(AclSnapshot.class);
+
+  // Watermark which no readonly database matches, so that the primary is read until it is loaded
+  private static final List<List<Object>> NOT_LOADED_FROM_PRIMARY = List.of();
+
+  private final DSLContext jooq;
+  private final DSLContext readonlyJooq;
+  private final RowHmacGenerator rowHmacGenerator;
+  private final ParallelRowVerifier rowVerifier;
+  private final boolean verifyRowHmacs;
+  private final Duration refreshInterval;
+  private final Duration maxAge;
+  private final ScheduledExecutorService executor;
+
+  private final Timer refreshes;
+  private final Meter refreshFailures;
+  private final Meter hits;
+  private final Meter misses;
+
+  private final Object lock = new Object();
+  // Most recently loaded graph, kept to reuse the tables which did not change since
+  @Nullable private Graph lastLoaded;
+  // Graph to authorize from; null until loaded and while invalidated
+  @Nullable private volatile Graph graph;
+  // Incremented by each invalidation, so that graphs loaded concurrently are not installed
+  private long invalidations;
+  // Table versions last loaded from the primary after an invalidation, which the readonly database
+  // must match before it is refreshed from again; null once it has
+  @Nullable private List<List<Object>> primaryWatermark;
+
+  /**
+   * @param jooq the primary database, reloaded from after invalidation
+   * @param readonlyJooq the readonly database, refreshed from periodically
+   * @param verifyRowHmacs whether to leave out rows whose row HMAC fails to verify
+   * @param refreshInterval time between refreshes; zero disables the snapshot
+   * @param maxAge age beyond which the snapshot is not used, e.g. if refreshes fail
+   */
+  public AclSnapshot(DSLContext jooq, DSLContext readonlyJooq, RowHmacGenerator rowHmacGenerator,
+      ParallelRowVerifier rowVerifier, boolean verifyRowHmacs, Duration refreshInterval,
+      Duration maxAge, MetricRegistry metrics) {
+    this.jooq = jooq;
+    this.readonlyJooq = readonlyJooq;
+    this.rowHmacGenerator = rowHmacGenerator;
+    this.rowVerifier = rowVerifier;
+    this.verifyRowHmacs = verifyRowHmacs;
+    this.refreshInterval = refreshInterval;
+    this.maxAge = maxAge;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("acl-snapshot-%d")
+        .setDaemon(true)
+        .build());
+
+    this.refreshes = metrics.timer(name(AclSnapshot.class, "refresh"));
+    this.refreshFailures = metrics.meter(name(AclSnapshot.class, "refresh-failures"));
+    this.hits = metrics.meter(name(AclSnapshot.class, "hits"));
+    this.misses = metrics.meter(name(AclSnapshot.class, "misses"));
+    // Time since the start of the last successful refresh, or -1 if there has not been one
+    metrics.register(name(AclSnapshot.class, "age-millis"), (Gauge<Long>) () -> {
+      Graph loaded;
+      synchronized (lock) {
+        loaded = lastLoaded;
+      }
+      return loaded == null ? -1 : System.currentTimeMillis() - loaded.loadedAtMillis;
+    });
+  }
+
+  public boolean isEnabled() {
+    return !refreshInterval.isZero();
+  }
+
+  /**
+   * @return true if the snapshot grants the client access to the secret; false if it does not, or
+   * the snapshot is unavailable, in which case the database must be checked instead
+   */
+  public boolean grants(Client client, Secret secret) {
+    Graph current = graph;
+    if (current == null
+        || System.currentTimeMillis() - current.loadedAtMillis > maxAge.toMillis()) {
+      misses.mark();
+      return false;
+    }
+    boolean granted = current.grants(client.getId(), client.getName(), secret.getId(),
+        secret.getName());
+    (granted ? hits : misses).mark();
+    return granted;
+  }
+
+  /**
+   * Stops using the snapshot until it is reloaded from the primary database. Must be called after
+   * access is revoked, once the revocation is committed.
+   */
+  public void invalidate() {
+    if (!isEnabled()) {
+      return;
+    }
+    synchronized (lock) {
+      invalidations++;
+      graph = null;
+      primaryWatermark = NOT_LOADED_FROM_PRIMARY;
+    }
+    try {
+      executor.execute(() -> refresh(true));
+    } catch (RejectedExecutionException e) {
+      // Stopped; the snapshot stays invalidated.
+    }
+  }
+
+  @Override public void start() {
+    if (!isEnabled()) {
+      return;
+    }
+    refresh(false);
+    executor.scheduleWithFixedDelay(() -> refresh(false), refreshInterval.toMillis(),
+        refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Loads the tables which changed since the last refresh and installs the result, unless the
+   * snapshot was invalidated while loading. Reads the primary instead of the readonly database
+   * while the latter has not caught up with the primary since an invalidation.
+   *
+   * @param fromPrimary whether to read the primary database rather than the readonly one
+   */
+  void refresh(boolean fromPrimary) {
+    long generation;
+    Graph previous;
+    List<List<Object>> watermark;
+    synchronized (lock) {
+      generation = invalidations;
+      previous = lastLoaded;
+      watermark = primaryWatermark;
+    }
+
+    Graph loaded = null;
+    try (Timer.Context ignored = refreshes.time()) {
+      long startedAtMillis = System.currentTimeMillis();
+      if (!fromPrimary) {
+        loaded = readonlyJooq.transactionResult(configuration -> {
+          DSLContext dslContext = DSL.using(configuration);
+          List<List<Object>> versions = versions(dslContext);
+          // A replica which differs from what was last loaded from the primary may still hold
+          // grants revoked since
+          return (watermark == null || watermark.equals(versions))
+              ? load(dslContext, previous, versions, startedAtMillis)
+              : null;
+        });
+      }
+      if (loaded == null) {
+        fromPrimary = true;
+        loaded = jooq.transactionResult(configuration -> {
+          DSLContext dslContext = DSL.using(configuration);
+          return load(dslContext, previous, versions(dslContext), startedAtMillis);
+        });
+      }
+    } catch (RuntimeException e) {
+      refreshFailures.mark();
+      logger.warn("Failed to refresh ACL snapshot", e);
+      return;
+    }
+
+    synchronized (lock) {
+      lastLoaded = loaded;
+      if (invalidations == generation) {
+        graph = loaded;
+        primaryWatermark = fromPrimary ? loaded.versions() : null;
+      }
+    }
+  }
+
+  /**
+   * @return the versions of the tables loaded into the snapshot, in the order they are stored in
+   * a graph
+   */
+  private List<List<Object>> versions(DSLContext dslContext) {
+    List<Object> membershipsVersion =
+        version(dslContext, MEMBERSHIPS, MEMBERSHIPS.ID, MEMBERSHIPS.UPDATEDAT);
+    List<Object> accessgrantsVersion =
+        version(dslContext, ACCESSGRANTS, ACCESSGRANTS.ID, ACCESSGRANTS.UPDATEDAT);
+    if (!verifyRowHmacs) {
+      return List.of(membershipsVersion, accessgrantsVersion);
+    }
+    return List.of(membershipsVersion, accessgrantsVersion,
+        version(dslContext, CLIENTS, CLIENTS.ID, CLIENTS.UPDATEDAT),
+        version(dslContext, SECRETS, SECRETS.ID, SECRETS.UPDATEDAT));
+  }
+
+  private Graph load(DSLContext dslContext, @Nullable Graph previous,
+      List<List<Object>> versions, long startedAtMillis) {
+    Part<LongSetMultimap> memberships = reuseOrLoad(
+        previous == null ? null : previous.memberships, versions.get(0),
+        () -> loadEdges(dslContext.select(MEMBERSHIPS.CLIENTID, MEMBERSHIPS.GROUPID,
+            MEMBERSHIPS.ROW_HMAC).from(MEMBERSHIPS)
+            .orderBy(MEMBERSHIPS.CLIENTID, MEMBERSHIPS.GROUPID).fetch(), MEMBERSHIPS.getName()));
+    Part<LongSetMultimap> accessgrants = reuseOrLoad(
+        previous == null ? null : previous.accessgrants, versions.get(1),
+        () -> loadEdges(dslContext.select(ACCESSGRANTS.GROUPID, ACCESSGRANTS.SECRETID,
+            ACCESSGRANTS.ROW_HMAC).from(ACCESSGRANTS)
+            .orderBy(ACCESSGRANTS.GROUPID, ACCESSGRANTS.SECRETID).fetch(),
+            ACCESSGRANTS.getName()));
+    if (!verifyRowHmacs) {
+      return new Graph(memberships, accessgrants, null, null, startedAtMillis);
+    }
+
+    // Row HMACs of clients and secrets cover their name and id
+    Part<VerifiedNames> clients = reuseOrLoad(
+        previous == null ? null : previous.clients, versions.get(2),
+        () -> loadVerifiedNames(dslContext.select(CLIENTS.NAME, CLIENTS.ID, CLIENTS.ROW_HMAC)
+            .from(CLIENTS).orderBy(CLIENTS.ID).fetch(), CLIENTS.getName()));
+    Part<VerifiedNames> secrets = reuseOrLoad(
+        previous == null ? null : previous.secrets, versions.get(3),
+        () -> loadVerifiedNames(dslContext.select(SECRETS.NAME, SECRETS.ID, SECRETS.ROW_HMAC)
+            .from(SECRETS).orderBy(SECRETS.ID).fetch(), SECRETS.getName()));
+    return new Graph(memberships, accessgrants, clients, secrets, startedAtMillis);
+  }
+
+  private static <T> Part<T> reuseOrLoad(@Nullable Part<T> previous, List<Object> version,
+      Supplier<T> loader) {
+    return (previous != null && previous.version.equals(version))
+        ? previous
+        : new Part<>(version, loader.get());
+  }
+
+  /**
+   * Summarizes a table such that any insert or delete changes the summary, since ids are never
+   * reused, as does any update which sets updatedat to the current time.
+   */
+  private static List<Object> version(DSLContext dslContext, Table<?> table, Field<Long> id,
+      Field<Long> updatedAt) {
+    return dslContext.select(count(), sum(id), max(updatedAt)).from(table).fetchOne().intoList();
+  }
+
+  /** Maps each id to the ids it is related to, from rows sorted by both ids. */
+  private LongSetMultimap loadEdges(Result<Record3<Long, Long, String>> rows, String table) {
+    List<Boolean> valid = verify(rows, table);
+    long[] keys = new long[rows.size()];
+    long[] values = new long[rows.size()];
+    int count = 0;
+    for (int i = 0; i < rows.size(); i++) {
+      long key = rows.get(i).value1();
+      long value = rows.get(i).value2();
+      boolean duplicate = count > 0 && keys[count - 1] == key && values[count - 1] == value;
+      if (valid.get(i) && !duplicate) {
+        keys[count] = key;
+        values[count] = value;
+        count++;
+      }
+    }
+    return LongSetMultimap.fromSortedEntries(keys, values, count);
+  }
+
+  /** @return the names and ids, from rows sorted by id, whose row HMAC verified */
+  private VerifiedNames loadVerifiedNames(Result<Record3<String, Long, String>> rows,
+      String table) {
+    List<Boolean> valid = verify(rows, table);
+    int[] indexes = IntStream.range(0, rows.size()).filter(valid::get).toArray();
+    long[] ids = new long[indexes.length];
+    String[] names = new String[indexes.length];
+    for (int i = 0; i < indexes.length; i++) {
+      ids[i] = rows.get(indexes[i]).value2();
+      names[i] = rows.get(indexes[i]).value1();
+    }
+    return new VerifiedNames(ids, names);
+  }
+
+  /** @return for each row, whether its row HMAC over its first two values verified */
+  private List<Boolean> verify(Result<? extends Record3<?, ?, String>> rows, String table) {
+    List<Boolean> valid = rowVerifier.verifyAll(rows, row -> !verifyRowHmacs
+        || rowHmacGenerator.verifyRowHmac(table, row.value3(), List.of(row.value1(), row.value2())));
+    long invalid = valid.stream().filter(v -> !v).count();
+    if (invalid > 0) {
+      logger.warn("Left {} rows of {} out of ACL snapshot: row HMAC verification failed", invalid,
+          table);
+    }
+    return valid;
+  }
+
+  private static final class Part<T> {
+    private final List<Object> version;
+    private final T value;
+
+    Part(List<Object> version, T value) {
+      this.version = version;
+      this.value = value;
+    }
+  }
+
+  /** Names of clients or secrets by id, in arrays sorted by id. */
+  private static final class VerifiedNames {
+    private final long[] ids;
+    private final String[] names;
+
+    VerifiedNames(long[] ids, String[] names) {
+      this.ids = ids;
+      this.names = names;
+    }
+
+    boolean contains(long id, String name) {
+      int index = Arrays.binarySearch(ids, id);
+      return index >= 0 && names[index].equals(name);
+    }
+  }
+
+  private static final class Graph {
+    // client id -> group ids
+    private final Part<LongSetMultimap> memberships;
+    // group id -> secret ids
+    private final Part<LongSetMultimap> accessgrants;
+    // Clients and secrets whose row HMAC verified; null if not checked
+    @Nullable private final Part<VerifiedNames> clients;
+    @Nullable private final Part<VerifiedNames> secrets;
+    private final long loadedAtMillis;
+
+    Graph(Part<LongSetMultimap> memberships, Part<LongSetMultimap> accessgrants,
+        @Nullable Part<VerifiedNames> clients, @Nullable Part<VerifiedNames> secrets,
+        long loadedAtMillis) {
+      this.memberships = memberships;
+      this.accessgrants = accessgrants;
+      this.clients = clients;
+      this.secrets = secrets;
+      this.loadedAtMillis = loadedAtMillis;
+    }
+
+    List<List<Object>> versions() {
+      if (clients == null || secrets == null) {
+        return List.of(memberships.version, accessgrants.version);
+      }
+      return List.of(memberships.version, accessgrants.version, clients.version,
+          secrets.version);
+    }
+
+    boolean grants(long clientId, String clientName, long secretId, String secretName) {
+      if (clients != null && !clients.value.contains(clientId, clientName)) {
+        return false;
+      }
+      if (secrets != null && !secrets.value.contains(secretId, secretName)) {
+        return false;
+      }
+      for (long groupId : memberships.value.get(clientId)) {
+        if (accessgrants.value.containsEntry(groupId, secretId)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import java.util.Collection;
+import java.util.List;
+import keywhiz.jooq.tables.records.ChangesRecord;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.InsertValuesStep3;
+import org.jooq.impl.DSL;
+
+import static keywhiz.jooq.tables.Changes.CHANGES;
+
+/**
+ * Records updated and deleted entities in the changes table, which every server tails to invalidate
+ * what it cached of them (see {@link ChangeLogPoller}). Must be called within the transaction which
+ * changes the entities, so that changes are recorded if and only if they are committed. Changes
+ * are timestamped by the primary database rather than the recording server, so that servers with
+ * skewed clocks agree on when a change was made.
+ *
+ * Most created entities are not recorded: caches fall back to the database for what they do not
+ * hold, so such an addition can not make them stale. For the same reason, granting access and
+ * enrolling clients are not recorded, while revoking access and evicting clients are. Created
+ * clients are the exception, since {@link ClientCache} also caches unknown clients.
+ */
+final class ChangeLog {
+  enum EntityType {
+    /** A secret series; its current version, name, or grants changed, or it was deleted. */
+    SECRET,
+    /** A secrets_content row; its expiry or HMAC changed, or it was deleted. */
+    SECRET_CONTENT,
+    /** A client; it was created or deleted, or evicted from a group. */
+    CLIENT,
+    /** A group; it was deleted, or its access to a secret was revoked. */
+    GROUP
+  }
+
+  private ChangeLog() {}
+
+  /** @return the database's current time, in epoch seconds */
+  static Field<Long> now() {
+    return DSL.field("UNIX_TIMESTAMP()", Long.class);
+  }
+
+  /** @return the current time of the given database, in epoch seconds */
+  static long now(DSLContext dslContext) {
+    return dslContext.select(now()).fetchOne().value1();
+  }
+
+  static void record(DSLContext dslContext, EntityType type, long id) {
+    record(dslContext, type, List.of(id));
+  }
+
+  static void record(DSLContext dslContext, EntityType type, Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    InsertValuesStep3<ChangesRecord, String, Long, Long> insert = dslContext
+        .insertInto(CHANGES, CHANGES.ENTITYTYPE, CHANGES.ENTITYID, CHANGES.CREATEDAT);
+    for (long id : ids) {
+      insert = insert.values(DSL.val(type.name()), DSL.val(id), now());
+    }
+    insert.execute();
+  }
+}
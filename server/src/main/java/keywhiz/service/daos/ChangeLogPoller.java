@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import keywhiz.jooq.tables.records.ChangesRecord;
+import keywhiz.service.crypto.PlaintextCache;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static keywhiz.jooq.tables.Changes.CHANGES;
+
+/**
+ * Tails the changes table (see {@link ChangeLog}) and invalidates what this server cached of the
+ * entities other servers changed, so caches stay coherent across servers sharing a database.
+ * Changes made through this server have already invalidated its caches, and are applied again
+ * harmlessly. Also trims changes older than the retention period.
+ *
+ * Ids are assigned when changes are inserted but become visible in commit order, so a change may
+ * appear after changes with greater ids. Changes are therefore read again until they are older than
+ * {@link #SETTLE_TIME}, which must exceed the duration of any transaction recording changes, and
+ * each is applied only once. Ages are measured by the primary database's clock, which also
+ * timestamps changes, so clock skew between servers can not make a change settle early. If this server has not polled for longer than the retention period,
+ * it may have missed trimmed changes, and invalidates all its caches instead.
+ */
+public class ChangeLogPoller implements Managed {
+  static final Duration SETTLE_TIME = Duration.ofMinutes(1);
+  private static final Duration TRIM_INTERVAL = Duration.ofHours(1);
+  private static final int BATCH_SIZE = 1000;
+
+  private static final Logger logger = LoggerFactory.getLogger(ChangeLogPoller.class);
+
+  private final DSLContext jooq;
+  private final DSLContext readonlyJooq;
+  private final PlaintextCache plaintextCache;
+  private final AclSnapshot aclSnapshot;
+  private final ClientCache clientCache;
+  private final Duration pollInterval;
+  private final Duration retention;
+  private final ScheduledExecutorService executor;
+
+  private final Timer polls;
+  private final Meter pollFailures;
+  private final Meter changes;
+  private final Meter trimmed;
+
+  // Greatest id at or below which all changes have been applied; -1 until the first poll
+  private long watermark = -1;
+  // Creation times of changes applied above the watermark, by id, which may still be preceded by
+  // changes with smaller ids
+  private final TreeMap<Long, Long> settling = new TreeMap<>();
+  private volatile long lastPolledAtMillis = -1;
+
+  /**
+   * @param jooq the primary database, trimmed of old changes and whose clock ages them
+   * @param readonlyJooq the readonly database, polled for changes
+   * @param pollInterval time between polls; zero disables polling, but not trimming
+   * @param retention age beyond which changes are trimmed
+   */
+  public ChangeLogPoller(DSLContext jooq, DSLContext readonlyJooq, PlaintextCache plaintextCache,
+      AclSnapshot aclSnapshot, ClientCache clientCache, Duration pollInterval, Duration retention,
+      MetricRegistry metrics) {
+    this.jooq = jooq;
+    this.readonlyJooq = readonlyJooq;
+    this.plaintextCache = plaintextCache;
+    this.aclSnapshot = aclSnapshot;
+    this.clientCache = clientCache;
+    this.pollInterval = pollInterval;
+    this.retention = retention;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("change-log-%d")
+        .setDaemon(true)
+        .build());
+
+    this.polls = metrics.timer(name(ChangeLogPoller.class, "poll"));
+    this.pollFailures = metrics.meter(name(ChangeLogPoller.class, "poll-failures"));
+    this.changes = metrics.meter(name(ChangeLogPoller.class, "changes"));
+    this.trimmed = metrics.meter(name(ChangeLogPoller.class, "trimmed"));
+    // Time since the start of the last successful poll, before which all changes committed to the
+    // polled database have been applied; -1 if there has not been one
+    metrics.register(name(ChangeLogPoller.class, "lag-millis"), (Gauge<Long>) () -> {
+      long polledAt = lastPolledAtMillis;
+      return polledAt < 0 ? -1 : System.currentTimeMillis() - polledAt;
+    });
+  }
+
+  @Override public void start() {
+    if (!pollInterval.isZero()) {
+      executor.scheduleWithFixedDelay(this::pollQuietly, 0, pollInterval.toMillis(),
+          TimeUnit.MILLISECONDS);
+    }
+    executor.scheduleWithFixedDelay(this::trimQuietly, TRIM_INTERVAL.toMillis(),
+        TRIM_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override public void stop() {
+    executor.shutdownNow();
+  }
+
+  /** Applies the changes committed since the last poll. */
+  synchronized void poll() {
+    try (Timer.Context ignored = polls.time()) {
+      long startedAtMillis = System.currentTimeMillis();
+      long settledBefore = ChangeLog.now(jooq) - SETTLE_TIME.getSeconds();
+
+      if (watermark < 0) {
+        // Caches are empty at startup, so only changes which may still be followed by changes
+        // with smaller ids need to be applied
+        Long settled = readonlyJooq.select(CHANGES.ID.max())
+            .from(CHANGES)
+            .where(CHANGES.CREATEDAT.lt(settledBefore))
+            .fetchOne()
+            .value1();
+        watermark = settled == null ? 0 : settled;
+      } else if (startedAtMillis - lastPolledAtMillis > retention.toMillis()) {
+        logger.warn("Not polled for longer than change retention, invalidating all caches");
+        plaintextCache.invalidateAll();
+        clientCache.invalidateAll();
+        aclSnapshot.invalidate();
+      }
+
+      boolean aclsChanged = false;
+      long after = watermark;
+      Result<ChangesRecord> rows;
+      do {
+        rows = readonlyJooq.selectFrom(CHANGES)
+            .where(CHANGES.ID.gt(after))
+            .orderBy(CHANGES.ID)
+            .limit(BATCH_SIZE)
+            .fetch();
+        for (ChangesRecord row : rows) {
+          after = row.getId();
+          if (settling.putIfAbsent(row.getId(), row.getCreatedat()) == null) {
+            aclsChanged |= apply(row);
+            changes.mark();
+          }
+        }
+      } while (rows.size() == BATCH_SIZE);
+
+      // Revocations are applied once per poll, since each reloads the snapshot
+      if (aclsChanged) {
+        aclSnapshot.invalidate();
+      }
+
+      while (!settling.isEmpty() && settling.firstEntry().getValue() < settledBefore) {
+        watermark = settling.pollFirstEntry().getKey();
+      }
+      lastPolledAtMillis = startedAtMillis;
+    }
+  }
+
+  /** @return whether the change may have revoked access */
+  private boolean apply(ChangesRecord change) {
+    ChangeLog.EntityType type;
+    try {
+      type = ChangeLog.EntityType.valueOf(change.getEntitytype());
+    } catch (IllegalArgumentException e) {
+      // Recorded by a newer server; nothing this one caches depends on it
+      return false;
+    }
+
+    switch (type) {
+      case SECRET:
+        plaintextCache.invalidateSecret(change.getEntityid());
+        return false;
+      case SECRET_CONTENT:
+        plaintextCache.invalidateContent(change.getEntityid());
+        return false;
+      case CLIENT:
+        clientCache.invalidateClient(change.getEntityid());
+        return true;
+      case GROUP:
+        return true;
+      default:
+        throw new AssertionError(type);
+    }
+  }
+
+  /** Deletes changes older than the retention period. */
+  void trim() {
+    long cutoff = ChangeLog.now(jooq) - retention.getSeconds();
+    int deleted;
+    do {
+      deleted = jooq.deleteFrom(CHANGES)
+          .where(CHANGES.CREATEDAT.lt(cutoff))
+          .limit(BATCH_SIZE)
+          .execute();
+      trimmed.mark(deleted);
+    } while (deleted == BATCH_SIZE);
+  }
+
+  private void pollQuietly() {
+    try {
+      poll();
+    } catch (RuntimeException e) {
+      pollFailures.mark();
+      logger.warn("Failed to poll change log", e);
+    }
+  }
+
+  private void trimQuietly() {
+    try {
+      trim();
+    } catch (RuntimeException e) {
+      logger.warn("Failed to trim change log", e);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import keywhiz.api.model.Client;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Short-lived cache of clients by name and by SPIFFE id, so that authenticating clients does not
+ * query the database on every request. Unknown clients are cached as well.
+ *
+ * Creating or deleting a client through {@link ClientDAO} invalidates the cache, as does a client
+ * change recorded by another server (see {@link ChangeLogPoller}). Anything else, such as a
+ * client's last seen time, may be up to the expiry out of date. A lookup which raced with an
+ * invalidation is not cached. Disabled unless an expiry is configured.
+ */
+public class ClientCache {
+  public static final long DEFAULT_MAX_ENTRIES = 10_000;
+
+  private final Duration expiry;
+  private final Cache<String, Optional<Client>> byName;
+  private final Cache<URI, Optional<Client>> bySpiffeId;
+  // Incremented by every invalidation
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param maxEntries maximum number of clients cached by name, and by SPIFFE id
+   * @param expiry time after which an entry is evicted, regardless of use; zero disables caching
+   */
+  public ClientCache(long maxEntries, Duration expiry, @Nullable MetricRegistry metrics) {
+    this.expiry = expiry;
+    this.byName = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(expiry.toMillis(), TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+    this.bySpiffeId = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(expiry.toMillis(), TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+
+    if (metrics != null) {
+      metrics.register(name(ClientCache.class, "hits"),
+          (Gauge<Long>) () -> byName.stats().hitCount() + bySpiffeId.stats().hitCount());
+      metrics.register(name(ClientCache.class, "misses"),
+          (Gauge<Long>) () -> byName.stats().missCount() + bySpiffeId.stats().missCount());
+      metrics.register(name(ClientCache.class, "size"),
+          (Gauge<Long>) () -> byName.size() + bySpiffeId.size());
+    }
+  }
+
+  /** @return a cache which never caches anything. */
+  public static ClientCache disabled() {
+    return new ClientCache(0, Duration.ZERO, null);
+  }
+
+  /**
+   * @param lookup looks up the client in the database on a cache miss
+   */
+  public Optional<Client> getClientByName(String name,
+      Function<String, Optional<Client>> lookup) {
+    return get(byName, name, lookup);
+  }
+
+  /**
+   * @param lookup looks up the client in the database on a cache miss
+   */
+  public Optional<Client> getClientBySpiffeId(URI spiffeId,
+      Function<URI, Optional<Client>> lookup) {
+    return get(bySpiffeId, spiffeId, lookup);
+  }
+
+  /** Evicts a client which was created, changed or deleted, including as an unknown client. */
+  public void invalidate(String name, @Nullable String spiffeId) {
+    generation.incrementAndGet();
+    byName.invalidate(name);
+    if (spiffeId != null) {
+      try {
+        bySpiffeId.invalidate(new URI(spiffeId));
+      } catch (URISyntaxException e) {
+        bySpiffeId.invalidateAll();
+      }
+    }
+  }
+
+  /**
+   * Evicts a client changed by another server, along with all unknown clients, since only its id
+   * is known.
+   */
+  public void invalidateClient(long clientId) {
+    generation.incrementAndGet();
+    byName.asMap().values()
+        .removeIf(client -> client.isEmpty() || client.get().getId() == clientId);
+    bySpiffeId.asMap().values()
+        .removeIf(client -> client.isEmpty() || client.get().getId() == clientId);
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    byName.invalidateAll();
+    bySpiffeId.invalidateAll();
+  }
+
+  @VisibleForTesting long size() {
+    byName.cleanUp();
+    bySpiffeId.cleanUp();
+    return byName.size() + bySpiffeId.size();
+  }
+
+  private <K> Optional<Client> get(Cache<K, Optional<Client>> cache, K key,
+      Function<K, Optional<Client>> lookup) {
+    if (expiry.isZero()) {
+      return lookup.apply(key);
+    }
+
+    Optional<Client> cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    long before = generation.get();
+    Optional<Client> client = lookup.apply(key);
+    if (generation.get() == before) {
+      cache.put(key, client);
+      // Invalidated while caching; the entry may be stale
+      if (generation.get() != before) {
+        cache.invalidate(key);
+      }
+    }
+    return client;
+  }
+}
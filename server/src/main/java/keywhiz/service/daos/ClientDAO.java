@@ -33,15 +33,12 @@ import keywhiz.service.config.Readonly;
 import keywhiz.service.crypto.RowHmacGenerator;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
-import org.jooq.Param;
 import org.jooq.impl.DSL;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.time.Instant.EPOCH;
 import static keywhiz.jooq.tables.Clients.CLIENTS;
 import static keywhiz.jooq.tables.Memberships.MEMBERSHIPS;
-import static org.jooq.impl.DSL.greatest;
-import static org.jooq.impl.DSL.when;
 
 public class ClientDAO {
   private final static Duration LAST_SEEN_THRESHOLD = Duration.ofSeconds(24 * 60 * 60);
@@ -49,18 +46,23 @@ public class ClientDAO {
   private final DSLContext dslContext;
   private final ClientMapper clientMapper;
   private final RowHmacGenerator rowHmacGenerator;
+  private final AclSnapshot aclSnapshot;
+  private final LastSeenAggregator lastSeenAggregator;
+  private final ClientCache clientCache;
 
   private ClientDAO(DSLContext dslContext, ClientMapper clientMapper,
-      RowHmacGenerator rowHmacGenerator) {
+      RowHmacGenerator rowHmacGenerator, AclSnapshot aclSnapshot,
+      LastSeenAggregator lastSeenAggregator, ClientCache clientCache) {
     this.dslContext = dslContext;
     this.clientMapper = clientMapper;
     this.rowHmacGenerator = rowHmacGenerator;
+    this.aclSnapshot = aclSnapshot;
+    this.lastSeenAggregator = lastSeenAggregator;
+    this.clientCache = clientCache;
   }
 
   public long createClient(String name, String user, String description,
       @Nullable URI spiffeId) {
-    ClientsRecord r = dslContext.newRecord(CLIENTS);
-
     long now = OffsetDateTime.now().toEpochSecond();
 
     long generatedId = rowHmacGenerator.getNextLongSecure();
@@ -68,26 +70,30 @@ public class ClientDAO {
         CLIENTS.getName(), List.of(name, generatedId));
 
     // Do not allow empty spiffe URIs
-    String spiffeStr = null;
-    if (spiffeId != null && !spiffeId.toASCIIString().isEmpty()) {
-      spiffeStr = spiffeId.toASCIIString();
-    }
+    String spiffeStr = (spiffeId != null && !spiffeId.toASCIIString().isEmpty())
+        ? spiffeId.toASCIIString() : null;
+
+    dslContext.transaction(configuration -> {
+      ClientsRecord r = DSL.using(configuration).newRecord(CLIENTS);
+      r.setId(generatedId);
+      r.setName(name);
+      r.setCreatedby(user);
+      r.setCreatedat(now);
+      r.setUpdatedby(user);
+      r.setUpdatedat(now);
+      r.setLastseen(null);
+      r.setDescription(description);
+      r.setEnabled(true);
+      r.setAutomationallowed(false);
+      r.setSpiffeId(spiffeStr);
+      r.setRowHmac(rowHmac);
+      r.store();
+      // Other servers may have cached the client as unknown
+      ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.CLIENT, generatedId);
+    });
+    clientCache.invalidate(name, spiffeStr);
 
-    r.setId(generatedId);
-    r.setName(name);
-    r.setCreatedby(user);
-    r.setCreatedat(now);
-    r.setUpdatedby(user);
-    r.setUpdatedat(now);
-    r.setLastseen(null);
-    r.setDescription(description);
-    r.setEnabled(true);
-    r.setAutomationallowed(false);
-    r.setSpiffeId(spiffeStr);
-    r.setRowHmac(rowHmac);
-    r.store();
-
-    return r.getId();
+    return generatedId;
   }
 
   public void deleteClient(Client client) {
@@ -101,9 +107,16 @@ public class ClientDAO {
           .delete(MEMBERSHIPS)
           .where(MEMBERSHIPS.CLIENTID.eq(client.getId()))
           .execute();
+      ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.CLIENT, client.getId());
     });
+    clientCache.invalidate(client.getName(), client.getSpiffeId());
+    aclSnapshot.invalidate();
   }
 
+  /**
+   * Records that a client was seen. Written to the database in the background (see {@link
+   * LastSeenAggregator}), so {@link Client#getLastSeen} lags behind.
+   */
   public void sawClient(Client client, @Nullable Principal principal) {
     Instant now = Instant.now();
 
@@ -121,19 +134,7 @@ public class ClientDAO {
     // Only update last seen if it's been more than `lastSeenThreshold` seconds
     // this way we can have less granularity on lastSeen and save DB writes
     if (now.isAfter(lastSeen.plus(LAST_SEEN_THRESHOLD))) {
-      dslContext.transaction(configuration -> {
-        Param<Long> lastSeenValue = DSL.val(now.getEpochSecond(), CLIENTS.LASTSEEN);
-        Param<Long> expirationValue = DSL.val(expiration.getEpochSecond(), CLIENTS.EXPIRATION);
-
-        DSL.using(configuration)
-            .update(CLIENTS)
-            .set(CLIENTS.LASTSEEN,
-                when(CLIENTS.LASTSEEN.isNull(), lastSeenValue)
-                    .otherwise(greatest(CLIENTS.LASTSEEN, lastSeenValue)))
-            .set(CLIENTS.EXPIRATION, expirationValue)
-            .where(CLIENTS.ID.eq(client.getId()))
-            .execute();
-      });
+      lastSeenAggregator.record(client.getId(), now, expiration);
     }
   }
 
@@ -165,26 +166,36 @@ public class ClientDAO {
     private final DSLContext readonlyJooq;
     private final ClientMapper clientMapper;
     private final RowHmacGenerator rowHmacGenerator;
+    private final AclSnapshot aclSnapshot;
+    private final LastSeenAggregator lastSeenAggregator;
+    private final ClientCache clientCache;
 
     @Inject public ClientDAOFactory(DSLContext jooq, @Readonly DSLContext readonlyJooq,
-        ClientMapper clientMapper, RowHmacGenerator rowHmacGenerator) {
+        ClientMapper clientMapper, RowHmacGenerator rowHmacGenerator, AclSnapshot aclSnapshot,
+        LastSeenAggregator lastSeenAggregator, ClientCache clientCache) {
       this.jooq = jooq;
       this.readonlyJooq = readonlyJooq;
       this.clientMapper = clientMapper;
       this.rowHmacGenerator = rowHmacGenerator;
+      this.aclSnapshot = aclSnapshot;
+      this.lastSeenAggregator = lastSeenAggregator;
+      this.clientCache = clientCache;
     }
 
     @Override public ClientDAO readwrite() {
-      return new ClientDAO(jooq, clientMapper, rowHmacGenerator);
+      return new ClientDAO(jooq, clientMapper, rowHmacGenerator, aclSnapshot,
+          lastSeenAggregator, clientCache);
     }
 
     @Override public ClientDAO readonly() {
-      return new ClientDAO(readonlyJooq, clientMapper, rowHmacGenerator);
+      return new ClientDAO(readonlyJooq, clientMapper, rowHmacGenerator, aclSnapshot,
+          lastSeenAggregator, clientCache);
     }
 
     @Override public ClientDAO using(Configuration configuration) {
       DSLContext dslContext = DSL.using(checkNotNull(configuration));
-      return new ClientDAO(dslContext, clientMapper, rowHmacGenerator);
+      return new ClientDAO(dslContext, clientMapper, rowHmacGenerator, aclSnapshot,
+          lastSeenAggregator, clientCache);
     }
   }
 }
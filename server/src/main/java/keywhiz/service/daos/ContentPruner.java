@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.jooq.DSLContext;
+import org.jooq.Record2;
+import org.jooq.Result;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
+
+/**
+ * Prunes old secret contents in the background, so the database does not grow too large without
+ * slowing down writes. Writing a new version queues its secret; queued secrets are de-duplicated,
+ * and pruned periodically in batches, reading each batch's candidates with one query and deleting
+ * them with one statement per batch, at a limited rate.
+ *
+ * Of each secret's versions other than the current one, those created more than the cutoff days
+ * ago are pruned, except for the most recent cutoff items of them. Secrets with no current version
+ * yet are left alone. If the queue is full, or pruning fails, secrets are pruned again once their
+ * next version is written.
+ */
+public class ContentPruner implements Managed {
+  private static final Logger logger = LoggerFactory.getLogger(ContentPruner.class);
+
+  @Nullable private final DSLContext jooq;
+  private final int cutoffItems;
+  private final int cutoffDays;
+  private final Duration interval;
+  private final int batchSize;
+  private final int maxQueued;
+  @Nullable private final RateLimiter rateLimiter;
+  private final ScheduledExecutorService executor;
+
+  private final Timer batches;
+  private final Meter pruned;
+  private final Meter dropped;
+
+  // Secrets to prune, in the order they were first queued
+  private final Set<Long> queued = new LinkedHashSet<>();
+
+  /**
+   * @param cutoffItems number of old contents kept around before pruning
+   * @param cutoffDays age in days after which old contents are pruned
+   * @param interval time between pruning the queued secrets; zero disables pruning
+   * @param batchSize maximum number of secrets pruned, and contents deleted, at a time
+   * @param maxRowsPerSecond maximum rate at which contents are deleted, or 0 for no limit
+   * @param maxQueued maximum number of secrets queued for pruning
+   */
+  public ContentPruner(@Nullable DSLContext jooq, int cutoffItems, int cutoffDays,
+      Duration interval, int batchSize, double maxRowsPerSecond, int maxQueued,
+      MetricRegistry metrics) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    checkArgument(maxRowsPerSecond >= 0, "maxRowsPerSecond must be nonnegative");
+    this.jooq = jooq;
+    this.cutoffItems = cutoffItems;
+    this.cutoffDays = cutoffDays;
+    this.interval = interval;
+    this.batchSize = batchSize;
+    this.maxQueued = maxQueued;
+    this.rateLimiter = (maxRowsPerSecond == 0) ? null : RateLimiter.create(maxRowsPerSecond);
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("content-pruner-%d")
+        .setDaemon(true)
+        .build());
+
+    this.batches = metrics.timer(name(ContentPruner.class, "batches"));
+    this.pruned = metrics.meter(name(ContentPruner.class, "pruned"));
+    this.dropped = metrics.meter(name(ContentPruner.class, "dropped"));
+    metrics.register(name(ContentPruner.class, "queued"), (Gauge<Integer>) this::queueSize);
+  }
+
+  /** @return a pruner which never prunes anything. */
+  public static ContentPruner disabled() {
+    return new ContentPruner(null, 0, 0, Duration.ZERO, 1, 0, 0, new MetricRegistry());
+  }
+
+  public boolean isEnabled() {
+    return !interval.isZero();
+  }
+
+  /** Queues a secret for pruning, unless it is already queued. */
+  public void enqueue(long secretId) {
+    if (!isEnabled()) {
+      return;
+    }
+    synchronized (queued) {
+      if (queued.size() >= maxQueued && !queued.contains(secretId)) {
+        dropped.mark();
+        return;
+      }
+      queued.add(secretId);
+    }
+  }
+
+  @Override public void start() {
+    if (!isEnabled()) {
+      return;
+    }
+    executor.scheduleWithFixedDelay(this::pruneQueuedQuietly, interval.toMillis(),
+        interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override public void stop() {
+    executor.shutdownNow();
+  }
+
+  /** Prunes the queued secrets, a batch at a time, until the queue is empty. */
+  void pruneQueued() {
+    List<Long> batch;
+    while (!(batch = nextBatch()).isEmpty()) {
+      try (Timer.Context ignored = batches.time()) {
+        prune(batch);
+      }
+    }
+  }
+
+  /**
+   * Prunes old contents of the given secrets.
+   *
+   * @return number of contents deleted
+   */
+  int prune(Collection<Long> secretIds) {
+    long cutoff = OffsetDateTime.now().minusDays(cutoffDays).toEpochSecond();
+
+    // Candidates for pruning, newest first within each secret
+    Result<Record2<Long, Long>> candidates = jooq
+        .select(SECRETS_CONTENT.SECRETID, SECRETS_CONTENT.ID)
+        .from(SECRETS_CONTENT)
+        .join(SECRETS).on(SECRETS.ID.eq(SECRETS_CONTENT.SECRETID))
+        .where(SECRETS_CONTENT.SECRETID.in(secretIds))
+        .and(SECRETS_CONTENT.CREATEDAT.lt(cutoff))
+        .and(SECRETS.CURRENT.isNotNull())
+        .and(SECRETS_CONTENT.ID.ne(SECRETS.CURRENT))
+        .orderBy(SECRETS_CONTENT.SECRETID, SECRETS_CONTENT.CREATEDAT.desc())
+        .fetch();
+
+    // Always keep the most recent cutoff items of each secret, prune otherwise
+    List<Long> prunable = new ArrayList<>();
+    Long secretId = null;
+    int kept = 0;
+    for (Record2<Long, Long> candidate : candidates) {
+      if (!candidate.value1().equals(secretId)) {
+        secretId = candidate.value1();
+        kept = 0;
+      }
+      if (kept < cutoffItems) {
+        kept++;
+      } else {
+        prunable.add(candidate.value2());
+      }
+    }
+
+    int deleted = 0;
+    for (List<Long> ids : Lists.partition(prunable, batchSize)) {
+      if (rateLimiter != null) {
+        rateLimiter.acquire(ids.size());
+      }
+      deleted += jooq.transactionResult(configuration -> {
+        DSLContext dslContext = DSL.using(configuration);
+        // A content may have been made current again since the candidates were read
+        int count = dslContext.deleteFrom(SECRETS_CONTENT)
+            .where(SECRETS_CONTENT.ID.in(ids))
+            .and(SECRETS_CONTENT.ID.notIn(dslContext.select(SECRETS.CURRENT)
+                .from(SECRETS)
+                .where(SECRETS.ID.in(secretIds))
+                .and(SECRETS.CURRENT.isNotNull())))
+            .execute();
+        ChangeLog.record(dslContext, ChangeLog.EntityType.SECRET_CONTENT, ids);
+        return count;
+      });
+    }
+    pruned.mark(deleted);
+    return deleted;
+  }
+
+  private List<Long> nextBatch() {
+    List<Long> batch = new ArrayList<>();
+    synchronized (queued) {
+      Iterator<Long> iterator = queued.iterator();
+      while (iterator.hasNext() && batch.size() < batchSize) {
+        batch.add(iterator.next());
+        iterator.remove();
+      }
+    }
+    return batch;
+  }
+
+  private int queueSize() {
+    synchronized (queued) {
+      return queued.size();
+    }
+  }
+
+  private void pruneQueuedQuietly() {
+    try {
+      pruneQueued();
+    } catch (RuntimeException e) {
+      logger.warn("Failed to prune old secret contents", e);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import keywhiz.api.automation.v2.CreateSecretRequestV2;
+
+/**
+ * A secret to create or update in bulk, with its content encrypted and HMACed ahead of the
+ * transaction writing it (see {@link SecretImporter}).
+ */
+final class EncryptedSecret {
+  final CreateSecretRequestV2 request;
+  final String encryptedContent;
+  final String hmac;
+
+  EncryptedSecret(CreateSecretRequestV2 request, String encryptedContent, String hmac) {
+    this.request = request;
+    this.encryptedContent = encryptedContent;
+    this.hmac = hmac;
+  }
+}
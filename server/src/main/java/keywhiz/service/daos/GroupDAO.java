@@ -41,11 +41,14 @@ public class GroupDAO {
   private final DSLContext dslContext;
   private final GroupMapper groupMapper;
   private final ObjectMapper mapper;
+  private final AclSnapshot aclSnapshot;
 
-  private GroupDAO(DSLContext dslContext, GroupMapper groupMapper, ObjectMapper mapper) {
+  private GroupDAO(DSLContext dslContext, GroupMapper groupMapper, ObjectMapper mapper,
+      AclSnapshot aclSnapshot) {
     this.dslContext = dslContext;
     this.groupMapper = groupMapper;
     this.mapper = mapper;
+    this.aclSnapshot = aclSnapshot;
   }
 
   public long createGroup(String name, String creator, String description, ImmutableMap<String, String> metadata) {
@@ -87,7 +90,9 @@ public class GroupDAO {
               .delete(ACCESSGRANTS)
               .where(ACCESSGRANTS.GROUPID.eq(group.getId()))
               .execute();
+      ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.GROUP, group.getId());
     });
+    aclSnapshot.invalidate();
   }
 
   public Optional<Group> getGroup(String name) {
@@ -110,26 +115,28 @@ public class GroupDAO {
     private final DSLContext readonlyJooq;
     private final GroupMapper groupMapper;
     private final ObjectMapper mapper;
+    private final AclSnapshot aclSnapshot;
 
     @Inject public GroupDAOFactory(DSLContext jooq, @Readonly DSLContext readonlyJooq,
-        GroupMapper groupMapper, ObjectMapper mapper) {
+        GroupMapper groupMapper, ObjectMapper mapper, AclSnapshot aclSnapshot) {
       this.jooq = jooq;
       this.readonlyJooq = readonlyJooq;
       this.groupMapper = groupMapper;
       this.mapper = mapper;
+      this.aclSnapshot = aclSnapshot;
     }
 
     @Override public GroupDAO readwrite() {
-      return new GroupDAO(jooq, groupMapper, mapper);
+      return new GroupDAO(jooq, groupMapper, mapper, aclSnapshot);
     }
 
     @Override public GroupDAO readonly() {
-      return new GroupDAO(readonlyJooq, groupMapper, mapper);
+      return new GroupDAO(readonlyJooq, groupMapper, mapper, aclSnapshot);
     }
 
     @Override public GroupDAO using(Configuration configuration) {
       DSLContext dslContext = DSL.using(checkNotNull(configuration));
-      return new GroupDAO(dslContext, groupMapper, mapper);
+      return new GroupDAO(dslContext, groupMapper, mapper, aclSnapshot);
     }
   }
 }
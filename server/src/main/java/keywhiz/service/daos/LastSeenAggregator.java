@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static keywhiz.jooq.tables.Clients.CLIENTS;
+import static org.jooq.impl.DSL.decode;
+import static org.jooq.impl.DSL.greatest;
+import static org.jooq.impl.DSL.when;
+
+/**
+ * Aggregates when clients were last seen, and writes them periodically, so authenticating clients
+ * never writes to the database. Sightings of a client between flushes are merged into the latest
+ * last seen time and certificate expiration, and written for all clients with a single statement
+ * per batch. If a flush fails, its sightings are merged back and written with the next one.
+ */
+public class LastSeenAggregator implements Managed {
+  private static final int BATCH_SIZE = 1000;
+
+  private static final Logger logger = LoggerFactory.getLogger(LastSeenAggregator.class);
+
+  private final DSLContext jooq;
+  private final Duration flushInterval;
+  private final ScheduledExecutorService executor;
+
+  private final Timer flushes;
+  private final Meter flushFailures;
+  private final Meter written;
+
+  // Sightings not yet written, by client id
+  private final ConcurrentHashMap<Long, Sighting> pending = new ConcurrentHashMap<>();
+
+  /**
+   * @param jooq the primary database
+   * @param flushInterval time between writing pending sightings
+   */
+  public LastSeenAggregator(DSLContext jooq, Duration flushInterval, MetricRegistry metrics) {
+    checkArgument(!flushInterval.isNegative() && !flushInterval.isZero(),
+        "flushInterval must be positive");
+    this.jooq = jooq;
+    this.flushInterval = flushInterval;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("last-seen-%d")
+        .setDaemon(true)
+        .build());
+
+    this.flushes = metrics.timer(name(LastSeenAggregator.class, "flush"));
+    this.flushFailures = metrics.meter(name(LastSeenAggregator.class, "flush-failures"));
+    this.written = metrics.meter(name(LastSeenAggregator.class, "written"));
+    metrics.register(name(LastSeenAggregator.class, "pending"), (Gauge<Integer>) pending::size);
+  }
+
+  /**
+   * Records that a client was seen, to be written with the next flush.
+   *
+   * @param expiration expiration of the client's certificate, or the epoch if unknown
+   */
+  public void record(long clientId, Instant lastSeen, Instant expiration) {
+    pending.merge(clientId, new Sighting(lastSeen.getEpochSecond(), expiration.getEpochSecond()),
+        Sighting::merge);
+  }
+
+  @Override public void start() {
+    executor.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(),
+        flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override public void stop() {
+    executor.shutdownNow();
+    flushQuietly();
+  }
+
+  /** Writes the pending sightings. */
+  synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    Map<Long, Sighting> sightings = new HashMap<>();
+    for (Long clientId : pending.keySet()) {
+      Sighting sighting = pending.remove(clientId);
+      if (sighting != null) {
+        sightings.put(clientId, sighting);
+      }
+    }
+
+    try (Timer.Context ignored = flushes.time()) {
+      for (List<Long> clientIds : Lists.partition(List.copyOf(sightings.keySet()), BATCH_SIZE)) {
+        Map<Long, Long> lastSeen = new HashMap<>();
+        Map<Long, Long> expiration = new HashMap<>();
+        for (Long clientId : clientIds) {
+          lastSeen.put(clientId, sightings.get(clientId).lastSeen);
+          expiration.put(clientId, sightings.get(clientId).expiration);
+        }
+
+        Field<Long> lastSeenValue =
+            decode().value(CLIENTS.ID).mapValues(lastSeen).otherwise(CLIENTS.LASTSEEN);
+        jooq.update(CLIENTS)
+            .set(CLIENTS.LASTSEEN,
+                when(CLIENTS.LASTSEEN.isNull(), lastSeenValue)
+                    .otherwise(greatest(CLIENTS.LASTSEEN, lastSeenValue)))
+            .set(CLIENTS.EXPIRATION,
+                decode().value(CLIENTS.ID).mapValues(expiration).otherwise(CLIENTS.EXPIRATION))
+            .where(CLIENTS.ID.in(clientIds))
+            .execute();
+
+        clientIds.forEach(sightings::remove);
+        written.mark(clientIds.size());
+      }
+    } catch (RuntimeException e) {
+      // Retry unwritten sightings with the next flush
+      sightings.forEach((clientId, sighting) -> pending.merge(clientId, sighting, Sighting::merge));
+      throw e;
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      flushFailures.mark();
+      logger.warn("Failed to write when clients were last seen", e);
+    }
+  }
+
+  /** When a client was last seen and the expiration of its certificate, in epoch seconds. */
+  private static class Sighting {
+    final long lastSeen;
+    final long expiration;
+
+    Sighting(long lastSeen, long expiration) {
+      this.lastSeen = lastSeen;
+      this.expiration = expiration;
+    }
+
+    Sighting merge(Sighting other) {
+      return new Sighting(Math.max(lastSeen, other.lastSeen),
+          Math.max(expiration, other.expiration));
+    }
+  }
+}
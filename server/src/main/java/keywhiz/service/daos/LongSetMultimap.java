@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Immutable multimap from long keys to sets of long values, stored in primitive arrays so that
+ * neither keys nor values are boxed. Keys are found by open addressing and values by binary search.
+ */
+final class LongSetMultimap {
+  private static final long[] EMPTY = new long[0];
+
+  private final long[] keys;
+  // Sorted values of the key in the same slot; null for an empty slot
+  private final long[][] values;
+  private final int mask;
+  private final int size;
+
+  private LongSetMultimap(long[] keys, long[][] values, int size) {
+    this.keys = keys;
+    this.values = values;
+    this.mask = keys.length - 1;
+    this.size = size;
+  }
+
+  /**
+   * @param keys keys of the entries, in ascending order
+   * @param values values of the entries, ascending for each key, with no duplicate entries
+   * @param count number of entries in keys and values
+   */
+  static LongSetMultimap fromSortedEntries(long[] keys, long[] values, int count) {
+    int distinctKeys = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || keys[i] != keys[i - 1]) {
+        distinctKeys++;
+      }
+    }
+
+    // At most half full, so that probe sequences stay short
+    int capacity = Integer.highestOneBit(Math.max(distinctKeys, 1) * 2 - 1) << 1;
+    LongSetMultimap map = new LongSetMultimap(new long[capacity], new long[capacity][], count);
+    int start = 0;
+    for (int i = 1; i <= count; i++) {
+      if (i == count || keys[i] != keys[start]) {
+        map.put(keys[start], Arrays.copyOfRange(values, start, i));
+        start = i;
+      }
+    }
+    return map;
+  }
+
+  static LongSetMultimap empty() {
+    return fromSortedEntries(EMPTY, EMPTY, 0);
+  }
+
+  private void put(long key, long[] keyValues) {
+    int slot = slot(key);
+    while (values[slot] != null) {
+      checkArgument(keys[slot] != key, "keys are not sorted");
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = keyValues;
+  }
+
+  /** @return sorted values of the key; must not be modified */
+  long[] get(long key) {
+    for (int slot = slot(key); values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return EMPTY;
+  }
+
+  boolean containsEntry(long key, long value) {
+    return Arrays.binarySearch(get(key), value) >= 0;
+  }
+
+  /** @return number of entries */
+  int size() {
+    return size;
+  }
+
+  private int slot(long key) {
+    // Spread the bits of sequential ids across the table (the finalizer of MurmurHash3)
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key & mask;
+  }
+}
@@ -18,30 +18,31 @@ package keywhiz.service.daos;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import keywhiz.KeywhizConfig;
 import keywhiz.KeywhizConfig.RowHmacCheck;
 import keywhiz.api.model.SecretContent;
 import keywhiz.jooq.tables.records.SecretsContentRecord;
-import keywhiz.jooq.tables.records.SecretsRecord;
 import keywhiz.service.config.Readonly;
+import keywhiz.service.crypto.ParallelRowVerifier;
 import keywhiz.service.crypto.RowHmacGenerator;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
+import org.jooq.InsertSetMoreStep;
 import org.jooq.Result;
 import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
 
 /**
@@ -49,30 +50,68 @@ import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
  */
 public class SecretContentDAO {
   private static final Logger logger = LoggerFactory.getLogger(AclDAO.class);
-  // Number of old contents we keep around before we prune
-  @VisibleForTesting static final int PRUNE_CUTOFF_ITEMS = 10;
-
-  // Cut-off time after which we prune old, unreferenced contents
-  @VisibleForTesting static final int PRUNE_CUTOFF_DAYS = 15;
 
   private final DSLContext dslContext;
   private final ObjectMapper mapper;
   private final SecretContentMapper secretContentMapper;
   private final RowHmacGenerator rowHmacGenerator;
+  private final ParallelRowVerifier rowVerifier;
+  private final ContentPruner contentPruner;
   private final KeywhizConfig config;
 
   private SecretContentDAO(DSLContext dslContext, ObjectMapper mapper,
       SecretContentMapper secretContentMapper, RowHmacGenerator rowHmacGenerator,
-      KeywhizConfig config) {
+      ParallelRowVerifier rowVerifier, ContentPruner contentPruner, KeywhizConfig config) {
     this.dslContext = dslContext;
     this.mapper = mapper;
     this.secretContentMapper = secretContentMapper;
     this.rowHmacGenerator = rowHmacGenerator;
+    this.rowVerifier = rowVerifier;
+    this.contentPruner = contentPruner;
     this.config = config;
   }
 
   public long createSecretContent(long secretId, String encryptedContent, String hmac,
       String creator, Map<String, String> metadata, long expiry, long now) {
+    SecretsContentRecord r =
+        newSecretContentRecord(secretId, encryptedContent, hmac, creator, metadata, expiry, now);
+    r.store();
+
+    contentPruner.enqueue(secretId);
+
+    return r.getId();
+  }
+
+  /**
+   * Creates a version of each of several secrets with a single statement. Unlike {@link
+   * #createSecretContent}, leaves queueing secrets for pruning to the caller.
+   *
+   * @param secrets secrets by id of their series
+   * @return ids of the created contents by id of their series
+   */
+  Map<Long, Long> createSecretContents(Map<Long, EncryptedSecret> secrets, String creator,
+      long now) {
+    Map<Long, Long> ids = new LinkedHashMap<>();
+    if (secrets.isEmpty()) {
+      return ids;
+    }
+
+    InsertSetMoreStep<SecretsContentRecord> insert = null;
+    for (Map.Entry<Long, EncryptedSecret> entry : secrets.entrySet()) {
+      EncryptedSecret secret = entry.getValue();
+      SecretsContentRecord r = newSecretContentRecord(entry.getKey(), secret.encryptedContent,
+          secret.hmac, creator, secret.request.metadata(), secret.request.expiry(), now);
+      insert = (insert == null) ? dslContext.insertInto(SECRETS_CONTENT).set(r)
+          : insert.newRecord().set(r);
+      ids.put(entry.getKey(), r.getId());
+    }
+    insert.execute();
+
+    return ids;
+  }
+
+  private SecretsContentRecord newSecretContentRecord(long secretId, String encryptedContent,
+      String hmac, String creator, Map<String, String> metadata, long expiry, long now) {
     SecretsContentRecord r = dslContext.newRecord(SECRETS_CONTENT);
 
     String jsonMetadata;
@@ -98,76 +137,58 @@ public class SecretContentDAO {
     r.setMetadata(jsonMetadata);
     r.setExpiry(expiry);
     r.setRowHmac(rowHmac);
-    r.store();
+    return r;
+  }
+
+  public Optional<SecretContent> getSecretContentById(long id) {
+    SecretsContentRecord r = dslContext.fetchOne(SECRETS_CONTENT, SECRETS_CONTENT.ID.eq(id));
+    Optional<SecretContent> result = Optional.ofNullable(r).map(secretContentMapper::map);
+
+    if (result.isEmpty()) {
+      return result;
+    }
 
-    pruneOldContents(secretId);
+    reportRowHmacFailure(rowHmacFailure(r));
 
-    return r.getId();
+    return result;
   }
 
   /**
-   * Prune old secret contents from the database, for the given secret id. Whenever a new secret
-   * content entry is added for a secret series, we check the database for really old content
-   * entries and clean them out to prevent the database from growing too large.
+   * Maps content rows fetched by another query, e.g. joined with their series, verifying their row
+   * HMACs in bulk.
    *
-   * @param secretId the ID whose old secret contents should be removed
+   * @param records content rows
+   * @return the content of each row, in the same order as the rows
    */
-  @VisibleForTesting void pruneOldContents(long secretId) {
-    // Fetch current version number
-    SecretsRecord secret =
-        dslContext.select(SECRETS.CURRENT)
-            .from(SECRETS)
-            .where(SECRETS.ID.eq(secretId))
-            .fetchOneInto(SecretsRecord.class);
-
-    if (secret == null || secret.getCurrent() == null) {
-      // No current secret assigned (secret just being created), let's not prune right now.
-      return;
+  public ImmutableList<SecretContent> toSecretContents(List<SecretsContentRecord> records) {
+    // With checks disabled a mismatch has no effect, so skip computing the row HMACs entirely.
+    if (config.getRowHmacCheck() != RowHmacCheck.DISABLED) {
+      rowVerifier.verifyAll(records, this::rowHmacFailure).forEach(this::reportRowHmacFailure);
     }
+    return records.stream().map(secretContentMapper::map).collect(toImmutableList());
+  }
 
-    // Select everything older than cutoff for possible pruning
-    long cutoff = OffsetDateTime.now().minusDays(PRUNE_CUTOFF_DAYS).toEpochSecond();
-
-    List<Long> records =
-        dslContext.select(SECRETS_CONTENT.ID)
-            .from(SECRETS_CONTENT)
-            .where(SECRETS_CONTENT.SECRETID.eq(secretId))
-            .and(SECRETS_CONTENT.CREATEDAT.lt(cutoff))
-            .and(SECRETS_CONTENT.ID.ne(secret.getCurrent()))
-            .orderBy(SECRETS_CONTENT.CREATEDAT.desc())
-            .fetch(SECRETS_CONTENT.ID);
-
-    // Always keep last X items, prune otherwise
-    if (records.size() > PRUNE_CUTOFF_ITEMS) {
-      for (long id : records.subList(PRUNE_CUTOFF_ITEMS, records.size())) {
-        dslContext.deleteFrom(SECRETS_CONTENT).where(SECRETS_CONTENT.ID.eq(id)).execute();
-      }
+  /** @return a message if the row HMAC failed to verify, otherwise null */
+  @Nullable private String rowHmacFailure(SecretsContentRecord r) {
+    boolean rowHmacValid = rowHmacGenerator.verifyRowHmac(SECRETS_CONTENT.getName(),
+        r.getRowHmac(), List.of(r.getEncryptedContent(), r.getMetadata(), r.getId()));
+    if (rowHmacValid) {
+      return null;
     }
+    return String.format("Secret Content HMAC verification failed for secretContent: %d",
+        r.getId());
   }
 
-  public Optional<SecretContent> getSecretContentById(long id) {
-    SecretsContentRecord r = dslContext.fetchOne(SECRETS_CONTENT, SECRETS_CONTENT.ID.eq(id));
-    Optional<SecretContent> result = Optional.ofNullable(r).map(secretContentMapper::map);
-
-    if (result.isEmpty()) {
-      return result;
+  private void reportRowHmacFailure(@Nullable String errorMessage) {
+    if (errorMessage == null) {
+      return;
     }
-
-    String rowHmac = rowHmacGenerator.computeRowHmac(
-        SECRETS_CONTENT.getName(), List.of(r.getEncryptedContent(), r.getMetadata(), r.getId()));
-
-    if (!rowHmac.equals(r.getRowHmac())) {
-      String errorMessage = String.format(
-          "Secret Content HMAC verification failed for secretContent: %d", r.getId());
-      if (config.getRowHmacCheck() == RowHmacCheck.DISABLED_BUT_LOG) {
-        logger.warn(errorMessage);
-      }
-      if (config.getRowHmacCheck() == RowHmacCheck.ENFORCED) {
-        throw new AssertionError(errorMessage);
-      }
+    if (config.getRowHmacCheck() == RowHmacCheck.DISABLED_BUT_LOG) {
+      logger.warn(errorMessage);
+    }
+    if (config.getRowHmacCheck() == RowHmacCheck.ENFORCED) {
+      throw new AssertionError(errorMessage);
     }
-
-    return result;
   }
 
   public Optional<ImmutableList<SecretContent>> getSecretVersionsBySecretId(long id,
@@ -207,33 +228,38 @@ public class SecretContentDAO {
     private final ObjectMapper objectMapper;
     private final SecretContentMapper secretContentMapper;
     private final RowHmacGenerator rowHmacGenerator;
+    private final ParallelRowVerifier rowVerifier;
+    private final ContentPruner contentPruner;
     private final KeywhizConfig config;
 
     @Inject public SecretContentDAOFactory(DSLContext jooq, @Readonly DSLContext readonlyJooq,
         ObjectMapper objectMapper, SecretContentMapper secretContentMapper,
-        RowHmacGenerator rowHmacGenerator, KeywhizConfig config) {
+        RowHmacGenerator rowHmacGenerator, ParallelRowVerifier rowVerifier,
+        ContentPruner contentPruner, KeywhizConfig config) {
       this.jooq = jooq;
       this.readonlyJooq = readonlyJooq;
       this.objectMapper = objectMapper;
       this.secretContentMapper = secretContentMapper;
       this.rowHmacGenerator = rowHmacGenerator;
+      this.rowVerifier = rowVerifier;
+      this.contentPruner = contentPruner;
       this.config = config;
     }
 
     @Override public SecretContentDAO readwrite() {
       return new SecretContentDAO(jooq, objectMapper, secretContentMapper, rowHmacGenerator,
-          config);
+          rowVerifier, contentPruner, config);
     }
 
     @Override public SecretContentDAO readonly() {
       return new SecretContentDAO(readonlyJooq, objectMapper, secretContentMapper, rowHmacGenerator,
-          config);
+          rowVerifier, contentPruner, config);
     }
 
     @Override public SecretContentDAO using(Configuration configuration) {
       DSLContext dslContext = DSL.using(checkNotNull(configuration));
       return new SecretContentDAO(dslContext, objectMapper, secretContentMapper, rowHmacGenerator,
-          config);
+          rowVerifier, contentPruner, config);
     }
   }
 }
@@ -16,18 +16,26 @@
 
 package keywhiz.service.daos;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
+import javax.ws.rs.BadRequestException;
 import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecret;
+import keywhiz.api.model.SanitizedSecretListAndCursor;
 import keywhiz.api.model.SanitizedSecretWithGroups;
 import keywhiz.api.model.SanitizedSecretWithGroupsListAndCursor;
 import keywhiz.api.model.Secret;
+import keywhiz.api.model.SecretBatchCursor;
 import keywhiz.api.model.SecretRetrievalCursor;
 import keywhiz.api.model.SecretSeriesAndContent;
 import keywhiz.service.crypto.ContentCryptographer;
@@ -36,8 +44,10 @@ import keywhiz.service.crypto.SecretTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
@@ -45,18 +55,33 @@ import static java.util.stream.Collectors.toSet;
 import static keywhiz.api.model.SanitizedSecretWithGroups.fromSecretSeriesAndContentAndGroups;
 
 public class SecretController {
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
   private static final Logger logger = LoggerFactory.getLogger(SecretController.class);
   private final SecretTransformer transformer;
   private final ContentCryptographer cryptographer;
   private final SecretDAO secretDAO;
   private final AclDAO aclDAO;
+  private final int maxBatchSize;
+  private final Histogram batchSizes;
+  private final Meter batchQueries;
+  private final Meter batchesRejected;
 
+  /**
+   * @param maxBatchSize maximum number of secrets which may be looked up by name at once
+   * @param metrics registry for metrics of batched lookups, which may be shared between
+   *                controllers
+   */
   public SecretController(SecretTransformer transformer, ContentCryptographer cryptographer,
-      SecretDAO secretDAO, AclDAO aclDAO) {
+      SecretDAO secretDAO, AclDAO aclDAO, int maxBatchSize, MetricRegistry metrics) {
     this.transformer = transformer;
     this.cryptographer = cryptographer;
     this.secretDAO = secretDAO;
     this.aclDAO = aclDAO;
+    this.maxBatchSize = maxBatchSize;
+    this.batchSizes = metrics.histogram(name(SecretController.class, "batch-size"));
+    this.batchQueries = metrics.meter(name(SecretController.class, "batch-queries"));
+    this.batchesRejected = metrics.meter(name(SecretController.class, "batches-rejected"));
   }
 
   /**
@@ -76,10 +101,18 @@ public class SecretController {
   }
 
   /**
-   * @param names of secrets series to look up secrets by.
+   * @param names of secrets series to look up secrets by, in a single query.
    * @return all existing secrets matching criteria.
+   * @throws BadRequestException if more names are given than the configured maximum batch size
    */
   public List<Secret> getSecretsByName(List<String> names) {
+    if (names.size() > maxBatchSize) {
+      batchesRejected.mark();
+      throw new BadRequestException(format("Cannot look up more than %d secrets at once",
+          maxBatchSize));
+    }
+    batchSizes.update(names.size());
+    batchQueries.mark();
     return secretDAO.getSecretsByName(names).stream().map(transformer::transform).collect(toList());
   }
 
@@ -126,6 +159,39 @@ public class SecretController {
     }).collect(toList());
   }
 
+  /**
+   * Same as {@link #getSanitizedSecrets}, but hands each secret to {@code consumer} as it is read
+   * from the database rather than building the whole list in memory.
+   *
+   * @param expireMaxTime timestamp for farthest expiry to include
+   * @param group limit results to secrets assigned to this group, if provided.
+   * @param consumer receives each sanitized secret matching criteria, in order
+   */
+  public void streamSanitizedSecrets(@Nullable Long expireMaxTime, @Nullable Group group,
+      Consumer<SanitizedSecret> consumer) {
+    secretDAO.streamSecrets(expireMaxTime, group, secrets -> secrets.stream()
+        .map(SanitizedSecret::fromSecretSeriesAndContent)
+        .forEach(consumer));
+  }
+
+  /**
+   * Same as {@link #getSanitizedSecretsWithGroups}, but hands each secret to {@code consumer} as
+   * it is read from the database rather than building the whole list in memory.
+   *
+   * @param expireMaxTime timestamp for farthest expiry to include
+   * @param consumer receives each sanitized secret and its groups matching criteria, in order
+   */
+  public void streamSanitizedSecretsWithGroups(@Nullable Long expireMaxTime,
+      Consumer<SanitizedSecretWithGroups> consumer) {
+    secretDAO.streamSecrets(expireMaxTime, null, secrets -> {
+      Set<Long> secretIds = secrets.stream().map(s -> s.series().id()).collect(toSet());
+      Map<Long, List<Group>> groupsForSecrets = aclDAO.getGroupsForSecrets(secretIds);
+
+      secrets.forEach(s -> consumer.accept(fromSecretSeriesAndContentAndGroups(s,
+          groupsForSecrets.getOrDefault(s.series().id(), ImmutableList.of()))));
+    });
+  }
+
   /**
    * @param expireMaxTime timestamp for farthest expiry to include
    * @param limit         limit on number of results to return
@@ -206,6 +272,38 @@ public class SecretController {
         .collect(toList());
   }
 
+  /**
+   * @param cursor position after which to start, or null for the first batch
+   * @param num the number of secrets to return
+   * @param newestFirst if true, order the secrets from newest creation time to oldest
+   * @return A batch of secrets, and a cursor for the next batch if there are more secrets
+   */
+  public SanitizedSecretListAndCursor getSecretsBatched(@Nullable SecretBatchCursor cursor,
+      int num, boolean newestFirst) {
+    checkArgument(num > 0, "Num must be positive when getting batched secret names!");
+
+    // Retrieve one additional record to detect whether there is another batch
+    List<SanitizedSecret> secrets = secretDAO.getSecretsBatchedAfter(
+        cursor == null ? null : cursor.createdAt(), cursor == null ? null : cursor.id(),
+        num + 1, newestFirst).stream()
+        .map(SanitizedSecret::fromSecretSeriesAndContent)
+        .collect(toList());
+
+    SecretBatchCursor nextCursor = null;
+    if (secrets.size() > num) {
+      secrets = secrets.subList(0, num);
+      SanitizedSecret last = secrets.get(num - 1);
+      nextCursor = SecretBatchCursor.of(last.createdAt().toEpochSecond(), last.id());
+    }
+
+    try {
+      return SanitizedSecretListAndCursor.of(secrets, SecretBatchCursor.encode(nextCursor));
+    } catch (JsonProcessingException e) {
+      // Serialization of two longs can never fail.
+      throw new IllegalStateException(e);
+    }
+  }
+
   public SecretBuilder builder(String name, String secret, String creator, long expiry) {
     checkArgument(!name.isEmpty());
     checkArgument(!secret.isEmpty());
@@ -46,11 +46,11 @@ import javax.ws.rs.NotFoundException;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -79,6 +79,9 @@ public class SecretDAO {
   // to permanently remove secrets
   private static final int MAX_ROWS_REMOVED_PER_TRANSACTION = 1000;
 
+  // this is the number of secrets streamed listings read, map and verify at a time
+  private static final int STREAMING_CHUNK_SIZE = 500;
+
   public SecretDAO(DSLContext dslContext, SecretContentDAOFactory secretContentDAOFactory,
       SecretSeriesDAOFactory secretSeriesDAOFactory, ContentCryptographer cryptographer) {
     this.dslContext = dslContext;
@@ -92,18 +95,8 @@ public class SecretDAO {
       String creator, Map<String, String> metadata, long expiry, String description,
       @Nullable String type, @Nullable Map<String, String> generationOptions) {
     return dslContext.transactionResult(configuration -> {
-      // disallow use of a leading period in secret names
       // check is here because this is where all APIs converge on secret creation
-      if (name.startsWith(".")) {
-        throw new BadRequestException(format("secret cannot be created with name `%s` - secret "
-            + "names cannot begin with a period", name));
-      }
-
-      // enforce a shorter max length than the db to ensure secrets renamed on deletion still fit
-      if (name.length() > SECRET_NAME_MAX_LENGTH) {
-        throw new BadRequestException(format("secret cannot be created with name `%s` - secret "
-            + "names must be %d characters or less", name, SECRET_NAME_MAX_LENGTH));
-      }
+      checkSecretName(name);
 
       long now = OffsetDateTime.now().toEpochSecond();
 
@@ -134,6 +127,23 @@ public class SecretDAO {
     });
   }
 
+  /**
+   * @throws BadRequestException if secrets may not be created with the name
+   */
+  static void checkSecretName(String name) {
+    // disallow use of a leading period in secret names
+    if (name.startsWith(".")) {
+      throw new BadRequestException(format("secret cannot be created with name `%s` - secret "
+          + "names cannot begin with a period", name));
+    }
+
+    // enforce a shorter max length than the db to ensure secrets renamed on deletion still fit
+    if (name.length() > SECRET_NAME_MAX_LENGTH) {
+      throw new BadRequestException(format("secret cannot be created with name `%s` - secret "
+          + "names must be %d characters or less", name, SECRET_NAME_MAX_LENGTH));
+    }
+  }
+
   @VisibleForTesting
   public long createOrUpdateSecret(String name, String encryptedSecret, String hmac, String creator,
       Map<String, String> metadata, long expiry, String description, @Nullable String type,
@@ -288,7 +298,7 @@ public class SecretDAO {
 
   /**
    * @param names of secrets series to look up secrets by.
-   * @return Secrets matching input parameters.
+   * @return Secrets matching input parameters, fetched with a single query.
    */
   public List<SecretSeriesAndContent> getSecretsByName(List<String> names) {
     checkArgument(!names.isEmpty());
@@ -296,23 +306,7 @@ public class SecretDAO {
     SecretContentDAO secretContentDAO = secretContentDAOFactory.using(dslContext.configuration());
     SecretSeriesDAO secretSeriesDAO = secretSeriesDAOFactory.using(dslContext.configuration());
 
-    List<SecretSeries> multipleSeries = secretSeriesDAO.getMultipleSecretSeriesByName(names);
-
-    List<SecretSeriesAndContent> ret = new ArrayList<SecretSeriesAndContent>();
-
-    for (SecretSeries series : multipleSeries) {
-      if (series.currentVersion().isPresent()) {
-        long secretContentId = series.currentVersion().get();
-        Optional<SecretContent> secretContent =
-                secretContentDAO.getSecretContentById(secretContentId);
-        if (secretContent.isPresent()) {
-          ret.add(SecretSeriesAndContent.of(series, secretContent.get()));
-        } else {
-          throw new NotFoundException("Secret not found.");
-        }
-      }
-    }
-    return ret;
+    return secretSeriesDAO.getMultipleSecretSeriesAndContentsByName(names, secretContentDAO);
   }
 
   /**
@@ -332,17 +326,45 @@ public class SecretDAO {
       SecretContentDAO secretContentDAO = secretContentDAOFactory.using(configuration);
       SecretSeriesDAO secretSeriesDAO = secretSeriesDAOFactory.using(configuration);
 
-      ImmutableList.Builder<SecretSeriesAndContent> secretsBuilder = ImmutableList.builder();
+      return secretSeriesDAO.getSecretSeriesAndContents(expireMaxTime, group, expireMinTime,
+          minName, limit, secretContentDAO);
+    });
+  }
 
-      for (SecretSeries series : secretSeriesDAO.getSecretSeries(expireMaxTime, group,
-          expireMinTime, minName, limit)) {
-        SecretContent content =
-            secretContentDAO.getSecretContentById(series.currentVersion().get()).get();
-        SecretSeriesAndContent seriesAndContent = SecretSeriesAndContent.of(series, content);
-        secretsBuilder.add(seriesAndContent);
+  /**
+   * Streams all secrets matching the criteria to {@code consumer} in chunks, without holding more
+   * than one chunk in memory. Each chunk is read by its own short query, continuing after the last
+   * secret of the previous one, so no connection is held while a chunk is being consumed. The
+   * listing is therefore not a snapshot: a secret whose expiry changes meanwhile may be skipped or
+   * listed twice.
+   *
+   * @param expireMaxTime the maximum expiration date for secrets to return (exclusive)
+   * @param group the group secrets returned must be assigned to
+   * @param consumer receives each chunk of secrets, sorted as by {@link #getSecrets}
+   */
+  public void streamSecrets(@Nullable Long expireMaxTime, @Nullable Group group,
+      Consumer<List<SecretSeriesAndContent>> consumer) {
+    SecretSeriesAndContent last = null;
+    while (true) {
+      List<SecretSeriesAndContent> chunk = getSecretsAfter(expireMaxTime, group, last);
+      if (!chunk.isEmpty()) {
+        consumer.accept(chunk);
+      }
+      if (chunk.size() < STREAMING_CHUNK_SIZE) {
+        return;
       }
+      last = chunk.get(chunk.size() - 1);
+    }
+  }
+
+  private ImmutableList<SecretSeriesAndContent> getSecretsAfter(@Nullable Long expireMaxTime,
+      @Nullable Group group, @Nullable SecretSeriesAndContent after) {
+    return dslContext.transactionResult(configuration -> {
+      SecretContentDAO secretContentDAO = secretContentDAOFactory.using(configuration);
+      SecretSeriesDAO secretSeriesDAO = secretSeriesDAOFactory.using(configuration);
 
-      return secretsBuilder.build();
+      return secretSeriesDAO.getSecretSeriesAndContentsPage(expireMaxTime, group, after,
+          STREAMING_CHUNK_SIZE, secretContentDAO);
     });
   }
 
@@ -370,17 +392,25 @@ public class SecretDAO {
       SecretContentDAO secretContentDAO = secretContentDAOFactory.using(configuration);
       SecretSeriesDAO secretSeriesDAO = secretSeriesDAOFactory.using(configuration);
 
-      ImmutableList.Builder<SecretSeriesAndContent> secretsBuilder = ImmutableList.builder();
+      return secretSeriesDAO.getSecretSeriesAndContentsBatched(idx, num, newestFirst,
+          secretContentDAO);
+    });
+  }
 
-      for (SecretSeries series : secretSeriesDAO.getSecretSeriesBatched(idx, num, newestFirst)) {
-        SecretContent content =
-            secretContentDAO.getSecretContentById(series.currentVersion().get()).get();
-        SecretSeriesAndContent seriesAndContent = SecretSeriesAndContent.of(series, content);
-        secretsBuilder.add(seriesAndContent);
-      }
+  /**
+   * @param cursorCreatedAt creation time of the last secret of the previous batch, if any
+   * @param cursorId id of the last secret of the previous batch, if any
+   * @param num the maximum number of secrets to return
+   * @param newestFirst if true, order the secrets from newest creation time to oldest
+   * @return A list of secrets created after (or before, if newestFirst) the given secret
+   */
+  public ImmutableList<SecretSeriesAndContent> getSecretsBatchedAfter(
+      @Nullable Long cursorCreatedAt, @Nullable Long cursorId, int num, boolean newestFirst) {
+    SecretContentDAO secretContentDAO = secretContentDAOFactory.using(dslContext.configuration());
+    SecretSeriesDAO secretSeriesDAO = secretSeriesDAOFactory.using(dslContext.configuration());
 
-      return secretsBuilder.build();
-    });
+    return secretSeriesDAO.getSecretSeriesAndContentsAfter(cursorCreatedAt, cursorId, num,
+        newestFirst, secretContentDAO);
   }
 
   /**
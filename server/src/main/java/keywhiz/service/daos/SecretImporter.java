@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import javax.ws.rs.BadRequestException;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Result;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Status;
+import keywhiz.api.automation.v2.CreateSecretRequestV2;
+import keywhiz.api.model.SecretSeries;
+import keywhiz.log.AuditLog;
+import keywhiz.log.Event;
+import keywhiz.log.EventTag;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.ContentEncodingException;
+import keywhiz.service.crypto.PlaintextCache;
+import keywhiz.service.daos.AclDAO.AclDAOFactory;
+import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
+import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
+import org.jooq.DSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Creates or updates secrets in bulk, e.g. to import them from another store.
+ *
+ * Encrypting and HMACing content dominates the cost of creating a secret, so all content is
+ * encrypted on a bounded fork-join pool before anything is written. Secrets are then written in
+ * chunks, each in one transaction, where new series, contents, current versions and group grants
+ * take a single statement per chunk; existing series are updated one by one, and queued for
+ * pruning (see {@link ContentPruner}) once committed. If a chunk fails, its
+ * secrets are written one by one instead, so that a bad secret fails alone.
+ *
+ * Secrets are granted to those of their groups which exist; existing grants are kept.
+ */
+public class SecretImporter implements Managed {
+  // Number of secrets written per transaction
+  @VisibleForTesting static final int CHUNK_SIZE = 200;
+
+  private static final Logger logger = LoggerFactory.getLogger(SecretImporter.class);
+
+  private final DSLContext jooq;
+  private final SecretSeriesDAOFactory secretSeriesDAOFactory;
+  private final SecretContentDAOFactory secretContentDAOFactory;
+  private final AclDAOFactory aclDAOFactory;
+  private final ContentCryptographer cryptographer;
+  private final PlaintextCache plaintextCache;
+  private final ContentPruner contentPruner;
+  private final int maxSecrets;
+  private final ForkJoinPool pool;
+
+  private final Timer encryptions;
+  private final Timer writes;
+  private final Meter created;
+  private final Meter updated;
+  private final Meter failed;
+
+  /**
+   * @param parallelism maximum number of threads encrypting content
+   * @param maxSecrets maximum number of secrets per import
+   */
+  public SecretImporter(DSLContext jooq, SecretSeriesDAOFactory secretSeriesDAOFactory,
+      SecretContentDAOFactory secretContentDAOFactory, AclDAOFactory aclDAOFactory,
+      ContentCryptographer cryptographer, PlaintextCache plaintextCache,
+      ContentPruner contentPruner, int parallelism, int maxSecrets, MetricRegistry metrics) {
+    checkArgument(parallelism > 0, "parallelism must be positive");
+    this.jooq = jooq;
+    this.secretSeriesDAOFactory = secretSeriesDAOFactory;
+    this.secretContentDAOFactory = secretContentDAOFactory;
+    this.aclDAOFactory = aclDAOFactory;
+    this.cryptographer = cryptographer;
+    this.plaintextCache = plaintextCache;
+    this.contentPruner = contentPruner;
+    this.maxSecrets = maxSecrets;
+    this.pool = new ForkJoinPool(parallelism, p -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+      thread.setName("secret-importer-" + thread.getPoolIndex());
+      return thread;
+    }, null, false);
+
+    this.encryptions = metrics.timer(name(SecretImporter.class, "encrypt"));
+    this.writes = metrics.timer(name(SecretImporter.class, "write"));
+    this.created = metrics.meter(name(SecretImporter.class, "created"));
+    this.updated = metrics.meter(name(SecretImporter.class, "updated"));
+    this.failed = metrics.meter(name(SecretImporter.class, "failed"));
+  }
+
+  /**
+   * Creates or updates each secret, and grants it to its groups.
+   *
+   * @param auditLog records each created or updated secret and each grant
+   * @return the outcome for each secret, in request order
+   * @throws BadRequestException if there are more secrets than allowed at once
+   */
+  public ImmutableList<Result> importSecrets(List<CreateSecretRequestV2> requests, String creator,
+      AuditLog auditLog) {
+    if (requests.size() > maxSecrets) {
+      throw new BadRequestException(
+          format("cannot create or update more than %d secrets at once", maxSecrets));
+    }
+
+    Result[] rejected = new Result[requests.size()];
+    Set<String> names = new HashSet<>();
+    List<CreateSecretRequestV2> accepted = new ArrayList<>();
+    for (int i = 0; i < requests.size(); i++) {
+      CreateSecretRequestV2 request = requests.get(i);
+      String name = request.name();
+      try {
+        SecretDAO.checkSecretName(name);
+        if (request.content().isEmpty()) {
+          rejected[i] = Result.failed(name, "secret content cannot be empty");
+        } else if (!names.add(name)) {
+          rejected[i] = Result.failed(name, "secret appears more than once in the request");
+        } else {
+          accepted.add(request);
+        }
+      } catch (BadRequestException e) {
+        rejected[i] = Result.failed(name, e.getMessage());
+      }
+    }
+
+    List<EncryptedSecret> encrypted;
+    try (Timer.Context ignored = encryptions.time()) {
+      // A parallel stream started from within a pool's task is split across that pool's workers.
+      encrypted = pool.submit(() -> accepted.parallelStream()
+          .map(this::encrypt)
+          .collect(toList()))
+          .join();
+    }
+
+    Map<String, Result> results = new HashMap<>();
+    for (int i = 0; i < accepted.size(); i++) {
+      if (encrypted.get(i) == null) {
+        String name = accepted.get(i).name();
+        results.put(name, Result.failed(name, format("Cannot encrypt secret %s.", name)));
+      }
+    }
+    List<EncryptedSecret> writable = encrypted.stream().filter(Objects::nonNull).collect(toList());
+    for (List<EncryptedSecret> chunk : Lists.partition(writable, CHUNK_SIZE)) {
+      writeChunk(chunk, creator, auditLog, results);
+    }
+
+    ImmutableList.Builder<Result> ordered = ImmutableList.builder();
+    for (int i = 0; i < requests.size(); i++) {
+      Result result =
+          (rejected[i] != null) ? rejected[i] : results.get(requests.get(i).name());
+      if (result.status() == Status.FAILED) {
+        failed.mark();
+      }
+      ordered.add(result);
+    }
+    return ordered.build();
+  }
+
+  /** @return the encrypted secret, or null if its content could not be encrypted */
+  private EncryptedSecret encrypt(CreateSecretRequestV2 request) {
+    try {
+      // Mirrors SecretController.builder
+      String hmac = cryptographer.computeHmac(request.content().getBytes(UTF_8), "hmackey");
+      if (hmac == null) {
+        throw new ContentEncodingException("Error encoding content for SecretImporter!");
+      }
+      String encryptedContent =
+          cryptographer.encryptionKeyDerivedFrom(request.name()).encrypt(request.content());
+      return new EncryptedSecret(request, encryptedContent, hmac);
+    } catch (RuntimeException e) {
+      logger.warn(format("Cannot encrypt secret %s", request.name()), e);
+      return null;
+    }
+  }
+
+  /** Writes secrets in one transaction, or if that fails, each in its own. */
+  private void writeChunk(List<EncryptedSecret> chunk, String creator, AuditLog auditLog,
+      Map<String, Result> results) {
+    Written written;
+    try (Timer.Context ignored = writes.time()) {
+      written = write(chunk, creator);
+    } catch (RuntimeException e) {
+      if (chunk.size() > 1) {
+        logger.info(format("Cannot write %d secrets at once, writing them one by one",
+            chunk.size()), e);
+        chunk.forEach(secret -> writeChunk(List.of(secret), creator, auditLog, results));
+      } else {
+        String name = chunk.get(0).request.name();
+        logger.info(format("Cannot create or update secret %s", name), e);
+        results.put(name, Result.failed(name, format("Cannot create or update secret %s.", name)));
+      }
+      return;
+    }
+
+    // Superseded versions of updated secrets need not stay in memory
+    plaintextCache.invalidateSecrets(ImmutableSet.copyOf(written.updated.values()));
+    written.updated.values().forEach(contentPruner::enqueue);
+
+    Instant now = Instant.now();
+    for (EncryptedSecret secret : chunk) {
+      CreateSecretRequestV2 request = secret.request;
+      String name = request.name();
+      if (written.updated.containsKey(name)) {
+        updated.mark();
+        results.put(name, Result.updated(name));
+      } else {
+        created.mark();
+        results.put(name, Result.created(name));
+      }
+
+      auditLog.recordEvent(new Event(now, EventTag.SECRET_CREATEORUPDATE, creator, name,
+          ImmutableMap.of(
+              "description", request.description(),
+              "metadata", request.metadata().toString(),
+              "expiry", Long.toString(request.expiry()))));
+      for (String group : request.groups()) {
+        if (written.groups.contains(group)) {
+          auditLog.recordEvent(new Event(now, EventTag.CHANGEACL_GROUP_SECRET, creator, group,
+              ImmutableMap.of("group", group, "secret added", name)));
+        }
+      }
+    }
+  }
+
+  private Written write(List<EncryptedSecret> secrets, String creator) {
+    return jooq.transactionResult(configuration -> {
+      long now = OffsetDateTime.now().toEpochSecond();
+
+      SecretSeriesDAO secretSeriesDAO = secretSeriesDAOFactory.using(configuration);
+      SecretContentDAO secretContentDAO = secretContentDAOFactory.using(configuration);
+      AclDAO aclDAO = aclDAOFactory.using(configuration);
+
+      List<String> names = secrets.stream().map(secret -> secret.request.name()).collect(toList());
+      Map<String, Long> existing = secretSeriesDAO.getMultipleSecretSeriesByName(names).stream()
+          .collect(toMap(SecretSeries::name, SecretSeries::id));
+
+      List<CreateSecretRequestV2> added = new ArrayList<>();
+      for (EncryptedSecret secret : secrets) {
+        CreateSecretRequestV2 request = secret.request;
+        Long secretId = existing.get(request.name());
+        if (secretId == null) {
+          added.add(request);
+        } else {
+          secretSeriesDAO.updateSecretSeries(secretId, request.name(), creator,
+              request.description(), request.type(), null, now);
+        }
+      }
+      Map<String, Long> secretIds = new HashMap<>(existing);
+      secretIds.putAll(secretSeriesDAO.createSecretSeries(added, creator, now));
+
+      Map<Long, EncryptedSecret> secretsById = new LinkedHashMap<>();
+      Set<String> groups = new HashSet<>();
+      for (EncryptedSecret secret : secrets) {
+        secretsById.put(secretIds.get(secret.request.name()), secret);
+        groups.addAll(secret.request.groups());
+      }
+      Map<Long, Long> contentIds = secretContentDAO.createSecretContents(secretsById, creator, now);
+      secretSeriesDAO.setCurrentVersions(contentIds, creator, now);
+
+      Map<String, Long> groupIds = aclDAO.getGroupIdsByName(configuration, groups);
+      ImmutableSetMultimap.Builder<Long, Long> grants = ImmutableSetMultimap.builder();
+      for (EncryptedSecret secret : secrets) {
+        for (String group : secret.request.groups()) {
+          Long groupId = groupIds.get(group);
+          if (groupId != null) {
+            grants.put(secretIds.get(secret.request.name()), groupId);
+          }
+        }
+      }
+      aclDAO.allowAccess(configuration, grants.build());
+
+      return new Written(existing, groupIds.keySet());
+    });
+  }
+
+  @Override public void start() {}
+
+  @Override public void stop() {
+    pool.shutdown();
+  }
+
+  private static final class Written {
+    // ids of the secrets which existed, by name
+    private final Map<String, Long> updated;
+    // names of the groups which exist
+    private final Set<String> groups;
+
+    Written(Map<String, Long> updated, Set<String> groups) {
+      this.updated = updated;
+      this.groups = groups;
+    }
+  }
+}
@@ -21,17 +21,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import keywhiz.api.automation.v2.CreateSecretRequestV2;
 import keywhiz.api.model.Group;
+import keywhiz.api.model.SecretContent;
 import keywhiz.api.model.SecretSeries;
+import keywhiz.api.model.SecretSeriesAndContent;
 import keywhiz.jooq.tables.records.SecretsRecord;
 import keywhiz.service.config.Readonly;
+import keywhiz.service.crypto.PlaintextCache;
 import keywhiz.service.crypto.RowHmacGenerator;
 import org.joda.time.DateTime;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
 import org.jooq.Field;
+import org.jooq.InsertSetMoreStep;
 import org.jooq.Record;
 import org.jooq.Record1;
+import org.jooq.Result;
 import org.jooq.SelectQuery;
 import org.jooq.impl.DSL;
 
@@ -40,11 +46,13 @@ import javax.inject.Inject;
 import javax.ws.rs.BadRequestException;
 import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static keywhiz.jooq.tables.Accessgrants.ACCESSGRANTS;
 import static keywhiz.jooq.tables.Groups.GROUPS;
@@ -63,17 +71,54 @@ public class SecretSeriesDAO {
   private final ObjectMapper mapper;
   private final SecretSeriesMapper secretSeriesMapper;
   private final RowHmacGenerator rowHmacGenerator;
+  private final PlaintextCache plaintextCache;
 
   private SecretSeriesDAO(DSLContext dslContext, ObjectMapper mapper,
-      SecretSeriesMapper secretSeriesMapper, RowHmacGenerator rowHmacGenerator) {
+      SecretSeriesMapper secretSeriesMapper, RowHmacGenerator rowHmacGenerator,
+      PlaintextCache plaintextCache) {
     this.dslContext = dslContext;
     this.mapper = mapper;
     this.secretSeriesMapper = secretSeriesMapper;
     this.rowHmacGenerator = rowHmacGenerator;
+    this.plaintextCache = plaintextCache;
   }
 
   long createSecretSeries(String name, String creator, String description, @Nullable String type,
       @Nullable Map<String, String> generationOptions, long now) {
+    SecretsRecord r =
+        newSecretSeriesRecord(name, creator, description, type, generationOptions, now);
+    r.store();
+
+    return r.getId();
+  }
+
+  /**
+   * Creates several secret series with a single statement, without generation options.
+   *
+   * @return ids of the created series by name
+   */
+  Map<String, Long> createSecretSeries(List<CreateSecretRequestV2> requests, String creator,
+      long now) {
+    Map<String, Long> ids = new LinkedHashMap<>();
+    if (requests.isEmpty()) {
+      return ids;
+    }
+
+    InsertSetMoreStep<SecretsRecord> insert = null;
+    for (CreateSecretRequestV2 request : requests) {
+      SecretsRecord r = newSecretSeriesRecord(request.name(), creator, request.description(),
+          request.type(), null, now);
+      insert = (insert == null) ? dslContext.insertInto(SECRETS).set(r)
+          : insert.newRecord().set(r);
+      ids.put(r.getName(), r.getId());
+    }
+    insert.execute();
+
+    return ids;
+  }
+
+  private SecretsRecord newSecretSeriesRecord(String name, String creator, String description,
+      @Nullable String type, @Nullable Map<String, String> generationOptions, long now) {
     SecretsRecord r = dslContext.newRecord(SECRETS);
 
     long generatedId = rowHmacGenerator.getNextLongSecure();
@@ -99,9 +144,7 @@ public class SecretSeriesDAO {
     } else {
       r.setOptions("{}");
     }
-    r.store();
-
-    return r.getId();
+    return r;
   }
 
   void updateSecretSeries(long secretId, String name, String creator, String description,
@@ -124,6 +167,7 @@ public class SecretSeriesDAO {
           .set(SECRETS.ROW_HMAC, rowHmac)
           .where(SECRETS.ID.eq(secretId))
           .execute();
+      ChangeLog.record(dslContext, ChangeLog.EntityType.SECRET, secretId);
     } catch (JsonProcessingException e) {
       // Serialization of a Map<String, String> can never fail.
       throw Throwables.propagate(e);
@@ -135,17 +179,21 @@ public class SecretSeriesDAO {
         .when(SECRETS_CONTENT.EXPIRY.eq(0L), val(expiration.getEpochSecond()))
         .otherwise(least(SECRETS_CONTENT.EXPIRY, val(expiration.getEpochSecond())));
 
-    return dslContext.update(SECRETS_CONTENT)
+    int updated = dslContext.update(SECRETS_CONTENT)
         .set(SECRETS_CONTENT.EXPIRY, minExpiration)
         .where(SECRETS_CONTENT.ID.eq(secretContentId))
         .execute();
+    ChangeLog.record(dslContext, ChangeLog.EntityType.SECRET_CONTENT, secretContentId);
+    return updated;
   }
 
   public int setHmac(long secretContentId, String hmac) {
-    return dslContext.update(SECRETS_CONTENT)
+    int updated = dslContext.update(SECRETS_CONTENT)
         .set(SECRETS_CONTENT.CONTENT_HMAC, hmac)
         .where(SECRETS_CONTENT.ID.eq(secretContentId))
         .execute();
+    ChangeLog.record(dslContext, ChangeLog.EntityType.SECRET_CONTENT, secretContentId);
+    return updated;
   }
 
   public int setCurrentVersion(long secretId, long secretContentId, String updater, long now) {
@@ -167,12 +215,36 @@ public class SecretSeriesDAO {
           secretId, secretContentId));
     }
 
-    return dslContext.update(SECRETS)
+    int updated = dslContext.update(SECRETS)
         .set(SECRETS.CURRENT, secretContentId)
         .set(SECRETS.UPDATEDBY, updater)
         .set(SECRETS.UPDATEDAT, now)
         .where(SECRETS.ID.eq(secretId))
         .execute();
+    ChangeLog.record(dslContext, ChangeLog.EntityType.SECRET, secretId);
+    plaintextCache.invalidateSecret(secretId);
+    return updated;
+  }
+
+  /**
+   * Sets the current version of several secrets with a single statement. Unlike {@link
+   * #setCurrentVersion}, neither checks that each version belongs to its secret nor records the
+   * change: meant for versions just created in the same transaction, where updating each series
+   * already recorded it. Callers invalidate cached plaintext of updated secrets once committed.
+   *
+   * @param contentIdsBySecretId current version of each secret
+   */
+  void setCurrentVersions(Map<Long, Long> contentIdsBySecretId, String updater, long now) {
+    if (contentIdsBySecretId.isEmpty()) {
+      return;
+    }
+    dslContext.update(SECRETS)
+        .set(SECRETS.CURRENT,
+            decode().value(SECRETS.ID).mapValues(contentIdsBySecretId).otherwise(SECRETS.CURRENT))
+        .set(SECRETS.UPDATEDBY, updater)
+        .set(SECRETS.UPDATEDAT, now)
+        .where(SECRETS.ID.in(contentIdsBySecretId.keySet()))
+        .execute();
   }
 
   public Optional<SecretSeries> getSecretSeriesById(long id) {
@@ -191,9 +263,134 @@ public class SecretSeriesDAO {
     return dslContext.fetch(SECRETS, SECRETS.NAME.in(names).and(SECRETS.CURRENT.isNotNull())).map(secretSeriesMapper::map);
   }
 
+  /**
+   * Same as {@link #getMultipleSecretSeriesByName}, but also maps the current content of each
+   * series from the same query rather than fetching each content row separately.
+   *
+   * @param secretContentDAO maps and verifies the content rows
+   */
+  public ImmutableList<SecretSeriesAndContent> getMultipleSecretSeriesAndContentsByName(
+      List<String> names, SecretContentDAO secretContentDAO) {
+    Result<Record> rows = dslContext.select()
+        .from(SECRETS)
+        .join(SECRETS_CONTENT)
+        .on(SECRETS.CURRENT.equal(SECRETS_CONTENT.ID))
+        .where(SECRETS.NAME.in(names))
+        .fetch();
+    return toSeriesAndContents(rows, secretContentDAO);
+  }
+
   public ImmutableList<SecretSeries> getSecretSeries(@Nullable Long expireMaxTime,
       @Nullable Group group, @Nullable Long expireMinTime, @Nullable String minName,
       @Nullable Integer limit) {
+    SelectQuery<Record> select =
+        selectSecretSeries(expireMaxTime, group, expireMinTime, minName, limit);
+    List<SecretSeries> r = select.fetchInto(SECRETS).map(secretSeriesMapper);
+    return ImmutableList.copyOf(r);
+  }
+
+  /**
+   * Same as {@link #getSecretSeries}, but also maps the current content of each series from the
+   * same query rather than fetching each content row separately.
+   *
+   * @param secretContentDAO maps and verifies the content rows
+   */
+  public ImmutableList<SecretSeriesAndContent> getSecretSeriesAndContents(
+      @Nullable Long expireMaxTime, @Nullable Group group, @Nullable Long expireMinTime,
+      @Nullable String minName, @Nullable Integer limit, SecretContentDAO secretContentDAO) {
+    SelectQuery<Record> select =
+        selectSecretSeries(expireMaxTime, group, expireMinTime, minName, limit);
+    return toSeriesAndContents(select.fetch(), secretContentDAO);
+  }
+
+  /**
+   * Same as {@link #getSecretSeriesAndContents}, but retrieves the page of series that follows the
+   * given one in that order, so that a full listing can be read in short queries rather than
+   * through a cursor holding a connection open while the pages are consumed. Unlike the expiry and
+   * name bounds of {@link #getSecretSeriesAndContents}, the given series itself is excluded.
+   *
+   * @param after the last series of the previous page, if any
+   * @param num the maximum number of series to return
+   * @param secretContentDAO maps and verifies the content rows
+   */
+  public ImmutableList<SecretSeriesAndContent> getSecretSeriesAndContentsPage(
+      @Nullable Long expireMaxTime, @Nullable Group group, @Nullable SecretSeriesAndContent after,
+      int num, SecretContentDAO secretContentDAO) {
+    checkArgument(num > 0);
+    SelectQuery<Record> select = selectSecretSeries(expireMaxTime, group, null, null, num);
+    if (after != null) {
+      // Names of current secrets are unique, so expiry and name identify a position in the order
+      long expiry = after.content().expiry();
+      select.addConditions(SECRETS_CONTENT.EXPIRY.greaterThan(expiry)
+          .or(SECRETS_CONTENT.EXPIRY.eq(expiry).and(SECRETS.NAME.greaterThan(after.series().name()))));
+    }
+    return toSeriesAndContents(select.fetch(), secretContentDAO);
+  }
+
+  public ImmutableList<SecretSeries> getSecretSeriesBatched(int idx, int num, boolean newestFirst) {
+    SelectQuery<Record> select = selectSecretSeriesBatched(idx, num, newestFirst);
+    List<SecretSeries> r = select.fetchInto(SECRETS).map(secretSeriesMapper);
+    return ImmutableList.copyOf(r);
+  }
+
+  /**
+   * Same as {@link #getSecretSeriesBatched}, but also maps the current content of each series from
+   * the same query rather than fetching each content row separately.
+   *
+   * @param secretContentDAO maps and verifies the content rows
+   */
+  public ImmutableList<SecretSeriesAndContent> getSecretSeriesAndContentsBatched(int idx, int num,
+      boolean newestFirst, SecretContentDAO secretContentDAO) {
+    SelectQuery<Record> select = selectSecretSeriesBatched(idx, num, newestFirst);
+    return toSeriesAndContents(select.fetch(), secretContentDAO);
+  }
+
+  /**
+   * Retrieves a batch of series and their current content in creation order, starting after the
+   * given position rather than skipping rows by offset, so that later batches are as cheap to
+   * fetch as the first.
+   *
+   * @param cursorCreatedAt creation time of the last series of the previous batch, if any
+   * @param cursorId id of the last series of the previous batch, if any
+   * @param num the maximum number of series to return
+   * @param newestFirst if true, order the series from newest creation time to oldest
+   * @param secretContentDAO maps and verifies the content rows
+   */
+  public ImmutableList<SecretSeriesAndContent> getSecretSeriesAndContentsAfter(
+      @Nullable Long cursorCreatedAt, @Nullable Long cursorId, int num, boolean newestFirst,
+      SecretContentDAO secretContentDAO) {
+    SelectQuery<Record> select = dslContext
+        .select()
+        .from(SECRETS)
+        .join(SECRETS_CONTENT)
+        .on(SECRETS.CURRENT.equal(SECRETS_CONTENT.ID))
+        .where(SECRETS.CURRENT.isNotNull())
+        .getQuery();
+
+    if (cursorCreatedAt != null && cursorId != null) {
+      // Expanded rather than a row comparison, which MySQL cannot always use the index for
+      if (newestFirst) {
+        select.addConditions(SECRETS.CREATEDAT.lessThan(cursorCreatedAt)
+            .or(SECRETS.CREATEDAT.eq(cursorCreatedAt).and(SECRETS.ID.lessThan(cursorId))));
+      } else {
+        select.addConditions(SECRETS.CREATEDAT.greaterThan(cursorCreatedAt)
+            .or(SECRETS.CREATEDAT.eq(cursorCreatedAt).and(SECRETS.ID.greaterThan(cursorId))));
+      }
+    }
+
+    if (newestFirst) {
+      select.addOrderBy(SECRETS.CREATEDAT.desc(), SECRETS.ID.desc());
+    } else {
+      select.addOrderBy(SECRETS.CREATEDAT.asc(), SECRETS.ID.asc());
+    }
+    select.addLimit(num);
+
+    return toSeriesAndContents(select.fetch(), secretContentDAO);
+  }
+
+  private SelectQuery<Record> selectSecretSeries(@Nullable Long expireMaxTime,
+      @Nullable Group group, @Nullable Long expireMinTime, @Nullable String minName,
+      @Nullable Integer limit) {
     SelectQuery<Record> select = dslContext
           .select()
           .from(SECRETS)
@@ -230,11 +427,10 @@ public class SecretSeriesDAO {
       select.addLimit(limit);
     }
 
-    List<SecretSeries> r = select.fetchInto(SECRETS).map(secretSeriesMapper);
-    return ImmutableList.copyOf(r);
+    return select;
   }
 
-  public ImmutableList<SecretSeries> getSecretSeriesBatched(int idx, int num, boolean newestFirst) {
+  private SelectQuery<Record> selectSecretSeriesBatched(int idx, int num, boolean newestFirst) {
     SelectQuery<Record> select = dslContext
         .select()
         .from(SECRETS)
@@ -248,9 +444,19 @@ public class SecretSeriesDAO {
       select.addOrderBy(SECRETS.CREATEDAT.asc());
     }
     select.addLimit(idx, num);
+    return select;
+  }
 
-    List<SecretSeries> r = select.fetchInto(SECRETS).map(secretSeriesMapper);
-    return ImmutableList.copyOf(r);
+  private ImmutableList<SecretSeriesAndContent> toSeriesAndContents(Result<Record> rows,
+      SecretContentDAO secretContentDAO) {
+    List<SecretSeries> series = rows.into(SECRETS).map(secretSeriesMapper);
+    List<SecretContent> contents = secretContentDAO.toSecretContents(rows.into(SECRETS_CONTENT));
+
+    ImmutableList.Builder<SecretSeriesAndContent> b = ImmutableList.builder();
+    for (int i = 0; i < series.size(); i++) {
+      b.add(SecretSeriesAndContent.of(series.get(i), contents.get(i)));
+    }
+    return b.build();
   }
 
   public void deleteSecretSeriesByName(String name) {
@@ -276,6 +482,8 @@ public class SecretSeriesDAO {
             .delete(ACCESSGRANTS)
             .where(ACCESSGRANTS.SECRETID.eq(r.getId()))
             .execute();
+        ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.SECRET, r.getId());
+        plaintextCache.invalidateSecret(r.getId());
       }
     });
   }
@@ -302,6 +510,8 @@ public class SecretSeriesDAO {
             .delete(ACCESSGRANTS)
             .where(ACCESSGRANTS.SECRETID.eq(id))
             .execute();
+        ChangeLog.record(DSL.using(configuration), ChangeLog.EntityType.SECRET, id);
+        plaintextCache.invalidateSecret(id);
       }
     });
   }
@@ -351,28 +561,33 @@ public class SecretSeriesDAO {
     private final ObjectMapper objectMapper;
     private final SecretSeriesMapper secretSeriesMapper;
     private final RowHmacGenerator rowHmacGenerator;
+    private final PlaintextCache plaintextCache;
 
     @Inject public SecretSeriesDAOFactory(DSLContext jooq, @Readonly DSLContext readonlyJooq,
         ObjectMapper objectMapper, SecretSeriesMapper secretSeriesMapper,
-        RowHmacGenerator rowHmacGenerator) {
+        RowHmacGenerator rowHmacGenerator, PlaintextCache plaintextCache) {
       this.jooq = jooq;
       this.readonlyJooq = readonlyJooq;
       this.objectMapper = objectMapper;
       this.secretSeriesMapper = secretSeriesMapper;
       this.rowHmacGenerator = rowHmacGenerator;
+      this.plaintextCache = plaintextCache;
     }
 
     @Override public SecretSeriesDAO readwrite() {
-      return new SecretSeriesDAO(jooq, objectMapper, secretSeriesMapper, rowHmacGenerator);
+      return new SecretSeriesDAO(jooq, objectMapper, secretSeriesMapper, rowHmacGenerator,
+          plaintextCache);
     }
 
     @Override public SecretSeriesDAO readonly() {
-      return new SecretSeriesDAO(readonlyJooq, objectMapper, secretSeriesMapper, rowHmacGenerator);
+      return new SecretSeriesDAO(readonlyJooq, objectMapper, secretSeriesMapper, rowHmacGenerator,
+          plaintextCache);
     }
 
     @Override public SecretSeriesDAO using(Configuration configuration) {
       DSLContext dslContext = DSL.using(checkNotNull(configuration));
-      return new SecretSeriesDAO(dslContext, objectMapper, secretSeriesMapper, rowHmacGenerator);
+      return new SecretSeriesDAO(dslContext, objectMapper, secretSeriesMapper, rowHmacGenerator,
+          plaintextCache);
     }
   }
 
@@ -25,6 +25,7 @@ import keywhiz.KeywhizConfig;
 import keywhiz.api.model.AutomationClient;
 import keywhiz.api.model.Client;
 import keywhiz.service.config.ClientAuthConfig;
+import keywhiz.service.daos.ClientCache;
 import keywhiz.service.daos.ClientDAO;
 import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
 import org.glassfish.jersey.server.ContainerRequest;
@@ -40,8 +41,9 @@ import static java.lang.String.format;
  */
 public class AutomationClientAuthFactory extends ClientAuthFactory {
   @Inject public AutomationClientAuthFactory(ClientDAOFactory clientDAOFactory,
-      KeywhizConfig keywhizConfig) {
-    super(clientDAOFactory, keywhizConfig);
+      KeywhizConfig keywhizConfig, ClientCache clientCache,
+      XfccCertificateCache certificateCache) {
+    super(clientDAOFactory, keywhizConfig, clientCache, certificateCache);
   }
 
   @VisibleForTesting AutomationClientAuthFactory(ClientDAO clientDAO,
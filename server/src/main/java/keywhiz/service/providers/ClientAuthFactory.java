@@ -17,6 +17,9 @@
 package keywhiz.service.providers;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
 import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -26,9 +29,13 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.NotAuthorizedException;
@@ -37,8 +44,10 @@ import keywhiz.api.model.Client;
 import keywhiz.auth.mutualssl.CertificatePrincipal;
 import keywhiz.service.config.ClientAuthConfig;
 import keywhiz.service.config.XfccSourceConfig;
+import keywhiz.service.daos.ClientCache;
 import keywhiz.service.daos.ClientDAO;
 import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
+import keywhiz.service.providers.XfccCertificateCache.ParsedCertificate;
 import org.glassfish.jersey.server.ContainerRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,18 +75,26 @@ public class ClientAuthFactory {
 
   private final ClientAuthenticator authenticator;
   private final ClientAuthConfig clientAuthConfig;
+  private final XfccCertificateCache certificateCache;
+  // XFCC configurations by port, resolved once the configuration is first needed
+  private final Supplier<Map<Integer, XfccPort>> xfccPorts =
+      Suppliers.memoize(this::resolveXfccPorts);
 
   @Inject
-  public ClientAuthFactory(ClientDAOFactory clientDAOFactory, KeywhizConfig keywhizConfig) {
+  public ClientAuthFactory(ClientDAOFactory clientDAOFactory, KeywhizConfig keywhizConfig,
+      ClientCache clientCache, XfccCertificateCache certificateCache) {
     this.authenticator =
         new ClientAuthenticator(clientDAOFactory.readwrite(), clientDAOFactory.readonly(),
-            keywhizConfig.getClientAuthConfig());
+            keywhizConfig.getClientAuthConfig(), clientCache);
     this.clientAuthConfig = keywhizConfig.getClientAuthConfig();
+    this.certificateCache = certificateCache;
   }
 
   @VisibleForTesting ClientAuthFactory(ClientDAO clientDAO, ClientAuthConfig clientAuthConfig) {
-    this.authenticator = new ClientAuthenticator(clientDAO, clientDAO, clientAuthConfig);
+    this.authenticator =
+        new ClientAuthenticator(clientDAO, clientDAO, clientAuthConfig, ClientCache.disabled());
     this.clientAuthConfig = clientAuthConfig;
+    this.certificateCache = XfccCertificateCache.withDefaults();
   }
 
   public Client provide(ContainerRequest containerRequest,
@@ -86,8 +103,7 @@ public class ClientAuthFactory {
     // never send this header. This also throws an error if a single port
     // has multiple configurations.
     int requestPort = httpServletRequest.getLocalPort();
-    Optional<XfccSourceConfig> possibleXfccConfig =
-        getXfccConfigForPort(requestPort);
+    Optional<XfccPort> possibleXfccConfig = getXfccConfigForPort(requestPort);
 
     List<String> xfccHeaderValues =
         Optional.ofNullable(containerRequest.getRequestHeader(XFCC_HEADER_NAME)).orElse(List.of());
@@ -118,22 +134,31 @@ public class ClientAuthFactory {
     return Optional.ofNullable(request.getSecurityContext().getUserPrincipal());
   }
 
-  private Optional<XfccSourceConfig> getXfccConfigForPort(int port) {
-    List<XfccSourceConfig> matchingConfigs = clientAuthConfig.xfccConfigs()
-        .stream()
-        .filter(xfccSourceConfig -> xfccSourceConfig.port().equals(port))
-        .collect(Collectors.toUnmodifiableList());
-
-    if (matchingConfigs.size() > 1) {
+  private Optional<XfccPort> getXfccConfigForPort(int port) {
+    XfccPort xfccPort = xfccPorts.get().get(port);
+    if (xfccPort != null && xfccPort.ambiguous) {
       throw new NotAuthorizedException(format(
           "Invalid 'xfcc' configuration for port %d; at most one configuration must be present per port",
           port));
-    } else {
-      return matchingConfigs.stream().findFirst();
     }
+    return Optional.ofNullable(xfccPort);
   }
 
-  private Client authorizeClientFromXfccHeader(XfccSourceConfig xfccConfig,
+  private Map<Integer, XfccPort> resolveXfccPorts() {
+    if (clientAuthConfig == null || clientAuthConfig.xfccConfigs() == null) {
+      return Map.of();
+    }
+
+    Map<Integer, XfccPort> ports = new HashMap<>();
+    for (XfccSourceConfig xfccConfig : clientAuthConfig.xfccConfigs()) {
+      // Ports with several configurations are rejected when requests arrive on them
+      ports.merge(xfccConfig.port(), new XfccPort(xfccConfig),
+          (first, second) -> XfccPort.AMBIGUOUS);
+    }
+    return ports;
+  }
+
+  private Client authorizeClientFromXfccHeader(XfccPort xfccConfig,
       List<String> xfccHeaderValues, Principal requestPrincipal) {
     // Do not allow the XFCC header to be set by all incoming traffic. This throws a
     // NotAuthorizedException when the traffic is not coming from a source allowed to set the
@@ -141,20 +166,17 @@ public class ClientAuthFactory {
     validateXfccHeaderAllowed(xfccConfig, requestPrincipal);
 
     // Extract client information from the XFCC header
-    X509Certificate clientCert =
+    ParsedCertificate clientCert =
         getClientCertFromXfccHeaderEnvoyFormatted(xfccHeaderValues).orElseThrow(() ->
             new NotAuthorizedException(
                 format("unable to parse client certificate from %s header", XFCC_HEADER_NAME))
         );
 
-    CertificatePrincipal certificatePrincipal =
-        new CertificatePrincipal(clientCert.getSubjectDN().toString(),
-            new X509Certificate[] {clientCert});
-
-    return authenticateClientFromCertificate(certificatePrincipal);
+    return authenticateClientFromCertificate(clientCert.principal, clientCert.clientName,
+        clientCert.spiffeId);
   }
 
-  private void validateXfccHeaderAllowed(XfccSourceConfig xfccConfig, Principal requestPrincipal) {
+  private void validateXfccHeaderAllowed(XfccPort xfccConfig, Principal requestPrincipal) {
     if (clientAuthConfig == null || clientAuthConfig.xfccConfigs() == null) {
       throw new NotAuthorizedException(
           format(
@@ -173,15 +195,15 @@ public class ClientAuthFactory {
     }
 
     // Only certain clients may set the XFCC header
-    if (requestName.isPresent() && !xfccConfig.allowedClientNames().contains(requestName.get())) {
+    if (requestName.isPresent() && !xfccConfig.allowedClientNames.contains(requestName.get())) {
       throw new NotAuthorizedException(
           format(
               "requests with %s header set may not be sent from client with name %s; check configuration",
               XFCC_HEADER_NAME, requestName.get()));
     }
 
-    if (requestSpiffeId.isPresent() && !containsUri(xfccConfig.allowedSpiffeIds(),
-        requestSpiffeId.get())) {
+    if (requestSpiffeId.isPresent()
+        && !xfccConfig.allowedSpiffeIds.contains(requestSpiffeId.get())) {
       throw new NotAuthorizedException(
           format(
               "requests with %s header set may not be sent from client with spiffe ID %s; check configuration",
@@ -189,20 +211,7 @@ public class ClientAuthFactory {
     }
   }
 
-  private boolean containsUri(List<String> uriList, URI targetUri) {
-    for (String uri : uriList) {
-      try {
-        if (new URI(uri).equals(targetUri)) {
-          return true;
-        }
-      } catch (URISyntaxException e) {
-        logger.warn(format("Unable to parse URI from %s", uri), e);
-      }
-    }
-    return false;
-  }
-
-  private Optional<X509Certificate> getClientCertFromXfccHeaderEnvoyFormatted(
+  private Optional<ParsedCertificate> getClientCertFromXfccHeaderEnvoyFormatted(
       List<String> xfccHeaderValues) {
     // Keywhiz currently supports only one configured XFCC header,,since otherwise it is difficult
     // to distinguish which certificate should have access to secrets
@@ -253,7 +262,10 @@ public class ClientAuthFactory {
       return Optional.empty();
     }
 
-    return parseUrlEncodedPem(certValues.get(0));
+    return certificateCache.get(certValues.get(0),
+        certValue -> parseUrlEncodedPem(certValue).map(cert ->
+            new CertificatePrincipal(cert.getSubjectDN().toString(),
+                new X509Certificate[] {cert})));
   }
 
   private Optional<X509Certificate> parseUrlEncodedPem(String urlEncodedPem) {
@@ -303,4 +315,43 @@ public class ClientAuthFactory {
         format("No authorized Client for connection using principal %s",
             clientPrincipal.getName())));
   }
+
+  private Client authenticateClientFromCertificate(Principal clientPrincipal,
+      Optional<String> clientName, Optional<URI> spiffeId) {
+    Optional<Client> possibleClient =
+        authenticator.authenticate(clientPrincipal, clientName, spiffeId, createMissingClient());
+    return possibleClient.orElseThrow(() -> new NotAuthorizedException(
+        format("No authorized Client for connection using principal %s",
+            clientPrincipal.getName())));
+  }
+
+  /** The XFCC configuration of a port, with its allowlists parsed for lookup. */
+  private static final class XfccPort {
+    // Marks a port with several configurations
+    static final XfccPort AMBIGUOUS = new XfccPort(null);
+
+    final boolean ambiguous;
+    final Set<String> allowedClientNames;
+    final Set<URI> allowedSpiffeIds;
+
+    XfccPort(@Nullable XfccSourceConfig xfccConfig) {
+      this.ambiguous = xfccConfig == null;
+      if (xfccConfig == null) {
+        this.allowedClientNames = Set.of();
+        this.allowedSpiffeIds = Set.of();
+        return;
+      }
+
+      this.allowedClientNames = ImmutableSet.copyOf(xfccConfig.allowedClientNames());
+      ImmutableSet.Builder<URI> allowedSpiffeIds = ImmutableSet.builder();
+      for (String uri : xfccConfig.allowedSpiffeIds()) {
+        try {
+          allowedSpiffeIds.add(new URI(uri));
+        } catch (URISyntaxException e) {
+          logger.warn(format("Unable to parse URI from %s", uri), e);
+        }
+      }
+      this.allowedSpiffeIds = allowedSpiffeIds.build();
+    }
+  }
 }
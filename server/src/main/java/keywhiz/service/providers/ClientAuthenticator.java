@@ -13,6 +13,7 @@ import javax.ws.rs.NotAuthorizedException;
 import keywhiz.api.model.Client;
 import keywhiz.auth.mutualssl.CertificatePrincipal;
 import keywhiz.service.config.ClientAuthConfig;
+import keywhiz.service.daos.ClientCache;
 import keywhiz.service.daos.ClientDAO;
 import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
@@ -39,24 +40,35 @@ public class ClientAuthenticator {
   private final ClientDAO clientDAOReadWrite;
   private final ClientDAO clientDAOReadOnly;
   private final ClientAuthConfig clientAuthConfig;
+  private final ClientCache clientCache;
 
   public ClientAuthenticator(
       ClientDAO clientDAOReadWrite,
       ClientDAO clientDAOReadOnly,
-      ClientAuthConfig clientAuthConfig) {
+      ClientAuthConfig clientAuthConfig,
+      ClientCache clientCache) {
     this.clientDAOReadWrite = clientDAOReadWrite;
     this.clientDAOReadOnly = clientDAOReadOnly;
     this.clientAuthConfig = clientAuthConfig;
+    this.clientCache = clientCache;
   }
 
   public Optional<Client> authenticate(Principal principal, boolean createMissingClient) {
     // Try to retrieve clients based on the client name and SPIFFE ID
-    Optional<String> possibleClientName = getClientName(principal);
-    Optional<URI> possibleClientSpiffeId = getSpiffeId(principal);
+    return authenticate(principal, getClientName(principal), getSpiffeId(principal),
+        createMissingClient);
+  }
+
+  /**
+   * Authenticates a principal whose client name and SPIFFE ID were already extracted, e.g. from a
+   * cached certificate.
+   */
+  Optional<Client> authenticate(Principal principal, Optional<String> possibleClientName,
+      Optional<URI> possibleClientSpiffeId, boolean createMissingClient) {
 
     Optional<Client> possibleClientFromName = possibleClientName.flatMap((name) -> {
       if (clientAuthConfig.typeConfig().useCommonName()) {
-        return clientDAOReadOnly.getClientByName(name);
+        return clientCache.getClientByName(name, clientDAOReadOnly::getClientByName);
       } else {
         return Optional.empty();
       }
@@ -64,7 +76,7 @@ public class ClientAuthenticator {
 
     Optional<Client> possibleClientFromSpiffeId = possibleClientSpiffeId.flatMap((spiffeId) -> {
       if (clientAuthConfig.typeConfig().useSpiffeId()) {
-        return clientDAOReadOnly.getClientBySpiffeId(spiffeId);
+        return clientCache.getClientBySpiffeId(spiffeId, clientDAOReadOnly::getClientBySpiffeId);
       } else {
         return Optional.empty();
       }
@@ -81,7 +93,7 @@ public class ClientAuthenticator {
       }
     } else if (possibleClientFromName.isEmpty() && possibleClientFromSpiffeId.isEmpty()) {
       // Create missing clients if configured to do so (client name must be present)
-      return handleMissingClient(createMissingClient, possibleClientName.orElse(""),
+      return handleMissingClient(principal, createMissingClient, possibleClientName.orElse(""),
           possibleClientSpiffeId);
     }
 
@@ -91,7 +103,10 @@ public class ClientAuthenticator {
         .or(() -> possibleClientFromSpiffeId)
         .orElseThrow(() -> new IllegalStateException(
             "Unable to identify client, and fallback code in server did not handle this case"));
+    return foundClient(client, principal);
+  }
 
+  private Optional<Client> foundClient(Client client, Principal principal) {
     // Record that this client has been retrieved
     clientDAOReadWrite.sawClient(client, principal);
     if (client.isEnabled()) {
@@ -102,9 +117,16 @@ public class ClientAuthenticator {
     }
   }
 
-  private Optional<Client> handleMissingClient(boolean createMissingClient, String name,
-      Optional<URI> spiffeId) {
+  private Optional<Client> handleMissingClient(Principal principal, boolean createMissingClient,
+      String name, Optional<URI> spiffeId) {
     if (createMissingClient && !name.isEmpty()) {
+      // Unknown clients are cached for a while, and replicas may lag, so another server may have
+      // created it since
+      Optional<Client> created = clientDAOReadWrite.getClientByName(name);
+      if (created.isPresent()) {
+        return foundClient(created.get(), principal);
+      }
+
       /*
        * If a client is seen for the first time, authenticated by certificate, and has no DB entry,
        * then a DB entry is created here. The client can be disabled in the future by flipping the
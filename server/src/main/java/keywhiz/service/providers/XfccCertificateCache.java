@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.providers;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Optional;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bounded cache of client certificates parsed from the Cert field of X-Forwarded-Client-Cert
+ * headers, along with the client name and SPIFFE id they identify, so that a proxy forwarding the
+ * same few certificates over and over does not have them decoded and parsed on every request.
+ *
+ * Entries are keyed by the SHA-256 hash of the raw field value rather than the value itself, which
+ * keeps keys small. Only certificates which parsed are cached.
+ */
+public class XfccCertificateCache {
+  public static final long DEFAULT_MAX_ENTRIES = 10_000;
+
+  private final long maxEntries;
+  private final Cache<HashCode, ParsedCertificate> cache;
+
+  /**
+   * @param maxEntries maximum number of certificates cached; zero disables caching
+   */
+  public XfccCertificateCache(long maxEntries, @Nullable MetricRegistry metrics) {
+    this.maxEntries = maxEntries;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .recordStats()
+        .build();
+
+    if (metrics != null) {
+      metrics.register(name(XfccCertificateCache.class, "hits"),
+          (Gauge<Long>) () -> cache.stats().hitCount());
+      metrics.register(name(XfccCertificateCache.class, "misses"),
+          (Gauge<Long>) () -> cache.stats().missCount());
+      metrics.register(name(XfccCertificateCache.class, "evictions"),
+          (Gauge<Long>) () -> cache.stats().evictionCount());
+      metrics.register(name(XfccCertificateCache.class, "size"), (Gauge<Long>) cache::size);
+    }
+  }
+
+  /** @return a cache with default bounds which does not report metrics. */
+  public static XfccCertificateCache withDefaults() {
+    return new XfccCertificateCache(DEFAULT_MAX_ENTRIES, null);
+  }
+
+  /**
+   * Returns the certificate in an XFCC Cert field, parsing and caching it if not present.
+   *
+   * @param certValue raw value of the Cert field: a URL-encoded PEM certificate
+   * @param parser parses the certificate on a cache miss, or returns empty if it is invalid
+   */
+  Optional<ParsedCertificate> get(String certValue,
+      Function<String, Optional<? extends Principal>> parser) {
+    if (maxEntries == 0) {
+      return parser.apply(certValue).map(ParsedCertificate::of);
+    }
+
+    HashCode key = Hashing.sha256().hashString(certValue, UTF_8);
+    ParsedCertificate cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return Optional.of(cached);
+    }
+
+    Optional<ParsedCertificate> parsed = parser.apply(certValue).map(ParsedCertificate::of);
+    parsed.ifPresent(certificate -> cache.put(key, certificate));
+    return parsed;
+  }
+
+  @VisibleForTesting long size() {
+    cache.cleanUp();
+    return cache.size();
+  }
+
+  /** A client certificate, and the client name and SPIFFE id parsed from it. */
+  static final class ParsedCertificate {
+    final Principal principal;
+    final Optional<String> clientName;
+    final Optional<URI> spiffeId;
+
+    private ParsedCertificate(Principal principal, Optional<String> clientName,
+        Optional<URI> spiffeId) {
+      this.principal = principal;
+      this.clientName = clientName;
+      this.spiffeId = spiffeId;
+    }
+
+    static ParsedCertificate of(Principal principal) {
+      return new ParsedCertificate(principal, ClientAuthenticator.getClientName(principal),
+          ClientAuthenticator.getSpiffeId(principal));
+    }
+  }
+}
@@ -99,8 +99,9 @@ public class BatchSecretDeliveryResource {
   public List<SecretDeliveryResponse> getBatchSecret(@Auth Client client, @Valid BatchSecretRequest request) {
 
 
-    List<SanitizedSecret> clientAccessibleSecrets = aclDAO.getBatchSanitizedSecretsFor(client, request.secrets());
+    // Looked up first, since it enforces the maximum batch size
     List<Secret> existingSecrets = secretController.getSecretsByName(request.secrets());
+    List<SanitizedSecret> clientAccessibleSecrets = aclDAO.getBatchSanitizedSecretsFor(client, request.secrets());
 
     boolean clientExists = clientDAO.getClientByName(client.getName()).isPresent();
 
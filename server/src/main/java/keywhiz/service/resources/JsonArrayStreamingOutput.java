@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.resources;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes a JSON array one element at a time as its elements are produced, rather than serializing
+ * a list built in memory beforehand. The output is the same as Jersey's for a list of the elements.
+ *
+ * Elements are produced while the response is written, so an error part way through truncates the
+ * response instead of turning it into an error response.
+ */
+public class JsonArrayStreamingOutput<T> implements StreamingOutput {
+  private final ObjectMapper mapper;
+  private final ObjectWriter writer;
+  private final Consumer<Consumer<T>> producer;
+
+  /**
+   * @param mapper serializes the elements
+   * @param elementType declared type of the elements, as for a {@code List<T>} response
+   * @param producer hands each element, in order, to the consumer it is called with
+   */
+  public JsonArrayStreamingOutput(ObjectMapper mapper, Class<T> elementType,
+      Consumer<Consumer<T>> producer) {
+    this.mapper = mapper;
+    this.writer = mapper.writerFor(elementType)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.producer = producer;
+  }
+
+  @Override public void write(OutputStream output) throws IOException {
+    try (JsonGenerator generator = mapper.getFactory()
+        .createGenerator(output, JsonEncoding.UTF8)
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+      generator.writeStartArray();
+      producer.accept(element -> {
+        try {
+          writer.writeValue(generator, element);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      generator.writeEndArray();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+}
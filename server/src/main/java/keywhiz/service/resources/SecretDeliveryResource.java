@@ -31,11 +31,11 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import keywhiz.api.SecretDeliveryResponse;
 import keywhiz.api.model.Client;
-import keywhiz.api.model.SanitizedSecret;
 import keywhiz.api.model.Secret;
 import keywhiz.service.config.Readonly;
 import keywhiz.service.daos.AclDAO;
 import keywhiz.service.daos.AclDAO.AclDAOFactory;
+import keywhiz.service.daos.AclSnapshot;
 import keywhiz.service.daos.ClientDAO;
 import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
 import keywhiz.service.daos.SecretController;
@@ -59,19 +59,22 @@ public class SecretDeliveryResource {
   private final SecretController secretController;
   private final AclDAO aclDAO;
   private final ClientDAO clientDAO;
+  private final AclSnapshot aclSnapshot;
 
   @Inject public SecretDeliveryResource(@Readonly SecretController secretController,
-      AclDAOFactory aclDAOFactory, ClientDAOFactory clientDAOFactory) {
+      AclDAOFactory aclDAOFactory, ClientDAOFactory clientDAOFactory, AclSnapshot aclSnapshot) {
     this.secretController = secretController;
     this.aclDAO = aclDAOFactory.readonly();
     this.clientDAO = clientDAOFactory.readwrite();
+    this.aclSnapshot = aclSnapshot;
   }
 
   @VisibleForTesting SecretDeliveryResource(SecretController secretController, AclDAO aclDAO,
-      ClientDAO clientDAO) {
+      ClientDAO clientDAO, AclSnapshot aclSnapshot) {
     this.secretController = secretController;
     this.aclDAO = aclDAO;
     this.clientDAO = clientDAO;
+    this.aclSnapshot = aclSnapshot;
   }
 
   /**
@@ -90,10 +93,13 @@ public class SecretDeliveryResource {
   @GET
   public SecretDeliveryResponse getSecret(@NotEmpty @PathParam("secretName") String secretName,
                                           @Auth Client client) {
-    Optional<SanitizedSecret> sanitizedSecret = aclDAO.getSanitizedSecretFor(client, secretName);
     Optional<Secret> secret = secretController.getSecretByName(secretName);
+    // Only the snapshot's grants are trusted; otherwise the database decides
+    boolean accessible =
+        (secret.isPresent() && aclSnapshot.grants(client, secret.get()))
+            || aclDAO.getSanitizedSecretFor(client, secretName).isPresent();
 
-    if (!sanitizedSecret.isPresent()) {
+    if (!accessible) {
       boolean clientExists = clientDAO.getClientByName(client.getName()).isPresent();
       boolean secretExists = secret.isPresent();
 
@@ -75,17 +75,20 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 public class GroupsResource {
   private static final Logger logger = LoggerFactory.getLogger(GroupsResource.class);
   private final AclDAO aclDAO;
+  private final AclDAO aclDAOReadOnly;
   private final GroupDAO groupDAO;
   private final AuditLog auditLog;
 
   @Inject public GroupsResource(AclDAOFactory aclDAOFactory, GroupDAOFactory groupDAOFactory, AuditLog auditLog) {
     this.aclDAO = aclDAOFactory.readwrite();
+    this.aclDAOReadOnly = aclDAOFactory.readonly();
     this.groupDAO = groupDAOFactory.readwrite();
     this.auditLog = auditLog;
   }
 
   @VisibleForTesting GroupsResource(AclDAO aclDAO, GroupDAO groupDAO, AuditLog auditLog) {
     this.aclDAO = aclDAO;
+    this.aclDAOReadOnly = aclDAO;
     this.groupDAO = groupDAO;
     this.auditLog = auditLog;
   }
@@ -149,7 +152,7 @@ public class GroupsResource {
     URI uri = UriBuilder.fromResource(GroupsResource.class).build(groupId);
     Response response = Response
         .created(uri)
-        .entity(groupDetailResponseFromId(groupId))
+        .entity(groupDetailResponseFromId(groupId, aclDAO))
         .build();
 
     if (response.getStatus() == HttpStatus.SC_CREATED) {
@@ -182,7 +185,7 @@ public class GroupsResource {
   @GET
   public GroupDetailResponse getGroup(@Auth User user, @PathParam("groupId") LongParam groupId) {
     logger.info("User '{}' retrieving group id={}.", user, groupId);
-    return groupDetailResponseFromId(groupId.get());
+    return groupDetailResponseFromId(groupId.get(), aclDAOReadOnly);
   }
 
   /**
@@ -213,7 +216,7 @@ public class GroupsResource {
     return Response.noContent().build();
   }
 
-  private GroupDetailResponse groupDetailResponseFromId(long groupId) {
+  private GroupDetailResponse groupDetailResponseFromId(long groupId, AclDAO aclDAO) {
     Optional<Group> optionalGroup = groupDAO.getGroupById(groupId);
     if (!optionalGroup.isPresent()) {
       throw new NotFoundException("Group not found.");
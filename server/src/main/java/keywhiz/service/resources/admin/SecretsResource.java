@@ -18,6 +18,7 @@ package keywhiz.service.resources.admin;
 
 import com.codahale.metrics.annotation.ExceptionMetered;
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import io.dropwizard.auth.Auth;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.ws.rs.BadRequestException;
@@ -43,6 +45,7 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import keywhiz.api.SecretDetailResponse;
 import keywhiz.api.automation.v2.CreateOrUpdateSecretRequestV2;
@@ -51,7 +54,9 @@ import keywhiz.api.automation.v2.PartialUpdateSecretRequestV2;
 import keywhiz.api.model.Client;
 import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecret;
+import keywhiz.api.model.SanitizedSecretListAndCursor;
 import keywhiz.api.model.Secret;
+import keywhiz.api.model.SecretBatchCursor;
 import keywhiz.auth.User;
 import keywhiz.log.AuditLog;
 import keywhiz.log.Event;
@@ -62,12 +67,14 @@ import keywhiz.service.daos.SecretController;
 import keywhiz.service.daos.SecretDAO;
 import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
 import keywhiz.service.exceptions.ConflictException;
+import keywhiz.service.resources.JsonArrayStreamingOutput;
 import org.apache.http.HttpStatus;
 import org.jooq.exception.DataAccessException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
@@ -88,27 +95,30 @@ public class SecretsResource {
   private final SecretDAO secretDAOReadWrite;
   private final SecretDAO secretDAOReadOnly;
   private final AuditLog auditLog;
+  private final ObjectMapper mapper;
 
   @SuppressWarnings("unused")
   @Inject public SecretsResource(SecretController secretController, AclDAOFactory aclDAOFactory,
-      SecretDAOFactory secretDAOFactory, AuditLog auditLog) {
+      SecretDAOFactory secretDAOFactory, AuditLog auditLog, ObjectMapper mapper) {
     this.secretController = secretController;
     this.aclDAOReadOnly = aclDAOFactory.readonly();
     this.secretDAOReadWrite = secretDAOFactory.readwrite();
     this.secretDAOReadOnly = secretDAOFactory.readonly();
     this.auditLog = auditLog;
+    this.mapper = mapper;
   }
 
   /**
    * Constructor for testing
    */
   @VisibleForTesting SecretsResource(SecretController secretController, AclDAO aclDAOReadOnly,
-      SecretDAO secretDAOReadWrite, AuditLog auditLog) {
+      SecretDAO secretDAOReadWrite, AuditLog auditLog, ObjectMapper mapper) {
     this.secretController = secretController;
     this.aclDAOReadOnly = aclDAOReadOnly;
     this.secretDAOReadWrite = secretDAOReadWrite;
     this.secretDAOReadOnly = secretDAOReadWrite;
     this.auditLog = auditLog;
+    this.mapper = mapper;
   }
 
   /**
@@ -116,12 +126,16 @@ public class SecretsResource {
    *
    * @param user        the admin user performing this operation
    * @param name        the name of the Secret to retrieve, if provided
-   * @param nameOnly    if set, the result only contains the id and name for the secrets.
+   * @param nameOnly    if set, the result only contains the id and name for the secrets, whether
+   *                    listed in full or in batches.
    * @param idx         if set, the desired starting index in a list of secrets to be retrieved
    * @param num         if set, the number of secrets to retrieve
    * @param newestFirst whether to order the secrets by creation date with newest first; defaults to
    *                    true
-   * @return a single Secret or a set of all Secrets for this user.
+   * @param cursor      if set with num (and without idx), the cursor returned with the previous
+   *                    batch of secrets; batches retrieved by cursor stay fast however deep they are
+   * @return a single Secret or a set of all Secrets for this user. If num is set without idx, a
+   * batch of Secrets and the cursor for the next batch.
    * <p>
    * Used by Keywhiz CLI and the web ui.
    * <p>
@@ -134,43 +148,58 @@ public class SecretsResource {
   public Response findSecrets(@Auth User user, @DefaultValue("") @QueryParam("name") String name,
       @DefaultValue("") @QueryParam("nameOnly") String nameOnly, @QueryParam("idx") Integer idx,
       @QueryParam("num") Integer num,
-      @DefaultValue("true") @QueryParam("newestFirst") Boolean newestFirst) {
-    if (!name.isEmpty() && idx != null && num != null) {
+      @DefaultValue("true") @QueryParam("newestFirst") Boolean newestFirst,
+      @QueryParam("cursor") String cursor) {
+    if (!name.isEmpty() && num != null) {
       throw new BadRequestException("Name and idx/num cannot both be specified");
     }
 
-    validateArguments(name, nameOnly, idx, num);
+    validateArguments(name, idx, num, cursor);
 
     if (name.isEmpty()) {
-      if (nameOnly.isEmpty()) {
-        if (idx == null || num == null) {
+      if (num == null) {
+        if (nameOnly.isEmpty()) {
           return Response.ok().entity(listSecrets(user)).build();
         } else {
-          return Response.ok().entity(listSecretsBatched(user, idx, num, newestFirst)).build();
+          return Response.ok().entity(listSecretsNameOnly(user)).build();
         }
+      } else if (idx == null) {
+        SanitizedSecretListAndCursor batch = listSecretsBatched(user, cursor, num, newestFirst);
+        if (!nameOnly.isEmpty()) {
+          batch = SanitizedSecretListAndCursor.of(namesOnly(batch.secrets()), batch.cursor());
+        }
+        return Response.ok().entity(batch).build();
       } else {
-        return Response.ok().entity(listSecretsNameOnly(user)).build();
+        List<SanitizedSecret> batch = listSecretsBatched(user, idx, num, newestFirst);
+        return Response.ok().entity(nameOnly.isEmpty() ? batch : namesOnly(batch)).build();
       }
     }
     return Response.ok().entity(retrieveSecret(user, name)).build();
   }
 
-  private void validateArguments(String name, String nameOnly, Integer idx, Integer num) {
-    if ((idx == null && num != null) || (idx != null && num == null)) {
+  private void validateArguments(String name, Integer idx, Integer num, String cursor) {
+    if (idx != null && num == null) {
       throw new IllegalArgumentException("Both idx and num must be specified");
     }
-    if (!name.isEmpty() && idx != null && num != null) {
-      throw new IllegalArgumentException("Name, idx, and num must not all be specified");
+    if (cursor != null && (num == null || idx != null)) {
+      throw new IllegalArgumentException("cursor must be specified with num and without idx");
     }
-    if (nameOnly.isEmpty() && idx != null && num != null) {
-      throw new IllegalArgumentException(
-          "nameOnly option is not valid for batched secret retrieval");
+    if (!name.isEmpty() && num != null) {
+      throw new IllegalArgumentException("Name, idx, and num must not all be specified");
     }
   }
 
-  protected List<SanitizedSecret> listSecrets(@Auth User user) {
+  private static List<SanitizedSecret> namesOnly(List<SanitizedSecret> secrets) {
+    return secrets.stream()
+        .map(secret -> SanitizedSecret.of(secret.id(), secret.name()))
+        .collect(toList());
+  }
+
+  protected StreamingOutput listSecrets(@Auth User user) {
     logger.info("User '{}' listing secrets.", user);
-    return secretController.getSanitizedSecrets(null, null);
+    // Unbounded, so stream the secrets rather than building the whole listing in memory
+    return new JsonArrayStreamingOutput<>(mapper, SanitizedSecret.class,
+        consumer -> secretController.streamSanitizedSecrets(null, null, consumer));
   }
 
   protected List<SanitizedSecret> listSecretsNameOnly(@Auth User user) {
@@ -185,6 +214,17 @@ public class SecretsResource {
     return secretController.getSecretsBatched(idx, num, newestFirst);
   }
 
+  protected SanitizedSecretListAndCursor listSecretsBatched(@Auth User user,
+      @Nullable String cursor, int num, boolean newestFirst) {
+    logger.info("User '{}' listing secrets with cursor '{}', num '{}', newestFirst '{}'.", user,
+        cursor, num, newestFirst);
+    SecretBatchCursor decodedCursor = SecretBatchCursor.decode(cursor);
+    if (cursor != null && decodedCursor == null) {
+      throw new BadRequestException("Malformed cursor");
+    }
+    return secretController.getSecretsBatched(decodedCursor, num, newestFirst);
+  }
+
   protected SanitizedSecret retrieveSecret(@Auth User user, String name) {
     logger.info("User '{}' retrieving secret name={}.", user, name);
     return sanitizedSecretFromName(name);
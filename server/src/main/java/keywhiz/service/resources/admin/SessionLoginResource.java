@@ -70,6 +70,7 @@ public class SessionLoginResource {
    * description Logs in using LDAP and sets session cookies to authorize further requests
    * responseMessage 200 Logged in successfully
    * responseMessage 401 Incorrect credentials or not authorized
+   * responseMessage 503 Too many logins in progress
    */
   @Timed @ExceptionMetered
   @POST
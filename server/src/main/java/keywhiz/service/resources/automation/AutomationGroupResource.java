@@ -74,6 +74,7 @@ public class AutomationGroupResource {
 
   private final GroupDAO groupDAO;
   private final AclDAO aclDAO;
+  private final AclDAO aclDAOReadOnly;
   private final AuditLog auditLog;
 
   @Inject
@@ -81,12 +82,14 @@ public class AutomationGroupResource {
       AuditLog auditLog) {
     this.groupDAO = groupDAOFactory.readwrite();
     this.aclDAO = aclDAOFactory.readwrite();
+    this.aclDAOReadOnly = aclDAOFactory.readonly();
     this.auditLog = auditLog;
   }
 
   @VisibleForTesting AutomationGroupResource(GroupDAO groupDAO, AclDAO aclDAO, AuditLog auditLog) {
     this.groupDAO = groupDAO;
     this.aclDAO = aclDAO;
+    this.aclDAOReadOnly = aclDAO;
     this.auditLog = auditLog;
   }
 
@@ -111,7 +114,7 @@ public class AutomationGroupResource {
 
     ImmutableList<Client> clients = ImmutableList.copyOf(aclDAO.getClientsFor(group));
     ImmutableList<SanitizedSecret> sanitizedSecrets =
-        ImmutableList.copyOf(aclDAO.getSanitizedSecretsFor(group));
+        ImmutableList.copyOf(aclDAOReadOnly.getSanitizedSecretsFor(group));
     return GroupDetailResponse.fromGroup(group, sanitizedSecrets, clients);
   }
 
@@ -137,7 +140,7 @@ public class AutomationGroupResource {
 
       ImmutableList<Client> clients = ImmutableList.copyOf(aclDAO.getClientsFor(group));
       ImmutableList<SanitizedSecret> sanitizedSecrets =
-          ImmutableList.copyOf(aclDAO.getSanitizedSecretsFor(group));
+          ImmutableList.copyOf(aclDAOReadOnly.getSanitizedSecretsFor(group));
       return Response.ok()
           .entity(GroupDetailResponse.fromGroup(group, sanitizedSecrets, clients))
           .build();
@@ -0,0 +1,143 @@
+package keywhiz.service.resources.automation.v2;
+
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Timed;
+import io.dropwizard.auth.Auth;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import keywhiz.api.model.AutomationClient;
+import keywhiz.jooq.tables.records.SecretsContentRecord;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.exceptions.ConflictException;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static keywhiz.jooq.Tables.SECRETS_CONTENT;
+import static org.jooq.impl.DSL.min;
+
+/**
+ * parentEndpointName automation/v2-backfill-content-envelope
+ * resourceDescription Automation endpoints to rewrite legacy JSON encrypted content as envelopes
+ */
+@Path("/automation/v2/backfill-content-envelope")
+public class BackfillContentEnvelopeResource {
+  private static final Logger logger =
+      LoggerFactory.getLogger(BackfillContentEnvelopeResource.class);
+
+  private static final int BATCH_SIZE = 1000;
+
+  private final DSLContext jooq;
+  private final ContentCryptographer cryptographer;
+  private final RowHmacGenerator rowHmacGenerator;
+
+  @Inject
+  public BackfillContentEnvelopeResource(DSLContext jooq, ContentCryptographer cryptographer,
+      RowHmacGenerator rowHmacGenerator) {
+    this.jooq = jooq;
+    this.cryptographer = cryptographer;
+    this.rowHmacGenerator = rowHmacGenerator;
+  }
+
+  /**
+   * Rewrite encrypted content stored as JSON in the envelope format, recomputing row_hmac.
+   *
+   * Ciphertext is not re-encrypted. Rows already in the envelope format are skipped, so the
+   * backfill can be resumed from the last logged cursor, or simply re-run from the start.
+   * Rows whose existing row_hmac does not verify are left untouched.
+   *
+   * Rows are paged by id and filtered here rather than in the query, so each batch is a range
+   * scan of the primary key instead of a scan for legacy rows past the cursor.
+   *
+   * @param cursorStart secrets_content id to start after, or 0 to start from the beginning
+   * @param maxRows maximum number of rows to examine
+   * @return the id of the last row examined, to resume from
+   * @throws ConflictException unless writeContentEnvelopes is enabled, since nodes that predate
+   * envelopes cannot read rewritten rows
+   */
+  @Timed @ExceptionMetered
+  @Path("{cursor_start}/{max_rows}")
+  @POST
+  @Consumes(APPLICATION_JSON)
+  @Produces(APPLICATION_JSON)
+  public long backfillContentEnvelope(@Auth AutomationClient automationClient,
+      @PathParam("cursor_start") Long cursorStart, @PathParam("max_rows") Long maxRows) {
+    if (!cryptographer.writesEnvelopes()) {
+      throw new ConflictException("writeContentEnvelopes must be enabled to backfill envelopes");
+    }
+
+    logger.info("backfill-content-envelope: processing secrets content");
+    long cursor;
+    if (cursorStart != 0) {
+      cursor = cursorStart;
+    } else {
+      Long minId = jooq.select(min(SECRETS_CONTENT.ID))
+          .from(SECRETS_CONTENT)
+          .fetch().get(0).value1();
+      if (minId == null) {
+        return 0;
+      }
+      cursor = minId - 1;
+    }
+
+    long processedRows = 0;
+
+    while (processedRows < maxRows) {
+      Result<SecretsContentRecord> rows = jooq.selectFrom(SECRETS_CONTENT)
+          .where(SECRETS_CONTENT.ID.greaterThan(cursor))
+          .orderBy(SECRETS_CONTENT.ID)
+          .limit((int) Math.min(BATCH_SIZE, maxRows - processedRows))
+          .fetchInto(SECRETS_CONTENT);
+      if (rows.isEmpty()) {
+        break;
+      }
+
+      List<Query> updates = new ArrayList<>(rows.size());
+      for (var row : rows) {
+        cursor = row.getId();
+
+        if (!ContentCryptographer.isLegacyJson(row.getEncryptedContent())) {
+          continue;
+        }
+
+        String expectedRowHmac = rowHmacGenerator.computeRowHmac(SECRETS_CONTENT.getName(),
+            List.of(row.getEncryptedContent(), row.getMetadata(), row.getId()));
+        if (!expectedRowHmac.equals(row.getRowHmac())) {
+          logger.warn("backfill-content-envelope: skipping secretContent {} with invalid row_hmac",
+              row.getId());
+          continue;
+        }
+
+        String envelope = cryptographer.toEnvelope(row.getEncryptedContent());
+        String rowHmac = rowHmacGenerator.computeRowHmac(SECRETS_CONTENT.getName(),
+            List.of(envelope, row.getMetadata(), row.getId()));
+        // Guard on the old row_hmac so a concurrently modified row is never overwritten.
+        updates.add(jooq.update(SECRETS_CONTENT)
+            .set(SECRETS_CONTENT.ENCRYPTED_CONTENT, envelope)
+            .set(SECRETS_CONTENT.ROW_HMAC, rowHmac)
+            .where(SECRETS_CONTENT.ID.eq(row.getId()))
+            .and(SECRETS_CONTENT.ROW_HMAC.eq(row.getRowHmac())));
+      }
+
+      if (!updates.isEmpty()) {
+        jooq.batch(updates).execute();
+      }
+      processedRows += rows.size();
+
+      logger.info("backfill-content-envelope: updating from {} with {} rows processed",
+          cursor, processedRows);
+    }
+
+    return cursor;
+  }
+}
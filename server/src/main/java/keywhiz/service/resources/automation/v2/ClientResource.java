@@ -2,15 +2,13 @@ package keywhiz.service.resources.automation.v2;
 
 import com.codahale.metrics.annotation.ExceptionMetered;
 import com.codahale.metrics.annotation.Timed;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import io.dropwizard.auth.Auth;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.ws.rs.BadRequestException;
@@ -40,8 +38,6 @@ import keywhiz.service.daos.AclDAO;
 import keywhiz.service.daos.AclDAO.AclDAOFactory;
 import keywhiz.service.daos.ClientDAO;
 import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
-import keywhiz.service.daos.GroupDAO;
-import keywhiz.service.daos.GroupDAO.GroupDAOFactory;
 import keywhiz.service.exceptions.ConflictException;
 import org.apache.commons.lang3.NotImplementedException;
 import org.slf4j.Logger;
@@ -64,16 +60,14 @@ public class ClientResource {
   private final AclDAO aclDAOReadWrite;
   private final ClientDAO clientDAOReadOnly;
   private final ClientDAO clientDAOReadWrite;
-  private final GroupDAO groupDAOReadWrite;
   private final AuditLog auditLog;
 
   @Inject public ClientResource(AclDAOFactory aclDAOFactory, ClientDAOFactory clientDAOFactory,
-      GroupDAOFactory groupDAOFactory, AuditLog auditLog) {
+      AuditLog auditLog) {
     this.aclDAOReadOnly = aclDAOFactory.readonly();
     this.aclDAOReadWrite = aclDAOFactory.readwrite();
     this.clientDAOReadOnly = clientDAOFactory.readonly();
     this.clientDAOReadWrite = clientDAOFactory.readwrite();
-    this.groupDAOReadWrite = groupDAOFactory.readwrite();
     this.auditLog = auditLog;
   }
 
@@ -113,10 +107,8 @@ public class ClientResource {
     auditLog.recordEvent(new Event(Instant.now(), EventTag.CLIENT_CREATE, creator, client));
 
     // Enrolls client in any requested groups
-    groupsToGroupIds(request.groups())
-        .forEach((maybeGroupId) -> maybeGroupId.ifPresent(
-            (groupId) -> aclDAOReadWrite.findAndEnrollClient(clientId, groupId, auditLog, creator,
-                new HashMap<>())));
+    aclDAOReadWrite.findAndModifyMemberships(clientId, request.groups(), ImmutableSet.of(),
+        auditLog, creator);
 
     URI uri = UriBuilder.fromResource(ClientResource.class).path(client).build();
     return Response.created(uri).build();
@@ -210,17 +202,8 @@ public class ClientResource {
     Set<String> groupsToAdd = Sets.difference(request.addGroups(), oldGroups);
     Set<String> groupsToRemove = Sets.intersection(request.removeGroups(), oldGroups);
 
-    // TODO: should optimize AclDAO to use names and return only name column
-
-    groupsToGroupIds(groupsToAdd)
-        .forEach((maybeGroupId) -> maybeGroupId.ifPresent(
-            (groupId) -> aclDAOReadWrite.findAndEnrollClient(clientId, groupId, auditLog, user,
-                new HashMap<>())));
-
-    groupsToGroupIds(groupsToRemove)
-        .forEach((maybeGroupId) -> maybeGroupId.ifPresent(
-            (groupId) -> aclDAOReadWrite.findAndEvictClient(clientId, groupId, auditLog, user,
-                new HashMap<>())));
+    aclDAOReadWrite.findAndModifyMemberships(clientId, groupsToAdd, groupsToRemove, auditLog,
+        user);
 
     return aclDAOReadWrite.getGroupsFor(client).stream()
         .map(Group::getName)
@@ -302,10 +285,4 @@ public class ClientResource {
     throw new NotImplementedException(format(
         "Need to implement mutation methods in DAO to rename %s to %s", client.getName(), newName));
   }
-
-  private Stream<Optional<Long>> groupsToGroupIds(Set<String> groupNames) {
-    return groupNames.stream()
-        .map(groupDAOReadWrite::getGroup)
-        .map((group) -> group.map(Group::getId));
-  }
 }
@@ -2,7 +2,9 @@ package keywhiz.service.resources.automation.v2;
 
 import com.codahale.metrics.annotation.ExceptionMetered;
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import io.dropwizard.auth.Auth;
 import java.time.Instant;
@@ -13,7 +15,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Stream;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.ws.rs.BadRequestException;
@@ -29,8 +30,11 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import keywhiz.api.automation.v2.CreateOrUpdateSecretRequestV2;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsRequestV2;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2;
 import keywhiz.api.automation.v2.CreateSecretRequestV2;
 import keywhiz.api.automation.v2.ModifyGroupsRequestV2;
 import keywhiz.api.automation.v2.PartialUpdateSecretRequestV2;
@@ -60,9 +64,11 @@ import keywhiz.service.daos.SecretController;
 import keywhiz.service.daos.SecretController.SecretBuilder;
 import keywhiz.service.daos.SecretDAO;
 import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
+import keywhiz.service.daos.SecretImporter;
 import keywhiz.service.daos.SecretSeriesDAO;
 import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
 import keywhiz.service.exceptions.ConflictException;
+import keywhiz.service.resources.JsonArrayStreamingOutput;
 import org.jooq.exception.DataAccessException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,11 +96,14 @@ public class SecretResource {
   private final SecretSeriesDAO secretSeriesDAO;
   private final ContentCryptographer cryptographer;
   private final SecretController secretControllerReadOnly;
+  private final ObjectMapper mapper;
+  private final SecretImporter secretImporter;
 
   @Inject public SecretResource(SecretController secretController, AclDAOFactory aclDAOFactory,
       GroupDAOFactory groupDAOFactory, SecretDAOFactory secretDAOFactory, AuditLog auditLog,
       SecretSeriesDAOFactory secretSeriesDAOFactory, ContentCryptographer cryptographer,
-      @Readonly SecretController secretControllerReadOnly) {
+      @Readonly SecretController secretControllerReadOnly, ObjectMapper mapper,
+      SecretImporter secretImporter) {
     this.secretController = secretController;
     this.aclDAO = aclDAOFactory.readwrite();
     this.groupDAO = groupDAOFactory.readwrite();
@@ -103,6 +112,8 @@ public class SecretResource {
     this.secretSeriesDAO = secretSeriesDAOFactory.readwrite();
     this.cryptographer = cryptographer;
     this.secretControllerReadOnly = secretControllerReadOnly;
+    this.mapper = mapper;
+    this.secretImporter = secretImporter;
   }
 
   /**
@@ -147,9 +158,7 @@ public class SecretResource {
     auditLog.recordEvent(new Event(Instant.now(), EventTag.SECRET_CREATE, user, name, extraInfo));
 
     long secretId = secret.getId();
-    groupsToGroupIds(request.groups())
-        .forEach((maybeGroupId) -> maybeGroupId.ifPresent(
-            (groupId) -> aclDAO.findAndAllowAccess(secretId, groupId, auditLog, user, new HashMap<>())));
+    aclDAO.findAndModifyAccess(secretId, request.groups(), ImmutableSet.of(), auditLog, user);
 
     UriBuilder uriBuilder = UriBuilder.fromResource(SecretResource.class).path(name);
 
@@ -193,6 +202,26 @@ public class SecretResource {
     return Response.created(uriBuilder.build()).build();
   }
 
+  /**
+   * Creates or updates (if they exist) secrets in bulk, and assigns each to its groups. Each secret
+   * succeeds or fails on its own.
+   *
+   * @param request JSON request listing the secrets
+   *
+   * responseMessage 200 Outcome of each secret, in request order
+   * responseMessage 400 Too many secrets at once
+   */
+  @Timed @ExceptionMetered
+  @POST
+  @Path("bulk/createorupdate")
+  @Consumes(APPLICATION_JSON)
+  @Produces(APPLICATION_JSON)
+  public CreateOrUpdateSecretsResponseV2 createOrUpdateSecrets(
+      @Auth AutomationClient automationClient, @Valid CreateOrUpdateSecretsRequestV2 request) {
+    return CreateOrUpdateSecretsResponseV2.of(secretImporter.importSecrets(request.secrets(),
+        automationClient.getName(), auditLog));
+  }
+
   /**
    * Updates a subset of the fields of an existing secret
    *
@@ -272,7 +301,7 @@ public class SecretResource {
   @Path("/v2")
   @GET
   @Produces(APPLICATION_JSON)
-  public Iterable<SanitizedSecret> secretListingV2(@Auth AutomationClient automationClient,
+  public Response secretListingV2(@Auth AutomationClient automationClient,
       @QueryParam("idx") Integer idx, @QueryParam("num") Integer num,
       @DefaultValue("true") @QueryParam("newestFirst") boolean newestFirst) {
     if (idx != null && num != null) {
@@ -280,9 +309,15 @@ public class SecretResource {
         throw new BadRequestException(
             "Index and num must both be positive when retrieving batched secrets!");
       }
-      return secretControllerReadOnly.getSecretsBatched(idx, num, newestFirst);
+      return Response.ok()
+          .entity(secretControllerReadOnly.getSecretsBatched(idx, num, newestFirst))
+          .build();
     }
-    return secretControllerReadOnly.getSanitizedSecrets(null, null);
+    // Unbounded, so stream the secrets rather than building the whole listing in memory
+    return Response.ok()
+        .entity(new JsonArrayStreamingOutput<>(mapper, SanitizedSecret.class,
+            consumer -> secretControllerReadOnly.streamSanitizedSecrets(null, null, consumer)))
+        .build();
   }
 
   /**
@@ -339,9 +374,10 @@ public class SecretResource {
   @Path("expiring/v3/{time}")
   @GET
   @Produces(APPLICATION_JSON)
-  public Iterable<SanitizedSecretWithGroups> secretListingExpiringV3(@Auth AutomationClient automationClient,
+  public StreamingOutput secretListingExpiringV3(@Auth AutomationClient automationClient,
       @PathParam("time") Long maxTime) {
-    return secretControllerReadOnly.getSanitizedSecretsWithGroups(maxTime);
+    return new JsonArrayStreamingOutput<>(mapper, SanitizedSecretWithGroups.class,
+        consumer -> secretControllerReadOnly.streamSanitizedSecretsWithGroups(maxTime, consumer));
   }
 
   /**
@@ -557,15 +593,15 @@ public class SecretResource {
     HashMap<String, String> successSecrets = new HashMap<>();
     ArrayList<String> missingSecrets = new ArrayList<>();
 
-    // Get the contents for each secret, recording any errors
+    // Get the contents of all secrets at once, recording any which are missing
+    if (!request.secrets().isEmpty()) {
+      for (Secret secret : secretController.getSecretsByName(request.secrets().asList())) {
+        successSecrets.put(secret.getName(), secret.getSecret());
+      }
+    }
     for (String secretName : request.secrets()) {
-      // Get the secret, if present
-      Optional<Secret> secret = secretController.getSecretByName(secretName);
-
-      if (!secret.isPresent()) {
+      if (!successSecrets.containsKey(secretName)) {
         missingSecrets.add(secretName);
-      } else {
-        successSecrets.put(secretName, secret.get().getSecret());
       }
     }
 
@@ -693,15 +729,7 @@ public class SecretResource {
     Set<String> groupsToAdd = Sets.difference(request.addGroups(), oldGroups);
     Set<String> groupsToRemove = Sets.intersection(request.removeGroups(), oldGroups);
 
-    // TODO: should optimize AclDAO to use names and return only name column
-
-    groupsToGroupIds(groupsToAdd)
-        .forEach((maybeGroupId) -> maybeGroupId.ifPresent(
-            (groupId) -> aclDAO.findAndAllowAccess(secretId, groupId, auditLog, user, new HashMap<>())));
-
-    groupsToGroupIds(groupsToRemove)
-        .forEach((maybeGroupId) -> maybeGroupId.ifPresent(
-            (groupId) -> aclDAO.findAndRevokeAccess(secretId, groupId, auditLog, user, new HashMap<>())));
+    aclDAO.findAndModifyAccess(secretId, groupsToAdd, groupsToRemove, auditLog, user);
 
     return aclDAO.getGroupsFor(secret).stream()
         .map(Group::getName)
@@ -735,10 +763,4 @@ public class SecretResource {
     auditLog.recordEvent(new Event(Instant.now(), EventTag.SECRET_DELETE, automationClient.getName(), name, extraInfo));
     return Response.noContent().build();
   }
-
-  private Stream<Optional<Long>> groupsToGroupIds(Set<String> groupNames) {
-    return groupNames.stream()
-        .map(groupDAO::getGroup)
-        .map((group) -> group.map(Group::getId));
-  }
 }
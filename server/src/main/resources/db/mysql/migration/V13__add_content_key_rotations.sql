@@ -0,0 +1,12 @@
+# Progress of re-encrypting secrets_content under a rotated content key, one row per target key,
+# so that an interrupted rotate-content-key command can resume where it stopped.
+CREATE TABLE content_key_rotations (
+  keyid varchar(255) NOT NULL,
+  cursorid bigint NOT NULL,
+  rotated bigint NOT NULL DEFAULT 0,
+  skipped bigint NOT NULL DEFAULT 0,
+  createdat bigint NOT NULL,
+  updatedat bigint NOT NULL,
+  completedat bigint,
+  PRIMARY KEY (keyid)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
@@ -0,0 +1,2 @@
+# Supports keyset pagination of secrets in creation order, with the id as a tiebreaker.
+CREATE INDEX secrets_createdat_id_idx ON secrets (createdat, id);
@@ -0,0 +1,9 @@
+# Append-only log of updated and deleted entities, tailed by every server to invalidate its caches.
+CREATE TABLE changes (
+  id bigint NOT NULL AUTO_INCREMENT,
+  entitytype varchar(32) NOT NULL,
+  entityid bigint NOT NULL,
+  createdat bigint NOT NULL,
+  PRIMARY KEY (id),
+  KEY changes_createdat_idx (createdat)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COLLATE=utf8_unicode_ci;
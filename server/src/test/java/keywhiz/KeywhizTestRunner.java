@@ -30,7 +30,9 @@ import java.io.IOException;
 import javax.validation.Validation;
 import javax.validation.Validator;
 import keywhiz.jooq.tables.Accessgrants;
+import keywhiz.jooq.tables.Changes;
 import keywhiz.jooq.tables.Clients;
+import keywhiz.jooq.tables.ContentKeyRotations;
 import keywhiz.jooq.tables.Groups;
 import keywhiz.jooq.tables.Memberships;
 import keywhiz.jooq.tables.Secrets;
@@ -103,6 +105,12 @@ public class KeywhizTestRunner extends BlockJUnit4ClassRunner {
     try {
       jooqContext.truncate(Secrets.SECRETS).execute();
     } catch(DataAccessException e) {}
+    try {
+      jooqContext.truncate(ContentKeyRotations.CONTENT_KEY_ROTATIONS).execute();
+    } catch(DataAccessException e) {}
+    try {
+      jooqContext.truncate(Changes.CHANGES).execute();
+    } catch(DataAccessException e) {}
 
     Object object = injector.getInstance(getTestClass().getJavaClass());
     MockitoAnnotations.initMocks(object);
@@ -15,8 +15,12 @@
  */
 package keywhiz.auth.bcrypt;
 
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.auth.basic.BasicCredentials;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.ws.rs.ServiceUnavailableException;
 import keywhiz.auth.User;
 import keywhiz.service.daos.UserDAO;
 import org.junit.Before;
@@ -27,6 +31,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
 
@@ -84,4 +89,31 @@ public class BcryptAuthenticatorTest {
     assertThat(missingUser).isEmpty();
   }
 
+  @Test
+  public void bcryptAuthenticatorRecordsVerificationMetrics() throws Exception {
+    MetricRegistry metrics = new MetricRegistry();
+    bcryptAuthenticator = new BcryptAuthenticator(userDAO, 1, 1, metrics);
+    when(userDAO.getHashedPassword("sysadmin"))
+        .thenReturn(Optional.of(hashedPass));
+
+    bcryptAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass"));
+    bcryptAuthenticator.authenticate(new BasicCredentials("sysadmin", "badpass"));
+
+    assertThat(metrics.timer(name(BcryptAuthenticator.class, "queue-wait")).getCount())
+        .isEqualTo(2);
+    assertThat(metrics.timer(name(BcryptAuthenticator.class, "verify")).getCount())
+        .isEqualTo(2);
+  }
+
+  @Test(expected = ServiceUnavailableException.class)
+  public void bcryptAuthenticatorRejectsLoginsWhenSaturated() throws Exception {
+    // A shut down executor rejects work, as a saturated one does
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    bcryptAuthenticator = new BcryptAuthenticator(userDAO, executor, new MetricRegistry());
+    when(userDAO.getHashedPassword("sysadmin"))
+        .thenReturn(Optional.of(hashedPass));
+
+    bcryptAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass"));
+  }
 }
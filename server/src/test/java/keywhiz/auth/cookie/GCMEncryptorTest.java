@@ -15,7 +15,16 @@
  */
 package keywhiz.auth.cookie;
 
+import com.codahale.metrics.MetricRegistry;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.crypto.AEADBadTagException;
 import keywhiz.FakeRandom;
 import org.junit.Before;
@@ -66,4 +75,33 @@ public class GCMEncryptorTest {
 
     assertThat(firstIV).isNotEqualTo(secondIV);
   }
+
+  @Test
+  public void timesNonceGenerationAndCipherInit() throws Exception {
+    MetricRegistry metrics = new MetricRegistry();
+    encryptor = new GCMEncryptor(new byte[32], FakeRandom.create(), metrics);
+    encryptor.decrypt(encryptor.encrypt(testMessage));
+
+    assertThat(metrics.timer("keywhiz.auth.cookie.GCMEncryptor.nonce").getCount()).isEqualTo(1);
+    assertThat(metrics.timer("keywhiz.auth.cookie.GCMEncryptor.cipher-init").getCount())
+        .isEqualTo(2);
+  }
+
+  @Test
+  public void encryptsConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<byte[]>> results = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      results.add(executor.submit(() -> encryptor.encrypt(testMessage)));
+    }
+    executor.shutdown();
+
+    Set<String> nonces = new HashSet<>();
+    for (Future<byte[]> result : results) {
+      byte[] ciphertext = result.get();
+      assertThat(encryptor.decrypt(ciphertext)).isEqualTo(testMessage);
+      nonces.add(Arrays.toString(GCMEncryptor.getNonce(ciphertext)));
+    }
+    assertThat(nonces).hasSize(200);
+  }
 }
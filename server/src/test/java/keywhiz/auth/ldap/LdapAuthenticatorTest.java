@@ -16,99 +16,92 @@
 package keywhiz.auth.ldap;
 
 import com.google.common.collect.ImmutableSet;
-import com.unboundid.ldap.sdk.Attribute;
-import com.unboundid.ldap.sdk.LDAPConnection;
-import com.unboundid.ldap.sdk.SearchRequest;
-import com.unboundid.ldap.sdk.SearchResult;
-import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
 import io.dropwizard.auth.basic.BasicCredentials;
-import java.util.Arrays;
-import java.util.List;
+import java.time.Duration;
 import java.util.Optional;
+import javax.net.SocketFactory;
+import javax.ws.rs.ForbiddenException;
 import keywhiz.auth.User;
+import org.junit.After;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
-import org.mockito.Mock;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.ArgumentMatchers.argThat;
-import static org.mockito.Mockito.doAnswer;
-import static org.mockito.Mockito.when;
 
-/**
- *  Powermock is broken in JDK 9+, and until version 2 is released with support
- *  these tests will not pass.
- */
-//@RunWith(PowerMockRunner.class)
-//@PrepareForTest({LDAPConnection.class, SearchResult.class, SearchResultEntry.class})
+/** Runs against an in-memory directory server, over plain LDAP rather than TLS. */
 public class LdapAuthenticatorTest {
-  @Mock LdapConnectionFactory ldapConnectionFactory;
-  @Mock LDAPConnection ldapConnection;
-  @Mock LDAPConnection ldapUserAuthConnection;
-  @Mock SearchResult dnSearchResult;
-  @Mock SearchResult roleSearchResult;
-
-  private static final String PEOPLE_DN = "cn=sysadmin,ou=users";
-
+  private static final String SERVICE_DN = "cn=Directory Manager";
+  private static final String SERVICE_PASSWORD = "servicepass";
+  private static final String PEOPLE_DN = "uid=sysadmin,ou=users,dc=example,dc=com";
+  private static final String ROLE_DN = "cn=admin,ou=roles,dc=example,dc=com";
+
+  InMemoryDirectoryServer directoryServer;
+  LdapConnectionFactory connectionFactory;
+  LdapLookupConfig config;
   LdapAuthenticator ldapAuthenticator;
 
   @Before
   public void setup() throws Exception {
-    LdapLookupConfig config = new LdapLookupConfig("ou=users,dc=example,dc=com",
+    InMemoryDirectoryServerConfig serverConfig =
+        new InMemoryDirectoryServerConfig("dc=example,dc=com");
+    serverConfig.addAdditionalBindCredentials(SERVICE_DN, SERVICE_PASSWORD);
+    serverConfig.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default"));
+    directoryServer = new InMemoryDirectoryServer(serverConfig);
+    directoryServer.add("dn: dc=example,dc=com", "objectClass: top", "objectClass: domain",
+        "dc: example");
+    directoryServer.add("dn: ou=users,dc=example,dc=com", "objectClass: top",
+        "objectClass: organizationalUnit", "ou: users");
+    directoryServer.add("dn: ou=roles,dc=example,dc=com", "objectClass: top",
+        "objectClass: organizationalUnit", "ou: roles");
+    directoryServer.add("dn: " + PEOPLE_DN, "objectClass: top", "objectClass: inetOrgPerson",
+        "uid: sysadmin", "cn: sysadmin", "sn: sysadmin", "userPassword: validpass");
+    directoryServer.add("dn: " + ROLE_DN, "objectClass: top", "objectClass: groupOfUniqueNames",
+        "cn: admin", "uniqueMember: " + PEOPLE_DN,
+        // groupOfUniqueNames requires a member, even once sysadmin is removed
+        "uniqueMember: uid=other,ou=users,dc=example,dc=com");
+    directoryServer.startListening();
+
+    connectionFactory = new LdapConnectionFactory("localhost", directoryServer.getListenPort(),
+        SERVICE_DN, SERVICE_PASSWORD, SocketFactory.getDefault(), 1, 2);
+    config = new LdapLookupConfig("ou=users,dc=example,dc=com",
         "uid", ImmutableSet.of("admin"), "ou=roles,dc=example,dc=com");
-    ldapAuthenticator = new LdapAuthenticator(ldapConnectionFactory, config);
-
-    List<SearchResultEntry> dnResults =
-        Arrays.asList(new SearchResultEntry(PEOPLE_DN, new Attribute[]{}));
-    List<SearchResultEntry> roleResults =
-        Arrays.asList(new SearchResultEntry("cn=admin,ou=roles", new Attribute[]{}));
-
-    when(ldapConnectionFactory.getLDAPConnection()).thenReturn(ldapConnection);
-
-    doAnswer(invocation -> dnSearchResult).when(ldapConnection).search(argThat(
-        searchRequest -> Optional.ofNullable(searchRequest)
-            .map(SearchRequest::getBaseDN)
-            .map(o -> o.equals("ou=users,dc=example,dc=com"))
-            .orElse(false)));
-
-    //when(ldapConnection.search(argThat(new IsDnSearch()))).thenReturn(dnSearchResult);
-    when(dnSearchResult.getEntryCount()).thenReturn(1);
-    when(dnSearchResult.getSearchEntries()).thenReturn(dnResults);
-
-    doAnswer(invocation -> roleSearchResult).when(ldapConnection).search(argThat(
-        searchRequest -> Optional.ofNullable(searchRequest)
-            .map(SearchRequest::getBaseDN)
-            .map(o -> o.equals("ou=roles,dc=example,dc=com"))
-            .orElse(false)));
-    //when(ldapConnection.search(argThat(new IsRoleSearch()))).thenReturn(roleSearchResult);
-    when(roleSearchResult.getEntryCount()).thenReturn(1);
-    when(roleSearchResult.getSearchEntries()).thenReturn(roleResults);
+    ldapAuthenticator =
+        new LdapAuthenticator(connectionFactory, config, Duration.ofMinutes(1), 100);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    connectionFactory.stop();
+    directoryServer.shutDown(true);
   }
 
-  @Ignore
   @Test
   public void ldapAuthenticatorCreatesUserOnSuccess() throws Exception {
-    when(ldapConnectionFactory.getLDAPConnection(PEOPLE_DN, "validpass"))
-        .thenReturn(ldapUserAuthConnection);
-
     User user = ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass"))
         .orElseThrow(RuntimeException::new);
     assertThat(user).isEqualTo(User.named("sysadmin"));
   }
 
-  @Ignore
   @Test
-  public void ldapAuthenticatorThrowsWhenAuthFails() throws Exception {
-    // Zero results on a search indicates no valid user.
-    when(dnSearchResult.getEntryCount()).thenReturn(0);
+  public void ldapAuthenticatorRejectsWrongPassword() throws Exception {
+    Optional<User> user =
+        ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "badpass"));
+    assertThat(user).isEmpty();
+  }
 
+  @Test
+  public void ldapAuthenticatorRejectsUnknownUser() throws Exception {
     Optional<User> missingUser =
-        ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "badpass"));
+        ldapAuthenticator.authenticate(new BasicCredentials("nobody", "validpass"));
     assertThat(missingUser).isEmpty();
   }
 
-  @Ignore
   @Test
   public void ldapAuthenticatorRejectsInvalidUsername() throws Exception {
     String crazyUsername = "sysadmin)`~!@#$%^&*()+=[]{}\\|;:'\",<>?/\r\n\t";
@@ -117,10 +110,66 @@ public class LdapAuthenticatorTest {
     assertThat(missingUser).isEmpty();
   }
 
-  @Ignore
   @Test
   public void ldapAuthenticatorRejectsEmptyPassword() throws Exception {
     Optional<User> user = ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", ""));
     assertThat(user).isEmpty();
   }
+
+  @Test(expected = ForbiddenException.class)
+  public void ldapAuthenticatorRejectsUserWithoutRequiredRole() throws Exception {
+    removeFromRole();
+    ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass"));
+  }
+
+  @Test
+  public void ldapAuthenticatorReusesPooledConnections() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass")))
+          .isPresent();
+    }
+    assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "badpass")))
+        .isEmpty();
+
+    assertThat(connectionFactory.getServiceAccountPool().getConnectionPoolStatistics()
+        .getNumSuccessfulConnectionAttempts()).isEqualTo(1);
+  }
+
+  @Test
+  public void stoppingConnectionFactoryClosesPool() throws Exception {
+    assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass")))
+        .isPresent();
+    LDAPConnectionPool pool = connectionFactory.getServiceAccountPool();
+
+    connectionFactory.stop();
+    assertThat(pool.isClosed()).isTrue();
+  }
+
+  @Test
+  public void ldapAuthenticatorCachesLookups() throws Exception {
+    assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass")))
+        .isPresent();
+
+    // Role membership is cached, passwords are not
+    removeFromRole();
+    assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass")))
+        .isPresent();
+    assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "badpass")))
+        .isEmpty();
+  }
+
+  @Test(expected = ForbiddenException.class)
+  public void ldapAuthenticatorWithoutCacheSeesRoleChanges() throws Exception {
+    ldapAuthenticator = new LdapAuthenticator(connectionFactory, config);
+    assertThat(ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass")))
+        .isPresent();
+
+    removeFromRole();
+    ldapAuthenticator.authenticate(new BasicCredentials("sysadmin", "validpass"));
+  }
+
+  private void removeFromRole() throws Exception {
+    directoryServer.modify(ROLE_DN,
+        new Modification(ModificationType.DELETE, "uniqueMember", PEOPLE_DN));
+  }
 }
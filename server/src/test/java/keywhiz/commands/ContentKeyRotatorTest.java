@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.commands;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import java.security.Provider;
+import java.time.OffsetDateTime;
+import java.util.List;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+import keywhiz.FakeRandom;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.jooq.tables.records.ContentKeyRotationsRecord;
+import keywhiz.jooq.tables.records.SecretsContentRecord;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.ContentKeys;
+import keywhiz.service.crypto.CryptoModule.Derivation;
+import keywhiz.service.crypto.CryptoModule.Encryption;
+import keywhiz.service.crypto.DerivedKeyCache;
+import keywhiz.service.crypto.RowHmacGenerator;
+import org.jooq.DSLContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Base64.getEncoder;
+import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(KeywhizTestRunner.class)
+public class ContentKeyRotatorTest {
+  private static final int ROWS = 25;
+
+  @Inject DSLContext jooqContext;
+  @Inject ContentCryptographer cryptographer;
+  @Inject RowHmacGenerator rowHmacGenerator;
+  @Inject ContentKeys contentKeys;
+  @Inject @Derivation Provider derivationProvider;
+  @Inject @Encryption Provider encryptionProvider;
+
+  ContentCryptographer rotatedCryptographer;
+
+  @Before public void setUp() {
+    rotatedCryptographer = new ContentCryptographer(
+        new ContentKeys(contentKeys.baseKey(),
+            ImmutableMap.of("k2", new SecretKeySpec(new byte[16], "AES")), "k2"),
+        derivationProvider, encryptionProvider, FakeRandom.create(),
+        DerivedKeyCache.withDefaults());
+
+    long now = OffsetDateTime.now().toEpochSecond();
+    jooqContext.insertInto(SECRETS, SECRETS.ID, SECRETS.NAME, SECRETS.CREATEDAT, SECRETS.UPDATEDAT)
+        .values(1L, "secret", now, now)
+        .execute();
+    for (long id = 1; id <= ROWS; id++) {
+      insertContent(id, cryptographer.encryptionKeyDerivedFrom("secret").encrypt(plaintext(id)));
+    }
+  }
+
+  @Test public void rotatesAllContent() throws Exception {
+    ContentKeyRotationsRecord checkpoint = rotator(7).rotate(false);
+
+    assertThat(checkpoint.getKeyid()).isEqualTo("k2");
+    assertThat(checkpoint.getCursorid()).isEqualTo(ROWS);
+    assertThat(checkpoint.getRotated()).isEqualTo(ROWS);
+    assertThat(checkpoint.getSkipped()).isZero();
+    assertThat(checkpoint.getCompletedat()).isNotNull();
+
+    for (SecretsContentRecord row : jooqContext.selectFrom(SECRETS_CONTENT).fetch()) {
+      assertThat(rotatedCryptographer.isUnderActiveKey(row.getEncryptedContent())).isTrue();
+      assertThat(rotatedCryptographer.decrypt(row.getEncryptedContent()))
+          .isEqualTo(plaintext(row.getId()));
+      assertThat(rowHmacGenerator.rowHmac(SECRETS_CONTENT.getName())
+          .field(row.getEncryptedContent())
+          .field(row.getMetadata())
+          .field(row.getId())
+          .verify(row.getRowHmac())).isTrue();
+    }
+  }
+
+  @Test public void rerunningIsANoOp() throws Exception {
+    rotator(10).rotate(false);
+    List<String> rotated = jooqContext.select(SECRETS_CONTENT.ENCRYPTED_CONTENT)
+        .from(SECRETS_CONTENT).orderBy(SECRETS_CONTENT.ID).fetch(SECRETS_CONTENT.ENCRYPTED_CONTENT);
+
+    ContentKeyRotationsRecord checkpoint = rotator(10).rotate(true);
+
+    assertThat(checkpoint.getRotated()).isZero();
+    assertThat(jooqContext.select(SECRETS_CONTENT.ENCRYPTED_CONTENT)
+        .from(SECRETS_CONTENT).orderBy(SECRETS_CONTENT.ID).fetch(SECRETS_CONTENT.ENCRYPTED_CONTENT))
+        .isEqualTo(rotated);
+  }
+
+  @Test public void resumesFromCheckpoint() throws Exception {
+    rotator(10).rotate(false);
+    insertContent(ROWS + 1,
+        cryptographer.encryptionKeyDerivedFrom("secret").encrypt(plaintext(ROWS + 1)));
+
+    ContentKeyRotationsRecord checkpoint = rotator(10).rotate(false);
+
+    assertThat(checkpoint.getCursorid()).isEqualTo(ROWS + 1);
+    assertThat(checkpoint.getRotated()).isEqualTo(ROWS + 1);
+  }
+
+  @Test public void skipsRowsWithInvalidRowHmac() throws Exception {
+    jooqContext.update(SECRETS_CONTENT)
+        .set(SECRETS_CONTENT.ROW_HMAC, "invalid")
+        .where(SECRETS_CONTENT.ID.eq(3L))
+        .execute();
+
+    ContentKeyRotationsRecord checkpoint = rotator(10).rotate(false);
+
+    assertThat(checkpoint.getRotated()).isEqualTo(ROWS - 1);
+    assertThat(checkpoint.getSkipped()).isEqualTo(1);
+    String skipped = jooqContext.select(SECRETS_CONTENT.ENCRYPTED_CONTENT).from(SECRETS_CONTENT)
+        .where(SECRETS_CONTENT.ID.eq(3L)).fetchOne(SECRETS_CONTENT.ENCRYPTED_CONTENT);
+    assertThat(rotatedCryptographer.isUnderActiveKey(skipped)).isFalse();
+  }
+
+  private ContentKeyRotator rotator(int batchSize) {
+    return new ContentKeyRotator(jooqContext, rotatedCryptographer, rowHmacGenerator,
+        new MetricRegistry(), batchSize, 2, 0);
+  }
+
+  private void insertContent(long id, String encryptedContent) {
+    long now = OffsetDateTime.now().toEpochSecond();
+    String metadata = "{\"id\":\"" + id + "\"}";
+    jooqContext.insertInto(SECRETS_CONTENT)
+        .set(SECRETS_CONTENT.ID, id)
+        .set(SECRETS_CONTENT.SECRETID, 1L)
+        .set(SECRETS_CONTENT.ENCRYPTED_CONTENT, encryptedContent)
+        .set(SECRETS_CONTENT.CONTENT_HMAC, "checksum")
+        .set(SECRETS_CONTENT.CREATEDAT, now)
+        .set(SECRETS_CONTENT.UPDATEDAT, now)
+        .set(SECRETS_CONTENT.METADATA, metadata)
+        .set(SECRETS_CONTENT.ROW_HMAC, rowHmacGenerator.computeRowHmac(SECRETS_CONTENT.getName(),
+            List.of(encryptedContent, metadata, id)))
+        .execute();
+  }
+
+  private static String plaintext(long id) {
+    return getEncoder().encodeToString(("content " + id).getBytes(UTF_8));
+  }
+}
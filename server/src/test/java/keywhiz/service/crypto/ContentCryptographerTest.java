@@ -16,8 +16,15 @@
 
 package keywhiz.service.crypto;
 
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.jackson.Jackson;
 import java.security.Provider;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import keywhiz.FakeRandom;
@@ -30,10 +37,13 @@ import static com.google.common.io.BaseEncoding.base16;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Base64.getEncoder;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class ContentCryptographerTest {
   private static final SecretKey BASE_KEY = new SecretKeySpec(
       base16().lowerCase().decode("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"), "AES");
+  private static final SecretKey ROTATED_KEY = new SecretKeySpec(
+      base16().lowerCase().decode("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"), "AES");
   private static final Provider BC = new BouncyCastleProvider();
 
   ContentCryptographer cryptographer;
@@ -59,4 +69,108 @@ public class ContentCryptographerTest {
     String outputBase64 = cryptographer.decrypt(crypted);
     assertThat(outputBase64).isEqualTo(inputBase64);
   }
+
+  @Test public void encryptsAsLegacyJsonByDefault() throws Exception {
+    String inputBase64 = getEncoder().encodeToString("Hello World".getBytes(UTF_8));
+
+    String crypted = cryptographer.encryptionKeyDerivedFrom("legacy").encrypt(inputBase64);
+    assertThat(cryptographer.writesEnvelopes()).isFalse();
+    assertThat(ContentCryptographer.isLegacyJson(crypted)).isTrue();
+    assertThat(Jackson.newObjectMapper().readValue(crypted, ContentCryptographer.Crypted.class)
+        .derivationInfo()).isEqualTo("legacy");
+  }
+
+  @Test public void encryptsAsEnvelopeWhenEnabled() throws Exception {
+    String inputBase64 = getEncoder().encodeToString("Hello World".getBytes(UTF_8));
+    ContentCryptographer enveloping = new ContentCryptographer(
+        new ContentKeys(BASE_KEY, ImmutableMap.of(), null, true), BC, BC,
+        FakeRandom.create(), DerivedKeyCache.withDefaults());
+
+    String crypted = enveloping.encryptionKeyDerivedFrom("envelope").encrypt(inputBase64);
+    assertThat(crypted).doesNotStartWith("{");
+    assertThat(CiphertextEnvelope.parse(crypted).derivationInfo()).isEqualTo("envelope");
+    assertThat(cryptographer.decrypt(crypted)).isEqualTo(inputBase64);
+  }
+
+  @Test public void decryptsLegacyJson() throws Exception {
+    String inputBase64 = getEncoder().encodeToString("Hello World".getBytes(UTF_8));
+    String legacyJson = cryptographer.encryptionKeyDerivedFrom("legacy").encrypt(inputBase64);
+
+    assertThat(legacyJson).startsWith("{");
+    assertThat(cryptographer.decrypt(legacyJson)).isEqualTo(inputBase64);
+
+    String converted = cryptographer.toEnvelope(legacyJson);
+    assertThat(converted).doesNotStartWith("{");
+    assertThat(cryptographer.decrypt(converted)).isEqualTo(inputBase64);
+    assertThat(cryptographer.toEnvelope(converted)).isEqualTo(converted);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownEnvelope() throws Exception {
+    cryptographer.decrypt(getEncoder().encodeToString(new byte[] {1, 2, 3}));
+  }
+
+  @Test public void encryptDecryptConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      String inputBase64 = getEncoder().encodeToString(("secret " + i).getBytes(UTF_8));
+      String name = "secret_" + (i % 5);
+      results.add(executor.submit(() -> cryptographer.decrypt(
+          cryptographer.encryptionKeyDerivedFrom(name).encrypt(inputBase64))));
+    }
+    executor.shutdown();
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(results.get(i).get())
+          .isEqualTo(getEncoder().encodeToString(("secret " + i).getBytes(UTF_8)));
+    }
+  }
+
+  @Test public void computeHmacIsStable() throws Exception {
+    String first = cryptographer.computeHmac("content".getBytes(UTF_8), "hmackey");
+    cryptographer.computeHmac("other".getBytes(UTF_8), "hmackey");
+    assertThat(cryptographer.computeHmac("content".getBytes(UTF_8), "hmackey")).isEqualTo(first);
+  }
+
+  @Test public void decryptsUnderAnyConfiguredKey() throws Exception {
+    String inputBase64 = getEncoder().encodeToString("Hello World".getBytes(UTF_8));
+    String underBaseKey = cryptographer.encryptionKeyDerivedFrom("rotated").encrypt(inputBase64);
+
+    ContentCryptographer rotated = rotatedCryptographer();
+    String underRotatedKey = rotated.encryptionKeyDerivedFrom("rotated").encrypt(inputBase64);
+
+    // Legacy JSON cannot name a rotated key, so it is always written as an envelope.
+    assertThat(rotated.writesEnvelopes()).isTrue();
+    assertThat(CiphertextEnvelope.parse(underRotatedKey).keyId()).isEqualTo("k2");
+    assertThat(rotated.decrypt(underRotatedKey)).isEqualTo(inputBase64);
+    assertThat(rotated.decrypt(underBaseKey)).isEqualTo(inputBase64);
+    assertThat(rotated.isUnderActiveKey(underRotatedKey)).isTrue();
+    assertThat(rotated.isUnderActiveKey(underBaseKey)).isFalse();
+    // HMACs are unaffected by rotation.
+    assertThat(rotated.computeHmac("content".getBytes(UTF_8), "hmackey"))
+        .isEqualTo(cryptographer.computeHmac("content".getBytes(UTF_8), "hmackey"));
+  }
+
+  @Test public void reencryptsUnderActiveKey() throws Exception {
+    String inputBase64 = getEncoder().encodeToString("Hello World".getBytes(UTF_8));
+    String underBaseKey = cryptographer.encryptionKeyDerivedFrom("rotated").encrypt(inputBase64);
+
+    ContentCryptographer rotated = rotatedCryptographer();
+    String reencrypted = rotated.reencrypt(underBaseKey);
+
+    CiphertextEnvelope envelope = CiphertextEnvelope.parse(reencrypted);
+    assertThat(envelope.keyId()).isEqualTo("k2");
+    assertThat(envelope.derivationInfo()).isEqualTo("rotated");
+    assertThat(rotated.decrypt(reencrypted)).isEqualTo(inputBase64);
+    // Without the rotated key configured, re-encrypted content is unreadable.
+    assertThatThrownBy(() -> cryptographer.decrypt(reencrypted))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  private static ContentCryptographer rotatedCryptographer() {
+    return new ContentCryptographer(
+        new ContentKeys(BASE_KEY, ImmutableMap.of("k2", ROTATED_KEY), "k2"), BC, BC,
+        FakeRandom.create(), DerivedKeyCache.withDefaults());
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.SecretKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DerivedKeyCacheTest {
+  private MetricRegistry metrics;
+  private DerivedKeyCache cache;
+  private AtomicInteger derivations;
+
+  @Before public void setUp() {
+    metrics = new MetricRegistry();
+    cache = new DerivedKeyCache(2, Duration.ofMinutes(1), metrics);
+    derivations = new AtomicInteger();
+  }
+
+  @Test public void derivesOncePerInfoAndLength() {
+    SecretKey first = cache.get("", "info", 16, "AES", () -> derive(16));
+    SecretKey second = cache.get("", "info", 16, "AES", () -> derive(16));
+    cache.get("", "info", 32, "AES", () -> derive(32));
+
+    assertThat(second.getEncoded()).isEqualTo(first.getEncoded());
+    assertThat(derivations.get()).isEqualTo(2);
+    assertThat(gauge("hits")).isEqualTo(1L);
+    assertThat(gauge("misses")).isEqualTo(2L);
+  }
+
+  @Test public void derivesOncePerKeyId() {
+    SecretKey base = cache.get("", "info", 16, "AES", () -> derive(16));
+    SecretKey rotated = cache.get("rotated", "info", 16, "AES", () -> derive(16));
+
+    assertThat(rotated.getEncoded()).isNotEqualTo(base.getEncoded());
+    assertThat(derivations.get()).isEqualTo(2);
+  }
+
+  @Test public void evictionDoesNotAffectKeysInUse() {
+    SecretKey key = cache.get("", "a", 16, "AES", () -> derive(16));
+    byte[] expected = key.getEncoded();
+
+    cache.get("", "b", 16, "AES", () -> derive(16));
+    cache.get("", "c", 16, "AES", () -> derive(16));
+    cache.invalidateAll();
+
+    assertThat(cache.size()).isZero();
+    assertThat(gauge("evictions")).isGreaterThanOrEqualTo(1L);
+    assertThat(key.getEncoded()).isEqualTo(expected);
+  }
+
+  @Test public void zeroMaxEntriesDisablesCaching() {
+    DerivedKeyCache disabled = new DerivedKeyCache(0, Duration.ofMinutes(1), null);
+    disabled.get("", "info", 16, "AES", () -> derive(16));
+    disabled.get("", "info", 16, "AES", () -> derive(16));
+
+    assertThat(derivations.get()).isEqualTo(2);
+  }
+
+  private byte[] derive(int length) {
+    byte[] bytes = new byte[length];
+    bytes[0] = (byte) derivations.incrementAndGet();
+    bytes[1] = (byte) length;
+    return bytes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private long gauge(String metric) {
+    return ((Gauge<Long>) metrics.getGauges().get(name(DerivedKeyCache.class, metric))).getValue();
+  }
+}
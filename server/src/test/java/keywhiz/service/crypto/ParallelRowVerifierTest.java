@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelRowVerifierTest {
+  private ParallelRowVerifier verifier;
+  private Set<String> threads;
+
+  @Before public void setUp() {
+    verifier = new ParallelRowVerifier(4, 100);
+    threads = ConcurrentHashMap.newKeySet();
+  }
+
+  @After public void tearDown() {
+    verifier.stop();
+  }
+
+  @Test public void verifiesSmallResultsOnCallingThread() {
+    List<Long> results = verifier.verifyAll(rows(99), this::verify);
+
+    assertThat(results).isEqualTo(rows(99));
+    assertThat(threads).containsOnly(Thread.currentThread().getName());
+  }
+
+  @Test public void verifiesLargeResultsInPoolPreservingOrder() {
+    List<Long> results = verifier.verifyAll(rows(10_000), this::verify);
+
+    assertThat(results).isEqualTo(rows(10_000));
+    assertThat(threads).allMatch(name -> name.startsWith("row-hmac-verifier-"));
+    assertThat(threads.size()).isBetween(1, 4);
+  }
+
+  @Test public void serialNeverUsesPool() {
+    List<Long> results = ParallelRowVerifier.serial().verifyAll(rows(10_000), this::verify);
+
+    assertThat(results).isEqualTo(rows(10_000));
+    assertThat(threads).containsOnly(Thread.currentThread().getName());
+  }
+
+  private Long verify(Long row) {
+    threads.add(Thread.currentThread().getName());
+    return row;
+  }
+
+  private static List<Long> rows(int count) {
+    return LongStream.range(0, count).boxed().collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Base64.getEncoder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PlaintextCacheTest {
+  private MetricRegistry metrics;
+  private PlaintextCache cache;
+  private AtomicInteger decryptions;
+
+  @Before public void setUp() {
+    metrics = new MetricRegistry();
+    cache = new PlaintextCache(1024, Duration.ofMinutes(1), metrics);
+    decryptions = new AtomicInteger();
+  }
+
+  @Test public void decryptsOncePerContentId() {
+    assertThat(cache.get(1, 10, () -> decrypt("first"))).isEqualTo(base64("first"));
+    assertThat(cache.get(1, 10, () -> decrypt("first"))).isEqualTo(base64("first"));
+    assertThat(cache.get(1, 11, () -> decrypt("second"))).isEqualTo(base64("second"));
+
+    assertThat(decryptions.get()).isEqualTo(2);
+    assertThat(gauge("hits")).isEqualTo(1L);
+    assertThat(gauge("misses")).isEqualTo(2L);
+  }
+
+  @Test public void invalidatesAllContentOfSecret() {
+    cache.get(1, 10, () -> decrypt("a"));
+    cache.get(1, 11, () -> decrypt("b"));
+    cache.get(2, 20, () -> decrypt("c"));
+
+    cache.invalidateSecret(1);
+
+    assertThat(cache.size()).isEqualTo(1);
+    cache.get(1, 10, () -> decrypt("a"));
+    cache.get(2, 20, () -> decrypt("c"));
+    assertThat(decryptions.get()).isEqualTo(4);
+  }
+
+  @Test public void boundsTotalSize() {
+    PlaintextCache small = new PlaintextCache(16, Duration.ofMinutes(1), null);
+    for (long id = 0; id < 10; id++) {
+      small.get(1, id, () -> decrypt("12345678"));
+    }
+    assertThat(small.size()).isLessThanOrEqualTo(2);
+
+    // Content larger than the whole cache is not cached at all.
+    small.get(1, 100, () -> decrypt("much too large to cache"));
+    small.get(1, 100, () -> decrypt("much too large to cache"));
+    assertThat(decryptions.get()).isEqualTo(12);
+  }
+
+  @Test public void cachesContentUpToTheWholeMaximumSize() {
+    PlaintextCache small = new PlaintextCache(16, Duration.ofMinutes(1), null);
+    // 16 bytes once base64 encoded
+    small.get(1, 10, () -> decrypt("123456789012"));
+    small.get(1, 10, () -> decrypt("123456789012"));
+
+    assertThat(decryptions.get()).isEqualTo(1);
+  }
+
+  @Test public void doesNotCacheContentDecryptedDuringInvalidation() {
+    cache.get(1, 10, () -> {
+      cache.invalidateSecret(1);
+      return decrypt("superseded");
+    });
+
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test public void zeroMaxBytesDisablesCaching() {
+    PlaintextCache disabled = PlaintextCache.disabled();
+    disabled.get(1, 10, () -> decrypt("a"));
+    disabled.get(1, 10, () -> decrypt("a"));
+
+    assertThat(decryptions.get()).isEqualTo(2);
+  }
+
+  private String decrypt(String plaintext) {
+    decryptions.incrementAndGet();
+    return base64(plaintext);
+  }
+
+  private static String base64(String plaintext) {
+    return getEncoder().encodeToString(plaintext.getBytes(UTF_8));
+  }
+
+  @SuppressWarnings("unchecked")
+  private long gauge(String metric) {
+    return ((Gauge<Long>) metrics.getGauges().get(name(PlaintextCache.class, metric))).getValue();
+  }
+}
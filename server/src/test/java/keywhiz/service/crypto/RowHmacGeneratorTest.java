@@ -0,0 +1,104 @@
+package keywhiz.service.crypto;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import java.util.Arrays;
+import java.util.List;
+import javax.inject.Inject;
+import keywhiz.KeywhizTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(KeywhizTestRunner.class)
+public class RowHmacGeneratorTest {
+  @Inject ContentCryptographer cryptographer;
+  @Inject RowHmacGenerator rowHmacGenerator;
+
+  @Test public void matchesHmacOfJoinedFields() {
+    assertMatchesReference("secrets", List.of("Database_Password", 739L));
+    assertMatchesReference("memberships", List.of(-1L, 0L));
+    assertMatchesReference("accessgrants", List.of(Long.MIN_VALUE, Long.MAX_VALUE));
+    assertMatchesReference("secrets_content", List.of("", "{\"mode\":\"0400\"}", 937L));
+  }
+
+  @Test public void matchesHmacWithNoFields() {
+    assertMatchesReference("secrets", List.of());
+  }
+
+  @Test public void matchesHmacWithNullFields() {
+    assertMatchesReference("secrets_content", Arrays.asList(null, "metadata", 1L));
+  }
+
+  @Test public void matchesHmacWithNonAsciiFields() {
+    assertMatchesReference("secrets", List.of("sécrèt-名前-🔑", 1L));
+    // Unpaired surrogates are replaced, as String.getBytes does.
+    assertMatchesReference("secrets", List.of("\uD83D", "a\uDD11b", "\uDD11\uD83D"));
+  }
+
+  @Test public void matchesHmacWithFieldsLargerThanBuffer() {
+    assertMatchesReference("secrets_content",
+        List.of(Strings.repeat("a", 5000), Strings.repeat("é", 1023), 42L));
+    assertMatchesReference("secrets_content",
+        List.of(Strings.repeat("🔑", 700), Strings.repeat("x", 1023)));
+  }
+
+  @Test public void streamingMatchesComputeRowHmac() {
+    String expected = rowHmacGenerator.computeRowHmac("clients", List.of("client", 768L));
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field(768L).toHex())
+        .isEqualTo(expected);
+    // The same string value of a long hashes identically.
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field("768").toHex())
+        .isEqualTo(expected);
+  }
+
+  @Test public void verifiesStoredHmac() {
+    String stored = rowHmacGenerator.computeRowHmac("clients", List.of("client", 768L));
+
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field(768L).verify(stored))
+        .isTrue();
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field(769L).verify(stored))
+        .isFalse();
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field(768L)
+        .verify(stored.toLowerCase())).isFalse();
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field(768L)
+        .verify(stored.substring(1))).isFalse();
+    assertThat(rowHmacGenerator.rowHmac("clients").field("client").field(768L).verify(null))
+        .isFalse();
+  }
+
+  @Test public void verifyRowHmacRejectsTamperedRows() {
+    String stored = rowHmacGenerator.computeRowHmac("clients", List.of("client", 768L));
+
+    assertThat(rowHmacGenerator.verifyRowHmac("clients", stored, List.of("client", 768L)))
+        .isTrue();
+    // Once verified, a row changed without updating its row_hmac must still be rejected.
+    assertThat(rowHmacGenerator.verifyRowHmac("clients", stored, List.of("client", 769L)))
+        .isFalse();
+    assertThat(rowHmacGenerator.verifyRowHmac("clients", "invalid", List.of("client", 768L)))
+        .isFalse();
+    assertThat(rowHmacGenerator.verifyRowHmac("clients", null, List.of("client", 768L)))
+        .isFalse();
+    assertThat(rowHmacGenerator.verifyRowHmac("clients", stored, List.of("client", 768L)))
+        .isTrue();
+  }
+
+  @Test public void rejectsReuseAfterFinishing() {
+    RowHmacGenerator.RowHmac rowHmac = rowHmacGenerator.rowHmac("clients").field("client");
+    rowHmac.toHex();
+
+    assertThatThrownBy(() -> rowHmac.field(768L)).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(rowHmac::toHex).isInstanceOf(IllegalStateException.class);
+  }
+
+  private void assertMatchesReference(String table, List<Object> fields) {
+    String joined = table + "|" + Joiner.on('|').useForNull("null").join(fields);
+    String reference = cryptographer.computeHmacWithSecretKey(joined.getBytes(UTF_8),
+        cryptographer.deriveKey(32, "row_hmac"));
+
+    assertThat(rowHmacGenerator.computeRowHmac(table, fields)).isEqualTo(reference);
+  }
+}
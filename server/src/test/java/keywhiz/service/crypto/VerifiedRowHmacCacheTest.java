@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VerifiedRowHmacCacheTest {
+  private MetricRegistry metrics;
+  private VerifiedRowHmacCache cache;
+
+  @Before public void setUp() {
+    metrics = new MetricRegistry();
+    // Room for two small rows
+    cache = new VerifiedRowHmacCache(600, metrics);
+  }
+
+  @Test public void remembersVerifiedRows() {
+    assertThat(cache.isVerified("secrets", "ABCD", List.of("name", 1L))).isFalse();
+    cache.markVerified("secrets", "ABCD", List.of("name", 1L));
+
+    assertThat(cache.isVerified("secrets", "ABCD", List.of("name", 1L))).isTrue();
+    assertThat(gauge("hits")).isEqualTo(1L);
+    assertThat(gauge("misses")).isEqualTo(1L);
+  }
+
+  @Test public void changedRowMissesCache() {
+    cache.markVerified("secrets", "ABCD", List.of("name", 1L));
+
+    assertThat(cache.isVerified("secrets", "ABCE", List.of("name", 1L))).isFalse();
+    assertThat(cache.isVerified("secrets", "ABCD", List.of("renamed", 1L))).isFalse();
+    assertThat(cache.isVerified("clients", "ABCD", List.of("name", 1L))).isFalse();
+  }
+
+  @Test public void boundedBySize() {
+    cache.markVerified("secrets", "A", List.of(1L));
+    cache.markVerified("secrets", "B", List.of(2L));
+    cache.markVerified("secrets", "C", List.of(3L));
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(gauge("evictions")).isEqualTo(1L);
+    assertThat(gauge("size")).isEqualTo(2L);
+  }
+
+  @Test public void boundedByFieldSize() {
+    String content = "x".repeat(200);
+    cache.markVerified("secrets_content", "A", List.of(content, "{}", 1L));
+    cache.markVerified("secrets_content", "B", List.of(content, "{}", 2L));
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.isVerified("secrets_content", "B", List.of(content, "{}", 2L))).isTrue();
+  }
+
+  @Test public void zeroMaxEntriesDisablesCaching() {
+    VerifiedRowHmacCache disabled = new VerifiedRowHmacCache(0, null);
+    disabled.markVerified("secrets", "ABCD", List.of("name", 1L));
+
+    assertThat(disabled.isVerified("secrets", "ABCD", List.of("name", 1L))).isFalse();
+  }
+
+  @SuppressWarnings("unchecked")
+  private long gauge(String metric) {
+    return ((Gauge<Long>) metrics.getGauges().get(name(VerifiedRowHmacCache.class, metric))).getValue();
+  }
+}
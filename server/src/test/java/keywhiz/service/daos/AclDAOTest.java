@@ -24,14 +24,19 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import javax.inject.Inject;
+import keywhiz.KeywhizConfig;
 import keywhiz.KeywhizTestRunner;
 import keywhiz.api.model.Client;
 import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecret;
 import keywhiz.api.model.Secret;
 import keywhiz.api.model.SecretSeries;
+import keywhiz.log.SimpleLogger;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.RowHmacGenerator;
 import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
 import keywhiz.service.daos.GroupDAO.GroupDAOFactory;
+import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
 import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
 import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
 import org.jooq.DSLContext;
@@ -43,6 +48,7 @@ import static keywhiz.jooq.tables.Accessgrants.ACCESSGRANTS;
 import static keywhiz.jooq.tables.Clients.CLIENTS;
 import static keywhiz.jooq.tables.Memberships.MEMBERSHIPS;
 import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
@@ -56,6 +62,16 @@ public class AclDAOTest {
   @Inject GroupDAOFactory groupDAOFactory;
   @Inject AclDAO.AclDAOFactory aclDAOFactory;
 
+  // To build an AclDAO which verifies row HMACs in parallel
+  @Inject SecretContentDAOFactory secretContentDAOFactory;
+  @Inject ClientMapper clientMapper;
+  @Inject GroupMapper groupMapper;
+  @Inject SecretSeriesMapper secretSeriesMapper;
+  @Inject SecretContentMapper secretContentMapper;
+  @Inject RowHmacGenerator rowHmacGenerator;
+  @Inject AclSnapshot aclSnapshot;
+  @Inject KeywhizConfig config;
+
   Client client1, client2;
   Group group1, group2, group3;
   Secret secret1, secret2;
@@ -150,6 +166,51 @@ public class AclDAOTest {
     assertThat(membershipsTableSize()).isEqualTo(before - 1);
   }
 
+  @Test public void modifiesAccessOfGroupsInBulk() {
+    aclDAO.findAndModifyAccess(secret1.getId(),
+        ImmutableSet.of(group1.getName(), group2.getName(), "non-existent"), ImmutableSet.of(),
+        new SimpleLogger(), "creator");
+    assertThat(aclDAO.getGroupsFor(secret1)).containsOnly(group1, group2);
+
+    aclDAO.findAndModifyAccess(secret1.getId(),
+        ImmutableSet.of(group2.getName(), group3.getName()), ImmutableSet.of(group1.getName()),
+        new SimpleLogger(), "creator");
+    assertThat(aclDAO.getGroupsFor(secret1)).containsOnly(group2, group3);
+    assertThat(accessGrantsTableSize()).isEqualTo(2);
+  }
+
+  @Test public void modifiesMembershipsInBulk() {
+    aclDAO.findAndModifyMemberships(client1.getId(),
+        ImmutableSet.of(group1.getName(), group2.getName(), "non-existent"), ImmutableSet.of(),
+        new SimpleLogger(), "creator");
+    assertThat(aclDAO.getGroupsFor(client1)).containsOnly(group1, group2);
+
+    aclDAO.findAndModifyMemberships(client1.getId(),
+        ImmutableSet.of(group2.getName(), group3.getName()), ImmutableSet.of(group1.getName()),
+        new SimpleLogger(), "creator");
+    assertThat(aclDAO.getGroupsFor(client1)).containsOnly(group2, group3);
+    assertThat(membershipsTableSize()).isEqualTo(2);
+  }
+
+  @Test public void bulkModificationsComputeRowHmacs() {
+    aclDAO.findAndModifyAccess(secret1.getId(), ImmutableSet.of(group1.getName()),
+        ImmutableSet.of(), new SimpleLogger(), "creator");
+    aclDAO.findAndModifyMemberships(client1.getId(), ImmutableSet.of(group1.getName()),
+        ImmutableSet.of(), new SimpleLogger(), "creator");
+
+    // Fails if the row HMAC of either row does not verify.
+    assertThat(aclDAO.getSanitizedSecretFor(client1, secret1.getName())).isPresent();
+  }
+
+  @Test public void bulkModificationsRejectMissingEntities() {
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() ->
+        aclDAO.findAndModifyAccess(secret1.getId() + secret2.getId(),
+            ImmutableSet.of(group1.getName()), ImmutableSet.of(), new SimpleLogger(), "creator"));
+    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() ->
+        aclDAO.findAndModifyMemberships(client1.getId() + client2.getId(),
+            ImmutableSet.of(group1.getName()), ImmutableSet.of(), new SimpleLogger(), "creator"));
+  }
+
   @Test public void membershipsHasReferentialIntegrity() {
     aclDAO.enrollClient(jooqContext.configuration(), client1.getId(), group1.getId());
     aclDAO.enrollClient(jooqContext.configuration(), client2.getId(), group2.getId());
@@ -358,6 +419,45 @@ public class AclDAOTest {
     assertThatExceptionOfType(AssertionError.class).isThrownBy(() -> {
       aclDAO.getSanitizedSecretFor(client2, secret1.getName());
     }).withMessage(errorMessage);
+
+    assertThatExceptionOfType(AssertionError.class).isThrownBy(() -> {
+      aclDAO.getSanitizedSecretsFor(group2);
+    }).withMessage(errorMessage);
+  }
+
+  @Test public void modifySecretGroupInLargeResult() {
+    aclDAO.enrollClient(jooqContext.configuration(), client1.getId(), group1.getId());
+    aclDAO.enrollClient(jooqContext.configuration(), client2.getId(), group2.getId());
+    aclDAO.allowAccess(jooqContext.configuration(), secret1.getId(), group1.getId());
+    aclDAO.allowAccess(jooqContext.configuration(), secret2.getId(), group2.getId());
+
+    jooqContext.update(ACCESSGRANTS)
+        .set(ACCESSGRANTS.GROUPID, group2.getId())
+        .where(ACCESSGRANTS.GROUPID.eq(group1.getId()))
+        .execute();
+
+    // Both rows are verified in parallel, and the failure on one of them is still reported.
+    ParallelRowVerifier rowVerifier = new ParallelRowVerifier(2, 2);
+    try {
+      AclDAO parallelAclDAO = new AclDAO.AclDAOFactory(jooqContext, jooqContext,
+          clientDAOFactory, groupDAOFactory, secretContentDAOFactory, secretSeriesDAOFactory,
+          clientMapper, groupMapper, secretSeriesMapper, secretContentMapper, rowHmacGenerator,
+          rowVerifier, aclSnapshot, config).readwrite();
+
+      String errorMessage = String.format(
+          "Access Grants HMAC verification failed for groupId: %d in secretId: %d",
+          group2.getId(), secret1.getId());
+      assertThatExceptionOfType(AssertionError.class).isThrownBy(() -> {
+        parallelAclDAO.getSanitizedSecretsFor(client2);
+      }).withMessage(errorMessage);
+
+      assertThatExceptionOfType(AssertionError.class).isThrownBy(() -> {
+        parallelAclDAO.getBatchSanitizedSecretsFor(client2,
+            List.of(secret1.getName(), secret2.getName()));
+      }).withMessage(errorMessage);
+    } finally {
+      rowVerifier.stop();
+    }
   }
 
   @Test public void modifyClientGroup() {
@@ -438,6 +538,24 @@ public class AclDAOTest {
     }).withMessage(errorMessage);
   }
 
+  @Test public void modifySecretContentOfGroup() {
+    aclDAO.allowAccess(jooqContext.configuration(), secret1.getId(), group1.getId());
+    long contentId = jooqContext.select(SECRETS.CURRENT).from(SECRETS)
+        .where(SECRETS.ID.eq(secret1.getId()))
+        .fetchOne(SECRETS.CURRENT);
+
+    jooqContext.update(SECRETS_CONTENT)
+        .set(SECRETS_CONTENT.METADATA, "{\"tampered\":\"true\"}")
+        .where(SECRETS_CONTENT.ID.eq(contentId))
+        .execute();
+
+    String errorMessage = String.format(
+        "Secret Content HMAC verification failed for secretContent: %d", contentId);
+    assertThatExceptionOfType(AssertionError.class).isThrownBy(() -> {
+      aclDAO.getSanitizedSecretsFor(group1);
+    }).withMessage(errorMessage);
+  }
+
   private int accessGrantsTableSize() {
     return jooqContext.fetchCount(ACCESSGRANTS);
   }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import javax.inject.Inject;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.api.model.Client;
+import keywhiz.api.model.Secret;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
+import keywhiz.service.daos.GroupDAO.GroupDAOFactory;
+import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jooq.TransactionalCallable;
+import org.junit.runner.RunWith;
+
+import static keywhiz.jooq.tables.Accessgrants.ACCESSGRANTS;
+import static keywhiz.jooq.tables.Clients.CLIENTS;
+import static keywhiz.jooq.tables.Memberships.MEMBERSHIPS;
+import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(KeywhizTestRunner.class)
+public class AclSnapshotTest {
+  @Inject DSLContext jooqContext;
+  @Inject RowHmacGenerator rowHmacGenerator;
+
+  @Inject SecretDAOFactory secretDAOFactory;
+  @Inject ClientDAOFactory clientDAOFactory;
+  @Inject GroupDAOFactory groupDAOFactory;
+  @Inject AclDAO.AclDAOFactory aclDAOFactory;
+
+  AclSnapshot snapshot;
+  long clientId, groupId;
+  Client client;
+  Secret secret;
+
+  @Before public void setUp() {
+    snapshot = new AclSnapshot(jooqContext, jooqContext, rowHmacGenerator,
+        ParallelRowVerifier.serial(), true, Duration.ofMinutes(1), Duration.ofMinutes(3),
+        new MetricRegistry());
+
+    AclDAO aclDAO = aclDAOFactory.readwrite();
+    clientId = clientDAOFactory.readwrite().createClient("client", "creator", "", null);
+    client = clientDAOFactory.readwrite().getClientById(clientId).get();
+    groupId = groupDAOFactory.readwrite().createGroup("group", "creator", "", ImmutableMap.of());
+    secret = SecretFixtures.using(secretDAOFactory.readwrite()).createSecret("secret", "c2VjcmV0");
+    aclDAO.enrollClient(jooqContext.configuration(), clientId, groupId);
+    aclDAO.allowAccess(jooqContext.configuration(), secret.getId(), groupId);
+  }
+
+  private Client ungrantedClient() {
+    long id = clientDAOFactory.readwrite().createClient("other", "creator", "", null);
+    return clientDAOFactory.readwrite().getClientById(id).get();
+  }
+
+  private Secret ungrantedSecret() {
+    return SecretFixtures.using(secretDAOFactory.readwrite()).createSecret("other", "b3RoZXI=");
+  }
+
+  @After public void tearDown() {
+    snapshot.stop();
+  }
+
+  @Test public void grantsNothingBeforeLoading() {
+    assertThat(snapshot.grants(client, secret)).isFalse();
+  }
+
+  @Test public void grantsAccessThroughGroups() {
+    snapshot.refresh(false);
+
+    assertThat(snapshot.grants(client, secret)).isTrue();
+    assertThat(snapshot.grants(client, ungrantedSecret())).isFalse();
+    assertThat(snapshot.grants(ungrantedClient(), secret)).isFalse();
+  }
+
+  @Test public void reloadsChangedTables() {
+    snapshot.refresh(false);
+    jooqContext.deleteFrom(ACCESSGRANTS).where(ACCESSGRANTS.GROUPID.eq(groupId)).execute();
+
+    assertThat(snapshot.grants(client, secret)).isTrue();
+    snapshot.refresh(false);
+    assertThat(snapshot.grants(client, secret)).isFalse();
+  }
+
+  @Test public void doesNotGrantSecretsReusingNames() {
+    snapshot.refresh(false);
+    SecretDAO secretDAO = secretDAOFactory.readwrite();
+    secretDAO.deleteSecretsByName("secret");
+    Secret recreated = SecretFixtures.using(secretDAO).createSecret("secret", "c2VjcmV0Mg==");
+
+    assertThat(snapshot.grants(client, recreated)).isFalse();
+  }
+
+  @Test public void grantsNothingOnceInvalidated() {
+    snapshot.refresh(false);
+    // Stopped, so invalidation does not schedule a reload.
+    snapshot.stop();
+
+    snapshot.invalidate();
+    assertThat(snapshot.grants(client, secret)).isFalse();
+  }
+
+  @Test public void readsPrimaryUntilReadonlyDatabaseCatchesUp() {
+    DSLContext primary = spy(jooqContext);
+    DSLContext readonly = spy(jooqContext);
+    snapshot = new AclSnapshot(primary, readonly, rowHmacGenerator, ParallelRowVerifier.serial(),
+        true, Duration.ofMinutes(1), Duration.ofMinutes(3), new MetricRegistry());
+    snapshot.refresh(false);
+    snapshot.stop();
+
+    snapshot.invalidate();
+    snapshot.refresh(false);
+    verify(primary, times(1)).transactionResult(any(TransactionalCallable.class));
+    assertThat(snapshot.grants(client, secret)).isTrue();
+
+    // Differs from what was loaded from the primary, as a lagging replica would
+    jooqContext.deleteFrom(ACCESSGRANTS).where(ACCESSGRANTS.GROUPID.eq(groupId)).execute();
+    snapshot.refresh(false);
+    verify(primary, times(2)).transactionResult(any(TransactionalCallable.class));
+    assertThat(snapshot.grants(client, secret)).isFalse();
+
+    // Caught up
+    snapshot.refresh(false);
+    snapshot.refresh(false);
+    verify(primary, times(2)).transactionResult(any(TransactionalCallable.class));
+    verify(readonly, times(5)).transactionResult(any(TransactionalCallable.class));
+  }
+
+  @Test public void leavesOutClientsWithInvalidRowHmacs() {
+    jooqContext.update(CLIENTS)
+        .set(CLIENTS.ROW_HMAC, "0000")
+        .where(CLIENTS.ID.eq(clientId))
+        .execute();
+    snapshot.refresh(false);
+
+    assertThat(snapshot.grants(client, secret)).isFalse();
+  }
+
+  @Test public void leavesOutSecretsWithInvalidRowHmacs() {
+    jooqContext.update(SECRETS)
+        .set(SECRETS.ROW_HMAC, "0000")
+        .where(SECRETS.ID.eq(secret.getId()))
+        .execute();
+    snapshot.refresh(false);
+
+    assertThat(snapshot.grants(client, secret)).isFalse();
+  }
+
+  @Test public void doesNotGrantClientsRenamedSinceLoading() {
+    snapshot.refresh(false);
+    // Renamed without changing updatedat, so the clients table is not reloaded
+    jooqContext.update(CLIENTS)
+        .set(CLIENTS.NAME, "renamed")
+        .where(CLIENTS.ID.eq(clientId))
+        .execute();
+    Client renamed = clientDAOFactory.readwrite().getClientById(clientId).get();
+
+    assertThat(snapshot.grants(renamed, secret)).isFalse();
+  }
+
+  @Test public void leavesOutRowsWithInvalidRowHmacs() {
+    jooqContext.update(MEMBERSHIPS)
+        .set(MEMBERSHIPS.ROW_HMAC, "0000")
+        .where(MEMBERSHIPS.CLIENTID.eq(clientId))
+        .execute();
+    snapshot.refresh(false);
+
+    assertThat(snapshot.grants(client, secret)).isFalse();
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.api.model.Client;
+import keywhiz.api.model.Secret;
+import keywhiz.service.crypto.ParallelRowVerifier;
+import keywhiz.service.crypto.PlaintextCache;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
+import keywhiz.service.daos.GroupDAO.GroupDAOFactory;
+import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static keywhiz.jooq.tables.Changes.CHANGES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(KeywhizTestRunner.class)
+public class ChangeLogPollerTest {
+  @Inject DSLContext jooqContext;
+  @Inject RowHmacGenerator rowHmacGenerator;
+
+  @Inject SecretDAOFactory secretDAOFactory;
+  @Inject ClientDAOFactory clientDAOFactory;
+  @Inject GroupDAOFactory groupDAOFactory;
+  @Inject AclDAO.AclDAOFactory aclDAOFactory;
+
+  PlaintextCache plaintextCache;
+  AclSnapshot aclSnapshot;
+  ClientCache clientCache;
+  ChangeLogPoller poller;
+  AtomicInteger decryptions;
+
+  long clientId, groupId;
+  Client client;
+  Secret secret;
+
+  @Before public void setUp() {
+    plaintextCache = new PlaintextCache(1024, Duration.ofMinutes(1), null);
+    aclSnapshot = new AclSnapshot(jooqContext, jooqContext, rowHmacGenerator,
+        ParallelRowVerifier.serial(), true, Duration.ofMinutes(1), Duration.ofMinutes(3),
+        new MetricRegistry());
+    clientCache = new ClientCache(100, Duration.ofMinutes(1), null);
+    poller = new ChangeLogPoller(jooqContext, jooqContext, plaintextCache, aclSnapshot,
+        clientCache, Duration.ofSeconds(1), Duration.ofDays(1), new MetricRegistry());
+    decryptions = new AtomicInteger();
+
+    AclDAO aclDAO = aclDAOFactory.readwrite();
+    clientId = clientDAOFactory.readwrite().createClient("client", "creator", "", null);
+    client = clientDAOFactory.readwrite().getClientById(clientId).get();
+    groupId = groupDAOFactory.readwrite().createGroup("group", "creator", "", ImmutableMap.of());
+    secret = SecretFixtures.using(secretDAOFactory.readwrite()).createSecret("secret", "c2VjcmV0");
+    aclDAO.enrollClient(jooqContext.configuration(), clientId, groupId);
+    aclDAO.allowAccess(jooqContext.configuration(), secret.getId(), groupId);
+
+    aclSnapshot.refresh(false);
+    // Stopped, so that invalidation does not schedule a reload.
+    aclSnapshot.stop();
+  }
+
+  @After public void tearDown() {
+    poller.stop();
+  }
+
+  @Test public void recordsRevocationsButNotGrants() {
+    jooqContext.truncate(CHANGES).execute();
+    AclDAO aclDAO = aclDAOFactory.readwrite();
+    aclDAO.allowAccess(jooqContext.configuration(), secret.getId(), groupId + 1);
+    assertThat(jooqContext.fetchCount(CHANGES)).isZero();
+
+    aclDAO.revokeAccess(jooqContext.configuration(), secret.getId(), groupId);
+    assertThat(jooqContext.fetchOne(CHANGES).getEntitytype()).isEqualTo("GROUP");
+    assertThat(jooqContext.fetchOne(CHANGES).getEntityid()).isEqualTo(groupId);
+  }
+
+  @Test public void recordsChangesAtDatabaseTime() {
+    jooqContext.truncate(CHANGES).execute();
+    long before = ChangeLog.now(jooqContext);
+    ChangeLog.record(jooqContext, ChangeLog.EntityType.SECRET, secret.getId());
+
+    assertThat(jooqContext.fetchOne(CHANGES).getCreatedat())
+        .isBetween(before, ChangeLog.now(jooqContext));
+  }
+
+  @Test public void invalidatesAclSnapshotOnRevocation() {
+    poller.poll();
+    assertThat(aclSnapshot.grants(client, secret)).isTrue();
+
+    ChangeLog.record(jooqContext, ChangeLog.EntityType.GROUP, groupId);
+    poller.poll();
+    assertThat(aclSnapshot.grants(client, secret)).isFalse();
+  }
+
+  @Test public void invalidatesCachedClientOnChange() {
+    poller.poll();
+    ClientDAO clientDAO = clientDAOFactory.readonly();
+    assertThat(clientCache.getClientByName("client", clientDAO::getClientByName)).isPresent();
+
+    ChangeLog.record(jooqContext, ChangeLog.EntityType.CLIENT, clientId);
+    poller.poll();
+    assertThat(clientCache.getClientByName("client", name -> Optional.empty())).isEmpty();
+  }
+
+  @Test public void invalidatesUnknownClientOnCreation() {
+    poller.poll();
+    ClientDAO clientDAO = clientDAOFactory.readonly();
+    assertThat(clientCache.getClientByName("newcomer", clientDAO::getClientByName)).isEmpty();
+
+    // Created through another server's cache
+    long newcomerId = clientDAOFactory.readwrite().createClient("newcomer", "creator", "", null);
+    poller.poll();
+    assertThat(clientCache.getClientByName("newcomer", clientDAO::getClientByName)
+        .map(Client::getId)).contains(newcomerId);
+  }
+
+  @Test public void invalidatesPlaintextOfChangedSecretsOnce() {
+    cachePlaintext();
+    ChangeLog.record(jooqContext, ChangeLog.EntityType.SECRET, secret.getId());
+    poller.poll();
+    cachePlaintext();
+    assertThat(decryptions.get()).isEqualTo(2);
+
+    // Already applied, though not yet settled.
+    poller.poll();
+    cachePlaintext();
+    assertThat(decryptions.get()).isEqualTo(2);
+  }
+
+  @Test public void appliesChangesCommittedOutOfOrder() {
+    long now = ChangeLog.now(jooqContext);
+    insertChange(100, ChangeLog.EntityType.CLIENT, clientId + 1, now);
+    poller.poll();
+
+    cachePlaintext();
+    insertChange(50, ChangeLog.EntityType.SECRET, secret.getId(), now);
+    poller.poll();
+    cachePlaintext();
+    assertThat(decryptions.get()).isEqualTo(2);
+  }
+
+  @Test public void ignoresChangesSettledBeforeStartup() {
+    long settled =
+        ChangeLog.now(jooqContext) - ChangeLogPoller.SETTLE_TIME.getSeconds() - 1;
+    jooqContext.truncate(CHANGES).execute();
+    insertChange(1, ChangeLog.EntityType.GROUP, groupId, settled);
+
+    poller.poll();
+    assertThat(aclSnapshot.grants(client, secret)).isTrue();
+  }
+
+  @Test public void trimsChangesOlderThanRetention() {
+    long now = ChangeLog.now(jooqContext);
+    jooqContext.truncate(CHANGES).execute();
+    insertChange(1, ChangeLog.EntityType.SECRET, 1, now - Duration.ofDays(2).getSeconds());
+    insertChange(2, ChangeLog.EntityType.SECRET, 2, now);
+
+    poller.trim();
+    assertThat(jooqContext.select(CHANGES.ID).from(CHANGES).fetch(CHANGES.ID)).containsOnly(2L);
+  }
+
+  private void cachePlaintext() {
+    plaintextCache.get(secret.getId(), 1, () -> {
+      decryptions.incrementAndGet();
+      return "c2VjcmV0";
+    });
+  }
+
+  private void insertChange(long id, ChangeLog.EntityType type, long entityId, long createdAt) {
+    jooqContext.insertInto(CHANGES)
+        .set(CHANGES.ID, id)
+        .set(CHANGES.ENTITYTYPE, type.name())
+        .set(CHANGES.ENTITYID, entityId)
+        .set(CHANGES.CREATEDAT, createdAt)
+        .execute();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import keywhiz.api.ApiDate;
+import keywhiz.api.model.Client;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientCacheTest {
+  private static final String SPIFFE_ID = "spiffe://example.org/client";
+
+  private final Client client = new Client(1, "client", null, SPIFFE_ID, ApiDate.now(), null,
+      ApiDate.now(), null, null, null, true, false);
+
+  private ClientCache cache;
+  private AtomicInteger lookups;
+
+  @Before public void setUp() {
+    cache = new ClientCache(100, Duration.ofMinutes(1), null);
+    lookups = new AtomicInteger();
+  }
+
+  @Test public void cachesClientsByNameAndSpiffeId() {
+    assertThat(cache.getClientByName("client", this::lookup)).contains(client);
+    assertThat(cache.getClientByName("client", this::lookup)).contains(client);
+    assertThat(cache.getClientBySpiffeId(URI.create(SPIFFE_ID), this::lookup)).contains(client);
+    assertThat(cache.getClientBySpiffeId(URI.create(SPIFFE_ID), this::lookup)).contains(client);
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  @Test public void cachesUnknownClients() {
+    assertThat(cache.getClientByName("unknown", this::lookup)).isEmpty();
+    assertThat(cache.getClientByName("unknown", this::lookup)).isEmpty();
+    assertThat(lookups.get()).isEqualTo(1);
+  }
+
+  @Test public void invalidatesClient() {
+    cache.getClientByName("client", this::lookup);
+    cache.getClientBySpiffeId(URI.create(SPIFFE_ID), this::lookup);
+
+    cache.invalidate("client", SPIFFE_ID);
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test public void invalidatesClientAndUnknownClientsById() {
+    cache.getClientByName("client", this::lookup);
+    cache.getClientByName("unknown", this::lookup);
+    cache.getClientByName("other", name -> Optional.of(new Client(2, name, null, null,
+        ApiDate.now(), null, ApiDate.now(), null, null, null, true, false)));
+
+    cache.invalidateClient(1);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getClientByName("other", this::lookup)).map(Client::getId).contains(2L);
+  }
+
+  @Test public void doesNotCacheLookupsRacingWithInvalidation() {
+    cache.getClientByName("client", name -> {
+      cache.invalidate(name, null);
+      return lookup(name);
+    });
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test public void disabledCacheAlwaysLooksUp() {
+    cache = ClientCache.disabled();
+    cache.getClientByName("client", this::lookup);
+    cache.getClientByName("client", this::lookup);
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  private Optional<Client> lookup(Object key) {
+    lookups.incrementAndGet();
+    if (key.equals("client") || key.equals(URI.create(SPIFFE_ID))) {
+      return Optional.of(client);
+    }
+    return Optional.empty();
+  }
+}
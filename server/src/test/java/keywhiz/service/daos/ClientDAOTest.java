@@ -42,6 +42,7 @@ import static org.mockito.Mockito.when;
 public class ClientDAOTest {
   @Inject DSLContext jooqContext;
   @Inject ClientDAOFactory clientDAOFactory;
+  @Inject LastSeenAggregator lastSeenAggregator;
 
   Client client1, client2;
   ClientDAO clientDAO;
@@ -131,6 +132,10 @@ public class ClientDAOTest {
     ApiDate now = ApiDate.now();
     clientDAO.sawClient(client1, principal);
 
+    // Nothing written until the aggregator flushes
+    assertThat(clientDAO.getClientByName(client1.getName()).get().getLastSeen()).isNull();
+    lastSeenAggregator.flush();
+
     // reload clients from db, as sawClient doesn't update in-memory object
     Client client1v2 = clientDAO.getClientByName(client1.getName()).get();
     Client client2v2 = clientDAO.getClientByName(client2.getName()).get();
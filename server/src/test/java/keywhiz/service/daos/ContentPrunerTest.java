@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import javax.inject.Inject;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
+import org.jooq.DSLContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static keywhiz.jooq.tables.Changes.CHANGES;
+import static keywhiz.jooq.tables.Secrets.SECRETS;
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(KeywhizTestRunner.class)
+public class ContentPrunerTest {
+  private static final int CUTOFF_ITEMS = 10;
+  private static final int CUTOFF_DAYS = 15;
+
+  @Inject DSLContext jooqContext;
+  @Inject SecretContentDAOFactory secretContentDAOFactory;
+
+  ContentPruner pruner;
+  SecretContentDAO secretContentDAO;
+  long now;
+
+  @Before public void setUp() {
+    pruner = new ContentPruner(jooqContext, CUTOFF_ITEMS, CUTOFF_DAYS, Duration.ofSeconds(1), 4,
+        0, 1000, new MetricRegistry());
+    secretContentDAO = secretContentDAOFactory.readwrite();
+    now = OffsetDateTime.now().toEpochSecond();
+  }
+
+  @Test public void prunesAllButMostRecentItems() {
+    long[] ids = createContents(666, "secretForPruneTest1", 15, 0);
+    long[] otherIds = createContents(667, "secretForPruneTest2", 3, 0);
+
+    // Deleted in batches of 4 contents
+    assertThat(pruner.prune(List.of(666L, 667L))).isEqualTo(ids.length - CUTOFF_ITEMS - 1);
+
+    // Last ten secrets in series should have survived (plus the current one)
+    for (int i = 0; i < (ids.length - CUTOFF_ITEMS - 1); i++) {
+      assertThat(secretContentDAO.getSecretContentById(ids[i])).isEmpty();
+    }
+    for (int i = (ids.length - CUTOFF_ITEMS - 1); i < ids.length; i++) {
+      assertThat(secretContentDAO.getSecretContentById(ids[i])).isPresent();
+    }
+
+    // Other secrets contents left intact
+    for (long id : otherIds) {
+      assertThat(secretContentDAO.getSecretContentById(id)).isPresent();
+    }
+  }
+
+  @Test public void pruneIgnoresRecentContents() {
+    long[] ids = createContents(666, "secretForPruneTest1", 15, now);
+
+    assertThat(pruner.prune(List.of(666L))).isZero();
+    for (long id : ids) {
+      assertThat(secretContentDAO.getSecretContentById(id)).isPresent();
+    }
+  }
+
+  @Test public void pruneRecordsDeletedContents() {
+    long[] ids = createContents(666, "secretForPruneTest1", 12, 0);
+    jooqContext.truncate(CHANGES).execute();
+
+    pruner.prune(List.of(666L));
+    assertThat(jooqContext.select(CHANGES.ENTITYID).from(CHANGES).fetch(CHANGES.ENTITYID))
+        .containsExactly(ids[0]);
+  }
+
+  @Test public void prunesQueuedSecretsOnce() {
+    long[] ids = createContents(666, "secretForPruneTest1", 15, 0);
+    createContents(667, "secretForPruneTest2", 15, 0);
+
+    pruner.enqueue(666);
+    pruner.enqueue(666);
+    pruner.pruneQueued();
+
+    assertThat(secretContentDAO.getSecretContentById(ids[0])).isEmpty();
+    assertThat(contentCount(666)).isEqualTo(CUTOFF_ITEMS + 1);
+    assertThat(contentCount(667)).isEqualTo(15);
+  }
+
+  @Test public void disabledPrunerQueuesNothing() {
+    createContents(666, "secretForPruneTest1", 15, 0);
+
+    ContentPruner disabled = ContentPruner.disabled();
+    disabled.enqueue(666);
+    disabled.pruneQueued();
+    assertThat(contentCount(666)).isEqualTo(15);
+  }
+
+  /** Creates a secret with contents created at the given time, the last of which is current. */
+  private long[] createContents(long secretId, String name, int count, long createdAt) {
+    jooqContext.insertInto(SECRETS, SECRETS.ID, SECRETS.NAME, SECRETS.CREATEDAT, SECRETS.UPDATEDAT)
+        .values(secretId, name, now, now)
+        .execute();
+
+    long[] ids = new long[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = secretContentDAO.createSecretContent(secretId, "encrypted", "checksum", "creator",
+          ImmutableMap.of(), 1136214245, createdAt + i);
+    }
+
+    jooqContext.update(SECRETS)
+        .set(SECRETS.CURRENT, ids[count - 1])
+        .where(SECRETS.ID.eq(secretId))
+        .execute();
+    return ids;
+  }
+
+  private int contentCount(long secretId) {
+    return jooqContext.fetchCount(SECRETS_CONTENT, SECRETS_CONTENT.SECRETID.eq(secretId));
+  }
+}
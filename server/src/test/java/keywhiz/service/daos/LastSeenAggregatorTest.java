@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.MetricRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import javax.inject.Inject;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.jooq.tables.records.ClientsRecord;
+import keywhiz.service.daos.ClientDAO.ClientDAOFactory;
+import org.jooq.DSLContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.time.Instant.EPOCH;
+import static keywhiz.jooq.tables.Clients.CLIENTS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(KeywhizTestRunner.class)
+public class LastSeenAggregatorTest {
+  @Inject DSLContext jooqContext;
+  @Inject ClientDAOFactory clientDAOFactory;
+
+  LastSeenAggregator aggregator;
+  long client1, client2, client3;
+
+  @Before public void setUp() {
+    aggregator = new LastSeenAggregator(jooqContext, Duration.ofSeconds(1), new MetricRegistry());
+
+    ClientDAO clientDAO = clientDAOFactory.readwrite();
+    client1 = clientDAO.createClient("client1", "creator", "", null);
+    client2 = clientDAO.createClient("client2", "creator", "", null);
+    client3 = clientDAO.createClient("client3", "creator", "", null);
+  }
+
+  @Test public void writesLatestSightingOfEachClient() {
+    aggregator.record(client1, Instant.ofEpochSecond(200), Instant.ofEpochSecond(1000));
+    aggregator.record(client1, Instant.ofEpochSecond(100), Instant.ofEpochSecond(2000));
+    aggregator.record(client2, Instant.ofEpochSecond(300), EPOCH);
+    aggregator.flush();
+
+    assertThat(client(client1).getLastseen()).isEqualTo(200);
+    assertThat(client(client1).getExpiration()).isEqualTo(2000);
+    assertThat(client(client2).getLastseen()).isEqualTo(300);
+    assertThat(client(client2).getExpiration()).isEqualTo(0);
+    assertThat(client(client3).getLastseen()).isNull();
+    assertThat(client(client3).getExpiration()).isNull();
+  }
+
+  @Test public void neverMovesLastSeenBackwards() {
+    jooqContext.update(CLIENTS).set(CLIENTS.LASTSEEN, 500L).where(CLIENTS.ID.eq(client1)).execute();
+
+    aggregator.record(client1, Instant.ofEpochSecond(400), EPOCH);
+    aggregator.flush();
+    assertThat(client(client1).getLastseen()).isEqualTo(500);
+  }
+
+  @Test public void flushWritesPendingSightingsOnce() {
+    aggregator.record(client1, Instant.ofEpochSecond(200), EPOCH);
+    aggregator.flush();
+
+    jooqContext.update(CLIENTS).set(CLIENTS.LASTSEEN, 100L).where(CLIENTS.ID.eq(client1)).execute();
+    aggregator.flush();
+    assertThat(client(client1).getLastseen()).isEqualTo(100);
+  }
+
+  private ClientsRecord client(long id) {
+    return jooqContext.fetchOne(CLIENTS, CLIENTS.ID.eq(id));
+  }
+}
@@ -1,23 +1,32 @@
 package keywhiz.service.daos;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
 import keywhiz.KeywhizTestRunner;
 import keywhiz.api.automation.v2.CreateSecretRequestV2;
+import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecretWithGroups;
 import keywhiz.api.model.SanitizedSecretWithGroupsListAndCursor;
+import keywhiz.api.model.Secret;
 import keywhiz.api.model.SecretRetrievalCursor;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.SecretTransformer;
 import org.jooq.DSLContext;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @RunWith(KeywhizTestRunner.class)
 public class SecretControllerTest {
@@ -37,6 +46,11 @@ public class SecretControllerTest {
   @Inject SecretSeriesDAO.SecretSeriesDAOFactory secretSeriesDAOFactory;
   @Inject SecretContentDAO.SecretContentDAOFactory secretContentDAOFactory;
   @Inject SecretController secretController;
+  @Inject SecretTransformer secretTransformer;
+  @Inject ContentCryptographer cryptographer;
+  @Inject SecretDAO.SecretDAOFactory secretDAOFactory;
+  @Inject AclDAO.AclDAOFactory aclDAOFactory;
+  @Inject GroupDAO.GroupDAOFactory groupDAOFactory;
 
   SecretSeriesDAO secretSeriesDAO;
   SecretContentDAO secretContentDAO;
@@ -146,6 +160,44 @@ public class SecretControllerTest {
     return allRetrievedSecrets;
   }
 
+  @Test public void streamSanitizedSecretsWithGroups() {
+    long groupId = groupDAOFactory.readwrite().createGroup("streamedGroup", "creator", "",
+        ImmutableMap.of());
+    aclDAOFactory.readwrite().allowAccess(jooqContext.configuration(), firstId, groupId);
+
+    List<SanitizedSecretWithGroups> streamed = new ArrayList<>();
+    secretController.streamSanitizedSecretsWithGroups(null, streamed::add);
+
+    assertThat(streamed).isEqualTo(secretController.getSanitizedSecretsWithGroups(null));
+    assertThat(streamed).filteredOn(s -> s.secret().id() == firstId)
+        .flatExtracting(SanitizedSecretWithGroups::groups)
+        .extracting(Group::getName)
+        .containsExactly("streamedGroup");
+    assertThat(streamed).filteredOn(s -> s.secret().id() == secondId)
+        .flatExtracting(SanitizedSecretWithGroups::groups)
+        .isEmpty();
+  }
+
+  @Test public void getSecretsByNameEnforcesMaxBatchSize() {
+    MetricRegistry metrics = new MetricRegistry();
+    SecretController controller = new SecretController(secretTransformer, cryptographer,
+        secretDAOFactory.readwrite(), aclDAOFactory.readwrite(), 2, metrics);
+
+    assertThat(controller.getSecretsByName(List.of("expiringFirst", "expiringSecond")))
+        .extracting(Secret::getName)
+        .containsOnly("expiringFirst", "expiringSecond");
+    assertThatThrownBy(() -> controller.getSecretsByName(
+        List.of("expiringFirst", "expiringSecond", "expiringThird")))
+        .isInstanceOf(BadRequestException.class);
+
+    assertThat(metrics.meter(name(SecretController.class, "batch-queries")).getCount())
+        .isEqualTo(1);
+    assertThat(metrics.meter(name(SecretController.class, "batches-rejected")).getCount())
+        .isEqualTo(1);
+    assertThat(metrics.histogram(name(SecretController.class, "batch-size")).getSnapshot()
+        .getMax()).isEqualTo(2);
+  }
+
   private long createSecret(CreateSecretRequestV2 createSecretRequest) {
     long seriesId = secretSeriesDAO.createSecretSeries(createSecretRequest.name(),
         "creator", createSecretRequest.description(), createSecretRequest.type(), null, now);
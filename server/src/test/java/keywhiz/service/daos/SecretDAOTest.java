@@ -19,6 +19,7 @@ package keywhiz.service.daos;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import keywhiz.KeywhizTestRunner;
 import keywhiz.api.ApiDate;
 import keywhiz.api.automation.v2.PartialUpdateSecretRequestV2;
@@ -32,8 +33,11 @@ import keywhiz.service.crypto.RowHmacGenerator;
 import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
 import org.joda.time.DateTime;
 import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
 import org.jooq.Table;
 import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,8 +46,11 @@ import javax.inject.Inject;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
@@ -468,6 +475,76 @@ public class SecretDAOTest {
     assertThat(secretDAO.getSecrets(null, null, null, null, null)).containsOnly(secret1, secret2b);
   }
 
+  @Test public void getSecretsFetchesContentsInSameQuery() {
+    for (int i = 0; i < 5; i++) {
+      secretDAO.createSecret("secret_getSecretsFetchesContentsInSameQuery_" + i, "encryptedShhh",
+          cryptographer.computeHmac("encryptedShhh".getBytes(UTF_8), "hmackey"), "creator",
+          ImmutableMap.of(), 0, "", null, null);
+    }
+
+    AtomicInteger queries = new AtomicInteger();
+    SecretDAO countingSecretDAO = secretDAOFactory.using(jooqContext.configuration().derive(
+        new DefaultExecuteListenerProvider(new DefaultExecuteListener() {
+          @Override public void executeStart(ExecuteContext ctx) {
+            queries.incrementAndGet();
+          }
+        })));
+
+    assertThat(countingSecretDAO.getSecrets(null, null, null, null, null)).hasSize(7);
+    assertThat(queries.getAndSet(0)).isEqualTo(1);
+
+    assertThat(countingSecretDAO.getSecretsBatched(0, 10, false)).hasSize(7);
+    assertThat(queries.getAndSet(0)).isEqualTo(1);
+
+    assertThat(countingSecretDAO.getSecretsByName(List.of(series1.name(), series2.name(),
+        "secret_getSecretsFetchesContentsInSameQuery_0"))).hasSize(3);
+    assertThat(queries.get()).isEqualTo(1);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void getSecretsVerifiesContentRowHmacs() {
+    jooqContext.update(SECRETS_CONTENT)
+        .set(SECRETS_CONTENT.ROW_HMAC, "invalid")
+        .where(SECRETS_CONTENT.ID.eq(content1.id()))
+        .execute();
+
+    secretDAO.getSecrets(null, null, null, null, null);
+  }
+
+  @Test public void getSecretsBatchedAfterPagesThroughAllSecrets() {
+    for (int i = 0; i < 3; i++) {
+      secretDAO.createSecret("secret_getSecretsBatchedAfter_" + i, "encryptedShhh",
+          cryptographer.computeHmac("encryptedShhh".getBytes(UTF_8), "hmackey"), "creator",
+          ImmutableMap.of(), 0, "", null, null);
+    }
+    // Secrets created in the same second are ordered by id
+    List<Long> oldestFirst = secretDAO.getSecrets(null, null, null, null, null).stream()
+        .map(SecretSeriesAndContent::series)
+        .sorted(Comparator.comparing((SecretSeries s) -> s.createdAt().toEpochSecond())
+            .thenComparing(SecretSeries::id))
+        .map(SecretSeries::id)
+        .collect(toList());
+    assertThat(oldestFirst).hasSize(5);
+
+    for (boolean newestFirst : List.of(false, true)) {
+      List<Long> paged = new ArrayList<>();
+      Long cursorCreatedAt = null;
+      Long cursorId = null;
+      List<SecretSeriesAndContent> page;
+      do {
+        page = secretDAO.getSecretsBatchedAfter(cursorCreatedAt, cursorId, 2, newestFirst);
+        for (SecretSeriesAndContent secret : page) {
+          paged.add(secret.series().id());
+          cursorCreatedAt = secret.series().createdAt().toEpochSecond();
+          cursorId = secret.series().id();
+        }
+      } while (!page.isEmpty());
+
+      assertThat(paged).containsExactlyElementsOf(
+          newestFirst ? Lists.reverse(oldestFirst) : oldestFirst);
+    }
+  }
+
   @Test public void getSecretsByNameOnly() {
     assertThat(secretDAO.getSecretsNameOnly()).containsOnly(
         new SimpleEntry<>(series1.id(), series1.name()),
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.daos;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Result;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Status;
+import keywhiz.api.automation.v2.CreateSecretRequestV2;
+import keywhiz.api.model.SecretSeriesAndContent;
+import keywhiz.log.SimpleLogger;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.CryptoFixtures;
+import keywhiz.service.crypto.PlaintextCache;
+import keywhiz.service.daos.AclDAO.AclDAOFactory;
+import keywhiz.service.daos.GroupDAO.GroupDAOFactory;
+import keywhiz.service.daos.SecretContentDAO.SecretContentDAOFactory;
+import keywhiz.service.daos.SecretDAO.SecretDAOFactory;
+import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static keywhiz.jooq.tables.Accessgrants.ACCESSGRANTS;
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@RunWith(KeywhizTestRunner.class)
+public class SecretImporterTest {
+  @Inject DSLContext jooqContext;
+  @Inject SecretSeriesDAOFactory secretSeriesDAOFactory;
+  @Inject SecretContentDAOFactory secretContentDAOFactory;
+  @Inject SecretDAOFactory secretDAOFactory;
+  @Inject GroupDAOFactory groupDAOFactory;
+  @Inject AclDAOFactory aclDAOFactory;
+
+  private static final ContentCryptographer cryptographer = CryptoFixtures.contentCryptographer();
+
+  SecretImporter importer;
+  SecretDAO secretDAO;
+
+  @Before public void setUp() {
+    importer = new SecretImporter(jooqContext, secretSeriesDAOFactory, secretContentDAOFactory,
+        aclDAOFactory, cryptographer, PlaintextCache.disabled(),
+        ContentPruner.disabled(), 2, 1000, new MetricRegistry());
+    secretDAO = secretDAOFactory.readwrite();
+  }
+
+  @After public void tearDown() {
+    importer.stop();
+  }
+
+  @Test public void createsAndUpdatesSecretsAcrossChunks() {
+    long existingId =
+        SecretFixtures.using(secretDAO).createSecret("secret0", content("old")).getId();
+
+    List<CreateSecretRequestV2> requests = new ArrayList<>();
+    for (int i = 0; i <= SecretImporter.CHUNK_SIZE; i++) {
+      requests.add(request("secret" + i).content(content("content" + i))
+          .metadata(ImmutableMap.of("index", Integer.toString(i)))
+          .build());
+    }
+    List<Result> results = importer.importSecrets(requests, "creator", new SimpleLogger());
+
+    assertThat(results).hasSize(SecretImporter.CHUNK_SIZE + 1);
+    assertThat(results.get(0)).isEqualTo(Result.updated("secret0"));
+    assertThat(results.subList(1, results.size())).extracting(Result::status)
+        .containsOnly(Status.CREATED);
+
+    // Reading back verifies row HMACs, and that each version is current
+    for (int i = 0; i <= SecretImporter.CHUNK_SIZE; i++) {
+      SecretSeriesAndContent secret = secretDAO.getSecretByName("secret" + i).get();
+      assertThat(cryptographer.decrypt(secret.content().encryptedContent()))
+          .isEqualTo(content("content" + i));
+      assertThat(secret.content().metadata()).containsEntry("index", Integer.toString(i));
+    }
+    assertThat(jooqContext.fetchCount(SECRETS_CONTENT, SECRETS_CONTENT.SECRETID.eq(existingId)))
+        .isEqualTo(2);
+  }
+
+  @Test public void grantsExistingGroups() {
+    GroupDAO groupDAO = groupDAOFactory.readwrite();
+    long group1 = groupDAO.createGroup("group1", "creator", "", ImmutableMap.of());
+    long group2 = groupDAO.createGroup("group2", "creator", "", ImmutableMap.of());
+    long secretId = SecretFixtures.using(secretDAO).createSecret("secret", content("old")).getId();
+    aclDAOFactory.readwrite().allowAccess(jooqContext.configuration(), secretId, group1);
+
+    importer.importSecrets(List.of(
+        request("secret").groups("group1", "group2", "non-existent").build(),
+        request("other").groups("group2").build()), "creator", new SimpleLogger());
+
+    long otherId = secretDAO.getSecretByName("other").get().series().id();
+    assertThat(jooqContext.select(ACCESSGRANTS.SECRETID, ACCESSGRANTS.GROUPID)
+        .from(ACCESSGRANTS)
+        .fetch()
+        .map(r -> tuple(r.value1(), r.value2())))
+        .containsOnly(tuple(secretId, group1), tuple(secretId, group2), tuple(otherId, group2));
+  }
+
+  @Test public void failsInvalidSecretsAlone() {
+    List<Result> results = importer.importSecrets(List.of(
+        request(".hidden").build(),
+        request("valid").build(),
+        request("valid").build(),
+        // Rejected by the database, failing the chunk
+        request("long-type").type("x".repeat(21)).build(),
+        request("also-valid").build()), "creator", new SimpleLogger());
+
+    assertThat(results).extracting(Result::name, Result::status).containsExactly(
+        tuple(".hidden", Status.FAILED),
+        tuple("valid", Status.CREATED),
+        tuple("valid", Status.FAILED),
+        tuple("long-type", Status.FAILED),
+        tuple("also-valid", Status.CREATED));
+    assertThat(results.get(0).error()).contains("cannot begin with a period");
+    assertThat(secretDAO.getSecretByName("long-type")).isEmpty();
+    assertThat(secretDAO.getSecretByName("also-valid")).isPresent();
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void rejectsTooManySecrets() {
+    importer = new SecretImporter(jooqContext, secretSeriesDAOFactory, secretContentDAOFactory,
+        aclDAOFactory, cryptographer, PlaintextCache.disabled(),
+        ContentPruner.disabled(), 2, 1, new MetricRegistry());
+    importer.importSecrets(List.of(request("secret1").build(), request("secret2").build()),
+        "creator", new SimpleLogger());
+  }
+
+  private static CreateSecretRequestV2.Builder request(String name) {
+    return CreateSecretRequestV2.builder().name(name).content(content(name));
+  }
+
+  private static String content(String plaintext) {
+    return Base64.getEncoder().encodeToString(plaintext.getBytes(UTF_8));
+  }
+}
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableMap;
 import keywhiz.KeywhizTestRunner;
 import keywhiz.api.ApiDate;
 import keywhiz.api.model.SecretSeries;
+import keywhiz.api.model.SecretSeriesAndContent;
 import keywhiz.service.daos.SecretSeriesDAO.SecretSeriesDAOFactory;
 import org.jooq.DSLContext;
 import org.junit.Before;
@@ -29,11 +30,13 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
+import static java.util.stream.Collectors.toList;
 import static keywhiz.jooq.tables.Secrets.SECRETS;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -261,6 +264,36 @@ public class SecretSeriesDAOTest {
         .isEmpty();
   }
 
+  @Test public void getSecretSeriesAndContentsPageContinuesAfterGivenSeries() {
+    // All have the same expiry, so pages must continue by name
+    createPagedSecrets(5);
+
+    List<List<SecretSeriesAndContent>> pages = new ArrayList<>();
+    SecretSeriesAndContent last = null;
+    List<SecretSeriesAndContent> page;
+    do {
+      page = secretSeriesDAO.getSecretSeriesAndContentsPage(null, null, last, 2, secretContentDAO);
+      pages.add(page);
+      last = page.isEmpty() ? null : page.get(page.size() - 1);
+    } while (page.size() == 2);
+
+    assertThat(pages.subList(0, pages.size() - 1)).allMatch(p -> p.size() == 2);
+    assertThat(pages.stream().flatMap(List::stream).collect(toList()))
+        .isEqualTo(secretSeriesDAO.getSecretSeriesAndContents(null, null, null, null, null,
+            secretContentDAO));
+  }
+
+  private void createPagedSecrets(int count) {
+    long now = OffsetDateTime.now().toEpochSecond();
+    for (int i = 0; i < count; i++) {
+      long id = secretSeriesDAO.createSecretSeries("pagedSecret" + i, "creator", "desc", null,
+          ImmutableMap.of(), now);
+      long contentId = secretContentDAO.createSecretContent(id, "blah", "checksum", "creator",
+          ImmutableMap.of(), 0, now);
+      secretSeriesDAO.setCurrentVersion(id, contentId, "creator", now);
+    }
+  }
+
   private int tableSize() {
     return jooqContext.fetchCount(SECRETS);
   }
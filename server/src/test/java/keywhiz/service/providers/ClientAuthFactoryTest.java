@@ -192,6 +192,16 @@ public class ClientAuthFactoryTest {
     assertThat(factory.provide(request, httpServletRequest)).isEqualTo(client);
   }
 
+  @Test public void returnsClientForRepeatedXfccHeader() {
+    when(httpServletRequest.getLocalPort()).thenReturn(xfccAllowedPort);
+    when(request.getRequestHeader(ClientAuthFactory.XFCC_HEADER_NAME)).thenReturn(
+        List.of(xfccHeader));
+    when(securityContext.getUserPrincipal()).thenReturn(xfccPrincipal);
+
+    assertThat(factory.provide(request, httpServletRequest)).isEqualTo(client);
+    assertThat(factory.provide(request, httpServletRequest)).isEqualTo(client);
+  }
+
   @Test(expected = NotAuthorizedException.class)
   public void rejectsXfcc_requesterAuthMissing() {
     when(httpServletRequest.getLocalPort()).thenReturn(xfccAllowedPort);
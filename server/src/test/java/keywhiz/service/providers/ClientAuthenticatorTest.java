@@ -21,6 +21,7 @@ import java.net.URI;
 import java.security.Principal;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Optional;
 import javax.ws.rs.NotAuthorizedException;
 import keywhiz.api.ApiDate;
@@ -29,6 +30,7 @@ import keywhiz.auth.mutualssl.CertificatePrincipal;
 import keywhiz.auth.mutualssl.SimplePrincipal;
 import keywhiz.service.config.ClientAuthConfig;
 import keywhiz.service.config.ClientAuthTypeConfig;
+import keywhiz.service.daos.ClientCache;
 import keywhiz.service.daos.ClientDAO;
 import org.junit.Before;
 import org.junit.Rule;
@@ -164,6 +166,7 @@ public class ClientAuthenticatorTest {
   @Mock ClientAuthConfig clientAuthConfig;
 
   @Mock ClientDAO clientDAO;
+  @Mock ClientDAO readWriteClientDAO;
 
   ClientAuthenticator authenticator;
 
@@ -176,7 +179,8 @@ public class ClientAuthenticatorTest {
     certPrincipal = new CertificatePrincipal(clientCert.getSubjectDN().toString(),
         new X509Certificate[] {clientCert});
 
-    authenticator = new ClientAuthenticator(clientDAO, clientDAO, clientAuthConfig);
+    authenticator = new ClientAuthenticator(clientDAO, clientDAO, clientAuthConfig,
+        ClientCache.disabled());
 
     when(clientDAO.getClientByName(clientName)).thenReturn(Optional.of(client));
     when(clientDAO.getClientBySpiffeId(clientSpiffe)).thenReturn(Optional.of(client));
@@ -205,6 +209,22 @@ public class ClientAuthenticatorTest {
     assertThat(authenticator.authenticate(SimplePrincipal.of("CN=disabled"), true)).isEmpty();
   }
 
+  @Test public void rejectsDisabledClientsMissingFromReadonlyDatabase() {
+    Client disabledClient =
+        new Client(1, "disabled", null, null, null, null, null, null, null, null,
+            false, false
+            /* disabled */);
+    when(clientDAO.getClientByName("disabled")).thenReturn(Optional.empty());
+    when(readWriteClientDAO.getClientByName("disabled")).thenReturn(Optional.of(disabledClient));
+    authenticator = new ClientAuthenticator(readWriteClientDAO, clientDAO, clientAuthConfig,
+        ClientCache.disabled());
+
+    Principal principal = SimplePrincipal.of("CN=disabled");
+    assertThat(authenticator.authenticate(principal, true)).isEmpty();
+    verify(readWriteClientDAO).sawClient(disabledClient, principal);
+    verify(readWriteClientDAO, never()).createClient(anyString(), anyString(), anyString(), any());
+  }
+
   @Test public void createsDbRecordForNewClient_whenConfigured() {
     ApiDate now = ApiDate.now();
     Client newClient =
@@ -243,6 +263,20 @@ public class ClientAuthenticatorTest {
     verify(clientDAO, never()).createClient(anyString(), anyString(), anyString(), any());
   }
 
+  @Test public void cachesClientLookups() {
+    authenticator = new ClientAuthenticator(clientDAO, clientDAO, clientAuthConfig,
+        new ClientCache(100, Duration.ofMinutes(1), null));
+
+    assertThat(authenticator.authenticate(certPrincipal, false)).contains(client);
+    assertThat(authenticator.authenticate(certPrincipal, false)).contains(client);
+    assertThat(authenticator.authenticate(SimplePrincipal.of("CN=unknown"), false)).isEmpty();
+    assertThat(authenticator.authenticate(SimplePrincipal.of("CN=unknown"), false)).isEmpty();
+
+    verify(clientDAO, times(1)).getClientByName(clientName);
+    verify(clientDAO, times(1)).getClientBySpiffeId(clientSpiffe);
+    verify(clientDAO, times(1)).getClientByName("unknown");
+  }
+
   @Test public void updatesClientLastSeen() {
     assertThat(authenticator.authenticate(simplePrincipal, true)).isPresent();
     verify(clientDAO, times(1)).sawClient(any(), eq(simplePrincipal));
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package keywhiz.service.providers;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import keywhiz.auth.mutualssl.SimplePrincipal;
+import keywhiz.service.providers.XfccCertificateCache.ParsedCertificate;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class XfccCertificateCacheTest {
+  private MetricRegistry metrics;
+  private XfccCertificateCache cache;
+  private AtomicInteger parses;
+
+  @Before public void setUp() {
+    metrics = new MetricRegistry();
+    cache = new XfccCertificateCache(2, metrics);
+    parses = new AtomicInteger();
+  }
+
+  @Test public void parsesEachCertificateOnce() {
+    ParsedCertificate first = cache.get("cert1", this::parse).get();
+    ParsedCertificate second = cache.get("cert1", this::parse).get();
+
+    assertThat(second).isSameAs(first);
+    assertThat(first.clientName).contains("cert1");
+    assertThat(first.spiffeId).isEmpty();
+    assertThat(parses.get()).isEqualTo(1);
+    assertThat(gauge("hits")).isEqualTo(1L);
+  }
+
+  @Test public void doesNotCacheInvalidCertificates() {
+    assertThat(cache.get("invalid", value -> {
+      parses.incrementAndGet();
+      return Optional.empty();
+    })).isEmpty();
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test public void boundedBySize() {
+    cache.get("cert1", this::parse);
+    cache.get("cert2", this::parse);
+    cache.get("cert3", this::parse);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test public void zeroEntriesDisablesCaching() {
+    cache = new XfccCertificateCache(0, null);
+    cache.get("cert1", this::parse);
+    cache.get("cert1", this::parse);
+    assertThat(parses.get()).isEqualTo(2);
+  }
+
+  private Optional<SimplePrincipal> parse(String value) {
+    parses.incrementAndGet();
+    return Optional.of(SimplePrincipal.of("CN=" + value));
+  }
+
+  private Object gauge(String metric) {
+    return metrics.getGauges().get(name(XfccCertificateCache.class, metric)).getValue();
+  }
+}
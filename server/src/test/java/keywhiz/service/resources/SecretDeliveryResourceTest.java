@@ -24,6 +24,7 @@ import keywhiz.api.model.Client;
 import keywhiz.api.model.SanitizedSecret;
 import keywhiz.api.model.Secret;
 import keywhiz.service.daos.AclDAO;
+import keywhiz.service.daos.AclSnapshot;
 import keywhiz.service.daos.ClientDAO;
 import keywhiz.service.daos.SecretController;
 import org.junit.Before;
@@ -34,6 +35,7 @@ import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class SecretDeliveryResourceTest {
@@ -44,6 +46,7 @@ public class SecretDeliveryResourceTest {
   @Mock SecretController secretController;
   @Mock AclDAO aclDAO;
   @Mock ClientDAO clientDAO;
+  @Mock AclSnapshot aclSnapshot;
   SecretDeliveryResource secretDeliveryResource;
 
   final Client client = new Client(0, "principal", null, null, null, null, null, null, null, null, false,
@@ -54,7 +57,8 @@ public class SecretDeliveryResourceTest {
       null, null, null, null, 0, 1L, NOW, null);
 
   @Before public void setUp() {
-    secretDeliveryResource = new SecretDeliveryResource(secretController, aclDAO, clientDAO);
+    secretDeliveryResource = new SecretDeliveryResource(secretController, aclDAO, clientDAO,
+        aclSnapshot);
   }
 
   @Test public void returnsSecretWhenAllowed() throws Exception {
@@ -72,6 +76,15 @@ public class SecretDeliveryResourceTest {
     assertThat(response).isEqualTo(SecretDeliveryResponse.fromSecret(secret));
   }
 
+  @Test public void returnsSecretGrantedBySnapshotWithoutQueryingAcls() throws Exception {
+    when(aclSnapshot.grants(client, secret)).thenReturn(true);
+    when(secretController.getSecretByName(secret.getName())).thenReturn(Optional.of(secret));
+
+    SecretDeliveryResponse response = secretDeliveryResource.getSecret(secret.getName(), client);
+    assertThat(response).isEqualTo(SecretDeliveryResponse.fromSecret(secret));
+    verifyZeroInteractions(aclDAO);
+  }
+
   @Test public void returnsVersionedSecretWhenAllowed() throws Exception {
     String name = "secret_name";
     Secret versionedSecret = new Secret(2, name, null, () -> "U3BpZGVybWFu", "checksum", NOW, null, NOW,
@@ -16,18 +16,25 @@
 
 package keywhiz.service.resources.admin;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import io.dropwizard.jackson.Jackson;
 import io.dropwizard.jersey.params.LongParam;
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import keywhiz.KeywhizService;
 import keywhiz.api.ApiDate;
 import keywhiz.api.SecretDetailResponse;
 import keywhiz.api.automation.v2.CreateOrUpdateSecretRequestV2;
@@ -36,7 +43,9 @@ import keywhiz.api.automation.v2.PartialUpdateSecretRequestV2;
 import keywhiz.api.model.Client;
 import keywhiz.api.model.Group;
 import keywhiz.api.model.SanitizedSecret;
+import keywhiz.api.model.SanitizedSecretListAndCursor;
 import keywhiz.api.model.Secret;
+import keywhiz.api.model.SecretBatchCursor;
 import keywhiz.auth.User;
 import keywhiz.log.AuditLog;
 import keywhiz.log.SimpleLogger;
@@ -58,6 +67,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -80,24 +90,33 @@ public class SecretsResourceTest {
       "updater", emptyMap, null, null, 1136214245, 1L, NOW, "user");
 
   AuditLog auditLog = new SimpleLogger();
+  ObjectMapper mapper = KeywhizService.customizeObjectMapper(Jackson.newObjectMapper());
 
   SecretsResource resource;
 
   @Before
   public void setUp() {
-    resource = new SecretsResource(secretController, aclDAO, secretDAO, auditLog);
+    resource = new SecretsResource(secretController, aclDAO, secretDAO, auditLog, mapper);
   }
 
   @Test
-  public void listSecrets() {
+  public void listSecrets() throws Exception {
     SanitizedSecret secret1 = SanitizedSecret.of(1, "name1", "desc","checksum", NOW, "user", NOW, "user",
         emptyMap, null, null, 1136214245, 125L, NOW, "user");
     SanitizedSecret secret2 = SanitizedSecret.of(2, "name2", "desc","checksum", NOW, "user", NOW, "user",
         emptyMap, null, null, 1136214245, 250L, NOW, "user");
-    when(secretController.getSanitizedSecrets(null, null)).thenReturn(ImmutableList.of(secret1, secret2));
-
-    List<SanitizedSecret> response = resource.listSecrets(user);
-    assertThat(response).containsOnly(secret1, secret2);
+    doAnswer(invocation -> {
+      Consumer<SanitizedSecret> consumer = invocation.getArgument(2);
+      consumer.accept(secret1);
+      consumer.accept(secret2);
+      return null;
+    }).when(secretController).streamSanitizedSecrets(eq(null), eq(null), any());
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    resource.listSecrets(user).write(output);
+    List<SanitizedSecret> response = mapper.readValue(output.toByteArray(),
+        new TypeReference<List<SanitizedSecret>>() {});
+    assertThat(response).containsExactly(secret1, secret2);
   }
 
   @Test
@@ -120,6 +139,46 @@ public class SecretsResourceTest {
     assertThat(response).containsOnly(secret2);
   }
 
+  @Test
+  public void listSecretsBatchedByCursor() throws Exception {
+    SanitizedSecret secret1 = SanitizedSecret.of(1, "name1", "desc", "checksum", NOW, "user", NOW, "user",
+        emptyMap, null, null, 1136214245, 125L, NOW, "user");
+    SecretBatchCursor cursor = SecretBatchCursor.of(NOW.toEpochSecond(), 1);
+    SanitizedSecretListAndCursor firstBatch =
+        SanitizedSecretListAndCursor.of(ImmutableList.of(secret1), SecretBatchCursor.encode(cursor));
+    SanitizedSecretListAndCursor lastBatch = SanitizedSecretListAndCursor.of(ImmutableList.of(), null);
+    when(secretController.getSecretsBatched(null, 1, false)).thenReturn(firstBatch);
+    when(secretController.getSecretsBatched(cursor, 1, false)).thenReturn(lastBatch);
+
+    SanitizedSecretListAndCursor response = resource.listSecretsBatched(user, null, 1, false);
+    assertThat(response).isEqualTo(firstBatch);
+
+    response = resource.listSecretsBatched(user, response.cursor(), 1, false);
+    assertThat(response).isEqualTo(lastBatch);
+  }
+
+  @Test
+  public void findSecretsBatchedNameOnly() {
+    SanitizedSecret secret1 = SanitizedSecret.of(1, "name1", "desc", "checksum", NOW, "user", NOW, "user",
+        emptyMap, null, null, 1136214245, 125L, NOW, "user");
+    SecretBatchCursor cursor = SecretBatchCursor.of(NOW.toEpochSecond(), 1);
+    when(secretController.getSecretsBatched(0, 1, false)).thenReturn(ImmutableList.of(secret1));
+    when(secretController.getSecretsBatched(null, 1, false)).thenReturn(
+        SanitizedSecretListAndCursor.of(ImmutableList.of(secret1), SecretBatchCursor.encode(cursor)));
+
+    Response response = resource.findSecrets(user, "", "true", 0, 1, false, null);
+    assertThat(response.getEntity()).isEqualTo(ImmutableList.of(SanitizedSecret.of(1, "name1")));
+
+    response = resource.findSecrets(user, "", "true", null, 1, false, null);
+    assertThat(response.getEntity()).isEqualTo(SanitizedSecretListAndCursor.of(
+        ImmutableList.of(SanitizedSecret.of(1, "name1")), SecretBatchCursor.encode(cursor)));
+  }
+
+  @Test(expected = BadRequestException.class)
+  public void listSecretsBatchedRejectsMalformedCursor() {
+    resource.listSecretsBatched(user, "not a cursor", 1, false);
+  }
+
   @Test
   public void createsSecret() throws Exception {
     when(secretController.getSecretById(secret.getId())).thenReturn(Optional.of(secret));
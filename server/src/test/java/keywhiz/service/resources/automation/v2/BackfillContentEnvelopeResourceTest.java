@@ -0,0 +1,112 @@
+package keywhiz.service.resources.automation.v2;
+
+import com.google.common.collect.ImmutableMap;
+import java.security.Provider;
+import java.util.List;
+import javax.inject.Inject;
+import keywhiz.FakeRandom;
+import keywhiz.KeywhizTestRunner;
+import keywhiz.jooq.tables.records.SecretsContentRecord;
+import keywhiz.service.crypto.ContentCryptographer;
+import keywhiz.service.crypto.ContentKeys;
+import keywhiz.service.crypto.CryptoModule.Derivation;
+import keywhiz.service.crypto.CryptoModule.Encryption;
+import keywhiz.service.crypto.DerivedKeyCache;
+import keywhiz.service.crypto.RowHmacGenerator;
+import keywhiz.service.exceptions.ConflictException;
+import org.jooq.DSLContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static keywhiz.jooq.tables.SecretsContent.SECRETS_CONTENT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(KeywhizTestRunner.class)
+public class BackfillContentEnvelopeResourceTest {
+  // Legacy JSON-serialized content, as seeded by DbSeedCommand.
+  private static final String LEGACY_CONTENT =
+      "{\"derivationInfo\":\"Database_Password\",\"content\":\"etQQFqMHQQpGr4aDlj5gDjiABkOb\",\"iv\":\"ia+YixjAEqp9W3JEjaYLvQ\"}";
+
+  @Inject DSLContext jooq;
+  @Inject RowHmacGenerator rowHmacGenerator;
+  @Inject ContentKeys contentKeys;
+  @Inject @Derivation Provider derivationProvider;
+  @Inject @Encryption Provider encryptionProvider;
+  // Configured with the default, legacy JSON, content format
+  @Inject BackfillContentEnvelopeResource legacyResource;
+
+  ContentCryptographer cryptographer;
+  BackfillContentEnvelopeResource resource;
+
+  @Before public void setUp() {
+    cryptographer = new ContentCryptographer(
+        new ContentKeys(contentKeys.baseKey(), ImmutableMap.of(), null, true),
+        derivationProvider, encryptionProvider, FakeRandom.create(),
+        DerivedKeyCache.withDefaults());
+    resource = new BackfillContentEnvelopeResource(jooq, cryptographer, rowHmacGenerator);
+  }
+
+  @Test public void rewritesLegacyRowsWithValidHmac() {
+    insertContent(1, LEGACY_CONTENT, true);
+    insertContent(2, LEGACY_CONTENT, false);
+    String plaintext = cryptographer.decrypt(LEGACY_CONTENT);
+
+    long cursor = resource.backfillContentEnvelope(null, 0L, 100L);
+    assertThat(cursor).isEqualTo(2);
+
+    SecretsContentRecord migrated = fetch(1);
+    assertThat(migrated.getEncryptedContent()).doesNotStartWith("{");
+    assertThat(cryptographer.decrypt(migrated.getEncryptedContent())).isEqualTo(plaintext);
+    assertThat(migrated.getRowHmac()).isEqualTo(rowHmac(1, migrated.getEncryptedContent()));
+
+    assertThat(fetch(2).getEncryptedContent()).isEqualTo(LEGACY_CONTENT);
+
+    // Re-running is a no-op for migrated rows.
+    resource.backfillContentEnvelope(null, 0L, 100L);
+    assertThat(fetch(1).getEncryptedContent()).isEqualTo(migrated.getEncryptedContent());
+  }
+
+  @Test public void pagesOverRowsAlreadyInEnvelopeFormat() {
+    String envelope = cryptographer.toEnvelope(LEGACY_CONTENT);
+    insertContent(1, envelope, true);
+    insertContent(2, LEGACY_CONTENT, true);
+
+    // The envelope row counts towards maxRows, and the cursor resumes after it.
+    long cursor = resource.backfillContentEnvelope(null, 0L, 1L);
+    assertThat(cursor).isEqualTo(1);
+    assertThat(fetch(1).getEncryptedContent()).isEqualTo(envelope);
+    assertThat(fetch(2).getEncryptedContent()).isEqualTo(LEGACY_CONTENT);
+
+    cursor = resource.backfillContentEnvelope(null, cursor, 1L);
+    assertThat(cursor).isEqualTo(2);
+    assertThat(fetch(2).getEncryptedContent()).isEqualTo(envelope);
+  }
+
+  @Test(expected = ConflictException.class)
+  public void refusesUnlessEnvelopesAreWritten() {
+    legacyResource.backfillContentEnvelope(null, 0L, 100L);
+  }
+
+  private void insertContent(long id, String encryptedContent, boolean validRowHmac) {
+    jooq.insertInto(SECRETS_CONTENT)
+        .set(SECRETS_CONTENT.ID, id)
+        .set(SECRETS_CONTENT.SECRETID, 1L)
+        .set(SECRETS_CONTENT.ENCRYPTED_CONTENT, encryptedContent)
+        .set(SECRETS_CONTENT.CONTENT_HMAC, "checksum")
+        .set(SECRETS_CONTENT.CREATEDAT, 0L)
+        .set(SECRETS_CONTENT.UPDATEDAT, 0L)
+        .set(SECRETS_CONTENT.METADATA, "{}")
+        .set(SECRETS_CONTENT.ROW_HMAC, validRowHmac ? rowHmac(id, encryptedContent) : "invalid")
+        .execute();
+  }
+
+  private String rowHmac(long id, String encryptedContent) {
+    return rowHmacGenerator.computeRowHmac(SECRETS_CONTENT.getName(),
+        List.of(encryptedContent, "{}", id));
+  }
+
+  private SecretsContentRecord fetch(long id) {
+    return jooq.fetchOne(SECRETS_CONTENT, SECRETS_CONTENT.ID.eq(id));
+  }
+}
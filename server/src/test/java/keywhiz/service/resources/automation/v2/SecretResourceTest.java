@@ -19,6 +19,10 @@ import keywhiz.KeywhizService;
 import keywhiz.TestClients;
 import keywhiz.api.automation.v2.CreateGroupRequestV2;
 import keywhiz.api.automation.v2.CreateOrUpdateSecretRequestV2;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsRequestV2;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Result;
+import keywhiz.api.automation.v2.CreateOrUpdateSecretsResponseV2.Status;
 import keywhiz.api.automation.v2.CreateSecretRequestV2;
 import keywhiz.api.automation.v2.ModifyGroupsRequestV2;
 import keywhiz.api.automation.v2.PartialUpdateSecretRequestV2;
@@ -48,6 +52,7 @@ import static javax.ws.rs.core.HttpHeaders.LOCATION;
 import static keywhiz.TestClients.clientRequest;
 import static keywhiz.client.KeywhizClient.JSON;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 public class SecretResourceTest {
   private static final ObjectMapper mapper =
@@ -114,6 +119,48 @@ public class SecretResourceTest {
     assertThat(location.getPath()).isEqualTo("/automation/v2/secrets/secret3");
   }
 
+  //---------------------------------------------------------------------------------------
+  // createOrUpdateSecrets
+  //---------------------------------------------------------------------------------------
+
+  @Test public void createOrUpdateSecrets() throws Exception {
+    createGroup("group3a");
+    createOrUpdate(CreateOrUpdateSecretRequestV2.builder()
+        .content(encoder.encodeToString("supa secret3b".getBytes(UTF_8)))
+        .build(), "secret3b");
+
+    CreateOrUpdateSecretsRequestV2 request = CreateOrUpdateSecretsRequestV2.builder()
+        .secrets(
+            CreateSecretRequestV2.builder()
+                .name("secret3a")
+                .content(encoder.encodeToString("supa secret3a".getBytes(UTF_8)))
+                .groups("group3a", "non-existent")
+                .build(),
+            CreateSecretRequestV2.builder()
+                .name("secret3b")
+                .content(encoder.encodeToString("new secret3b".getBytes(UTF_8)))
+                .description("updated")
+                .build(),
+            CreateSecretRequestV2.builder()
+                .name(".secret3c")
+                .content(encoder.encodeToString("supa secret3c".getBytes(UTF_8)))
+                .build())
+        .build();
+    Response httpResponse = createOrUpdateSecrets(request);
+    assertThat(httpResponse.code()).isEqualTo(200);
+
+    CreateOrUpdateSecretsResponseV2 response =
+        mapper.readValue(httpResponse.body().byteStream(), CreateOrUpdateSecretsResponseV2.class);
+    assertThat(response.results()).extracting(Result::name, Result::status).containsExactly(
+        tuple("secret3a", Status.CREATED),
+        tuple("secret3b", Status.UPDATED),
+        tuple(".secret3c", Status.FAILED));
+    assertThat(response.results().get(2).error()).contains("cannot begin with a period");
+
+    assertThat(groupsListing("secret3a")).containsOnly("group3a");
+    assertThat(lookup("secret3b").description()).isEqualTo("updated");
+  }
+
   //---------------------------------------------------------------------------------------
 
   @Ignore
@@ -944,6 +991,13 @@ public class SecretResourceTest {
     return mutualSslClient.newCall(post).execute();
   }
 
+  Response createOrUpdateSecrets(CreateOrUpdateSecretsRequestV2 request) throws IOException {
+    RequestBody body = RequestBody.create(JSON, mapper.writeValueAsString(request));
+    Request post =
+        clientRequest("/automation/v2/secrets/bulk/createorupdate").post(body).build();
+    return mutualSslClient.newCall(post).execute();
+  }
+
   Response backfillExpiration(String name, List<String> passwords) throws IOException {
     RequestBody body = RequestBody.create(JSON, mapper.writeValueAsString(passwords));
     Request post = clientRequest(String.format("/automation/v2/secrets/%s/backfill-expiration", name)).post(body).build();